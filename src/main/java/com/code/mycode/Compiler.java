@@ -1,16 +1,47 @@
 package com.code.mycode;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
 
+import com.code.mycode.compact.CompactTree;
 import com.code.mycode.entities.Entity.AnalysisContext;
+import com.code.mycode.entities.OptimizationLevel;
+import com.code.mycode.entities.PassManager;
 import com.code.mycode.entities.Program;
+import com.code.mycode.interpreter.ClosureCompiler;
+import com.code.mycode.interpreter.Interpreter;
+import com.code.mycode.interpreter.PartialEvaluator;
+import com.code.mycode.interpreter.RuntimeError;
+import com.code.mycode.ir.IrOptimizer;
+import com.code.mycode.ir.IrProgram;
+import com.code.mycode.ir.Lowering;
+import com.code.mycode.jvm.ClassGenerator;
+import com.code.mycode.jvm.CompiledJavaProgram;
+import com.code.mycode.jvm.GeneratedProgram;
 import com.code.mycode.syntax.Parser;
+import com.code.mycode.vm.BytecodeCompiler;
+import com.code.mycode.vm.BytecodeProgram;
+import com.code.mycode.vm.VirtualMachine;
+import com.code.translators.IrToJavaScriptTranslator;
+import com.code.translators.MyCodeToCTranslator;
+import com.code.translators.MyCodeToJavaTranslator;
 import com.code.translators.MyCodeToJavaScriptTranslator;
+import com.code.translators.SourceMapWriter;
 import com.code.util.Log;
+import com.code.util.SourceFile;
 
 /**
  * A MyCode compiler, with a main() method to enable running as a standalone application, and
@@ -24,81 +55,270 @@ public class Compiler {
      */
     private Log log = new Log("MyCode", new PrintWriter(System.err, true));
 
+    /**
+     * How much optimization produceOptimizedSemanticGraph does.
+     */
+    private OptimizationLevel optimizationLevel = OptimizationLevel.O2;
+
+    /**
+     * Whether to log the time taken and node count change of each optimization pass.
+     */
+    private boolean reportingPasses = false;
+
+    /**
+     * Whether produceOptimizedSemanticGraph folds what the program does before reading its
+     * input into precomputed output.
+     */
+    private boolean partiallyEvaluating = false;
+
+    /**
+     * Whether checkSyntax leaves function bodies unparsed until they are first needed.
+     */
+    private boolean parsingLazily = false;
+
+    /**
+     * How many threads checkSyntax parses with.
+     */
+    private int parsingThreads = 1;
+
+    /**
+     * The name of the source being compiled, used in the positions of error messages.
+     */
+    private String sourceName = "<input>";
+
     /**
      * Processes command line arguments and runs the compiler based on the arguments. The command
      * line syntax for running the compiler as an application is:
      * <pre>
-     * java MyCode [option] &lt;basefilename&gt;
+     * java MyCode [-O0|-O1|-O2] [-time-passes] [-partial] [-map] [-lazy] [-parallel] [option] &lt;basefilename&gt;
      * </pre>
      * where &lt;basefilename&gt; is the name of the MyCode source file without the mandatory
-     * <code>.carlos</code> extension. Option is:
+     * <code>.carlos</code> extension. The -O flags select the optimization level (the default is
+     * -O2), -time-passes reports each optimization pass, -partial runs the program as far as it
+     * can without input at compile time, leaving only the rest to the chosen back end, -map
+     * writes a source map (to .js.map) along with the JavaScript of -js or -min, and -lazy parses
+     * function bodies only when they are first needed, so that -syn shows just the signatures of
+     * top-level functions, and -parallel parses large sources with one thread per processor.
+     * Option is:
      * <pre>
      *   -syn: check syntax only, writes to stdout.
+     *   -csyn: check syntax only, into a compact tree, writes it to stdout.
      *   -sem: check static semantics only, writes semantic graph to stdout.
      *   -opt: stop after optimizing the semantic graph, writes to stdout.
+     *   -ir: stop after lowering to SSA form and optimizing, writes the listing to stdout.
+     *   -irjs: translate to JavaScript through SSA form, writes to .js file.
+     *   -run: run the program in the interpreter, reading stdin and writing stdout.
+     *   -closures: compile the program to closures and run them, reading stdin and writing
+     *        stdout.
+     *   -bc: compile for the register machine, writes to .mcb file.
+     *   -dis: compile for the register machine, writes the listing to stdout.
+     *   -vm: run the program in the register machine, reading stdin and writing stdout; a file
+     *        ending in .mcb is taken to be already compiled.
+     *   -class: compile to a JVM class, writes to .class file.
+     *   -jvm: compile to a JVM class and run it in this JVM, reading stdin and writing stdout.
+     *   -java: translate to Java, writes to MyCodeProgram.java in the directory of the source.
+     *   -javarun: translate to Java, compile it in memory and run it in this JVM, reading stdin
+     *        and writing stdout.
+     *   -c99: translate to C, writes to .c file.
      *   -js: (the default) translate to JavaScript, writes to .js file.
+     *   -min: translate to minified JavaScript, writes to .js file.
      * </pre>
      */
-//    public static void main(String[] args) throws IOException {
-//
-//        Compiler compiler = new Compiler();
-//        String option;
-//        String baseFileName;
-//
-//        // Resolve command line arguments. If the option argument is missing, use "-js" as a default.
-//        if (args.length == 1) {
-//            option = "-js";
-//            baseFileName = args[0];
-//        } else if (args.length == 2) {
-//            option = args[0];
-//            baseFileName = args[1];
-//        } else {
-//            compiler.log.message("usage");
-//            return;
-//        }
-//
-//        // Do as much compilation as the options request.
-//        Reader reader = new FileReader(baseFileName);
-//        try {
-//            if (option.equals("-syn")) {
-//                Program program = compiler.checkSyntax(reader);
-//                program.printSyntaxTree("", "", new PrintWriter(System.out, true));
-//            } else if (option.equals("-sem")) {
-//                Program program = compiler.checkSemantics(reader);
-//                program.printEntities(new PrintWriter(System.out, true));
-//            } else if (option.equals("-opt")) {
-//                Program program = compiler.produceOptimizedSemanticGraph(reader);
-//                program.printEntities(new PrintWriter(System.out, true));
-//            } else if (option.equals("-js")) {
-//                compiler.generateJavaScript(reader, new PrintWriter(new FileWriter(baseFileName + ".js")));
-//            } else {
-//                compiler.log.message("usage");
-//            }
-//        } catch (Exception e) {
-//            compiler.log.exception(e);
-//        }
-//    }
+    public static void main(String[] args) throws IOException {
+
+        Compiler compiler = new Compiler();
+        String option;
+        String baseFileName;
+        boolean mappingSources = false;
+
+        // Pull out the optimization flags, which can come in any order before the rest.
+        List<String> rest = new ArrayList<String>();
+        for (String arg: args) {
+            OptimizationLevel level = OptimizationLevel.fromOption(arg);
+            if (level != null) {
+                compiler.setOptimizationLevel(level);
+            } else if (arg.equals("-time-passes")) {
+                compiler.setReportingPasses(true);
+            } else if (arg.equals("-partial")) {
+                compiler.setPartiallyEvaluating(true);
+            } else if (arg.equals("-map")) {
+                mappingSources = true;
+            } else if (arg.equals("-lazy")) {
+                compiler.setParsingLazily(true);
+            } else if (arg.equals("-parallel")) {
+                compiler.setParsingThreads(Runtime.getRuntime().availableProcessors());
+            } else {
+                rest.add(arg);
+            }
+        }
+
+        // Resolve command line arguments. If the option argument is missing, use "-js" as a default.
+        if (rest.size() == 1) {
+            option = "-js";
+            baseFileName = rest.get(0);
+        } else if (rest.size() == 2) {
+            option = rest.get(0);
+            baseFileName = rest.get(1);
+        } else {
+            compiler.log.message("usage");
+            return;
+        }
+
+        // Do as much compilation as the options request.
+        Reader reader = new FileReader(baseFileName);
+        compiler.setSourceName(baseFileName);
+        try {
+            if (option.equals("-syn")) {
+                Program program = compiler.checkSyntax(reader);
+                program.printSyntaxTree("", "", new PrintWriter(System.out, true));
+            } else if (option.equals("-csyn")) {
+                CompactTree tree = compiler.checkSyntaxCompact(reader);
+                if (tree != null) {
+                    tree.print(new PrintWriter(System.out, true));
+                }
+            } else if (option.equals("-sem")) {
+                Program program = compiler.checkSemantics(reader);
+                program.printEntities(new PrintWriter(System.out, true));
+            } else if (option.equals("-opt")) {
+                Program program = compiler.produceOptimizedSemanticGraph(reader);
+                program.printEntities(new PrintWriter(System.out, true));
+            } else if (option.equals("-ir")) {
+                IrProgram program = compiler.produceIr(reader);
+                program.print(new PrintWriter(System.out, true));
+            } else if (option.equals("-irjs")) {
+                compiler.generateJavaScriptFromIr(reader, new PrintWriter(new FileWriter(baseFileName + ".js")));
+            } else if (option.equals("-run")) {
+                compiler.run(reader, new InputStreamReader(System.in), new PrintWriter(System.out));
+            } else if (option.equals("-closures")) {
+                compiler.runClosures(reader, new InputStreamReader(System.in), new PrintWriter(System.out));
+            } else if (option.equals("-bc")) {
+                BytecodeProgram program = compiler.compileBytecode(reader);
+                if (program != null) {
+                    OutputStream out = new FileOutputStream(baseFileName + ".mcb");
+                    try {
+                        program.write(out);
+                    } finally {
+                        out.close();
+                    }
+                }
+            } else if (option.equals("-dis")) {
+                BytecodeProgram program = compiler.compileBytecode(reader);
+                if (program != null) {
+                    program.print(new PrintWriter(System.out, true));
+                }
+            } else if (option.equals("-vm")) {
+                BytecodeProgram program;
+                if (baseFileName.endsWith(".mcb")) {
+                    InputStream in = new FileInputStream(baseFileName);
+                    try {
+                        program = BytecodeProgram.read(in);
+                    } finally {
+                        in.close();
+                    }
+                } else {
+                    program = compiler.compileBytecode(reader);
+                }
+                if (program != null) {
+                    compiler.runBytecode(program, new InputStreamReader(System.in), new PrintWriter(System.out));
+                }
+            } else if (option.equals("-class")) {
+                GeneratedProgram program = compiler.generateClass(reader);
+                if (program != null) {
+                    OutputStream out = new FileOutputStream(baseFileName + ".class");
+                    try {
+                        out.write(program.getBytes());
+                    } finally {
+                        out.close();
+                    }
+                }
+            } else if (option.equals("-jvm")) {
+                GeneratedProgram program = compiler.generateClass(reader);
+                if (program != null) {
+                    compiler.runClass(program, new InputStreamReader(System.in), new PrintWriter(System.out));
+                }
+            } else if (option.equals("-java")) {
+                File directory = new File(baseFileName).getAbsoluteFile().getParentFile();
+                File file = new File(directory, MyCodeToJavaTranslator.CLASS_NAME + ".java");
+                compiler.generateJava(reader, new PrintWriter(new FileWriter(file)));
+            } else if (option.equals("-javarun")) {
+                CompiledJavaProgram program = compiler.compileJava(reader);
+                if (program != null) {
+                    compiler.runJava(program, new InputStreamReader(System.in), new PrintWriter(System.out));
+                }
+            } else if (option.equals("-c99")) {
+                compiler.generateC(reader, new PrintWriter(new FileWriter(baseFileName + ".c")));
+            } else if (option.equals("-js") || option.equals("-min")) {
+                String js = baseFileName + ".js";
+                SourceMapWriter map = null;
+                if (mappingSources) {
+                    map = new SourceMapWriter(new PrintWriter(new FileWriter(js + ".map")),
+                        new File(js).getName(), new File(baseFileName).getName());
+                }
+                compiler.generateJavaScript(reader, new PrintWriter(new FileWriter(js)),
+                    option.equals("-min"), map, new File(js).getName() + ".map");
+            } else {
+                compiler.log.message("usage");
+            }
+        } catch (Exception e) {
+            compiler.log.exception(e);
+        }
+    }
 
     /**
      * Checks the syntax of a MyCode program from a reader.
      */
     public Program checkSyntax(Reader reader) throws IOException {
         log.clearErrors();
-        Parser parser = new Parser(reader);
+        SourceFile file = SourceFile.register(sourceName);
+        if (parsingLazily) {
+            file.keepText();
+        }
+        try {
+            log.message("checking_syntax");
+            if (parsingThreads > 1) {
+                String text = readAll(file.track(reader));
+                return Parser.parseInParallel(file, text, log, parsingThreads, parsingLazily);
+            }
+            Parser parser = new Parser(file.track(reader));
+            return parsingLazily ? parser.parseLazily(file, log) : parser.parse(file, log);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String readAll(Reader reader) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[8192];
+        for (int count; (count = reader.read(buffer)) > 0; ) {
+            text.append(buffer, 0, count);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Checks the syntax of a MyCode program from a reader, producing a compact tree instead of
+     * entities.  Statements with syntax errors are ERROR nodes in the tree.
+     */
+    public CompactTree checkSyntaxCompact(Reader reader) throws IOException {
+        log.clearErrors();
+        SourceFile file = SourceFile.register(sourceName);
+        Parser parser = new Parser(file.track(reader));
         try {
             log.message("checking_syntax");
-            return parser.parse(reader, log);
+            return parser.parseCompact(file, log);
         } finally {
             reader.close();
         }
     }
 
     /**
-     * Checks the syntax and static semantics given MyCode source code from a reader.
+     * Checks the syntax and static semantics given MyCode source code from a reader.  The parts
+     * of a program that parsed are analyzed even if others had syntax errors, so that all the
+     * errors are reported in one run.
      */
     public Program checkSemantics(Reader reader) throws IOException {
         Program program = checkSyntax(reader);
-        if (log.getErrorCount() > 0) {
+        if (program == null) {
             return null;
         }
         return checkSemantics(program);
@@ -122,7 +342,16 @@ public class Compiler {
             return null;
         }
         log.message("optimizing");
-        program.optimize();
+        PassManager passes = PassManager.forLevel(optimizationLevel);
+        passes.setReporting(reportingPasses);
+        passes.run(program);
+        for (PassManager.Report report: passes.getReports()) {
+            log.message("pass_report", report.getPass(), report.getIteration(),
+                report.getNanos() / 1e6, report.getNodesBefore(), report.getNodesAfter());
+        }
+        if (partiallyEvaluating) {
+            log.message("partial_evaluation", new PartialEvaluator().evaluate(program));
+        }
         return program;
     }
 
@@ -130,15 +359,200 @@ public class Compiler {
      * Compiles a MyCode program from a reader and writes the JavaScript to a writer.
      */
     public void generateJavaScript(Reader reader, PrintWriter writer) throws IOException {
+        generateJavaScript(reader, writer, false);
+    }
+
+    /**
+     * Compiles a MyCode program from a reader and writes the JavaScript, minified or not, to a
+     * writer.
+     */
+    public void generateJavaScript(Reader reader, PrintWriter writer, boolean minified) throws IOException {
+        generateJavaScript(reader, writer, minified, null, null);
+    }
+
+    /**
+     * Compiles a MyCode program from a reader and writes the JavaScript, minified or not, to a
+     * writer, along with a source map if one is given.  The JavaScript refers to the map by the
+     * given URL.
+     */
+    public void generateJavaScript(Reader reader, PrintWriter writer, boolean minified,
+            SourceMapWriter map, String mapUrl) throws IOException {
+        Program program = produceOptimizedSemanticGraph(reader);
+        if (log.getErrorCount() > 0) {
+            return;
+        }
+        log.message("writing");
+        MyCodeToJavaScriptTranslator translator = new MyCodeToJavaScriptTranslator();
+        translator.setMinified(minified);
+        if (map != null) {
+            translator.setSourceMap(map, mapUrl);
+        }
+        translator.translateProgram(program, writer);
+        writer.close();
+    }
+
+    /**
+     * Does the whole front end, then lowers the program into SSA form and, unless the
+     * optimization level is O0, optimizes that too.
+     */
+    public IrProgram produceIr(Reader reader) throws IOException {
+        Program program = produceOptimizedSemanticGraph(reader);
+        if (log.getErrorCount() > 0) {
+            return null;
+        }
+        IrProgram ir = Lowering.lower(program);
+        if (optimizationLevel != OptimizationLevel.O0) {
+            IrOptimizer.optimize(ir);
+        }
+        return ir;
+    }
+
+    /**
+     * Compiles a MyCode program from a reader through SSA form and writes the JavaScript to a
+     * writer.
+     */
+    public void generateJavaScriptFromIr(Reader reader, PrintWriter writer) throws IOException {
+        IrProgram program = produceIr(reader);
+        if (log.getErrorCount() > 0) {
+            return;
+        }
+        log.message("writing");
+        new IrToJavaScriptTranslator().translateProgram(program, writer);
+        writer.close();
+    }
+
+    /**
+     * Compiles a MyCode program from a reader and runs it in the interpreter, with the given
+     * input and output.  Errors stopping the program are logged like compile time errors.
+     */
+    public void run(Reader reader, Reader input, PrintWriter output) throws IOException {
+        Program program = produceOptimizedSemanticGraph(reader);
+        if (log.getErrorCount() > 0) {
+            return;
+        }
+        try {
+            new Interpreter(input, output).run(program);
+        } catch (RuntimeError e) {
+            log.error(e.getKey(), e.getArguments());
+        }
+    }
+
+    /**
+     * Compiles a MyCode program from a reader to closures and runs them, with the given input
+     * and output.  Errors stopping the program are logged like compile time errors.
+     */
+    public void runClosures(Reader reader, Reader input, PrintWriter output) throws IOException {
+        Program program = produceOptimizedSemanticGraph(reader);
+        if (log.getErrorCount() > 0) {
+            return;
+        }
+        try {
+            new ClosureCompiler(input, output).run(program);
+        } catch (RuntimeError e) {
+            log.error(e.getKey(), e.getArguments());
+        }
+    }
+
+    /**
+     * Compiles a MyCode program from a reader for the register machine.  Returns null if there
+     * were errors.
+     */
+    public BytecodeProgram compileBytecode(Reader reader) throws IOException {
+        Program program = produceOptimizedSemanticGraph(reader);
+        if (log.getErrorCount() > 0) {
+            return null;
+        }
+        return BytecodeCompiler.compile(program);
+    }
+
+    /**
+     * Runs a compiled program in the register machine, with the given input and output.
+     * Errors stopping the program are logged like compile time errors.
+     */
+    public void runBytecode(BytecodeProgram program, Reader input, PrintWriter output) {
+        try {
+            new VirtualMachine(input, output).run(program);
+        } catch (RuntimeError e) {
+            log.error(e.getKey(), e.getArguments());
+        }
+    }
+
+    /**
+     * Compiles a MyCode program from a reader to a JVM class.  Returns null if there were
+     * errors.
+     */
+    public GeneratedProgram generateClass(Reader reader) throws IOException {
+        Program program = produceOptimizedSemanticGraph(reader);
+        if (log.getErrorCount() > 0) {
+            return null;
+        }
+        return ClassGenerator.generate(program);
+    }
+
+    /**
+     * Loads and runs a program compiled to a JVM class, with the given input and output.
+     * Errors stopping the program are logged like compile time errors.
+     */
+    public void runClass(GeneratedProgram program, Reader input, PrintWriter output) {
+        try {
+            program.run(input, output);
+        } catch (RuntimeError e) {
+            log.error(e.getKey(), e.getArguments());
+        }
+    }
+
+    /**
+     * Compiles a MyCode program from a reader and writes it as Java source to a writer.
+     */
+    public void generateJava(Reader reader, PrintWriter writer) throws IOException {
         Program program = produceOptimizedSemanticGraph(reader);
         if (log.getErrorCount() > 0) {
             return;
         }
         log.message("writing");
-        new MyCodeToJavaScriptTranslator().translateProgram(program, writer);
+        new MyCodeToJavaTranslator().translateProgram(program, writer);
         writer.close();
     }
 
+    /**
+     * Compiles a MyCode program from a reader and writes it as a C program to a writer.
+     */
+    public void generateC(Reader reader, PrintWriter writer) throws IOException {
+        Program program = produceOptimizedSemanticGraph(reader);
+        if (log.getErrorCount() > 0) {
+            return;
+        }
+        log.message("writing");
+        new MyCodeToCTranslator(ResourceBundle.getBundle("MyCode")).translateProgram(program, writer);
+        writer.close();
+    }
+
+    /**
+     * Compiles a MyCode program from a reader to Java source, and that with the system Java
+     * compiler, in memory.  Returns null if there were errors.
+     */
+    public CompiledJavaProgram compileJava(Reader reader) throws IOException {
+        Program program = produceOptimizedSemanticGraph(reader);
+        if (log.getErrorCount() > 0) {
+            return null;
+        }
+        StringWriter source = new StringWriter();
+        new MyCodeToJavaTranslator().translateProgram(program, new PrintWriter(source));
+        return CompiledJavaProgram.compile(MyCodeToJavaTranslator.CLASS_NAME, source.toString());
+    }
+
+    /**
+     * Runs a program compiled through Java source, with the given input and output.  Errors
+     * stopping the program are logged like compile time errors.
+     */
+    public void runJava(CompiledJavaProgram program, Reader input, PrintWriter output) {
+        try {
+            program.run(input, output);
+        } catch (RuntimeError e) {
+            log.error(e.getKey(), e.getArguments());
+        }
+    }
+
     /**
      * Returns the number of errors logged so far.
      */
@@ -146,6 +560,52 @@ public class Compiler {
         return log.getErrorCount();
     }
 
+    /**
+     * Sets how much optimization the compiler does.  The default is O2.
+     */
+    public void setOptimizationLevel(OptimizationLevel optimizationLevel) {
+        this.optimizationLevel = optimizationLevel;
+    }
+
+    /**
+     * Tells the compiler whether to log the wall time and node count change of each
+     * optimization pass.
+     */
+    public void setReportingPasses(boolean reportingPasses) {
+        this.reportingPasses = reportingPasses;
+    }
+
+    /**
+     * Tells the compiler whether to partially evaluate programs after optimizing them.
+     */
+    public void setPartiallyEvaluating(boolean partiallyEvaluating) {
+        this.partiallyEvaluating = partiallyEvaluating;
+    }
+
+    /**
+     * Tells the compiler whether to parse function bodies only when they are first needed.
+     * Syntax errors in a body are then reported during semantic analysis rather than by
+     * checkSyntax.
+     */
+    public void setParsingLazily(boolean parsingLazily) {
+        this.parsingLazily = parsingLazily;
+    }
+
+    /**
+     * Tells the compiler how many threads to parse with.  With more than one, the source is
+     * read whole and split between top-level statements into parts parsed at the same time.
+     */
+    public void setParsingThreads(int parsingThreads) {
+        this.parsingThreads = parsingThreads;
+    }
+
+    /**
+     * Sets the name of the source read by the next compilation, used to locate errors.
+     */
+    public void setSourceName(String sourceName) {
+        this.sourceName = sourceName;
+    }
+
     /**
      * Tells the compiler whether or not it should suppress log messages.
      */
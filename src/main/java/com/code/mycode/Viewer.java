@@ -33,6 +33,7 @@ import com.code.mycode.entities.Program;
 import com.code.mycode.syntax.Parser;
 import com.code.translators.MyCodeToJavaScriptTranslator;
 import com.code.util.Log;
+import com.code.util.SourceFile;
 
 /**
  * A simple GUI application for viewing the different things the MyCode compiler can do.
@@ -284,13 +285,14 @@ public class Viewer extends JFrame {
     private Program parse() {
         log.clearErrors();
         errors.getBuffer().setLength(0);
-        Reader reader = new StringReader(source.getText());
-        return new Parser(reader).parse(reader, log);
+        SourceFile file = SourceFile.register("<editor>");
+        Reader reader = file.track(new StringReader(source.getText()));
+        return new Parser(reader).parse(file, log);
     }
 
     private Program analyze() {
         Program program = parse();
-        if (log.getErrorCount() > 0) return null;
+        if (program == null) return null;
         program.analyze(AnalysisContext.makeGlobalContext(log));
         return program;
     }
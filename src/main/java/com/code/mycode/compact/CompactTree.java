@@ -0,0 +1,369 @@
+package com.code.mycode.compact;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import com.code.util.SourceFile;
+
+/**
+ * A syntax tree stored as a handful of parallel arrays, with one element per node, for programs
+ * too large to hold as entities.
+ *
+ * Nodes are numbered in preorder, so the children of a node follow it, and each node records
+ * where its subtree ends; the first child of node n, if any, is n + 1, and the next sibling of a
+ * child c is the end of c.  Besides its kind, subtree end and source position (an offset and a
+ * length, all nodes being in the same file), a node has up to two strings, its name and its
+ * type name.  Strings are interned in a pool of characters shared by the whole tree; a node
+ * refers to its string, or for the kinds having two, to a pair of strings in a side table.
+ * Altogether a node takes 15 bytes.  What the strings are depends on the kind:
+ *
+ * <pre>
+ *   kind               name          type          children
+ *   PROGRAM, BLOCK                                 statements
+ *   DECLARATION                                    the declared variable, function or struct
+ *   VARIABLE           name          type          initializer, if any
+ *   FUNCTION           name          return type   parameters (VARIABLEs), then the body
+ *   STRUCT             name                        fields
+ *   FIELD              name          type
+ *   BREAK
+ *   RETURN                                         expression, if any
+ *   PRINT                                          arguments
+ *   IF                                             CASEs, then the else part, if any
+ *   CASE                                           condition, body
+ *   WHILE                                          condition, body
+ *   FOR                index name    index type    init, test, update (each maybe NONE), body
+ *   ASSIGNMENT                                     target, value
+ *   INCREMENT          operator                    target
+ *   CALL_STATEMENT     function                    arguments
+ *   ERROR                                          (stands for a statement that did not parse)
+ *   NULL, TRUE, FALSE
+ *   INT, REAL, CHAR, STRING  lexeme
+ *   INFIX              operator                    left, right
+ *   PREFIX, POSTFIX    operator                    operand
+ *   REFERENCE          name
+ *   SUBSCRIPT                                      sequence, index
+ *   DOT                field                       struct
+ *   CALL               function                    arguments
+ *   STRUCT_AGGREGATE                 type          arguments
+ *   ARRAY_AGGREGATE                  type          elements
+ *   EMPTY_ARRAY                      base type     bound
+ *   NONE                                           (stands for a missing part)
+ * </pre>
+ *
+ * A tree is read through cursors, which are views of single nodes.  Node 0 is always the
+ * PROGRAM, to which top-level statements are added as they are parsed.  Strings are rebuilt
+ * from the pool each time they are asked for.
+ */
+public class CompactTree {
+
+    public enum Kind {
+        PROGRAM, BLOCK, DECLARATION, VARIABLE, FUNCTION, STRUCT, FIELD, BREAK, RETURN, PRINT,
+        IF, CASE, WHILE, FOR, ASSIGNMENT, INCREMENT, CALL_STATEMENT, ERROR, NULL, TRUE, FALSE,
+        INT, REAL, CHAR, STRING, INFIX, PREFIX, POSTFIX, REFERENCE, SUBSCRIPT, DOT, CALL,
+        STRUCT_AGGREGATE, ARRAY_AGGREGATE, EMPTY_ARRAY, NONE
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    // The kinds whose nodes have both a name and a type, and those having only a type
+    private static final Set<Kind> PAIRED = EnumSet.of(Kind.VARIABLE, Kind.FUNCTION, Kind.FIELD, Kind.FOR);
+    private static final Set<Kind> TYPED = EnumSet.of(Kind.STRUCT_AGGREGATE, Kind.ARRAY_AGGREGATE, Kind.EMPTY_ARRAY);
+
+    // The nodes, of which there are size, in parallel arrays.  A value is the id of the node's
+    // string, or the index of its pair of strings, or -1; an offset of -1 means no position.
+    private byte[] kinds = new byte[1024];
+    private int[] ends = new int[1024];
+    private int[] values = new int[1024];
+    private int[] offsets = new int[1024];
+    private char[] lengths = new char[1024];
+    private int size = 0;
+
+    // The pairs of strings, as two string ids each
+    private int[] pairs = new int[256];
+    private int pairCount = 0;
+
+    // The high bits, holding the file id, of every position in the tree
+    private long file = SourceFile.NO_POSITION;
+
+    // The string pool: the characters of all strings, the start of each string in them (the
+    // string with id n being from starts[n] to starts[n + 1]), and a hash table of string ids,
+    // plus one, for interning
+    private char[] characters = new char[4096];
+    private int[] starts = new int[257];
+    private int stringCount = 0;
+    private int[] table = new int[512];
+
+    public CompactTree() {
+        open(Kind.PROGRAM, null, null, SourceFile.NO_POSITION);
+        ends[0] = 1;
+    }
+
+    /**
+     * Returns a cursor on the program, the root of the tree.
+     */
+    public Cursor root() {
+        return new Cursor(0);
+    }
+
+    public int getNodeCount() {
+        return size;
+    }
+
+    public int getStringCount() {
+        return stringCount;
+    }
+
+    /**
+     * Appends a node as the next child of the innermost node not yet closed, returning its
+     * number.  Its children are appended next, after which it must be closed.
+     */
+    int open(Kind kind, String name, String type, long position) {
+        if (size == kinds.length) {
+            resize(Math.max(size * 2, 16));
+        }
+        kinds[size] = (byte)kind.ordinal();
+        if (PAIRED.contains(kind)) {
+            if (pairCount * 2 == pairs.length) {
+                pairs = Arrays.copyOf(pairs, Math.max(pairs.length * 2, 2));
+            }
+            pairs[pairCount * 2] = intern(name);
+            pairs[pairCount * 2 + 1] = intern(type);
+            values[size] = pairCount++;
+        } else {
+            values[size] = intern(name != null ? name : type);
+        }
+        if (position == SourceFile.NO_POSITION) {
+            offsets[size] = -1;
+        } else {
+            file = position & 0xFFFF000000000000L;
+            offsets[size] = SourceFile.offset(position);
+            lengths[size] = (char)SourceFile.length(position);
+        }
+        return size++;
+    }
+
+    private void resize(int capacity) {
+        kinds = Arrays.copyOf(kinds, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        values = Arrays.copyOf(values, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+    }
+
+    /**
+     * Releases the room kept for nodes and strings yet to be added, as when the tree is
+     * complete.  More can still be added, at the cost of growing the arrays again.
+     */
+    public void trim() {
+        resize(size);
+        pairs = Arrays.copyOf(pairs, pairCount * 2);
+        characters = Arrays.copyOf(characters, starts[stringCount]);
+        starts = Arrays.copyOf(starts, stringCount + 1);
+    }
+
+    /**
+     * Closes a node, whose subtree is everything appended since it was opened.  Closing the
+     * program again after adding a top-level statement takes the statement into it.
+     */
+    void close(int node) {
+        ends[node] = size;
+    }
+
+    /**
+     * Returns the id of a string in the pool, adding it if it is not there yet, or -1 for null.
+     */
+    private int intern(String s) {
+        if (s == null) {
+            return -1;
+        }
+        int mask = table.length - 1;
+        int slot = s.hashCode() & mask;
+        for (; table[slot] != 0; slot = (slot + 1) & mask) {
+            if (matches(table[slot] - 1, s)) {
+                return table[slot] - 1;
+            }
+        }
+
+        // Not found; add the string, growing the pool as needed, and keeping the table at most
+        // half full.
+        int start = starts[stringCount];
+        if (start + s.length() > characters.length) {
+            characters = Arrays.copyOf(characters, Math.max(characters.length * 2, start + s.length()));
+        }
+        s.getChars(0, s.length(), characters, start);
+        if (stringCount + 2 > starts.length) {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+        }
+        starts[stringCount + 1] = start + s.length();
+        table[slot] = ++stringCount;
+        if (stringCount * 2 > table.length) {
+            rehash();
+        }
+        return stringCount - 1;
+    }
+
+    private boolean matches(int id, String s) {
+        int start = starts[id];
+        if (starts[id + 1] - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (characters[start + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < stringCount; id++) {
+            int slot = string(id).hashCode() & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    private String string(int id) {
+        return id < 0 ? null : new String(characters, starts[id], starts[id + 1] - starts[id]);
+    }
+
+    /**
+     * Writes the tree, one node per line, indented two spaces per level.
+     */
+    public void print(PrintWriter writer) {
+
+        // Walked with a stack of the nodes still to be written, and their depths, since trees
+        // can be deeper than the Java stack.  Children are pushed last to first.
+        Deque<Cursor> pending = new ArrayDeque<Cursor>();
+        Deque<Integer> depths = new ArrayDeque<Integer>();
+        pending.push(root());
+        depths.push(0);
+        while (!pending.isEmpty()) {
+            Cursor node = pending.pop();
+            int depth = depths.pop();
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < depth; i++) {
+                line.append("  ");
+            }
+            line.append(node.kind());
+            if (node.name() != null) {
+                line.append(" ").append(node.name());
+            }
+            if (node.type() != null) {
+                line.append(" : ").append(node.type());
+            }
+            String position = SourceFile.describe(node.position());
+            if (position != null) {
+                line.append(" @").append(position);
+            }
+            writer.println(line);
+            List<Cursor> children = node.children();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                pending.push(children.get(i));
+                depths.push(depth + 1);
+            }
+        }
+    }
+
+    /**
+     * A view of one node of the tree.  Cursors are small and cheap, and moving returns a new
+     * cursor rather than changing this one.
+     */
+    public class Cursor {
+        private final int node;
+        private final int limit;
+
+        private Cursor(int node) {
+            this(node, ends[node]);
+        }
+
+        private Cursor(int node, int limit) {
+            this.node = node;
+            this.limit = limit;
+        }
+
+        public int index() {
+            return node;
+        }
+
+        public Kind kind() {
+            return KINDS[kinds[node]];
+        }
+
+        public String name() {
+            if (PAIRED.contains(kind())) {
+                return string(pairs[values[node] * 2]);
+            }
+            return TYPED.contains(kind()) ? null : string(values[node]);
+        }
+
+        public String type() {
+            if (PAIRED.contains(kind())) {
+                return string(pairs[values[node] * 2 + 1]);
+            }
+            return TYPED.contains(kind()) ? string(values[node]) : null;
+        }
+
+        public long position() {
+            if (offsets[node] < 0) {
+                return SourceFile.NO_POSITION;
+            }
+            return file | (long)offsets[node] << 16 | lengths[node];
+        }
+
+        public boolean is(Kind kind) {
+            return kinds[node] == kind.ordinal();
+        }
+
+        /**
+         * Returns a cursor on the first child, or null if there are none.
+         */
+        public Cursor firstChild() {
+            return node + 1 < ends[node] ? new Cursor(node + 1, ends[node]) : null;
+        }
+
+        /**
+         * Returns a cursor on the next child of the same parent, or null if this is the last.
+         */
+        public Cursor nextSibling() {
+            return ends[node] < limit ? new Cursor(ends[node], limit) : null;
+        }
+
+        public List<Cursor> children() {
+            List<Cursor> result = new ArrayList<Cursor>();
+            for (Cursor child = firstChild(); child != null; child = child.nextSibling()) {
+                result.add(child);
+            }
+            return result;
+        }
+
+        /**
+         * Returns a cursor on the child at the given index, counted from 0.
+         */
+        public Cursor child(int index) {
+            Cursor child = firstChild();
+            for (int i = 0; i < index; i++) {
+                child = child.nextSibling();
+            }
+            return child;
+        }
+
+        public int childCount() {
+            int count = 0;
+            for (int child = node + 1; child < ends[node]; child = ends[child]) {
+                count++;
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.code.mycode.compact;
+
+import java.util.List;
+
+import com.code.mycode.compact.CompactTree.Kind;
+import com.code.mycode.entities.ArrayAggregate;
+import com.code.mycode.entities.AssignmentStatement;
+import com.code.mycode.entities.Block;
+import com.code.mycode.entities.BooleanLiteral;
+import com.code.mycode.entities.BreakStatement;
+import com.code.mycode.entities.CallExpression;
+import com.code.mycode.entities.CallStatement;
+import com.code.mycode.entities.Case;
+import com.code.mycode.entities.CharLiteral;
+import com.code.mycode.entities.ClassicForStatement;
+import com.code.mycode.entities.Declarable;
+import com.code.mycode.entities.Declaration;
+import com.code.mycode.entities.DottedVariable;
+import com.code.mycode.entities.EmptyArray;
+import com.code.mycode.entities.ErrorStatement;
+import com.code.mycode.entities.Entity;
+import com.code.mycode.entities.Expression;
+import com.code.mycode.entities.Function;
+import com.code.mycode.entities.IfStatement;
+import com.code.mycode.entities.IncrementStatement;
+import com.code.mycode.entities.InfixExpression;
+import com.code.mycode.entities.IntegerLiteral;
+import com.code.mycode.entities.NullLiteral;
+import com.code.mycode.entities.PostfixExpression;
+import com.code.mycode.entities.PrefixExpression;
+import com.code.mycode.entities.PrintStatement;
+import com.code.mycode.entities.RealLiteral;
+import com.code.mycode.entities.ReturnStatement;
+import com.code.mycode.entities.SimpleVariableReference;
+import com.code.mycode.entities.Statement;
+import com.code.mycode.entities.StringLiteral;
+import com.code.mycode.entities.StructAggregate;
+import com.code.mycode.entities.StructField;
+import com.code.mycode.entities.StructType;
+import com.code.mycode.entities.SubscriptedVariable;
+import com.code.mycode.entities.TypeReference;
+import com.code.mycode.entities.Variable;
+import com.code.mycode.entities.WhileStatement;
+import com.code.util.SourceFile;
+
+/**
+ * Adds statements, as the parser produces them, to a compact tree.  Only the syntactic parts of
+ * the entities are kept, so statements must be added before they are analyzed.
+ */
+public class Flattener {
+
+    private CompactTree tree;
+
+    private Flattener(CompactTree tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * Adds a top-level statement to the program of the given tree.  Once added, the statement
+     * is no longer needed, and can be garbage collected.
+     */
+    public static void add(CompactTree tree, Statement s) {
+        new Flattener(tree).statement(s);
+        tree.close(0);
+    }
+
+    private int open(Kind kind, String name, String type, Entity e) {
+        return tree.open(kind, name, type, e.getPosition());
+    }
+
+    /**
+     * Returns a type reference as written, which is how the tree stores it, or null for null.
+     */
+    private static String text(TypeReference reference) {
+        return reference == null ? null : reference.toString();
+    }
+
+    private void none() {
+        tree.close(tree.open(Kind.NONE, null, null, SourceFile.NO_POSITION));
+    }
+
+    private void block(Block b) {
+        int node = open(Kind.BLOCK, null, null, b);
+        for (Statement s: b.getStatements()) {
+            statement(s);
+        }
+        tree.close(node);
+    }
+
+    private void statement(Statement s) {
+        int node;
+        if (s instanceof Declaration) {
+            node = open(Kind.DECLARATION, null, null, s);
+            declarable(Declaration.class.cast(s).getDeclarable());
+
+        } else if (s instanceof BreakStatement) {
+            node = open(Kind.BREAK, null, null, s);
+
+        } else if (s instanceof ReturnStatement) {
+            node = open(Kind.RETURN, null, null, s);
+            Expression e = ReturnStatement.class.cast(s).getReturnExpression();
+            if (e != null) {
+                expression(e);
+            }
+
+        } else if (s instanceof PrintStatement) {
+            node = open(Kind.PRINT, null, null, s);
+            expressions(PrintStatement.class.cast(s).getArgs());
+
+        } else if (s instanceof IfStatement) {
+            IfStatement statement = IfStatement.class.cast(s);
+            node = open(Kind.IF, null, null, s);
+            for (Case c: statement.getCases()) {
+                int caseNode = open(Kind.CASE, null, null, c);
+                expression(c.getCondition());
+                block(c.getBody());
+                tree.close(caseNode);
+            }
+            if (statement.getElsePart() != null) {
+                block(statement.getElsePart());
+            }
+
+        } else if (s instanceof WhileStatement) {
+            node = open(Kind.WHILE, null, null, s);
+            expression(WhileStatement.class.cast(s).getCondition());
+            block(WhileStatement.class.cast(s).getBody());
+
+        } else if (s instanceof ClassicForStatement) {
+            ClassicForStatement statement = ClassicForStatement.class.cast(s);
+            node = open(Kind.FOR, statement.getIndex(), text(statement.getTyname()), s);
+            if (statement.getInit() == null) {
+                none();
+            } else {
+                expression(statement.getInit());
+            }
+            if (statement.getTest() == null) {
+                none();
+            } else {
+                expression(statement.getTest());
+            }
+            if (statement.getEach() == null) {
+                none();
+            } else {
+                statement(statement.getEach());
+            }
+            block(statement.getBody());
+
+        } else if (s instanceof AssignmentStatement) {
+            node = open(Kind.ASSIGNMENT, null, null, s);
+            expression(AssignmentStatement.class.cast(s).getLeft());
+            expression(AssignmentStatement.class.cast(s).getRight());
+
+        } else if (s instanceof IncrementStatement) {
+            IncrementStatement statement = IncrementStatement.class.cast(s);
+            node = open(Kind.INCREMENT, statement.getOp(), null, s);
+            expression(statement.getTarget());
+
+        } else if (s instanceof CallStatement) {
+            CallStatement statement = CallStatement.class.cast(s);
+            node = open(Kind.CALL_STATEMENT, statement.getFunctionName(), null, s);
+            expressions(statement.getArgs());
+
+        } else if (s instanceof ErrorStatement) {
+            node = open(Kind.ERROR, null, null, s);
+
+        } else {
+            throw new RuntimeException("Unknown statement class: " + s.getClass().getName());
+        }
+        tree.close(node);
+    }
+
+    private void declarable(Declarable d) {
+        if (d instanceof Variable) {
+            variable(Variable.class.cast(d));
+
+        } else if (d instanceof Function) {
+            Function f = Function.class.cast(d);
+            int node = open(Kind.FUNCTION, f.getName(), text(f.getReturnTypeName()), f);
+            for (Variable parameter: f.getParameters()) {
+                variable(parameter);
+            }
+            block(f.getBody());
+            tree.close(node);
+
+        } else if (d instanceof StructType) {
+            int node = open(Kind.STRUCT, d.getName(), null, d);
+            for (StructField field: StructType.class.cast(d).getFields()) {
+                tree.close(open(Kind.FIELD, field.getName(), text(field.getTypename()), field));
+            }
+            tree.close(node);
+
+        } else {
+            throw new RuntimeException("Unknown declarable class: " + d.getClass().getName());
+        }
+    }
+
+    private void variable(Variable v) {
+        int node = open(Kind.VARIABLE, v.getName(), text(v.getTypename()), v);
+        if (v.getInitializer() != null) {
+            expression(v.getInitializer());
+        }
+        tree.close(node);
+    }
+
+    private void expressions(List<Expression> list) {
+        for (Expression e: list) {
+            expression(e);
+        }
+    }
+
+    private void expression(Expression e) {
+        int node;
+        if (e instanceof NullLiteral) {
+            node = open(Kind.NULL, null, null, e);
+        } else if (e == BooleanLiteral.TRUE) {
+            node = open(Kind.TRUE, null, null, e);
+        } else if (e == BooleanLiteral.FALSE) {
+            node = open(Kind.FALSE, null, null, e);
+        } else if (e instanceof IntegerLiteral) {
+            node = open(Kind.INT, IntegerLiteral.class.cast(e).getLexeme(), null, e);
+        } else if (e instanceof RealLiteral) {
+            node = open(Kind.REAL, RealLiteral.class.cast(e).getLexeme(), null, e);
+        } else if (e instanceof CharLiteral) {
+            node = open(Kind.CHAR, CharLiteral.class.cast(e).getLexeme(), null, e);
+        } else if (e instanceof StringLiteral) {
+            node = open(Kind.STRING, StringLiteral.class.cast(e).getLexeme(), null, e);
+
+        } else if (e instanceof InfixExpression) {
+            // Chains like a + b + c + ... nest down the left, so the nodes down the left side are
+            // opened in a loop, then given their right operands and closed innermost first.
+            List<InfixExpression> spine = InfixExpression.class.cast(e).leftSpine();
+            int[] nodes = new int[spine.size()];
+            for (int i = 0; i < spine.size(); i++) {
+                nodes[i] = open(Kind.INFIX, spine.get(i).getOp(), null, spine.get(i));
+            }
+            expression(spine.get(spine.size() - 1).getLeft());
+            for (int i = spine.size() - 1; i > 0; i--) {
+                expression(spine.get(i).getRight());
+                tree.close(nodes[i]);
+            }
+            node = nodes[0];
+            expression(spine.get(0).getRight());
+
+        } else if (e instanceof PrefixExpression) {
+            PrefixExpression prefix = PrefixExpression.class.cast(e);
+            node = open(Kind.PREFIX, prefix.getOp(), null, e);
+            expression(prefix.getOperand());
+
+        } else if (e instanceof PostfixExpression) {
+            PostfixExpression postfix = PostfixExpression.class.cast(e);
+            node = open(Kind.POSTFIX, postfix.getOp(), null, e);
+            expression(postfix.getOperand());
+
+        } else if (e instanceof SimpleVariableReference) {
+            node = open(Kind.REFERENCE, SimpleVariableReference.class.cast(e).getName(), null, e);
+
+        } else if (e instanceof SubscriptedVariable) {
+            node = open(Kind.SUBSCRIPT, null, null, e);
+            expression(SubscriptedVariable.class.cast(e).getSequence());
+            expression(SubscriptedVariable.class.cast(e).getIndex());
+
+        } else if (e instanceof DottedVariable) {
+            DottedVariable dotted = DottedVariable.class.cast(e);
+            node = open(Kind.DOT, dotted.getFieldName(), null, e);
+            expression(dotted.getStruct());
+
+        } else if (e instanceof CallExpression) {
+            CallExpression call = CallExpression.class.cast(e);
+            node = open(Kind.CALL, call.getFunctionName(), null, e);
+            expressions(call.getArgs());
+
+        } else if (e instanceof StructAggregate) {
+            StructAggregate aggregate = StructAggregate.class.cast(e);
+            node = open(Kind.STRUCT_AGGREGATE, null, text(aggregate.getTypename()), e);
+            expressions(aggregate.getArgs());
+
+        } else if (e instanceof ArrayAggregate) {
+            ArrayAggregate aggregate = ArrayAggregate.class.cast(e);
+            node = open(Kind.ARRAY_AGGREGATE, null, text(aggregate.getTypename()), e);
+            expressions(aggregate.getArgs());
+
+        } else if (e instanceof EmptyArray) {
+            EmptyArray empty = EmptyArray.class.cast(e);
+            node = open(Kind.EMPTY_ARRAY, null, text(empty.getTyname()), e);
+            expression(empty.getBound());
+
+        } else {
+            throw new RuntimeException("Unknown expression class: " + e.getClass().getName());
+        }
+        tree.close(node);
+    }
+}
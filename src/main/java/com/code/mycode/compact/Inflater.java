@@ -0,0 +1,239 @@
+package com.code.mycode.compact;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.code.mycode.compact.CompactTree.Cursor;
+import com.code.mycode.compact.CompactTree.Kind;
+import com.code.mycode.entities.ArrayAggregate;
+import com.code.mycode.entities.AssignmentStatement;
+import com.code.mycode.entities.Block;
+import com.code.mycode.entities.BooleanLiteral;
+import com.code.mycode.entities.BreakStatement;
+import com.code.mycode.entities.CallExpression;
+import com.code.mycode.entities.CallStatement;
+import com.code.mycode.entities.Case;
+import com.code.mycode.entities.CharLiteral;
+import com.code.mycode.entities.ClassicForStatement;
+import com.code.mycode.entities.Declarable;
+import com.code.mycode.entities.Declaration;
+import com.code.mycode.entities.DottedVariable;
+import com.code.mycode.entities.EmptyArray;
+import com.code.mycode.entities.ErrorStatement;
+import com.code.mycode.entities.Entity;
+import com.code.mycode.entities.Expression;
+import com.code.mycode.entities.Function;
+import com.code.mycode.entities.IfStatement;
+import com.code.mycode.entities.IncrementStatement;
+import com.code.mycode.entities.InfixExpression;
+import com.code.mycode.entities.IntegerLiteral;
+import com.code.mycode.entities.Literal;
+import com.code.mycode.entities.PostfixExpression;
+import com.code.mycode.entities.PrefixExpression;
+import com.code.mycode.entities.PrintStatement;
+import com.code.mycode.entities.Program;
+import com.code.mycode.entities.RealLiteral;
+import com.code.mycode.entities.ReturnStatement;
+import com.code.mycode.entities.SimpleVariableReference;
+import com.code.mycode.entities.Statement;
+import com.code.mycode.entities.StringLiteral;
+import com.code.mycode.entities.StructAggregate;
+import com.code.mycode.entities.StructField;
+import com.code.mycode.entities.StructType;
+import com.code.mycode.entities.SubscriptedVariable;
+import com.code.mycode.entities.TypeReference;
+import com.code.mycode.entities.Variable;
+import com.code.mycode.entities.VariableExpression;
+import com.code.mycode.entities.WhileStatement;
+
+/**
+ * Builds entities from the nodes of a compact tree, for the passes that work on entities.  The
+ * entities are as the parser would have produced them, source positions included.
+ */
+public class Inflater {
+
+    private Inflater() {
+    }
+
+    /**
+     * Returns the program held by a compact tree, as entities.
+     */
+    public static Program inflate(CompactTree tree) {
+        return new Program(statements(tree.root()));
+    }
+
+    /**
+     * Returns the statement at a node of a compact tree, as entities.
+     */
+    public static Statement inflateStatement(Cursor node) {
+        return statement(node);
+    }
+
+    private static <T extends Entity> T at(Cursor node, T entity) {
+        entity.setPosition(node.position());
+        return entity;
+    }
+
+    private static List<Statement> statements(Cursor parent) {
+        List<Statement> result = new ArrayList<Statement>();
+        for (Cursor child = parent.firstChild(); child != null; child = child.nextSibling()) {
+            result.add(statement(child));
+        }
+        return result;
+    }
+
+    private static Block block(Cursor node) {
+        return at(node, new Block(statements(node)));
+    }
+
+    private static Statement statement(Cursor node) {
+        switch (node.kind()) {
+        case DECLARATION:
+            return at(node, new Declaration(declarable(node.firstChild())));
+        case BREAK:
+            return at(node, new BreakStatement());
+        case RETURN: {
+            Cursor e = node.firstChild();
+            return at(node, new ReturnStatement(e == null ? null : expression(e)));
+        }
+        case PRINT:
+            return at(node, new PrintStatement(expressions(node)));
+        case IF: {
+            List<Case> cases = new ArrayList<Case>();
+            Block elsePart = null;
+            for (Cursor child = node.firstChild(); child != null; child = child.nextSibling()) {
+                if (child.is(Kind.CASE)) {
+                    Cursor condition = child.firstChild();
+                    cases.add(at(child, new Case(expression(condition), block(condition.nextSibling()))));
+                } else {
+                    elsePart = block(child);
+                }
+            }
+            return at(node, new IfStatement(cases, elsePart));
+        }
+        case WHILE: {
+            Cursor condition = node.firstChild();
+            return at(node, new WhileStatement(expression(condition), block(condition.nextSibling())));
+        }
+        case FOR: {
+            Cursor init = node.firstChild();
+            Cursor test = init.nextSibling();
+            Cursor each = test.nextSibling();
+            return at(node, new ClassicForStatement(TypeReference.parse(node.type()), node.name(),
+                init.is(Kind.NONE) ? null : expression(init),
+                test.is(Kind.NONE) ? null : expression(test),
+                each.is(Kind.NONE) ? null : statement(each),
+                block(each.nextSibling())));
+        }
+        case ASSIGNMENT: {
+            Cursor left = node.firstChild();
+            return at(node, new AssignmentStatement(variableExpression(left), expression(left.nextSibling())));
+        }
+        case INCREMENT:
+            return at(node, new IncrementStatement(variableExpression(node.firstChild()), node.name()));
+        case CALL_STATEMENT:
+            return at(node, new CallStatement(node.name(), expressions(node)));
+        case ERROR:
+            return at(node, new ErrorStatement());
+        default:
+            throw new RuntimeException("Not a statement: " + node.kind());
+        }
+    }
+
+    private static Declarable declarable(Cursor node) {
+        switch (node.kind()) {
+        case VARIABLE:
+            return variable(node);
+        case FUNCTION: {
+            List<Variable> parameters = new ArrayList<Variable>();
+            Cursor child = node.firstChild();
+            for (; child.is(Kind.VARIABLE); child = child.nextSibling()) {
+                parameters.add(variable(child));
+            }
+            return at(node, new Function(TypeReference.parse(node.type()), node.name(), parameters, block(child)));
+        }
+        case STRUCT: {
+            List<StructField> fields = new ArrayList<StructField>();
+            for (Cursor child = node.firstChild(); child != null; child = child.nextSibling()) {
+                fields.add(at(child, new StructField(child.name(), TypeReference.parse(child.type()))));
+            }
+            return at(node, new StructType(node.name(), fields));
+        }
+        default:
+            throw new RuntimeException("Not a declarable: " + node.kind());
+        }
+    }
+
+    private static Variable variable(Cursor node) {
+        Cursor initializer = node.firstChild();
+        return at(node, new Variable(node.name(), TypeReference.parse(node.type()),
+            initializer == null ? null : expression(initializer)));
+    }
+
+    private static List<Expression> expressions(Cursor parent) {
+        List<Expression> result = new ArrayList<Expression>();
+        for (Cursor child = parent.firstChild(); child != null; child = child.nextSibling()) {
+            result.add(expression(child));
+        }
+        return result;
+    }
+
+    private static VariableExpression variableExpression(Cursor node) {
+        return VariableExpression.class.cast(expression(node));
+    }
+
+    private static Expression expression(Cursor node) {
+        switch (node.kind()) {
+        case NULL:
+            return Literal.NULL;
+        case TRUE:
+            return BooleanLiteral.TRUE;
+        case FALSE:
+            return BooleanLiteral.FALSE;
+        case INT:
+            return at(node, new IntegerLiteral(node.name()));
+        case REAL:
+            return at(node, new RealLiteral(node.name()));
+        case CHAR:
+            return at(node, new CharLiteral(node.name()));
+        case STRING:
+            return at(node, new StringLiteral(node.name()));
+        case INFIX: {
+            // Built from the innermost node down the left side outward, without recursing on
+            // long chains of operators
+            List<Cursor> spine = new ArrayList<Cursor>();
+            for (Cursor c = node; c.is(Kind.INFIX); c = c.firstChild()) {
+                spine.add(c);
+            }
+            Expression result = expression(spine.get(spine.size() - 1).firstChild());
+            for (int i = spine.size() - 1; i >= 0; i--) {
+                Cursor c = spine.get(i);
+                result = at(c, new InfixExpression(result, c.name(), expression(c.firstChild().nextSibling())));
+            }
+            return result;
+        }
+        case PREFIX:
+            return at(node, new PrefixExpression(node.name(), expression(node.firstChild())));
+        case POSTFIX:
+            return at(node, new PostfixExpression(variableExpression(node.firstChild()), node.name()));
+        case REFERENCE:
+            return at(node, new SimpleVariableReference(node.name()));
+        case SUBSCRIPT: {
+            Cursor sequence = node.firstChild();
+            return at(node, new SubscriptedVariable(variableExpression(sequence), expression(sequence.nextSibling())));
+        }
+        case DOT:
+            return at(node, new DottedVariable(variableExpression(node.firstChild()), node.name()));
+        case CALL:
+            return at(node, new CallExpression(node.name(), expressions(node)));
+        case STRUCT_AGGREGATE:
+            return at(node, new StructAggregate(TypeReference.parse(node.type()), expressions(node)));
+        case ARRAY_AGGREGATE:
+            return at(node, new ArrayAggregate(TypeReference.parse(node.type()), expressions(node)));
+        case EMPTY_ARRAY:
+            return at(node, new EmptyArray(TypeReference.parse(node.type()), expression(node.firstChild())));
+        default:
+            throw new RuntimeException("Not an expression: " + node.kind());
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.code.mycode.entities;
 
 import java.util.List;
+import java.util.ListIterator;
 
 /**
  * An expression directly constructing an array, such as
@@ -12,15 +13,15 @@ import java.util.List;
  */
 public class ArrayAggregate extends Expression {
 
-    private String typename;
+    private TypeReference typename;
     private List<Expression> args;
 
-    public ArrayAggregate(String typename, List<Expression> args) {
+    public ArrayAggregate(TypeReference typename, List<Expression> args) {
         this.typename = typename;
         this.args = args;
     }
 
-    public String getTypename() {
+    public TypeReference getTypename() {
         return typename;
     }
 
@@ -48,4 +49,11 @@ public class ArrayAggregate extends Expression {
             a.assertAssignableTo(elementType, "array_aggregate_type_mismatch", context);
         }
     }
+
+    @Override
+    void rewriteChildren(ExpressionRewriter rewriter) {
+        for (ListIterator<Expression> it = args.listIterator(); it.hasNext();) {
+            it.set(rewriter.rewriteExpression(it.next()));
+        }
+    }
 }
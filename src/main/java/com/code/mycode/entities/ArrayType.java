@@ -16,6 +16,11 @@ public class ArrayType extends Type {
         return baseType;
     }
 
+    @Override
+    public TypeReference getReference() {
+        return baseType.getReference().array();
+    }
+
     @Override
     public void analyze(AnalysisContext context) {
         baseType.analyze(context);
@@ -38,4 +38,10 @@ public class AssignmentStatement extends Statement {
         }
         return this;
     }
+
+    @Override
+    void rewriteExpressions(ExpressionRewriter rewriter) {
+        rewriter.rewriteTarget(left);
+        right = rewriter.rewriteExpression(right);
+    }
 }
@@ -65,6 +65,14 @@ public class Block extends Entity {
         table = new SymbolTable(parent);
     }
 
+    /**
+     * Makes the given table this block's own, as for the body of a function, whose table is
+     * made when its signature is analyzed, possibly before the body is parsed.
+     */
+    void setTable(SymbolTable table) {
+        this.table = table;
+    }
+
     @Override
     public void analyze(AnalysisContext context) {
         List<Type> types = getTypes();
@@ -89,7 +97,7 @@ public class Block extends Entity {
         // types of their fields, and these fields may refer to other
         // struct types declared in this block.
         for (Type type: types) {
-            table.insert(type, context.getLog());
+            table.insert(type, context.at(type).getLog());
         }
 
         // Pre-analyze structure types so the fields are available.
@@ -98,7 +106,7 @@ public class Block extends Entity {
         // handled, since the variables may refer to struct fields in
         // their initializing expressions.
         for (Type type: types) {
-            type.analyze(context.withTable(table));
+            type.analyze(context.withTable(table).at(type));
         }
 
         // Insert the functions into the table, but analyze ONLY the
@@ -111,8 +119,8 @@ public class Block extends Entity {
         // at since variables can call any function in their initializing
         // expressions.
         for (Function function: functions) {
-            function.analyzeSignature(context.withTable(table));
-            table.insert(function, context.getLog());
+            function.analyzeSignature(context.withTable(table).at(function));
+            table.insert(function, context.at(function).getLog());
         }
 
         // Now just go through all the items in order and analyze
@@ -125,14 +133,14 @@ public class Block extends Entity {
             if (s instanceof Declaration) {
                 Declarable d = ((Declaration)s).getDeclarable();
                 if (d instanceof Variable) {
-                    table.insert(d, context.getLog());
+                    table.insert(d, context.at(d).getLog());
                 }
                 if (d instanceof Type) {
                     // Don't analyze types again
                     continue;
                 }
             }
-            s.analyze(context.withTable(table));
+            s.analyze(context.withTable(table).at(s));
         }
     }
 
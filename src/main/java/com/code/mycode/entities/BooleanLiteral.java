@@ -10,6 +10,9 @@ public class BooleanLiteral extends Literal {
 
     private BooleanLiteral(String lexeme) {
         super(lexeme);
+
+        // Set here too, since the optimizer can produce these without them ever being analyzed
+        this.type = Type.BOOLEAN;
     }
 
     @Override
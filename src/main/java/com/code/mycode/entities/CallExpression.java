@@ -45,7 +45,7 @@ public class CallExpression extends VariableExpression {
         }
 
         // Find out which function we're calling
-        function = context.lookupFunction(functionName, args);
+        function = context.at(this).lookupFunction(functionName, args);
 
         if (function == null) {
             // If we can't find the function, just forget it
@@ -67,6 +67,33 @@ public class CallExpression extends VariableExpression {
         for (ListIterator<Expression> it = args.listIterator(); it.hasNext();) {
             it.set(it.next().optimize());
         }
+
+        // Calls to pure functions on literals can be made right now
+        if (allLiterals(args)) {
+            Literal result = new ConstantEvaluator().evaluate(function, args, type);
+            if (result != null) {
+                return result;
+            }
+        }
         return this;
     }
+
+    @Override
+    void rewriteChildren(ExpressionRewriter rewriter) {
+        for (ListIterator<Expression> it = args.listIterator(); it.hasNext();) {
+            it.set(rewriter.rewriteExpression(it.next()));
+        }
+    }
+
+    /**
+     * Returns whether every expression in the given list is a literal.
+     */
+    static boolean allLiterals(List<Expression> expressions) {
+        for (Expression e: expressions) {
+            if (!(e instanceof Literal)) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -51,6 +51,18 @@ public class CallStatement extends Statement {
         for (ListIterator<Expression> it = args.listIterator(); it.hasNext();) {
             it.set(it.next().optimize());
         }
+
+        // A pure function's only effect is its result, so a call that is known to finish is dead
+        if (CallExpression.allLiterals(args) && new ConstantEvaluator().completes(function, args)) {
+            return null;
+        }
         return this;
     }
+
+    @Override
+    void rewriteExpressions(ExpressionRewriter rewriter) {
+        for (ListIterator<Expression> it = args.listIterator(); it.hasNext();) {
+            it.set(rewriter.rewriteExpression(it.next()));
+        }
+    }
 }
@@ -32,4 +32,9 @@ public class Case extends Entity {
         condition = condition.optimize();
         body.optimize();
     }
+
+    void rewriteExpressions(ExpressionRewriter rewriter) {
+        condition = rewriter.rewriteExpression(condition);
+        rewriter.rewriteBlock(body);
+    }
 }
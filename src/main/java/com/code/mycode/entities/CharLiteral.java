@@ -27,6 +27,24 @@ public class CharLiteral extends Literal {
         this.value = ((Integer)values.get(0)).intValue();
     }
 
+    // Back door for optimizer.
+    static CharLiteral fromValue(int value) {
+        CharLiteral result = new CharLiteral("'" + escape(value) + "'");
+        result.value = value;
+        result.type = Type.CHAR;
+        return result;
+    }
+
+    /**
+     * Returns the given codepoint as it would be written in a MyCode char or string literal.
+     */
+    static String escape(int codepoint) {
+        if (codepoint >= 32 && codepoint < 127 && codepoint != '\\' && codepoint != '\'' && codepoint != '"') {
+            return String.valueOf((char)codepoint);
+        }
+        return "\\" + Integer.toHexString(codepoint) + ";";
+    }
+
     /**
      * Returns a list of the codepoints of the characters in the given
      * string from position start (inclusive) to position end (exclusive).
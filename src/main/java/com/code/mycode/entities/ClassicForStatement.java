@@ -1,6 +1,9 @@
 package com.code.mycode.entities;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A statement of the form "for (t i = e1; e2; e3) block" where each of the three sections
@@ -8,14 +11,16 @@ import java.util.ArrayList;
  */
 public class ClassicForStatement extends Statement {
 
-    private String tyname;
+    private TypeReference tyname;
     private String index;
     private Expression init, test;
     private Statement each;
     private Block body;
     private Variable indexVariable;
+    private List<Variable> derivedVariables = new ArrayList<Variable>();
+    private List<AssignmentStatement> derivedUpdates = new ArrayList<AssignmentStatement>();
 
-    public ClassicForStatement(String tyname, String index, Expression init, Expression test,
+    public ClassicForStatement(TypeReference tyname, String index, Expression init, Expression test,
             Statement each, Block body) {
         this.tyname = tyname;
         this.index = index;
@@ -37,6 +42,19 @@ public class ClassicForStatement extends Statement {
         return index;
     }
 
+    /**
+     * Returns the variables the optimizer introduced to replace multiples of the index variable.
+     * Each is initialized along with the index variable and updated, by the corresponding
+     * statement of getDerivedUpdates(), along with it.
+     */
+    public List<Variable> getDerivedVariables() {
+        return derivedVariables;
+    }
+
+    public List<AssignmentStatement> getDerivedUpdates() {
+        return derivedUpdates;
+    }
+
     public Variable getIndexVariable() {
         return indexVariable;
     }
@@ -49,7 +67,7 @@ public class ClassicForStatement extends Statement {
         return test;
     }
 
-    public String getTyname() {
+    public TypeReference getTyname() {
         return tyname;
     }
 
@@ -78,7 +96,7 @@ public class ClassicForStatement extends Statement {
 
         // No constraints on the third part.
         if (each != null) {
-            each.analyze(context);
+            each.analyze(context.at(each));
         }
 
         // Analyze the body, noting that it *is* a loop body.
@@ -109,4 +127,147 @@ public class ClassicForStatement extends Statement {
         body.optimize();
         return this;
     }
+
+    /**
+     * Performs strength reduction on the index variable.  When the index variable moves by a
+     * constant step in the third section and is never written in the body, each product i * c
+     * (or shift i << k) in the body is replaced by a new variable initialized to init * c and
+     * stepped by step * c alongside the index.  If in addition the index starts non-negative,
+     * counts up by one and is tested with i < e, divisions and remainders of it by powers of
+     * two become shifts and masks.  Run by the induction variable pass after the loop has been
+     * optimized.
+     */
+    void reduceInductionVariable() {
+        final Integer step = indexStep();
+        if (step == null || isIndexWrittenIn(body)) {
+            return;
+        }
+        final boolean nonNegative = step == 1 && init.isNonNegative()
+                && test instanceof InfixExpression
+                && "<".equals(InfixExpression.class.cast(test).getOp())
+                && InfixExpression.class.cast(test).getLeft().refersTo(indexVariable);
+        final Map<Integer, Variable> multiples = new HashMap<Integer, Variable>();
+
+        new ExpressionRewriter() {
+            @Override
+            public boolean entersFunctions() {
+                return false;
+            }
+
+            @Override
+            public Expression rewrite(Expression e) {
+                if (!(e instanceof InfixExpression)) {
+                    return e;
+                }
+                InfixExpression infix = InfixExpression.class.cast(e);
+                if (!infix.getLeft().refersTo(indexVariable)
+                        || !(infix.getRight() instanceof IntegerLiteral)) {
+                    return e;
+                }
+                String op = infix.getOp();
+                int c = IntegerLiteral.class.cast(infix.getRight()).getValue();
+                int shift = c > 0 && (c & (c - 1)) == 0 ? Integer.numberOfTrailingZeros(c) : -1;
+                if ("*".equals(op) && c != 0 && c != 1) {
+                    return SimpleVariableReference.fromReferent(multiple(c));
+                } else if ("<<".equals(op) && c > 0 && c < 31) {
+                    return SimpleVariableReference.fromReferent(multiple(1 << c));
+                } else if (nonNegative && "/".equals(op) && shift > 0) {
+                    return InfixExpression.fromOperands(infix.getLeft(), ">>",
+                            IntegerLiteral.fromValue(shift), Type.INT);
+                } else if (nonNegative && "%".equals(op) && shift >= 0) {
+                    return InfixExpression.fromOperands(infix.getLeft(), "&",
+                            IntegerLiteral.fromValue(c - 1), Type.INT);
+                }
+                return e;
+            }
+
+            private Variable multiple(int c) {
+                Variable v = multiples.get(c);
+                if (v == null) {
+                    Expression start = InfixExpression.fromOperands(init, "*",
+                            IntegerLiteral.fromValue(c), Type.INT);
+                    v = new Variable(index + "*" + c, Type.INT, start.optimize());
+                    Expression next = InfixExpression.fromOperands(
+                            SimpleVariableReference.fromReferent(v), "+",
+                            IntegerLiteral.fromValue(step * c), Type.INT);
+                    derivedVariables.add(v);
+                    derivedUpdates.add(new AssignmentStatement(
+                            SimpleVariableReference.fromReferent(v), next.optimize()));
+                    multiples.put(c, v);
+                }
+                return v;
+            }
+        }.rewriteBlock(body);
+    }
+
+    /**
+     * Returns the constant amount by which the third section changes the int index variable, or
+     * null if there is no index variable or the third section does anything more complicated
+     * than i++, i--, i = i + c, or i = i - c.
+     */
+    private Integer indexStep() {
+        // The initializer is evaluated again for each derived variable, so it must be simple.
+        if (indexVariable == null || indexVariable.getType() != Type.INT
+                || !(init instanceof Literal || init instanceof SimpleVariableReference)) {
+            return null;
+        }
+        if (each instanceof IncrementStatement) {
+            IncrementStatement increment = IncrementStatement.class.cast(each);
+            if (increment.getTarget().refersTo(indexVariable)) {
+                return "++".equals(increment.getOp()) ? 1 : -1;
+            }
+        } else if (each instanceof AssignmentStatement) {
+            AssignmentStatement assignment = AssignmentStatement.class.cast(each);
+            if (assignment.getLeft().refersTo(indexVariable)
+                    && assignment.getRight() instanceof InfixExpression) {
+                InfixExpression next = InfixExpression.class.cast(assignment.getRight());
+                if (next.getLeft().refersTo(indexVariable)
+                        && next.getRight() instanceof IntegerLiteral) {
+                    int c = IntegerLiteral.class.cast(next.getRight()).getValue();
+                    if ("+".equals(next.getOp())) {
+                        return c;
+                    } else if ("-".equals(next.getOp())) {
+                        return -c;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether the index variable is assigned or incremented anywhere in the given block,
+     * including inside functions declared there.
+     */
+    private boolean isIndexWrittenIn(Block block) {
+        final boolean[] written = {false};
+        new ExpressionRewriter() {
+            @Override
+            public Expression rewrite(Expression e) {
+                return e;
+            }
+
+            @Override
+            public void written(VariableExpression target) {
+                if (target.refersTo(indexVariable)) {
+                    written[0] = true;
+                }
+            }
+        }.rewriteBlock(block);
+        return written[0];
+    }
+
+    @Override
+    void rewriteExpressions(ExpressionRewriter rewriter) {
+        if (init != null) {
+            init = rewriter.rewriteExpression(init);
+        }
+        if (test != null) {
+            test = rewriter.rewriteExpression(test);
+        }
+        if (each != null) {
+            each.rewriteExpressions(rewriter);
+        }
+        rewriter.rewriteBlock(body);
+    }
 }
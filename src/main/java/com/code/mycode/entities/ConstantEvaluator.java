@@ -0,0 +1,525 @@
+package com.code.mycode.entities;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates calls at compile time.  Built-in functions other than getString, and user functions
+ * found pure by the PurityAnalysis, are run on literal arguments by a small interpreter over the
+ * semantic graph, and the result turned back into a literal.
+ *
+ * Values are represented as Integers (for ints and chars), Doubles, Booleans, Strings, and
+ * Object arrays (for both arrays and structs, whose fields are stored in declaration order).
+ * Ints use 32-bit arithmetic; the math built-ins use StrictMath, the fdlibm algorithms that
+ * JavaScript engines also use.
+ *
+ * Evaluation is bounded by a step budget, a recursion limit, and a limit on the number of array
+ * elements allocated.  If any bound is exceeded, or the evaluation runs into something it can't
+ * be sure of, such as an out of bounds subscript or a division by zero, the call is simply left
+ * for run time.
+ */
+public class ConstantEvaluator {
+
+    public static final int DEFAULT_STEPS = 100000;
+    public static final int DEFAULT_DEPTH = 100;
+    public static final int DEFAULT_ELEMENTS = 100000;
+
+    /**
+     * Signals that a call cannot, or should not, be evaluated at compile time.
+     */
+    @SuppressWarnings("serial")
+    private static class NotConstant extends RuntimeException {
+    }
+
+    private enum Completion {NORMAL, BREAK, RETURN, TAIL_CALL}
+
+    private int steps;
+    private int depth;
+    private int elements;
+    private Object returnValue;
+    private List<Object> tailArguments;
+
+    public ConstantEvaluator(int steps, int depth, int elements) {
+        this.steps = steps;
+        this.depth = depth;
+        this.elements = elements;
+    }
+
+    public ConstantEvaluator() {
+        this(DEFAULT_STEPS, DEFAULT_DEPTH, DEFAULT_ELEMENTS);
+    }
+
+    /**
+     * Returns whether calls to the given function with literal arguments may be evaluated at
+     * compile time.
+     */
+    public static boolean isEvaluable(Function f) {
+        return f != null && f != Function.GET_STRING && (f.getBody() == null || f.isPure());
+    }
+
+    /**
+     * Returns a literal for the result of calling the given function on the given literals, or
+     * null if the call cannot be evaluated at compile time, or its result is not a literal.
+     */
+    public Literal evaluate(Function f, List<Expression> args, Type resultType) {
+        if (!isEvaluable(f)) {
+            return null;
+        }
+        try {
+            List<Object> values = new ArrayList<Object>();
+            for (Expression arg: args) {
+                values.add(evaluate(arg, null));
+            }
+            return toLiteral(call(f, values), resultType);
+        } catch (NotConstant e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether a call to the given void function, or to a function whose result is not
+     * used, with the given literal arguments completes within the budgets.  Such a call, being
+     * pure, can then be dropped.
+     */
+    public boolean completes(Function f, List<Expression> args) {
+        if (!isEvaluable(f)) {
+            return false;
+        }
+        try {
+            List<Object> values = new ArrayList<Object>();
+            for (Expression arg: args) {
+                values.add(evaluate(arg, null));
+            }
+            call(f, values);
+            return true;
+        } catch (NotConstant e) {
+            return false;
+        }
+    }
+
+    private static Literal toLiteral(Object value, Type type) {
+        if (type == Type.INT && value instanceof Integer) {
+            return IntegerLiteral.fromValue((Integer)value);
+        } else if (type == Type.CHAR && value instanceof Integer) {
+            return CharLiteral.fromValue((Integer)value);
+        } else if (type == Type.REAL && value instanceof Number) {
+            return RealLiteral.fromValue(((Number)value).doubleValue());
+        } else if (type == Type.BOOLEAN && value instanceof Boolean) {
+            return BooleanLiteral.fromValue((Boolean)value);
+        } else if (type == Type.STRING && value instanceof String) {
+            return StringLiteral.fromValue((String)value);
+        }
+        return null;
+    }
+
+    private void step() {
+        if (--steps < 0) {
+            throw new NotConstant();
+        }
+    }
+
+    private Object call(Function f, List<Object> args) {
+        step();
+        if (f.getBody() == null) {
+            return callBuiltIn(f, args);
+        }
+        if (--depth < 0) {
+            throw new NotConstant();
+        }
+        Map<Variable, Object> frame = new HashMap<Variable, Object>();
+        while (true) {
+            Iterator<Object> values = args.iterator();
+            for (Variable parameter: f.getParameters()) {
+                frame.put(parameter, values.next());
+            }
+            Completion completion = execute(f.getBody(), frame);
+            if (completion == Completion.TAIL_CALL) {
+                args = tailArguments;
+                continue;
+            }
+            depth++;
+            return completion == Completion.RETURN ? returnValue : null;
+        }
+    }
+
+    private Object callBuiltIn(Function f, List<Object> args) {
+        if (f == Function.PI) {
+            return Math.PI;
+        } else if (f == Function.SQRT) {
+            return StrictMath.sqrt(real(args.get(0)));
+        } else if (f == Function.SIN) {
+            return StrictMath.sin(real(args.get(0)));
+        } else if (f == Function.COS) {
+            return StrictMath.cos(real(args.get(0)));
+        } else if (f == Function.ATAN) {
+            return StrictMath.atan2(real(args.get(0)), real(args.get(1)));
+        } else if (f == Function.LN) {
+            return StrictMath.log(real(args.get(0)));
+        } else if (f == Function.SUBSTRING) {
+            // Mirrors JavaScript's substring, which clamps and orders its arguments
+            String s = string(args.get(0));
+            int start = Math.min(Math.max(integer(args.get(1)), 0), s.length());
+            int end = Math.min(Math.max(integer(args.get(2)), 0), s.length());
+            return s.substring(Math.min(start, end), Math.max(start, end));
+        }
+        throw new NotConstant();
+    }
+
+    private Completion execute(Block block, Map<Variable, Object> frame) {
+        for (Statement s: block.getStatements()) {
+            Completion completion = execute(s, frame);
+            if (completion != Completion.NORMAL) {
+                return completion;
+            }
+        }
+        return Completion.NORMAL;
+    }
+
+    private Completion execute(Statement s, Map<Variable, Object> frame) {
+        step();
+        if (s instanceof Declaration) {
+            Declarable d = Declaration.class.cast(s).getDeclarable();
+            if (d instanceof Variable) {
+                Variable v = Variable.class.cast(d);
+                Expression initializer = v.getInitializer();
+                frame.put(v, initializer == null ? initialValue(v.getType()) : evaluate(initializer, frame));
+            }
+            return Completion.NORMAL;
+
+        } else if (s instanceof AssignmentStatement) {
+            AssignmentStatement a = AssignmentStatement.class.cast(s);
+            assign(a.getLeft(), evaluate(a.getRight(), frame), frame);
+            return Completion.NORMAL;
+
+        } else if (s instanceof IncrementStatement) {
+            IncrementStatement i = IncrementStatement.class.cast(s);
+            int delta = "++".equals(i.getOp()) ? 1 : -1;
+            assign(i.getTarget(), integer(evaluate(i.getTarget(), frame)) + delta, frame);
+            return Completion.NORMAL;
+
+        } else if (s instanceof CallStatement) {
+            CallStatement c = CallStatement.class.cast(s);
+            call(c.getFunction(), evaluateAll(c.getArgs(), frame));
+            return Completion.NORMAL;
+
+        } else if (s instanceof BreakStatement) {
+            return Completion.BREAK;
+
+        } else if (s instanceof ReturnStatement) {
+            Expression e = ReturnStatement.class.cast(s).getReturnExpression();
+            returnValue = e == null ? null : evaluate(e, frame);
+            return Completion.RETURN;
+
+        } else if (s instanceof TailCallStatement) {
+            tailArguments = evaluateAll(TailCallStatement.class.cast(s).getArgs(), frame);
+            return Completion.TAIL_CALL;
+
+        } else if (s instanceof IfStatement) {
+            IfStatement i = IfStatement.class.cast(s);
+            for (Case c: i.getCases()) {
+                if (bool(evaluate(c.getCondition(), frame))) {
+                    return execute(c.getBody(), frame);
+                }
+            }
+            return i.getElsePart() == null ? Completion.NORMAL : execute(i.getElsePart(), frame);
+
+        } else if (s instanceof WhileStatement) {
+            WhileStatement w = WhileStatement.class.cast(s);
+            while (bool(evaluate(w.getCondition(), frame))) {
+                Completion completion = execute(w.getBody(), frame);
+                if (completion == Completion.BREAK) {
+                    break;
+                } else if (completion != Completion.NORMAL) {
+                    return completion;
+                }
+            }
+            return Completion.NORMAL;
+
+        } else if (s instanceof ClassicForStatement) {
+            return executeFor(ClassicForStatement.class.cast(s), frame);
+        }
+
+        // Printing, or anything new
+        throw new NotConstant();
+    }
+
+    private Completion executeFor(ClassicForStatement s, Map<Variable, Object> frame) {
+        if (s.getIndexVariable() != null) {
+            frame.put(s.getIndexVariable(), evaluate(s.getInit(), frame));
+            for (Variable v: s.getDerivedVariables()) {
+                frame.put(v, evaluate(v.getInitializer(), frame));
+            }
+        } else if (s.getInit() != null) {
+            evaluate(s.getInit(), frame);
+        }
+        while (s.getTest() == null || bool(evaluate(s.getTest(), frame))) {
+            Completion completion = execute(s.getBody(), frame);
+            if (completion == Completion.BREAK) {
+                break;
+            } else if (completion != Completion.NORMAL) {
+                return completion;
+            }
+            if (s.getEach() != null) {
+                execute(s.getEach(), frame);
+            }
+            for (AssignmentStatement update: s.getDerivedUpdates()) {
+                execute(update, frame);
+            }
+        }
+        return Completion.NORMAL;
+    }
+
+    private List<Object> evaluateAll(List<Expression> expressions, Map<Variable, Object> frame) {
+        List<Object> values = new ArrayList<Object>();
+        for (Expression e: expressions) {
+            values.add(evaluate(e, frame));
+        }
+        return values;
+    }
+
+    /**
+     * Evaluates an expression.  A null frame means only literals can be evaluated.
+     */
+    private Object evaluate(Expression e, Map<Variable, Object> frame) {
+        step();
+        if (e instanceof IntegerLiteral) {
+            return IntegerLiteral.class.cast(e).getValue();
+        } else if (e instanceof RealLiteral) {
+            return RealLiteral.class.cast(e).getValue();
+        } else if (e instanceof CharLiteral) {
+            return CharLiteral.class.cast(e).getValue();
+        } else if (e instanceof StringLiteral) {
+            StringBuilder builder = new StringBuilder();
+            for (int codepoint: StringLiteral.class.cast(e).getValues()) {
+                builder.appendCodePoint(codepoint);
+            }
+            return builder.toString();
+        } else if (e instanceof BooleanLiteral) {
+            return e.isTrue();
+        } else if (e instanceof NullLiteral) {
+            return null;
+        } else if (frame == null) {
+            throw new NotConstant();
+
+        } else if (e instanceof SimpleVariableReference) {
+            Variable v = SimpleVariableReference.class.cast(e).getReferent();
+            if (!frame.containsKey(v)) {
+                throw new NotConstant();
+            }
+            return frame.get(v);
+        } else if (e instanceof SubscriptedVariable) {
+            SubscriptedVariable s = SubscriptedVariable.class.cast(e);
+            Object sequence = evaluate(s.getSequence(), frame);
+            int index = integer(evaluate(s.getIndex(), frame));
+            if (sequence instanceof String) {
+                String string = (String)sequence;
+                checkIndex(index, string.length());
+                return (int)string.charAt(index);
+            }
+            Object[] array = array(sequence);
+            checkIndex(index, array.length);
+            return array[index];
+        } else if (e instanceof DottedVariable) {
+            DottedVariable d = DottedVariable.class.cast(e);
+            return array(evaluate(d.getStruct(), frame))[fieldIndex(d)];
+        } else if (e instanceof CallExpression) {
+            CallExpression c = CallExpression.class.cast(e);
+            return call(c.getFunction(), evaluateAll(c.getArgs(), frame));
+
+        } else if (e instanceof EmptyArray) {
+            EmptyArray a = EmptyArray.class.cast(e);
+            int size = integer(evaluate(a.getBound(), frame));
+            if (size < 0 || (elements -= size) < 0) {
+                throw new NotConstant();
+            }
+            Object[] array = new Object[size];
+            Object initial = initialValue(ArrayType.class.cast(a.getType()).getBaseType());
+            for (int i = 0; i < size; i++) {
+                array[i] = initial;
+            }
+            return array;
+        } else if (e instanceof ArrayAggregate) {
+            return aggregate(ArrayAggregate.class.cast(e).getArgs(), frame);
+        } else if (e instanceof StructAggregate) {
+            return aggregate(StructAggregate.class.cast(e).getArgs(), frame);
+
+        } else if (e instanceof PrefixExpression) {
+            return evaluatePrefix(PrefixExpression.class.cast(e), frame);
+        } else if (e instanceof PostfixExpression) {
+            PostfixExpression p = PostfixExpression.class.cast(e);
+            int old = integer(evaluate(p.getOperand(), frame));
+            assign(p.getOperand(), "++".equals(p.getOp()) ? old + 1 : old - 1, frame);
+            return old;
+        } else if (e instanceof InfixExpression) {
+            return evaluateInfix(InfixExpression.class.cast(e), frame);
+        }
+        throw new NotConstant();
+    }
+
+    private Object[] aggregate(List<Expression> args, Map<Variable, Object> frame) {
+        if ((elements -= args.size()) < 0) {
+            throw new NotConstant();
+        }
+        return evaluateAll(args, frame).toArray();
+    }
+
+    private Object evaluatePrefix(PrefixExpression e, Map<Variable, Object> frame) {
+        String op = e.getOp();
+        if ("++".equals(op) || "--".equals(op)) {
+            VariableExpression target = VariableExpression.class.cast(e.getOperand());
+            int value = integer(evaluate(target, frame)) + ("++".equals(op) ? 1 : -1);
+            assign(target, value, frame);
+            return value;
+        }
+        Object x = evaluate(e.getOperand(), frame);
+        if ("!".equals(op)) {
+            return !bool(x);
+        } else if ("-".equals(op)) {
+            return x instanceof Double ? (Object)(-(Double)x) : (Object)(-integer(x));
+        } else if ("~".equals(op)) {
+            return ~integer(x);
+        } else if ("int".equals(op) || "char".equals(op)) {
+            return integer(x);
+        } else if ("length".equals(op)) {
+            return x instanceof String ? ((String)x).length() : array(x).length;
+        }
+
+        // The string operator formats values as JavaScript does, which is not worth emulating.
+        throw new NotConstant();
+    }
+
+    private Object evaluateInfix(InfixExpression e, Map<Variable, Object> frame) {
+        String op = e.getOp();
+        if ("&&".equals(op)) {
+            return bool(evaluate(e.getLeft(), frame)) && bool(evaluate(e.getRight(), frame));
+        } else if ("||".equals(op)) {
+            return bool(evaluate(e.getLeft(), frame)) || bool(evaluate(e.getRight(), frame));
+        }
+
+        Object x = evaluate(e.getLeft(), frame);
+        Object y = evaluate(e.getRight(), frame);
+        if ("==".equals(op)) {
+            return same(x, y);
+        } else if ("!=".equals(op)) {
+            return !same(x, y);
+        } else if (x instanceof String && y instanceof String) {
+            int comparison = ((String)x).compareTo((String)y);
+            if ("<".equals(op)) return comparison < 0;
+            else if ("<=".equals(op)) return comparison <= 0;
+            else if (">".equals(op)) return comparison > 0;
+            else if (">=".equals(op)) return comparison >= 0;
+        } else if (x instanceof Double || y instanceof Double) {
+            double a = real(x), b = real(y);
+            if ("+".equals(op)) return a + b;
+            else if ("-".equals(op)) return a - b;
+            else if ("*".equals(op)) return a * b;
+            else if ("/".equals(op)) return a / b;
+            else if ("<".equals(op)) return a < b;
+            else if ("<=".equals(op)) return a <= b;
+            else if (">".equals(op)) return a > b;
+            else if (">=".equals(op)) return a >= b;
+        } else {
+            int a = integer(x), b = integer(y);
+            if ("<".equals(op)) return a < b;
+            else if ("<=".equals(op)) return a <= b;
+            else if (">".equals(op)) return a > b;
+            else if (">=".equals(op)) return a >= b;
+            Integer result = InfixExpression.fold(op, a, b);
+            if (result != null) {
+                return result;
+            }
+        }
+        throw new NotConstant();
+    }
+
+    private void assign(VariableExpression target, Object value, Map<Variable, Object> frame) {
+        if (target instanceof SimpleVariableReference) {
+            Variable v = SimpleVariableReference.class.cast(target).getReferent();
+            if (!frame.containsKey(v)) {
+                throw new NotConstant();
+            }
+            frame.put(v, value);
+        } else if (target instanceof SubscriptedVariable) {
+            SubscriptedVariable s = SubscriptedVariable.class.cast(target);
+            Object[] array = array(evaluate(s.getSequence(), frame));
+            int index = integer(evaluate(s.getIndex(), frame));
+            checkIndex(index, array.length);
+            array[index] = value;
+        } else if (target instanceof DottedVariable) {
+            DottedVariable d = DottedVariable.class.cast(target);
+            array(evaluate(d.getStruct(), frame))[fieldIndex(d)] = value;
+        } else {
+            throw new NotConstant();
+        }
+    }
+
+    private static int fieldIndex(DottedVariable d) {
+        return StructType.class.cast(d.getStruct().getType()).getFields().indexOf(d.getField());
+    }
+
+    private static Object initialValue(Type type) {
+        if (type == Type.INT || type == Type.CHAR) {
+            return 0;
+        } else if (type == Type.REAL) {
+            return 0.0;
+        } else if (type == Type.BOOLEAN) {
+            return false;
+        } else if (type == Type.STRING) {
+            return "";
+        }
+        return null;
+    }
+
+    private static boolean same(Object x, Object y) {
+        if (x instanceof Number && y instanceof Number) {
+            return real(x) == real(y);
+        } else if (x instanceof String || x instanceof Boolean) {
+            return x.equals(y);
+        }
+        return x == y;
+    }
+
+    private static void checkIndex(int index, int length) {
+        if (index < 0 || index >= length) {
+            throw new NotConstant();
+        }
+    }
+
+    private static int integer(Object value) {
+        if (value instanceof Integer) {
+            return (Integer)value;
+        }
+        throw new NotConstant();
+    }
+
+    private static double real(Object value) {
+        if (value instanceof Number) {
+            return ((Number)value).doubleValue();
+        }
+        throw new NotConstant();
+    }
+
+    private static boolean bool(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean)value;
+        }
+        throw new NotConstant();
+    }
+
+    private static String string(Object value) {
+        if (value instanceof String) {
+            return (String)value;
+        }
+        throw new NotConstant();
+    }
+
+    private static Object[] array(Object value) {
+        if (value instanceof Object[]) {
+            return (Object[])value;
+        }
+        throw new NotConstant();
+    }
+}
@@ -25,4 +25,13 @@ public class Declaration extends Statement {
         declarable.optimize();
         return this;
     }
+
+    @Override
+    void rewriteExpressions(ExpressionRewriter rewriter) {
+        if (declarable instanceof Variable) {
+            Variable.class.cast(declarable).rewriteInitializer(rewriter);
+        } else if (declarable instanceof Function && rewriter.entersFunctions()) {
+            rewriter.rewriteBlock(Function.class.cast(declarable).getBody());
+        }
+    }
 }
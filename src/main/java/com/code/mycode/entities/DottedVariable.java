@@ -54,4 +54,12 @@ public class DottedVariable extends VariableExpression {
     public boolean isWritable() {
         return true;
     }
+
+    @Override
+    void rewriteChildren(ExpressionRewriter rewriter) {
+        Expression rewritten = rewriter.rewriteExpression(struct);
+        if (rewritten instanceof VariableExpression) {
+            struct = VariableExpression.class.cast(rewritten);
+        }
+    }
 }
@@ -9,10 +9,10 @@ package com.code.mycode.entities;
  */
 public class EmptyArray extends Expression {
 
-    private String tyname;
+    private TypeReference tyname;
     private Expression bound;
 
-    public EmptyArray(String tyname, Expression bound) {
+    public EmptyArray(TypeReference tyname, Expression bound) {
         this.tyname = tyname;
         this.bound = bound;
     }
@@ -21,7 +21,7 @@ public class EmptyArray extends Expression {
         return bound;
     }
 
-    public String getTyname() {
+    public TypeReference getTyname() {
         return tyname;
     }
 
@@ -31,4 +31,9 @@ public class EmptyArray extends Expression {
         bound.assertInteger("new_array_allocation", context);
         type = type.array();
     }
+
+    @Override
+    void rewriteChildren(ExpressionRewriter rewriter) {
+        bound = rewriter.rewriteExpression(bound);
+    }
 }
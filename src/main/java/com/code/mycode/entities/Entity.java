@@ -3,14 +3,20 @@ package com.code.mycode.entities;
 import java.io.PrintWriter;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.code.util.Log;
+import com.code.util.SourceFile;
 
 /**
  * Superclass for all entities in the compiler.
@@ -36,6 +42,7 @@ import com.code.util.Log;
  *       BreakStatement
  *       ContinueStatement
  *       ReturnStatement
+ *       TailCallStatement
  *       PrintStatement
  *       IfStatement
  *       WhileStatement
@@ -67,26 +74,68 @@ import com.code.util.Log;
 public abstract class Entity {
 
     /**
-     * Collection of all entities that have ever been created, as a map with the entities as keys
-     * and their ids as values.
+     * The number of entities ever created, which is the id of the next one.  Entities are not
+     * otherwise remembered, so those no longer used can be garbage collected.
      */
-    private static Map<Entity, Integer> all = new LinkedHashMap<Entity, Integer>();
+    private static final AtomicInteger created = new AtomicInteger();
+
+    private final int id;
+
+    /**
+     * Where the entity is in the source, packed as a SourceFile describes, or NO_POSITION for
+     * entities the parser did not create.
+     */
+    private long position = SourceFile.NO_POSITION;
 
     /**
-     * Creates an entity, "assigning" it a new unique id by placing it in a global map mapping the
-     * entity to its id.
+     * Creates an entity, assigning it a new unique id.
      */
     public Entity() {
-        synchronized (all) {
-            all.put(this, all.size());
-        }
+        id = created.getAndIncrement();
     }
 
     /**
      * Returns the integer id of this entity.
      */
     public Integer getId() {
-        return all.get(this);
+        return id;
+    }
+
+    /**
+     * Records where in the source this entity is.  The parser calls this; entities created
+     * later may take the position of the entity they replace.
+     */
+    public void setPosition(long position) {
+        this.position = position;
+    }
+
+    /**
+     * Gives this entity the source position of the entity it replaces.
+     */
+    void takePosition(Entity original) {
+        this.position = original.position;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public boolean hasPosition() {
+        return position != SourceFile.NO_POSITION;
+    }
+
+    /**
+     * Returns the line where this entity starts, counted from 1, or 0 if it has no position.
+     */
+    public int getLine() {
+        return SourceFile.line(position);
+    }
+
+    /**
+     * Returns the column where this entity starts, counted from 1, or 0 if it has no position.
+     */
+    public int getColumn() {
+        return SourceFile.column(position);
     }
 
     /**
@@ -103,6 +152,30 @@ public abstract class Entity {
      */
     public final void printSyntaxTree(String indent, String prefix, PrintWriter out) {
 
+        // Trees can be deeper than the Java stack, as for long chains of operators, so rather than
+        // recursing we keep a stack of the entities still to be written, each with its indent and
+        // prefix.  Children are pushed last to first, so that they come off in order.
+        Deque<PendingLine> pending = new ArrayDeque<PendingLine>();
+        pending.push(new PendingLine(this, indent, prefix));
+        while (!pending.isEmpty()) {
+            PendingLine next = pending.pop();
+            Map<String, Entity> children = next.entity.writeSyntaxLine(next.indent, next.prefix, out);
+            List<PendingLine> lines = new ArrayList<PendingLine>();
+            for (Map.Entry<String, Entity> child: children.entrySet()) {
+                lines.add(new PendingLine(child.getValue(), next.indent + "  ", child.getKey() + ": "));
+            }
+            for (int i = lines.size() - 1; i >= 0; i--) {
+                pending.push(lines.get(i));
+            }
+        }
+    }
+
+    /**
+     * Writes the line for this entity in a syntax tree, returning its entity children, by name,
+     * to be written after it.
+     */
+    private Map<String, Entity> writeSyntaxLine(String indent, String prefix, PrintWriter out) {
+
         // Prepare the line to be written
         String classname = getClass().getName();
         String kind = classname.substring(classname.lastIndexOf('.') + 1);
@@ -135,10 +208,18 @@ public abstract class Entity {
             }
         }
         out.println(line);
+        return children;
+    }
+
+    private static class PendingLine {
+        final Entity entity;
+        final String indent;
+        final String prefix;
 
-        // Now we can go through all the entity children that were saved up earlier
-        for (Map.Entry<String, Entity> child: children.entrySet()) {
-            child.getValue().printSyntaxTree(indent + "  ", child.getKey() + ": ", out);
+        PendingLine(Entity entity, String indent, String prefix) {
+            this.entity = entity;
+            this.indent = indent;
+            this.prefix = prefix;
         }
     }
 
@@ -147,27 +228,50 @@ public abstract class Entity {
      */
     public void traverse(Visitor v, Set<Entity> visited) {
 
-        // The graph may have cycles, so skip this entity if we have seen it before.  If we
-        // haven't, mark it seen.
-        if (visited.contains(this)) {
+        // The graph may have cycles, so entities seen before are skipped.  It may also be deeper
+        // than the Java stack, so instead of recursing we keep the path from this entity to the
+        // one being visited, along with where we are in the children of each entity on it.
+        if (!visited.add(this)) {
             return;
         }
-        visited.add(this);
-
+        Deque<Entity> path = new ArrayDeque<Entity>();
+        Deque<Iterator<Entity>> remaining = new ArrayDeque<Iterator<Entity>>();
         v.onEntry(this);
+        path.push(this);
+        remaining.push(children().iterator());
+        while (!path.isEmpty()) {
+            if (remaining.peek().hasNext()) {
+                Entity child = remaining.peek().next();
+                if (visited.add(child)) {
+                    v.onEntry(child);
+                    path.push(child);
+                    remaining.push(child.children().iterator());
+                }
+            } else {
+                remaining.pop();
+                v.onExit(path.pop());
+            }
+        }
+    }
+
+    /**
+     * Returns the entities held in this entity's fields, directly or in collections, in order.
+     */
+    private List<Entity> children() {
+        List<Entity> result = new ArrayList<Entity>();
         for (Map.Entry<String, Object> entry: attributes().entrySet()) {
             Object value = entry.getValue();
             if (value instanceof Entity) {
-                Entity.class.cast(value).traverse(v, visited);
+                result.add(Entity.class.cast(value));
             } else if (value instanceof Iterable<?>) {
                 for (Object child : (Iterable<?>) value) {
                     if (child instanceof Entity) {
-                        Entity.class.cast(child).traverse(v, visited);
+                        result.add(Entity.class.cast(child));
                     }
                 }
             }
         }
-        v.onExit(this);
+        return result;
     }
 
     public static interface Visitor {
@@ -242,6 +346,9 @@ public abstract class Entity {
      *   <li>The innermost enclosing function of the entity being analyzed.
      *   <li>Whether we are in a loop, necessary for checking break statements, for example.
      * </ul>
+     *
+     * Errors logged through a context located at an entity, with <code>at</code>, are prefixed
+     * with the position of the entity.
      */
     public static class AnalysisContext {
         private Log log;
@@ -287,6 +394,24 @@ public abstract class Entity {
             return new AnalysisContext(this.log, this.table, this.function, inLoop);
         }
 
+        /**
+         * Returns a context for analyzing the given entity, whose errors are located at the
+         * entity if it has a position.  The position is only decoded if an error is logged.
+         */
+        public AnalysisContext at(Entity entity) {
+            if (!entity.hasPosition()) {
+                return this;
+            }
+            final long position = entity.getPosition();
+            Log located = log.at(new Object() {
+                @Override
+                public String toString() {
+                    return SourceFile.describe(position);
+                }
+            });
+            return new AnalysisContext(located, this.table, this.function, this.inLoop);
+        }
+
         public Log getLog() {
             return log;
         }
@@ -303,8 +428,8 @@ public abstract class Entity {
             return inLoop;
         }
 
-        public Type lookupType(String name) {
-            return getTable().lookupType(name, getLog());
+        public Type lookupType(TypeReference reference) {
+            return getTable().lookupType(reference, getLog());
         }
 
         public Variable lookupVariable(String name) {
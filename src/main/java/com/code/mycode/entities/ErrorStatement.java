@@ -0,0 +1,15 @@
+package com.code.mycode.entities;
+
+/**
+ * A stand-in for a statement that could not be parsed.  The parser logs the syntax error,
+ * skips ahead to where it can go on, and puts one of these in place of what it skipped, so that
+ * the rest of the program can still be analyzed.  Since the error has been counted, a program
+ * with error statements never gets past semantic analysis.
+ */
+public class ErrorStatement extends Statement {
+
+    @Override
+    public void analyze(AnalysisContext context) {
+        // Intentionally empty: the error has already been reported
+    }
+}
@@ -30,49 +30,49 @@ public abstract class Expression extends Entity {
 
     void assertAssignableTo(Type otherType, String resourceKey, AnalysisContext context) {
         if (!this.isCompatibleWith(otherType)) {
-            context.error(resourceKey, otherType.getName(), this.type.getName());
+            context.at(this).error(resourceKey, otherType.getName(), this.type.getName());
         }
     }
 
     void assertArithmetic(String operator, AnalysisContext context) {
         if (!(type == Type.INT || type == Type.REAL)) {
-            context.error("non_arithmetic", operator);
+            context.at(this).error("non_arithmetic", operator);
         }
     }
 
     void assertInteger(String operator, AnalysisContext context) {
         if (!(type == Type.INT)) {
-            context.error("non_integer", operator);
+            context.at(this).error("non_integer", operator);
         }
     }
 
     void assertBoolean(String resourceKey, AnalysisContext context) {
         if (!(type == Type.BOOLEAN)) {
-            context.error(resourceKey);
+            context.at(this).error(resourceKey);
         }
     }
 
     void assertChar(String operator, AnalysisContext context) {
         if (!(type == Type.CHAR)) {
-            context.error("non_char", operator);
+            context.at(this).error("non_char", operator);
         }
     }
 
     void assertArray(String operator, AnalysisContext context) {
         if (!(type instanceof ArrayType)) {
-            context.error("non_array", operator);
+            context.at(this).error("non_array", operator);
         }
     }
 
     void assertString(String operator, AnalysisContext context) {
         if (!(type == Type.STRING)) {
-            context.error("non_string", operator);
+            context.at(this).error("non_string", operator);
         }
     }
 
     void assertArrayOrString(String operator, AnalysisContext context) {
         if (!(type == Type.STRING || type instanceof ArrayType)) {
-            context.error("non_array_or_string", operator);
+            context.at(this).error("non_array_or_string", operator);
         }
     }
 
@@ -86,6 +86,14 @@ public abstract class Expression extends Entity {
         return this;
     }
 
+    /**
+     * Replaces each subexpression of this expression with its rewritten form.  Overridden in
+     * every expression class that has subexpressions.
+     */
+    void rewriteChildren(ExpressionRewriter rewriter) {
+        // Intentionally empty
+    }
+
     boolean isZero() {
         return (this instanceof IntegerLiteral && IntegerLiteral.class.cast(this).getValue() == 0)
                 || (this instanceof RealLiteral && RealLiteral.class.cast(this).getValue() == 0);
@@ -104,6 +112,19 @@ public abstract class Expression extends Entity {
         return BooleanLiteral.TRUE.equals(this);
     }
 
+    /**
+     * Returns whether this expression is known to never produce a negative integer.  Subclasses
+     * that can tell from their structure override this.
+     */
+    boolean isNonNegative() {
+        return this instanceof IntegerLiteral && IntegerLiteral.class.cast(this).getValue() >= 0;
+    }
+
+    boolean refersTo(Variable v) {
+        return this instanceof SimpleVariableReference
+                && SimpleVariableReference.class.cast(this).getReferent() == v;
+    }
+
     boolean sameVariableAs(Expression that) {
         return this instanceof SimpleVariableReference && that instanceof SimpleVariableReference &&
                 SimpleVariableReference.class.cast(this).getReferent() ==
@@ -0,0 +1,98 @@
+package com.code.mycode.entities;
+
+/**
+ * A transformation applied bottom-up to the expressions of a block.  Subclasses supply the
+ * rewrite method, which is called on each expression after its subexpressions have been
+ * rewritten, and returns either a replacement or the expression itself.
+ *
+ * Variable expressions that are written to (the left side of an assignment, the target of an
+ * increment) are never replaced, though the expressions inside them, such as subscripts, are.
+ * Subclasses wanting to know about such writes can override the written method.
+ */
+public abstract class ExpressionRewriter {
+
+    /**
+     * Returns the replacement for the given expression, whose subexpressions have already been
+     * rewritten.
+     */
+    public abstract Expression rewrite(Expression e);
+
+    /**
+     * Called for each variable expression that is the target of a write.  The default does
+     * nothing.
+     */
+    public void written(VariableExpression target) {
+        // Intentionally empty
+    }
+
+    /**
+     * Called for each statement of a rewritten block, before its expressions are rewritten.  The
+     * default does nothing.
+     */
+    public void visitStatement(Statement s) {
+        // Intentionally empty
+    }
+
+    /**
+     * Returns whether the bodies of functions declared within a rewritten block should be
+     * rewritten as well.  The default is true.
+     */
+    public boolean entersFunctions() {
+        return true;
+    }
+
+    /**
+     * Rewrites every expression in the given block, including those in nested blocks.
+     */
+    public void rewriteBlock(Block block) {
+        for (Statement s: block.getStatements()) {
+            visitStatement(s);
+            s.rewriteExpressions(this);
+        }
+    }
+
+    /**
+     * Returns whether the given expression needs no further rewriting, in which case it and its
+     * subexpressions are left as they are.  The default is false.
+     */
+    public boolean isRewritten(Expression e) {
+        return false;
+    }
+
+    /**
+     * Called with each replacement returned by rewrite.  The default does nothing.
+     */
+    public void rewritten(Expression result) {
+        // Intentionally empty
+    }
+
+    /**
+     * Rewrites the given expression tree, returning its replacement.
+     */
+    public Expression rewriteExpression(Expression e) {
+        if (isRewritten(e)) {
+            return e;
+        }
+        e.rewriteChildren(this);
+        return rewriteRoot(e);
+    }
+
+    /**
+     * Rewrites an expression whose subexpressions have already been rewritten.
+     */
+    Expression rewriteRoot(Expression e) {
+        Expression result = rewrite(e);
+        rewritten(result);
+        return result;
+    }
+
+    /**
+     * Rewrites the subexpressions of a variable expression that is written to, leaving the
+     * variable expression itself in place.
+     */
+    VariableExpression rewriteTarget(VariableExpression target) {
+        written(target);
+        target.rewriteChildren(this);
+        return target;
+    }
+}
@@ -0,0 +1,76 @@
+package com.code.mycode.entities;
+
+/**
+ * The shape of the frames, or records, that hold the variables of a function activation, of
+ * the top level of a program, or the fields of a struct.  Values of type int, char and boolean
+ * live in a long array, reals in a double array, and everything else in an Object array, so
+ * that primitive values never have to be boxed.  Each variable or field is given a slot in the
+ * array for its kind by the FrameResolver.
+ */
+public class FrameLayout {
+
+    /**
+     * The kinds of slots, one per array of a frame.
+     */
+    public enum Kind {LONG, DOUBLE, OBJECT}
+
+    private int level;
+    private int longs;
+    private int doubles;
+    private int objects;
+
+    FrameLayout(int level) {
+        this.level = level;
+    }
+
+    /**
+     * Returns the kind of slot that holds values of the given type.
+     */
+    public static Kind kindOf(Type type) {
+        if (type == Type.INT || type == Type.CHAR || type == Type.BOOLEAN) {
+            return Kind.LONG;
+        } else if (type == Type.REAL) {
+            return Kind.DOUBLE;
+        }
+        return Kind.OBJECT;
+    }
+
+    /**
+     * Returns the static nesting level of the frames: 0 for the top level of a program and for
+     * structs, 1 for the functions declared there, and so on.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    public int getLongs() {
+        return longs;
+    }
+
+    public int getDoubles() {
+        return doubles;
+    }
+
+    public int getObjects() {
+        return objects;
+    }
+
+    /**
+     * Returns a fresh slot for a value of the given type.
+     */
+    int allocate(Type type) {
+        switch (kindOf(type)) {
+        case LONG:
+            return longs++;
+        case DOUBLE:
+            return doubles++;
+        default:
+            return objects++;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "level " + level + " (" + longs + "/" + doubles + "/" + objects + ")";
+    }
+}
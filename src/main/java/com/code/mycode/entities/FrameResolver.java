@@ -0,0 +1,93 @@
+package com.code.mycode.entities;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assigns every variable of an analyzed program a slot in the frame of the function declaring
+ * it, and every struct field a slot in the records of its type.  A variable is then found at
+ * run time by walking up the static chain from the current frame by the difference in nesting
+ * levels, and indexing the array for its kind, with no lookup by name or by entity.
+ *
+ * Slots are never shared, even between variables of disjoint blocks; frames are small, and
+ * this keeps a slot's kind fixed.  Variables introduced by the optimizer, such as derived
+ * induction variables, get slots like any other.
+ */
+public class FrameResolver {
+
+    /**
+     * Resolves the variables and fields of the given program, which must have been analyzed
+     * without errors.  The program may be resolved again after further optimization.
+     */
+    public static void resolve(Program program) {
+        FrameLayout layout = new FrameLayout(0);
+        resolveBlock(program, layout);
+        program.setFrameLayout(layout);
+    }
+
+    private static void resolveFunction(Function f, int level) {
+        FrameLayout layout = new FrameLayout(level);
+        for (Variable parameter: f.getParameters()) {
+            parameter.setFrameSlot(level, layout.allocate(parameter.getType()));
+        }
+        resolveBlock(f.getBody(), layout);
+        f.setFrameLayout(layout);
+    }
+
+    private static void resolveStruct(StructType type) {
+        FrameLayout layout = new FrameLayout(0);
+        for (StructField field: type.getFields()) {
+            field.setFrameSlot(layout.allocate(field.getType()));
+        }
+        type.setFrameLayout(layout);
+    }
+
+    /**
+     * Gives slots in the given layout to the variables declared anywhere in the block, outside
+     * of nested functions, which are resolved afterwards with layouts of their own.
+     */
+    private static void resolveBlock(Block block, final FrameLayout layout) {
+        final List<Function> nested = new ArrayList<Function>();
+        new ExpressionRewriter() {
+            @Override
+            public boolean entersFunctions() {
+                return false;
+            }
+
+            @Override
+            public void visitStatement(Statement s) {
+                if (s instanceof Declaration) {
+                    Declarable d = Declaration.class.cast(s).getDeclarable();
+                    if (d instanceof Variable) {
+                        allocate(Variable.class.cast(d));
+                    } else if (d instanceof Function) {
+                        nested.add(Function.class.cast(d));
+                    } else if (d instanceof StructType) {
+                        resolveStruct(StructType.class.cast(d));
+                    }
+                } else if (s instanceof ClassicForStatement) {
+                    ClassicForStatement f = ClassicForStatement.class.cast(s);
+                    if (f.getIndexVariable() != null) {
+                        allocate(f.getIndexVariable());
+                    }
+                    for (Variable v: f.getDerivedVariables()) {
+                        allocate(v);
+                    }
+                }
+            }
+
+            @Override
+            public Expression rewrite(Expression e) {
+                return e;
+            }
+
+            private void allocate(Variable v) {
+                v.setFrameSlot(layout.getLevel(), layout.allocate(v.getType()));
+            }
+        }.rewriteBlock(block);
+
+        for (Function f: nested) {
+            resolveFunction(f, layout.getLevel() + 1);
+        }
+    }
+}
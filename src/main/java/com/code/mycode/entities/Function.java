@@ -13,11 +13,16 @@ import java.util.List;
  */
 public class Function extends Declarable {
 
-    private String returnTypeName;
+    private TypeReference returnTypeName;
     private List<Variable> parameters;
     private Block body;
+    private UnparsedBody unparsedBody;
+    private SymbolTable table;
     private Type returnType;
     private Function overload;
+    private boolean tailRecursive;
+    private boolean pure;
+    private FrameLayout frameLayout;
 
     public static final Function GET_STRING = new Function(STRING, "getString");
     public static final Function SUBSTRING = new Function(STRING, "substring", STRING, INT, INT);
@@ -28,13 +33,24 @@ public class Function extends Declarable {
     public static final Function ATAN = new Function(REAL, "atan", REAL, REAL);
     public static final Function LN = new Function( REAL, "ln", REAL);
 
-    public Function(String returnTypeName, String name, List<Variable> parameters, Block body) {
+    public Function(TypeReference returnTypeName, String name, List<Variable> parameters, Block body) {
         super(name);
         this.returnTypeName = returnTypeName;
         this.parameters = parameters;
         this.body = body;
     }
 
+    /**
+     * Creates a function whose body has not been parsed yet, and will be parsed when first asked
+     * for.
+     */
+    public Function(TypeReference returnTypeName, String name, List<Variable> parameters, UnparsedBody body) {
+        super(name);
+        this.returnTypeName = returnTypeName;
+        this.parameters = parameters;
+        this.unparsedBody = body;
+    }
+
     /**
      * Creates a function object for one of the built-in functions; these functions do not record
      * their parameters, have no body, and are never overloaded.
@@ -45,7 +61,7 @@ public class Function extends Declarable {
      */
     public Function(Type returnType, String name, Type... parameterTypes) {
         super(name);
-        this.returnTypeName = returnType == null ? "void" : returnType.getName();
+        this.returnTypeName = returnType == null ? TypeReference.VOID : returnType.getReference();
         this.returnType = returnType;
         List<Variable> parameters = new ArrayList<Variable>();
         for (Type type: parameterTypes) {
@@ -56,10 +72,29 @@ public class Function extends Declarable {
         this.overload = null;
     }
 
+    /**
+     * Returns the body, parsing it first if that has not been done yet, or null for a built-in
+     * function.
+     */
     public Block getBody() {
+        if (unparsedBody != null) {
+            body = unparsedBody.parse();
+            unparsedBody = null;
+            if (table != null) {
+                body.setTable(table);
+            }
+        }
         return body;
     }
 
+    /**
+     * Returns whether the body has been parsed, which for functions parsed lazily only happens
+     * when the body is first asked for.
+     */
+    public boolean isBodyParsed() {
+        return unparsedBody == null;
+    }
+
     public Function getOverload() {
         return overload;
     }
@@ -72,11 +107,43 @@ public class Function extends Declarable {
         return parameters;
     }
 
+    /**
+     * Returns whether the optimizer replaced any self-recursive calls in this function's body
+     * with tail call statements.
+     */
+    public boolean isTailRecursive() {
+        return tailRecursive;
+    }
+
+    /**
+     * Returns whether this function was found to be pure by the last purity analysis.  Built-in
+     * functions are never marked pure here, even though most of them are.
+     */
+    public boolean isPure() {
+        return pure;
+    }
+
+    void setPure(boolean pure) {
+        this.pure = pure;
+    }
+
+    /**
+     * Returns the layout of the frames for calls of this function, or null if the function is
+     * built in or has not been resolved by a FrameResolver.
+     */
+    public FrameLayout getFrameLayout() {
+        return frameLayout;
+    }
+
+    void setFrameLayout(FrameLayout frameLayout) {
+        this.frameLayout = frameLayout;
+    }
+
     public Type getReturnType() {
         return returnType;
     }
 
-    public String getReturnTypeName() {
+    public TypeReference getReturnTypeName() {
         return returnTypeName;
     }
 
@@ -94,11 +161,14 @@ public class Function extends Declarable {
      * Performs semantic analysis on the function's signature and return type, but not the body.
      */
     public void analyzeSignature(AnalysisContext context) {
-        returnType = returnTypeName == "void" ? null : context.lookupType(returnTypeName);
-        body.createTable(context.getTable());
+        returnType = returnTypeName.isVoid() ? null : context.lookupType(returnTypeName);
+        table = new SymbolTable(context.getTable());
         for (Variable parameter: parameters) {
-            body.getTable().insert(parameter, context.getLog());
-            parameter.analyze(context.withTable(body.getTable()));
+            table.insert(parameter, context.at(parameter).getLog());
+            parameter.analyze(context.withTable(table).at(parameter));
+        }
+        if (body != null) {
+            body.setTable(table);
         }
     }
 
@@ -109,7 +179,7 @@ public class Function extends Declarable {
      */
     @Override
     public void analyze(AnalysisContext context) {
-        body.analyze(context.withFunction(this).withTable(body.getTable()).withInLoop(false));
+        getBody().analyze(context.withFunction(this).withTable(table).withInLoop(false));
     }
 
     /**
@@ -137,8 +207,77 @@ public class Function extends Declarable {
 
     @Override
     public void optimize() {
-        body.optimize();
+        getBody().optimize();
+    }
+
+    /**
+     * Turns the self-recursive calls in tail position within the body into jumps.  Run by the
+     * tail call pass after the body has been optimized.
+     */
+    void eliminateTailCalls() {
+        if (getBody() != null && eliminateTailCalls(body, true)) {
+            tailRecursive = true;
+        }
+    }
+
+    /**
+     * Replaces the self-recursive calls in tail position within the given block with tail call
+     * statements, returning whether any were replaced.  A call is in tail position when it is
+     * the expression of a return statement, or when it is a call statement immediately followed
+     * by a bare return or by the end of the function body.  The atEnd flag tells whether falling
+     * off the end of the block means falling off the end of the function.
+     */
+    private boolean eliminateTailCalls(Block block, boolean atEnd) {
+        boolean found = false;
+        List<Statement> statements = block.getStatements();
+        for (int i = 0; i < statements.size(); i++) {
+            Statement s = statements.get(i);
+            boolean last = i == statements.size() - 1;
+            if (s instanceof ReturnStatement) {
+                Expression e = ReturnStatement.class.cast(s).getReturnExpression();
+                if (e instanceof CallExpression && CallExpression.class.cast(e).getFunction() == this) {
+                    List<Expression> args = CallExpression.class.cast(e).getArgs();
+                    TailCallStatement tailCall = new TailCallStatement(this, args);
+                    tailCall.takePosition(s);
+                    statements.set(i, tailCall);
+                    found = true;
+                }
+            } else if (s instanceof CallStatement) {
+                CallStatement call = CallStatement.class.cast(s);
+                boolean returnsNext = last ? atEnd : isBareReturn(statements.get(i + 1));
+                if (call.getFunction() == this && returnsNext) {
+                    TailCallStatement tailCall = new TailCallStatement(this, call.getArgs());
+                    tailCall.takePosition(s);
+                    statements.set(i, tailCall);
+                    found = true;
+                }
+            } else if (s instanceof IfStatement) {
+                IfStatement ifStatement = IfStatement.class.cast(s);
+                for (Case c: ifStatement.getCases()) {
+                    found |= eliminateTailCalls(c.getBody(), last && atEnd);
+                }
+                if (ifStatement.getElsePart() != null) {
+                    found |= eliminateTailCalls(ifStatement.getElsePart(), last && atEnd);
+                }
+            } else if (s instanceof WhileStatement) {
+                found |= eliminateTailCalls(WhileStatement.class.cast(s).getBody(), false);
+            } else if (s instanceof ClassicForStatement) {
+                found |= eliminateTailCalls(ClassicForStatement.class.cast(s).getBody(), false);
+            }
+        }
+        return found;
+    }
+
+    private static boolean isBareReturn(Statement s) {
+        return s instanceof ReturnStatement
+                && ReturnStatement.class.cast(s).getReturnExpression() == null;
+    }
 
-        // TODO Look for and handle tail recursion if applicable.
+    /**
+     * The text of a function body that has been skipped by the parser, which parses it on
+     * request.  Syntax errors are logged by the parser, which then returns an empty block.
+     */
+    public interface UnparsedBody {
+        Block parse();
     }
 }
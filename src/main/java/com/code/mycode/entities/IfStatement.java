@@ -64,4 +64,14 @@ public class IfStatement extends Statement {
         }
         return this;
     }
+
+    @Override
+    void rewriteExpressions(ExpressionRewriter rewriter) {
+        for (Case c: cases) {
+            c.rewriteExpressions(rewriter);
+        }
+        if (elsePart != null) {
+            rewriter.rewriteBlock(elsePart);
+        }
+    }
 }
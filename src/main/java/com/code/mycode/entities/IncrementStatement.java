@@ -34,4 +34,9 @@ public class IncrementStatement extends Statement {
         target = VariableExpression.class.cast(target.optimize());
         return this;
     }
+
+    @Override
+    void rewriteExpressions(ExpressionRewriter rewriter) {
+        rewriter.rewriteTarget(target);
+    }
 }
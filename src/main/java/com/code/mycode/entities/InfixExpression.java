@@ -1,5 +1,8 @@
 package com.code.mycode.entities;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * An infix expression, with an operator and two operands, a left
  * and a right.
@@ -16,6 +19,13 @@ public class InfixExpression extends Expression {
         this.right = right;
     }
 
+    // Back door for the optimizer to build new, already typed, expressions.
+    static InfixExpression fromOperands(Expression left, String op, Expression right, Type type) {
+        InfixExpression result = new InfixExpression(left, op, right);
+        result.type = type;
+        return result;
+    }
+
     public Expression getLeft() {
         return left;
     }
@@ -28,11 +38,34 @@ public class InfixExpression extends Expression {
         return right;
     }
 
+    /**
+     * Returns this expression followed by the infix expressions down its left side, so that the
+     * last one's left operand is not an infix expression.  Chains like a + b + c + ... are parsed
+     * left-deep, so the passes over infix expressions loop over this list, from the end, instead
+     * of recursing once per operator.
+     */
+    public List<InfixExpression> leftSpine() {
+        List<InfixExpression> spine = new ArrayList<InfixExpression>();
+        for (Expression e = this; e instanceof InfixExpression; e = InfixExpression.class.cast(e).left) {
+            spine.add(InfixExpression.class.cast(e));
+        }
+        return spine;
+    }
+
     @Override
     public void analyze(AnalysisContext context) {
-        left.analyze(context);
-        right.analyze(context);
+        List<InfixExpression> spine = leftSpine();
+        spine.get(spine.size() - 1).left.analyze(context);
+        for (int i = spine.size() - 1; i >= 0; i--) {
+            spine.get(i).right.analyze(context);
+            spine.get(i).analyzeOperator(context);
+        }
+    }
 
+    /**
+     * Checks the operands, which have been analyzed, and works out the type of the expression.
+     */
+    private void analyzeOperator(AnalysisContext context) {
         // num op num (for arithmetic op)
         if (op.matches("\\+|-|\\*|/")) {
             left.assertArithmetic(op, context);
@@ -78,8 +111,21 @@ public class InfixExpression extends Expression {
 
     @Override
     public Expression optimize() {
-        left = left.optimize();
-        right = right.optimize();
+        List<InfixExpression> spine = leftSpine();
+        Expression result = spine.get(spine.size() - 1).left.optimize();
+        for (int i = spine.size() - 1; i >= 0; i--) {
+            InfixExpression e = spine.get(i);
+            e.left = result;
+            e.right = e.right.optimize();
+            result = e.optimizeOperator();
+        }
+        return result;
+    }
+
+    /**
+     * Optimizes this expression, whose operands have been optimized.
+     */
+    private Expression optimizeOperator() {
         if (left.getType().isArithmetic() && right.getType().isArithmetic()) {
             return optimizeArithmetic();
         } else if (left.getType().equals(Type.BOOLEAN) && right.getType().equals(Type.BOOLEAN)) {
@@ -118,6 +164,10 @@ public class InfixExpression extends Expression {
 
     public Expression optimizeArithmetic() {
 
+        if (type == Type.INT) {
+            return optimizeInteger();
+        }
+
         if (left instanceof Literal && right instanceof Literal) {
             // Constant Folding
             double x = constantValue(left);
@@ -153,4 +203,159 @@ public class InfixExpression extends Expression {
         // Could not find any optimizations
         return this;
     }
+
+    /**
+     * Optimizes an integer-valued expression.  MyCode integers are 32-bit two's complement
+     * values, so constants fold with Java int arithmetic, additions and multiplications can be
+     * freely reassociated, and multiplying by a power of two is the same as shifting.  Dividing
+     * and taking remainders by powers of two become shifts and masks only when the left operand
+     * is known to be non-negative, because division truncates toward zero.
+     */
+    Expression optimizeInteger() {
+        if (left instanceof IntegerLiteral && right instanceof IntegerLiteral) {
+            Integer value = fold(op, intValue(left), intValue(right));
+            return value == null ? this : IntegerLiteral.fromValue(value);
+        }
+
+        // Keep constants on the right of commutative operators, so there is only one shape
+        // of expression to look for below.
+        if (left instanceof IntegerLiteral && "+*&|^".indexOf(op) >= 0) {
+            Expression constant = left;
+            left = right;
+            right = constant;
+        }
+
+        // Identities
+        if (right.isZero() && ("+".equals(op) || "-".equals(op) || "|".equals(op)
+                || "^".equals(op) || "<<".equals(op) || ">>".equals(op))) {
+            return left;
+        } else if (right.isOne() && ("*".equals(op) || "/".equals(op))) {
+            return left;
+        } else if (right.isZero() && ("*".equals(op) || "&".equals(op))) {
+            return IntegerLiteral.fromValue(0);
+        } else if ("-".equals(op) && left.sameVariableAs(right)) {
+            return IntegerLiteral.fromValue(0);
+        }
+
+        // Reassociation: (x + c1) + c2 becomes x + (c1 + c2), likewise for subtraction and
+        // multiplication.  When the right operand is not a constant, the left operand's constant
+        // is moved outward instead, so (x + c) + y becomes (x + y) + c and can meet another
+        // constant further up.  The operands are still evaluated in their original order.
+        if (left instanceof InfixExpression && left.type == Type.INT) {
+            InfixExpression inner = InfixExpression.class.cast(left);
+            if (inner.right instanceof IntegerLiteral) {
+                int c1 = intValue(inner.right);
+                if (right instanceof IntegerLiteral) {
+                    int c2 = intValue(right);
+                    if (isAdditive(op) && isAdditive(inner.op)) {
+                        int sum = ("+".equals(inner.op) ? c1 : -c1) + ("+".equals(op) ? c2 : -c2);
+                        return offset(inner.left, sum);
+                    } else if ("*".equals(op) && "*".equals(inner.op)) {
+                        Expression product = IntegerLiteral.fromValue(c1 * c2);
+                        return fromOperands(inner.left, "*", product, type).optimizeInteger();
+                    }
+                } else if (op.equals(inner.op) && ("+".equals(op) || "*".equals(op))) {
+                    Expression x = fromOperands(inner.left, op, right, type).optimizeInteger();
+                    return fromOperands(x, op, inner.right, type).optimizeInteger();
+                }
+            }
+        }
+        if (right instanceof InfixExpression && right.type == Type.INT
+                && ("+".equals(op) || "*".equals(op))) {
+            InfixExpression inner = InfixExpression.class.cast(right);
+            if (op.equals(inner.op) && inner.right instanceof IntegerLiteral) {
+                Expression x = fromOperands(left, op, inner.left, type).optimizeInteger();
+                return fromOperands(x, op, inner.right, type).optimizeInteger();
+            }
+        }
+
+        // Strength reduction
+        if (right instanceof IntegerLiteral) {
+            int c = intValue(right);
+            int shift = c > 0 && (c & (c - 1)) == 0 ? Integer.numberOfTrailingZeros(c) : -1;
+            if ("*".equals(op) && shift > 0) {
+                return fromOperands(left, "<<", IntegerLiteral.fromValue(shift), type);
+            } else if ("/".equals(op) && shift > 0 && left.isNonNegative()) {
+                return fromOperands(left, ">>", IntegerLiteral.fromValue(shift), type);
+            } else if ("%".equals(op) && shift >= 0 && left.isNonNegative()) {
+                return fromOperands(left, "&", IntegerLiteral.fromValue(c - 1), type);
+            }
+        }
+
+        // Could not find any optimizations
+        return this;
+    }
+
+    /**
+     * Returns x + c, written as a subtraction when c is negative, or just x when c is zero.
+     */
+    private Expression offset(Expression x, int c) {
+        if (c == 0) {
+            return x;
+        } else if (c < 0 && c != Integer.MIN_VALUE) {
+            return fromOperands(x, "-", IntegerLiteral.fromValue(-c), type);
+        } else {
+            return fromOperands(x, "+", IntegerLiteral.fromValue(c), type);
+        }
+    }
+
+    /**
+     * Returns the value of x op y with 32-bit integer semantics, or null if the operation cannot
+     * be done at compile time (such as a division by zero).
+     */
+    static Integer fold(String op, int x, int y) {
+        if ("+".equals(op)) return x + y;
+        else if ("-".equals(op)) return x - y;
+        else if ("*".equals(op)) return x * y;
+        else if ("/".equals(op) && y != 0) return x / y;
+        else if ("%".equals(op) && y != 0) return x % y;
+        else if ("<<".equals(op)) return x << y;
+        else if (">>".equals(op)) return x >> y;
+        else if ("&".equals(op)) return x & y;
+        else if ("|".equals(op)) return x | y;
+        else if ("^".equals(op)) return x ^ y;
+        else return null;
+    }
+
+    private static boolean isAdditive(String op) {
+        return "+".equals(op) || "-".equals(op);
+    }
+
+    private static int intValue(Expression e) {
+        return IntegerLiteral.class.cast(e).getValue();
+    }
+
+    /**
+     * Masks, right shifts and remainders of non-negative values are non-negative.
+     */
+    @Override
+    boolean isNonNegative() {
+        if ("&".equals(op)) {
+            return left.isNonNegative() || right.isNonNegative();
+        } else if (">>".equals(op) || "%".equals(op)) {
+            return left.isNonNegative();
+        }
+        return false;
+    }
+
+    /**
+     * Rewrites the operands, going up the infix expressions down the left side in a loop, in the
+     * same order as rewriting the left operand recursively would.
+     */
+    @Override
+    void rewriteChildren(ExpressionRewriter rewriter) {
+        List<InfixExpression> spine = leftSpine();
+        int end = 1;
+        while (end < spine.size() && !rewriter.isRewritten(spine.get(end))) {
+            end++;
+        }
+        InfixExpression last = spine.get(end - 1);
+        last.left = rewriter.rewriteExpression(last.left);
+        for (int i = end - 1; i > 0; i--) {
+            InfixExpression e = spine.get(i);
+            e.right = rewriter.rewriteExpression(e.right);
+            spine.get(i - 1).left = rewriter.rewriteRoot(e);
+        }
+        right = rewriter.rewriteExpression(right);
+    }
 }
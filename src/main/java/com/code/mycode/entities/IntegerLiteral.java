@@ -24,4 +24,12 @@ public class IntegerLiteral extends Literal {
             context.error("bad_int", getLexeme());
         }
     }
+
+    // Back door for the optimizer to create these things.
+    static IntegerLiteral fromValue(int value) {
+        IntegerLiteral result = new IntegerLiteral(Integer.toString(value));
+        result.value = value;
+        result.type = Type.INT;
+        return result;
+    }
 }
@@ -0,0 +1,37 @@
+package com.code.mycode.entities;
+
+/**
+ * How hard the compiler works on the semantic graph before translating it.  Higher levels give
+ * better output at the cost of compile time.
+ */
+public enum OptimizationLevel {
+
+    /**
+     * No optimization at all, for when the compiler must answer as quickly as possible.
+     */
+    O0,
+
+    /**
+     * A single round of local simplification, plus tail call elimination.
+     */
+    O1,
+
+    /**
+     * Everything: simplification, compile-time evaluation of pure functions, and rewriting are
+     * iterated until nothing changes, then loops and tail calls are handled.
+     */
+    O2;
+
+    /**
+     * Returns the level for a command line option such as "-O1", or null if the option does not
+     * name a level.
+     */
+    public static OptimizationLevel fromOption(String option) {
+        for (OptimizationLevel level: values()) {
+            if (option.equals("-" + level.name())) {
+                return level;
+            }
+        }
+        return null;
+    }
+}
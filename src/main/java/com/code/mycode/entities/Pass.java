@@ -0,0 +1,27 @@
+package com.code.mycode.entities;
+
+/**
+ * A named transformation or analysis of a whole program, run by a pass manager.
+ */
+public abstract class Pass {
+
+    private String name;
+
+    protected Pass(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Runs this pass over the given program, which has been successfully analyzed.
+     */
+    public abstract void run(Program program);
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,207 @@
+package com.code.mycode.entities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Runs an ordered sequence of passes over a program.  Passes are organized in stages; a stage
+ * is either a single pass run once, or a group of passes repeated until an iteration leaves the
+ * program unchanged or an iteration limit is reached.
+ *
+ * When reporting is on, the manager records the wall time of each pass run and the number of
+ * entities reachable from the program before and after it.  Counting costs a walk of the whole
+ * graph, so it is only done when asked for.
+ */
+public class PassManager {
+
+    public static final int DEFAULT_ITERATIONS = 4;
+
+    /**
+     * A record of one run of one pass.
+     */
+    public static class Report {
+        private String pass;
+        private int iteration;
+        private long nanos;
+        private int nodesBefore;
+        private int nodesAfter;
+
+        Report(String pass, int iteration, long nanos, int nodesBefore, int nodesAfter) {
+            this.pass = pass;
+            this.iteration = iteration;
+            this.nanos = nanos;
+            this.nodesBefore = nodesBefore;
+            this.nodesAfter = nodesAfter;
+        }
+
+        public String getPass() {
+            return pass;
+        }
+
+        public int getIteration() {
+            return iteration;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public int getNodesBefore() {
+            return nodesBefore;
+        }
+
+        public int getNodesAfter() {
+            return nodesAfter;
+        }
+    }
+
+    private static class Stage {
+        List<Pass> passes;
+        int maxIterations;
+
+        Stage(List<Pass> passes, int maxIterations) {
+            this.passes = passes;
+            this.maxIterations = maxIterations;
+        }
+    }
+
+    private List<Stage> stages = new ArrayList<Stage>();
+    private boolean reporting = false;
+    private List<Report> reports = new ArrayList<Report>();
+
+    /**
+     * Returns a pass manager with the standard passes for the given level.
+     */
+    public static PassManager forLevel(OptimizationLevel level) {
+        PassManager manager = new PassManager();
+        switch (level) {
+        case O0:
+            break;
+        case O1:
+            manager.add(StandardPasses.SIMPLIFY);
+            manager.add(StandardPasses.TAIL_CALLS);
+            break;
+        case O2:
+            manager.addFixedPoint(DEFAULT_ITERATIONS,
+                StandardPasses.PURITY, StandardPasses.SIMPLIFY, StandardPasses.REWRITE);
+            manager.add(StandardPasses.INDUCTION_VARIABLES);
+            manager.add(StandardPasses.TAIL_CALLS);
+            break;
+        }
+        return manager;
+    }
+
+    /**
+     * Appends a pass to be run once.
+     */
+    public PassManager add(Pass pass) {
+        stages.add(new Stage(Collections.singletonList(pass), 1));
+        return this;
+    }
+
+    /**
+     * Appends a group of passes to be run, in order, until the program stops changing, but no
+     * more than the given number of times.
+     */
+    public PassManager addFixedPoint(int maxIterations, Pass... passes) {
+        stages.add(new Stage(Arrays.asList(passes), maxIterations));
+        return this;
+    }
+
+    /**
+     * Returns the names of the passes, in the order they are first run.
+     */
+    public List<String> getPassNames() {
+        List<String> names = new ArrayList<String>();
+        for (Stage stage: stages) {
+            for (Pass pass: stage.passes) {
+                names.add(pass.getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Tells the manager whether to record timings and node counts.
+     */
+    public void setReporting(boolean reporting) {
+        this.reporting = reporting;
+    }
+
+    /**
+     * Returns the reports recorded by the most recent run.
+     */
+    public List<Report> getReports() {
+        return Collections.unmodifiableList(reports);
+    }
+
+    /**
+     * Runs all the passes over the given program.
+     */
+    public void run(Program program) {
+        reports.clear();
+        for (Stage stage: stages) {
+            long signature = stage.maxIterations > 1 ? signature(program) : 0;
+            for (int iteration = 1; iteration <= stage.maxIterations; iteration++) {
+                for (Pass pass: stage.passes) {
+                    runPass(pass, iteration, program);
+                }
+                if (iteration < stage.maxIterations) {
+                    long previous = signature;
+                    signature = signature(program);
+                    if (signature == previous) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private void runPass(Pass pass, int iteration, Program program) {
+        if (!reporting) {
+            pass.run(program);
+            return;
+        }
+        int before = countNodes(program);
+        long start = System.nanoTime();
+        pass.run(program);
+        long nanos = System.nanoTime() - start;
+        reports.add(new Report(pass.getName(), iteration, nanos, before, countNodes(program)));
+    }
+
+    /**
+     * Returns the number of entities reachable from the given program.
+     */
+    public static int countNodes(Program program) {
+        final int[] count = {0};
+        program.traverse(new Entity.Visitor() {
+            public void onEntry(Entity e) {
+                count[0]++;
+            }
+            public void onExit(Entity e) {
+            }
+        }, new HashSet<Entity>());
+        return count[0];
+    }
+
+    /**
+     * Returns a hash of the ids of the entities reachable from the program, in traversal order.
+     * Every transformation either creates entities, drops them, or moves them around, so an
+     * unchanged signature means an iteration did nothing.
+     */
+    private static long signature(Program program) {
+        final long[] hash = {17};
+        program.traverse(new Entity.Visitor() {
+            public void onEntry(Entity e) {
+                hash[0] = 31 * hash[0] + e.getId();
+            }
+            public void onExit(Entity e) {
+                hash[0] = 31 * hash[0] - 1;
+            }
+        }, new HashSet<Entity>());
+        return hash[0];
+    }
+}
@@ -0,0 +1,182 @@
+package com.code.mycode.entities;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The left hand side of a rewrite rule: a description of the shape of an expression.  Patterns
+ * match on operators, on the types of subexpressions, and on literal values, and bind matched
+ * subexpressions to names so that the rule's template can refer to them.  Binding a name that is
+ * already bound only matches when both expressions refer to the same simple variable.
+ *
+ * Patterns are built with the static factory methods, for example
+ * <pre>
+ *     prefix("!", infix("&amp;&amp;", any("a"), any("b")))
+ * </pre>
+ */
+public abstract class Pattern {
+
+    /**
+     * Returns whether this pattern matches the given expression, adding any names it binds to
+     * the given map.  On failure the map may contain partial bindings.
+     */
+    public abstract boolean match(Expression e, Map<String, Expression> bindings);
+
+    /**
+     * Returns the operator of the infix expressions this pattern can match, or null if it can
+     * match expressions of any kind.  Used to index rules.
+     */
+    public String getInfixOperator() {
+        return null;
+    }
+
+    /**
+     * Returns the operator of the prefix expressions this pattern can match, or null if it can
+     * match expressions of any kind.  Used to index rules.
+     */
+    public String getPrefixOperator() {
+        return null;
+    }
+
+    /**
+     * Matches anything, binding it to the given name.
+     */
+    public static Pattern any(final String name) {
+        return new Pattern() {
+            @Override
+            public boolean match(Expression e, Map<String, Expression> bindings) {
+                return bind(name, e, bindings);
+            }
+        };
+    }
+
+    /**
+     * Matches any expression of one of the given types, binding it to the given name.
+     */
+    public static Pattern ofType(final String name, Type... types) {
+        final List<Type> allowed = Arrays.asList(types);
+        return new Pattern() {
+            @Override
+            public boolean match(Expression e, Map<String, Expression> bindings) {
+                return allowed.contains(e.getType()) && bind(name, e, bindings);
+            }
+        };
+    }
+
+    /**
+     * Matches any expression not of the given type, binding it to the given name.
+     */
+    public static Pattern notOfType(final String name, final Type type) {
+        return new Pattern() {
+            @Override
+            public boolean match(Expression e, Map<String, Expression> bindings) {
+                return e.getType() != type && bind(name, e, bindings);
+            }
+        };
+    }
+
+    /**
+     * Matches any literal, binding it to the given name.
+     */
+    public static Pattern literal(final String name) {
+        return new Pattern() {
+            @Override
+            public boolean match(Expression e, Map<String, Expression> bindings) {
+                return e instanceof Literal && bind(name, e, bindings);
+            }
+        };
+    }
+
+    /**
+     * Matches any expression that is not a literal, binding it to the given name.
+     */
+    public static Pattern nonLiteral(final String name) {
+        return new Pattern() {
+            @Override
+            public boolean match(Expression e, Map<String, Expression> bindings) {
+                return !(e instanceof Literal) && bind(name, e, bindings);
+            }
+        };
+    }
+
+    /**
+     * Matches exactly the integer literal with the given value.
+     */
+    public static Pattern intValue(final int value) {
+        return new Pattern() {
+            @Override
+            public boolean match(Expression e, Map<String, Expression> bindings) {
+                return e instanceof IntegerLiteral
+                        && IntegerLiteral.class.cast(e).getValue() == value;
+            }
+        };
+    }
+
+    /**
+     * Matches exactly the given boolean literal.
+     */
+    public static Pattern bool(final boolean value) {
+        return new Pattern() {
+            @Override
+            public boolean match(Expression e, Map<String, Expression> bindings) {
+                return value ? e.isTrue() : e.isFalse();
+            }
+        };
+    }
+
+    /**
+     * Matches an infix expression with the given operator whose operands match the given
+     * patterns.
+     */
+    public static Pattern infix(final String op, final Pattern left, final Pattern right) {
+        return new Pattern() {
+            @Override
+            public boolean match(Expression e, Map<String, Expression> bindings) {
+                if (!(e instanceof InfixExpression)) {
+                    return false;
+                }
+                InfixExpression infix = InfixExpression.class.cast(e);
+                return op.equals(infix.getOp())
+                        && left.match(infix.getLeft(), bindings)
+                        && right.match(infix.getRight(), bindings);
+            }
+
+            @Override
+            public String getInfixOperator() {
+                return op;
+            }
+        };
+    }
+
+    /**
+     * Matches a prefix expression with the given operator whose operand matches the given
+     * pattern.
+     */
+    public static Pattern prefix(final String op, final Pattern operand) {
+        return new Pattern() {
+            @Override
+            public boolean match(Expression e, Map<String, Expression> bindings) {
+                if (!(e instanceof PrefixExpression)) {
+                    return false;
+                }
+                PrefixExpression prefix = PrefixExpression.class.cast(e);
+                return op.equals(prefix.getOp()) && operand.match(prefix.getOperand(), bindings);
+            }
+
+            @Override
+            public String getPrefixOperator() {
+                return op;
+            }
+        };
+    }
+
+    private static boolean bind(String name, Expression e, Map<String, Expression> bindings) {
+        Expression previous = bindings.get(name);
+        if (previous == null) {
+            bindings.put(name, e);
+            return true;
+        }
+        return previous.sameVariableAs(e);
+    }
+}
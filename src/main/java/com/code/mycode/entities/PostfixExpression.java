@@ -28,4 +28,9 @@ public class PostfixExpression extends Expression {
         operand.assertWritable(context);
         type = Type.INT;
    }
+
+    @Override
+    void rewriteChildren(ExpressionRewriter rewriter) {
+        rewriter.rewriteTarget(operand);
+    }
 }
@@ -0,0 +1,91 @@
+package com.code.mycode.entities;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds analyzed entities standing for values computed before the program runs.  The partial
+ * evaluator, which lives with the interpreter, uses these in place of the back doors the
+ * optimizer has into the literal classes.
+ */
+public final class Precomputed {
+
+    private Precomputed() {
+    }
+
+    /**
+     * Returns a literal for a value of type int, char, or boolean (a boolean being 0 or 1).
+     */
+    public static Expression value(long value, Type type) {
+        if (type == Type.CHAR) {
+            return CharLiteral.fromValue((int)value);
+        } else if (type == Type.BOOLEAN) {
+            return BooleanLiteral.fromValue(value != 0);
+        }
+        return IntegerLiteral.fromValue((int)value);
+    }
+
+    public static Expression value(double value) {
+        return RealLiteral.fromValue(value);
+    }
+
+    /**
+     * Returns a literal for a string, or null for a null reference.
+     */
+    public static Expression value(String value) {
+        if (value == null) {
+            NullLiteral.INSTANCE.type = Type.NULL_TYPE;
+            return NullLiteral.INSTANCE;
+        }
+        return StringLiteral.fromValue(value);
+    }
+
+    /**
+     * Returns an aggregate constructing an array with the given elements.
+     */
+    public static Expression array(ArrayType type, List<Expression> elements) {
+        ArrayAggregate result = new ArrayAggregate(type.getReference(), elements);
+        result.type = type;
+        return result;
+    }
+
+    /**
+     * Returns an expression allocating an array of the given size, every element of which has
+     * the default value of the base type.
+     */
+    public static Expression emptyArray(ArrayType type, int size) {
+        EmptyArray result = new EmptyArray(type.getBaseType().getReference(), IntegerLiteral.fromValue(size));
+        result.type = type;
+        return result;
+    }
+
+    /**
+     * Returns an aggregate constructing a struct with the given field values, in the order the
+     * fields are declared.
+     */
+    public static Expression struct(StructType type, List<Expression> fields) {
+        StructAggregate result = new StructAggregate(type.getReference(), fields);
+        result.type = type;
+        return result;
+    }
+
+    /**
+     * Returns a statement printing the given lines.
+     */
+    public static Statement print(List<String> lines) {
+        List<Expression> args = new ArrayList<Expression>();
+        for (String line: lines) {
+            args.add(StringLiteral.fromValue(line));
+        }
+        return new PrintStatement(args);
+    }
+
+    /**
+     * Returns a declaration of the given variable, which from now on is initialized to the
+     * given expression.
+     */
+    public static Statement declaration(Variable v, Expression initializer) {
+        v.setInitializer(initializer);
+        return new Declaration(v);
+    }
+}
@@ -13,6 +13,13 @@ public class PrefixExpression extends Expression {
         this.operand = operand;
     }
 
+    // Back door for the optimizer to build new, already typed, expressions.
+    static PrefixExpression fromOperand(String op, Expression operand, Type type) {
+        PrefixExpression result = new PrefixExpression(op, operand);
+        result.type = type;
+        return result;
+    }
+
     public String getOp() {
         return op;
     }
@@ -62,4 +69,40 @@ public class PrefixExpression extends Expression {
             type = Type.ARBITRARY;
         }
     }
+
+    @Override
+    public Expression optimize() {
+        if ("++".equals(op) || "--".equals(op)) {
+            return this;
+        }
+        operand = operand.optimize();
+
+        if ("-".equals(op) && operand instanceof IntegerLiteral) {
+            return IntegerLiteral.fromValue(-IntegerLiteral.class.cast(operand).getValue());
+        } else if ("-".equals(op) && operand instanceof RealLiteral) {
+            return RealLiteral.fromValue(-RealLiteral.class.cast(operand).getValue());
+        } else if ("~".equals(op) && operand instanceof IntegerLiteral) {
+            return IntegerLiteral.fromValue(~IntegerLiteral.class.cast(operand).getValue());
+        } else if ("!".equals(op) && operand instanceof BooleanLiteral) {
+            return BooleanLiteral.fromValue(operand.isFalse());
+        }
+        return this;
+    }
+
+    /**
+     * Lengths and character codes can never be negative.
+     */
+    @Override
+    boolean isNonNegative() {
+        return "length".equals(op) || "int".equals(op);
+    }
+
+    @Override
+    void rewriteChildren(ExpressionRewriter rewriter) {
+        if ("++".equals(op) || "--".equals(op)) {
+            rewriter.rewriteTarget(VariableExpression.class.cast(operand));
+        } else {
+            operand = rewriter.rewriteExpression(operand);
+        }
+    }
 }
@@ -32,4 +32,11 @@ public class PrintStatement extends Statement {
         }
         return this;
     }
+
+    @Override
+    void rewriteExpressions(ExpressionRewriter rewriter) {
+        for (ListIterator<Expression> it = args.listIterator(); it.hasNext();) {
+            it.set(rewriter.rewriteExpression(it.next()));
+        }
+    }
 }
@@ -8,7 +8,37 @@ import java.util.List;
  */
 public class Program extends Block {
 
+    private FrameLayout frameLayout;
+
     public Program(List<Statement> statements) {
         super(statements);
     }
+
+    /**
+     * Optimizes the whole program with all the standard passes.  Use a PassManager for finer
+     * control.
+     */
+    @Override
+    public void optimize() {
+        PassManager.forLevel(OptimizationLevel.O2).run(this);
+    }
+
+    /**
+     * Returns the layout of the frame holding the top level variables, or null if the program
+     * has not been resolved by a FrameResolver.
+     */
+    public FrameLayout getFrameLayout() {
+        return frameLayout;
+    }
+
+    void setFrameLayout(FrameLayout frameLayout) {
+        this.frameLayout = frameLayout;
+    }
+
+    /**
+     * Has each statement of the program optimize itself, which is the work of the simplify pass.
+     */
+    void simplify() {
+        super.optimize();
+    }
 }
@@ -0,0 +1,143 @@
+package com.code.mycode.entities;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Determines which user functions in a program are pure.  A pure function does no input or
+ * output, touches no variables other than its own parameters and locals, and calls only pure
+ * functions.  Such a function, called with literal arguments, always computes the same result,
+ * and any arrays or structs it writes to must have been created during the call, so the call
+ * can be evaluated at compile time.
+ *
+ * Functions start out assumed pure, and any function found to do something impure, or to call
+ * an impure function, is marked impure, until nothing changes.  Recursive functions thus end up
+ * pure unless something in the cycle is impure.
+ */
+public class PurityAnalysis {
+
+    private Map<Function, Set<Function>> callees = new HashMap<Function, Set<Function>>();
+    private Set<Function> impure = new HashSet<Function>();
+
+    /**
+     * Analyzes all the functions declared anywhere in the given program, recording the results
+     * in the functions themselves.
+     */
+    public static void analyze(Program program) {
+        new PurityAnalysis().run(program);
+    }
+
+    private void run(Program program) {
+        List<Function> functions = new ArrayList<Function>();
+        collectFunctions(program, functions);
+        for (Function f: functions) {
+            examine(f);
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Function f: functions) {
+                if (impure.contains(f)) {
+                    continue;
+                }
+                for (Function g: callees.get(f)) {
+                    if (impure.contains(g) || g == Function.GET_STRING) {
+                        impure.add(f);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        for (Function f: functions) {
+            f.setPure(!impure.contains(f));
+        }
+    }
+
+    /**
+     * Records the callees of the given function, and whether it is impure on its own account.
+     */
+    private void examine(final Function f) {
+        final Set<Function> called = new HashSet<Function>();
+        final Set<Variable> locals = new HashSet<Variable>(f.getParameters());
+        final Set<Variable> used = new HashSet<Variable>();
+        final boolean[] doesOutput = {false};
+
+        new ExpressionRewriter() {
+            @Override
+            public boolean entersFunctions() {
+                return false;
+            }
+
+            @Override
+            public void visitStatement(Statement s) {
+                if (s instanceof PrintStatement) {
+                    doesOutput[0] = true;
+                } else if (s instanceof CallStatement) {
+                    called.add(CallStatement.class.cast(s).getFunction());
+                } else if (s instanceof TailCallStatement) {
+                    called.add(TailCallStatement.class.cast(s).getFunction());
+                } else if (s instanceof Declaration) {
+                    Declarable d = Declaration.class.cast(s).getDeclarable();
+                    if (d instanceof Variable) {
+                        locals.add(Variable.class.cast(d));
+                    }
+                } else if (s instanceof ClassicForStatement) {
+                    ClassicForStatement loop = ClassicForStatement.class.cast(s);
+                    if (loop.getIndexVariable() != null) {
+                        locals.add(loop.getIndexVariable());
+                    }
+                    locals.addAll(loop.getDerivedVariables());
+                }
+            }
+
+            @Override
+            public Expression rewrite(Expression e) {
+                if (e instanceof CallExpression) {
+                    called.add(CallExpression.class.cast(e).getFunction());
+                } else if (e instanceof SimpleVariableReference) {
+                    used.add(SimpleVariableReference.class.cast(e).getReferent());
+                }
+                return e;
+            }
+
+            @Override
+            public void written(VariableExpression target) {
+                // Catches increments of variables, which are not rewritten as expressions
+                if (target instanceof SimpleVariableReference) {
+                    used.add(SimpleVariableReference.class.cast(target).getReferent());
+                }
+            }
+        }.rewriteBlock(f.getBody());
+
+        callees.put(f, called);
+        if (doesOutput[0] || !locals.containsAll(used)) {
+            impure.add(f);
+        }
+    }
+
+    private static void collectFunctions(Block block, final List<Function> functions) {
+        new ExpressionRewriter() {
+            @Override
+            public void visitStatement(Statement s) {
+                if (s instanceof Declaration) {
+                    Declarable d = Declaration.class.cast(s).getDeclarable();
+                    if (d instanceof Function) {
+                        functions.add(Function.class.cast(d));
+                    }
+                }
+            }
+
+            @Override
+            public Expression rewrite(Expression e) {
+                return e;
+            }
+        }.rewriteBlock(block);
+    }
+}
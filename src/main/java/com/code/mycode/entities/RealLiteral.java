@@ -29,6 +29,7 @@ public class RealLiteral extends Literal {
     static RealLiteral fromValue(double value) {
         RealLiteral result = new RealLiteral(Double.toString(value));
         result.value = value;
+        result.type = Type.REAL;
         return result;
     }
 }
@@ -46,4 +46,11 @@ public class ReturnStatement extends Statement {
         }
         return this;
     }
+
+    @Override
+    void rewriteExpressions(ExpressionRewriter rewriter) {
+        if (returnExpression != null) {
+            returnExpression = rewriter.rewriteExpression(returnExpression);
+        }
+    }
 }
@@ -0,0 +1,128 @@
+package com.code.mycode.entities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A term rewriting engine over expressions.  Rules are indexed by the operator at the root of
+ * their patterns, so only the rules that could possibly match an expression are tried.  The
+ * engine works bottom-up; when a rule fires, the replacement is itself rewritten, so each
+ * expression is brought to a fixed point under the rule set.  Since rule sets written by people
+ * can loop, the total number of rule applications is capped by a budget; once it is spent the
+ * engine leaves the remaining expressions alone.
+ */
+public class RewriteEngine extends ExpressionRewriter {
+
+    public static final int DEFAULT_BUDGET = 100000;
+
+    private Map<String, List<RewriteRule>> infixRules = new HashMap<String, List<RewriteRule>>();
+    private Map<String, List<RewriteRule>> prefixRules = new HashMap<String, List<RewriteRule>>();
+    private List<RewriteRule> otherRules = new ArrayList<RewriteRule>();
+    private int budget;
+    private int rewriteCount = 0;
+
+    // Expressions already at a fixed point, so they are not examined again when they turn up
+    // inside a replacement.
+    private Set<Expression> normalized =
+        Collections.newSetFromMap(new IdentityHashMap<Expression, Boolean>());
+
+    public RewriteEngine(List<RewriteRule> rules, int budget) {
+        this.budget = budget;
+        for (RewriteRule rule: rules) {
+            String infix = rule.getPattern().getInfixOperator();
+            String prefix = rule.getPattern().getPrefixOperator();
+            if (infix != null) {
+                index(infixRules, infix).add(rule);
+            } else if (prefix != null) {
+                index(prefixRules, prefix).add(rule);
+            } else {
+                otherRules.add(rule);
+            }
+        }
+    }
+
+    public RewriteEngine(List<RewriteRule> rules) {
+        this(rules, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Returns the number of rule applications made so far.
+     */
+    public int getRewriteCount() {
+        return rewriteCount;
+    }
+
+    /**
+     * Returns whether the engine stopped applying rules because its budget ran out.
+     */
+    public boolean isBudgetExhausted() {
+        return rewriteCount >= budget;
+    }
+
+    @Override
+    public boolean isRewritten(Expression e) {
+        return normalized.contains(e);
+    }
+
+    @Override
+    public void rewritten(Expression result) {
+        normalized.add(result);
+    }
+
+    @Override
+    public Expression rewrite(Expression e) {
+        while (rewriteCount < budget) {
+            Expression replacement = applyFirst(e);
+            if (replacement == null) {
+                break;
+            }
+            rewriteCount++;
+            if (normalized.contains(replacement)) {
+                return replacement;
+            }
+
+            // The replacement may contain freshly built subexpressions that can be rewritten.
+            replacement.rewriteChildren(this);
+            e = replacement;
+        }
+        return e;
+    }
+
+    private Expression applyFirst(Expression e) {
+        List<RewriteRule> candidates = null;
+        if (e instanceof InfixExpression) {
+            candidates = infixRules.get(InfixExpression.class.cast(e).getOp());
+        } else if (e instanceof PrefixExpression) {
+            candidates = prefixRules.get(PrefixExpression.class.cast(e).getOp());
+        }
+        if (candidates != null) {
+            for (RewriteRule rule: candidates) {
+                Expression replacement = rule.apply(e);
+                if (replacement != null) {
+                    return replacement;
+                }
+            }
+        }
+        for (RewriteRule rule: otherRules) {
+            Expression replacement = rule.apply(e);
+            if (replacement != null) {
+                return replacement;
+            }
+        }
+        return null;
+    }
+
+    private static List<RewriteRule> index(Map<String, List<RewriteRule>> map, String op) {
+        List<RewriteRule> rules = map.get(op);
+        if (rules == null) {
+            rules = new ArrayList<RewriteRule>();
+            map.put(op, rules);
+        }
+        return rules;
+    }
+}
@@ -0,0 +1,46 @@
+package com.code.mycode.entities;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A named rewrite rule: whenever an expression matches the pattern, it is replaced by the
+ * expression the template builds from the pattern's bindings.
+ */
+public class RewriteRule {
+
+    private String name;
+    private Pattern pattern;
+    private Template template;
+
+    public RewriteRule(String name, Pattern pattern, Template template) {
+        this.name = name;
+        this.pattern = pattern;
+        this.template = template;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    public Template getTemplate() {
+        return template;
+    }
+
+    /**
+     * Returns the replacement for the given expression, or null if this rule does not apply.
+     */
+    public Expression apply(Expression e) {
+        Map<String, Expression> bindings = new HashMap<String, Expression>();
+        return pattern.match(e, bindings) ? template.build(bindings) : null;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -22,7 +22,7 @@ public class SimpleVariableReference extends VariableExpression {
 
     @Override
     public void analyze(AnalysisContext context) {
-        referent = context.lookupVariable(name);
+        referent = context.at(this).lookupVariable(name);
         type = referent.getType();
     }
 
@@ -32,4 +32,12 @@ public class SimpleVariableReference extends VariableExpression {
     public boolean isWritable() {
        return true;
     }
+
+    // Back door for the optimizer to create references to variables it introduces.
+    static SimpleVariableReference fromReferent(Variable referent) {
+        SimpleVariableReference result = new SimpleVariableReference(referent.getName());
+        result.referent = referent;
+        result.type = referent.getType();
+        return result;
+    }
 }
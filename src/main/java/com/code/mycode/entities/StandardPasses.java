@@ -0,0 +1,89 @@
+package com.code.mycode.entities;
+
+/**
+ * The passes the optimizer ships with.
+ */
+public final class StandardPasses {
+
+    /**
+     * Marks the functions that are pure, so that calls to them can be evaluated at compile time.
+     */
+    public static final Pass PURITY = new Pass("purity") {
+        @Override
+        public void run(Program program) {
+            PurityAnalysis.analyze(program);
+        }
+    };
+
+    /**
+     * Has each statement and expression optimize itself: constant folding, evaluation of pure
+     * calls on literals, removal of dead code, and local algebraic simplification.
+     */
+    public static final Pass SIMPLIFY = new Pass("simplify") {
+        @Override
+        public void run(Program program) {
+            program.simplify();
+        }
+    };
+
+    /**
+     * Applies the standard rewrite rules to every expression.
+     */
+    public static final Pass REWRITE = new Pass("rewrite") {
+        @Override
+        public void run(Program program) {
+            new RewriteEngine(StandardRules.ALL).rewriteBlock(program);
+        }
+    };
+
+    /**
+     * Strength-reduces the index variables of for loops.
+     */
+    public static final Pass INDUCTION_VARIABLES = new Pass("induction-variables") {
+        @Override
+        public void run(Program program) {
+            new StatementVisitor() {
+                @Override
+                public void visitStatement(Statement s) {
+                    if (s instanceof ClassicForStatement) {
+                        ClassicForStatement.class.cast(s).reduceInductionVariable();
+                    }
+                }
+            }.rewriteBlock(program);
+        }
+    };
+
+    /**
+     * Turns self-recursive calls in tail position into jumps.
+     */
+    public static final Pass TAIL_CALLS = new Pass("tail-calls") {
+        @Override
+        public void run(Program program) {
+            new StatementVisitor() {
+                @Override
+                public void visitStatement(Statement s) {
+                    if (s instanceof Declaration
+                            && Declaration.class.cast(s).getDeclarable() instanceof Function) {
+                        Function.class.cast(Declaration.class.cast(s).getDeclarable())
+                            .eliminateTailCalls();
+                    }
+                }
+            }.rewriteBlock(program);
+        }
+    };
+
+    /**
+     * A walk over every statement in a program, including those in function bodies, that leaves
+     * the expressions alone.
+     */
+    private abstract static class StatementVisitor extends ExpressionRewriter {
+        @Override
+        public Expression rewrite(Expression e) {
+            return e;
+        }
+    }
+
+    private StandardPasses() {
+        // Not instantiable
+    }
+}
@@ -0,0 +1,113 @@
+package com.code.mycode.entities;
+
+import static com.code.mycode.entities.Pattern.any;
+import static com.code.mycode.entities.Pattern.intValue;
+import static com.code.mycode.entities.Pattern.literal;
+import static com.code.mycode.entities.Pattern.nonLiteral;
+import static com.code.mycode.entities.Pattern.notOfType;
+import static com.code.mycode.entities.Pattern.ofType;
+import static com.code.mycode.entities.Template.ref;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The rewrite rules the optimizer ships with.  None of these rules ever drops a subexpression,
+ * so they are safe in the presence of side effects.
+ */
+public final class StandardRules {
+
+    /**
+     * All of the standard rules, in the order they are tried.
+     */
+    public static final List<RewriteRule> ALL;
+
+    private static final String[][] NEGATED = {
+        {"==", "!="}, {"!=", "=="}, {"<", ">="}, {"<=", ">"}, {">", "<="}, {">=", "<"}
+    };
+
+    private static final String[][] MIRRORED = {
+        {"==", "=="}, {"!=", "!="}, {"<", ">"}, {"<=", ">="}, {">", "<"}, {">=", "<="}
+    };
+
+    static {
+        List<RewriteRule> rules = new ArrayList<RewriteRule>();
+
+        // Double negation
+        rules.add(new RewriteRule("double-not",
+            Pattern.prefix("!", Pattern.prefix("!", any("a"))), ref("a")));
+        rules.add(new RewriteRule("double-negation",
+            Pattern.prefix("-", Pattern.prefix("-", any("a"))), ref("a")));
+        rules.add(new RewriteRule("double-complement",
+            Pattern.prefix("~", Pattern.prefix("~", any("a"))), ref("a")));
+
+        // De Morgan's laws, pushing negations toward comparisons they can be folded into
+        rules.add(new RewriteRule("de-morgan-and",
+            Pattern.prefix("!", Pattern.infix("&&", any("a"), any("b"))),
+            Template.infix("||", Template.prefix("!", ref("a")), Template.prefix("!", ref("b")))));
+        rules.add(new RewriteRule("de-morgan-or",
+            Pattern.prefix("!", Pattern.infix("||", any("a"), any("b"))),
+            Template.infix("&&", Template.prefix("!", ref("a")), Template.prefix("!", ref("b")))));
+
+        // Negated comparisons.  Orderings are only complementary when neither side is a real,
+        // since comparisons with NaN are always false.
+        for (String[] pair: NEGATED) {
+            boolean ordering = pair[0].matches("<|<=|>|>=");
+            Pattern a = ordering ? notOfType("a", Type.REAL) : any("a");
+            Pattern b = ordering ? notOfType("b", Type.REAL) : any("b");
+            rules.add(new RewriteRule("negate" + pair[0],
+                Pattern.prefix("!", Pattern.infix(pair[0], a, b)),
+                Template.infix(pair[1], ref("a"), ref("b"))));
+        }
+
+        // Comparison canonicalization: literals go on the right.
+        for (String[] pair: MIRRORED) {
+            rules.add(new RewriteRule("mirror" + pair[0],
+                Pattern.infix(pair[0], literal("c"), nonLiteral("x")),
+                Template.infix(pair[1], ref("x"), ref("c"))));
+        }
+
+        // Comparisons with boolean literals
+        rules.add(new RewriteRule("equals-true",
+            Pattern.infix("==", any("a"), Pattern.bool(true)), ref("a")));
+        rules.add(new RewriteRule("not-equals-false",
+            Pattern.infix("!=", any("a"), Pattern.bool(false)), ref("a")));
+        rules.add(new RewriteRule("equals-false",
+            Pattern.infix("==", any("a"), Pattern.bool(false)), Template.prefix("!", ref("a"))));
+        rules.add(new RewriteRule("not-equals-true",
+            Pattern.infix("!=", any("a"), Pattern.bool(true)), Template.prefix("!", ref("a"))));
+
+        // Identity elimination for the logical operators
+        rules.add(new RewriteRule("and-true",
+            Pattern.infix("&&", any("a"), Pattern.bool(true)), ref("a")));
+        rules.add(new RewriteRule("true-and",
+            Pattern.infix("&&", Pattern.bool(true), any("a")), ref("a")));
+        rules.add(new RewriteRule("or-false",
+            Pattern.infix("||", any("a"), Pattern.bool(false)), ref("a")));
+        rules.add(new RewriteRule("false-or",
+            Pattern.infix("||", Pattern.bool(false), any("a")), ref("a")));
+
+        // Identity elimination for integer operators.  (Not for reals: -0.0 + 0 is 0.0.)
+        for (String op: new String[] {"+", "-", "|", "^", "<<", ">>"}) {
+            rules.add(new RewriteRule(op + "0",
+                Pattern.infix(op, ofType("a", Type.INT), intValue(0)), ref("a")));
+        }
+        for (String op: new String[] {"+", "|", "^"}) {
+            rules.add(new RewriteRule("0" + op,
+                Pattern.infix(op, intValue(0), ofType("a", Type.INT)), ref("a")));
+        }
+        for (String op: new String[] {"*", "/"}) {
+            rules.add(new RewriteRule(op + "1",
+                Pattern.infix(op, ofType("a", Type.INT), intValue(1)), ref("a")));
+        }
+        rules.add(new RewriteRule("1*",
+            Pattern.infix("*", intValue(1), ofType("a", Type.INT)), ref("a")));
+
+        ALL = Collections.unmodifiableList(rules);
+    }
+
+    private StandardRules() {
+        // Not instantiable
+    }
+}
@@ -14,4 +14,12 @@ public abstract class Statement extends Entity {
     public Statement optimize() {
         return this;
     }
+
+    /**
+     * Applies the given rewriter to every expression in this statement, including those in any
+     * nested blocks.  Overridden in every statement class that contains expressions.
+     */
+    void rewriteExpressions(ExpressionRewriter rewriter) {
+        // Intentionally empty
+    }
 }
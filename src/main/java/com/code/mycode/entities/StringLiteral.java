@@ -1,5 +1,6 @@
 package com.code.mycode.entities;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -22,4 +23,19 @@ public class StringLiteral extends Literal {
         type = Type.STRING;
         values = CharLiteral.codepoints(getLexeme(), 1, getLexeme().length() - 1, context);
     }
+
+    // Back door for optimizer.
+    static StringLiteral fromValue(String value) {
+        List<Integer> values = new ArrayList<Integer>();
+        StringBuilder lexeme = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i = value.offsetByCodePoints(i, 1)) {
+            int codepoint = value.codePointAt(i);
+            values.add(codepoint);
+            lexeme.append(CharLiteral.escape(codepoint));
+        }
+        StringLiteral result = new StringLiteral(lexeme.append('"').toString());
+        result.values = values;
+        result.type = Type.STRING;
+        return result;
+    }
 }
@@ -2,6 +2,7 @@ package com.code.mycode.entities;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 
 /**
  * A expression directly constructing a new instance of a structure type. Examples:
@@ -13,15 +14,15 @@ import java.util.List;
  */
 public class StructAggregate extends Expression {
 
-    private String typename;
+    private TypeReference typename;
     private List<Expression> args;
 
-    public StructAggregate(String typename, List<Expression> args) {
+    public StructAggregate(TypeReference typename, List<Expression> args) {
         this.typename = typename;
         this.args = args;
     }
 
-    public String getTypename() {
+    public TypeReference getTypename() {
         return typename;
     }
 
@@ -53,4 +54,11 @@ public class StructAggregate extends Expression {
             a.assertAssignableTo(f.getType(), "struct_aggregate_type_mismatch", context);
         }
     }
+
+    @Override
+    void rewriteChildren(ExpressionRewriter rewriter) {
+        for (ListIterator<Expression> it = args.listIterator(); it.hasNext();) {
+            it.set(rewriter.rewriteExpression(it.next()));
+        }
+    }
 }
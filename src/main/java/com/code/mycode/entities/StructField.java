@@ -6,18 +6,19 @@ package com.code.mycode.entities;
 public class StructField extends Entity {
 
     private String name;
-    private String typename;
+    private TypeReference typename;
     private Type type;
+    private int frameSlot = -1;
 
     /**
      * An arbitrary field, useful in semantic analysis to take the place of a field that has not
      * been declared.  This field is type-compatible with everything, so its use serves to prevent
      * a flood of spurious error messages.
      */
-    public static final StructField ARBITRARY = new StructField("<unknown>", Type.ARBITRARY.getName());
+    public static final StructField ARBITRARY = new StructField("<unknown>", Type.ARBITRARY.getReference());
     static {ARBITRARY.type = Type.ARBITRARY;}
 
-    public StructField(String name, String typename) {
+    public StructField(String name, TypeReference typename) {
         this.name = name;
         this.typename = typename;
     }
@@ -26,7 +27,7 @@ public class StructField extends Entity {
         return name;
     }
 
-    public String getTypename() {
+    public TypeReference getTypename() {
         return typename;
     }
 
@@ -34,6 +35,18 @@ public class StructField extends Entity {
         return type;
     }
 
+    /**
+     * Returns the index of this field within the record array for its kind, or -1 if the
+     * struct has not been resolved by a FrameResolver.
+     */
+    public int getFrameSlot() {
+        return frameSlot;
+    }
+
+    void setFrameSlot(int frameSlot) {
+        this.frameSlot = frameSlot;
+    }
+
     @Override
     public void analyze(AnalysisContext context) {
         type = context.lookupType(typename);
@@ -10,6 +10,7 @@ import java.util.Set;
 public class StructType extends Type {
 
     private List<StructField> fields;
+    private FrameLayout frameLayout;
 
     public StructType(String name, List<StructField> fields) {
         super(name);
@@ -20,6 +21,18 @@ public class StructType extends Type {
         return fields;
     }
 
+    /**
+     * Returns the layout of the records holding values of this type, or null if the type has
+     * not been resolved by a FrameResolver.
+     */
+    public FrameLayout getFrameLayout() {
+        return frameLayout;
+    }
+
+    void setFrameLayout(FrameLayout frameLayout) {
+        this.frameLayout = frameLayout;
+    }
+
     @Override
     public void analyze(AnalysisContext context) {
         Set<String> fieldNames = new HashSet<String>();
@@ -37,4 +37,13 @@ public class SubscriptedVariable extends VariableExpression {
         // It's writable if an array, but not writable if it is a string
         return sequence.type.isArray();
     }
+
+    @Override
+    void rewriteChildren(ExpressionRewriter rewriter) {
+        Expression rewritten = rewriter.rewriteExpression(sequence);
+        if (rewritten instanceof VariableExpression) {
+            sequence = VariableExpression.class.cast(rewritten);
+        }
+        index = rewriter.rewriteExpression(index);
+    }
 }
@@ -49,6 +49,18 @@ public class SymbolTable extends Entity {
         }
     }
 
+    /**
+     * Looks up the type named in a type reference, as for lookupType of
+     * a name, and makes array types of it for each pair of brackets.
+     */
+    public Type lookupType(TypeReference reference, Log log) {
+        Type type = lookupType(reference.getName(), log);
+        for (int i = 0; i < reference.getDimensions(); i++) {
+            type = type.array();
+        }
+        return type;
+    }
+
     /**
      * Looks up a type in this table, or if not found, searches along its
      * ancestor chain.
@@ -59,10 +71,6 @@ public class SymbolTable extends Entity {
      * and returns Type.ANY.
      */
     public Type lookupType(String name, Log log) {
-        if (name.endsWith("[]")) {
-            return lookupType(name.substring(0,name.length()-2), log).array();
-        }
-
         Object value = map.get(name);
         if (value == null) {
             if (parent == null) {
@@ -0,0 +1,41 @@
+package com.code.mycode.entities;
+
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * A self-recursive call in tail position, such as the "return gcd(b, a % b)" in a gcd function.
+ * These statements are never produced by the parser; the optimizer substitutes them for return
+ * and call statements so that back ends can reassign the parameters and jump back to the start
+ * of the function body instead of making a real call.
+ */
+public class TailCallStatement extends Statement {
+
+    private Function function;
+    private List<Expression> args;
+
+    public TailCallStatement(Function function, List<Expression> args) {
+        this.function = function;
+        this.args = args;
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    public List<Expression> getArgs() {
+        return args;
+    }
+
+    @Override
+    public void analyze(AnalysisContext context) {
+        // Intentionally empty; created by the optimizer from already-analyzed statements
+    }
+
+    @Override
+    void rewriteExpressions(ExpressionRewriter rewriter) {
+        for (ListIterator<Expression> it = args.listIterator(); it.hasNext();) {
+            it.set(rewriter.rewriteExpression(it.next()));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.code.mycode.entities;
+
+import java.util.Map;
+
+/**
+ * The right hand side of a rewrite rule: a recipe for building the replacement expression out of
+ * the subexpressions a pattern bound.  The types of the expressions built are derived from their
+ * operators and operands just as semantic analysis would derive them.
+ */
+public abstract class Template {
+
+    /**
+     * Builds the replacement expression from the given bindings.
+     */
+    public abstract Expression build(Map<String, Expression> bindings);
+
+    /**
+     * Produces the subexpression bound to the given name.
+     */
+    public static Template ref(final String name) {
+        return new Template() {
+            @Override
+            public Expression build(Map<String, Expression> bindings) {
+                return bindings.get(name);
+            }
+        };
+    }
+
+    /**
+     * Produces the given boolean literal.
+     */
+    public static Template bool(final boolean value) {
+        return new Template() {
+            @Override
+            public Expression build(Map<String, Expression> bindings) {
+                return BooleanLiteral.fromValue(value);
+            }
+        };
+    }
+
+    /**
+     * Produces an infix expression with the given operator.
+     */
+    public static Template infix(final String op, final Template left, final Template right) {
+        return new Template() {
+            @Override
+            public Expression build(Map<String, Expression> bindings) {
+                Expression l = left.build(bindings);
+                Expression r = right.build(bindings);
+                return InfixExpression.fromOperands(l, op, r, infixType(op, l, r));
+            }
+        };
+    }
+
+    /**
+     * Produces a prefix expression with the given operator.
+     */
+    public static Template prefix(final String op, final Template operand) {
+        return new Template() {
+            @Override
+            public Expression build(Map<String, Expression> bindings) {
+                Expression e = operand.build(bindings);
+                Type type = "!".equals(op) ? Type.BOOLEAN : "~".equals(op) ? Type.INT : e.getType();
+                return PrefixExpression.fromOperand(op, e, type);
+            }
+        };
+    }
+
+    private static Type infixType(String op, Expression left, Expression right) {
+        if (op.matches("\\+|-|\\*|/")) {
+            return left.getType() == Type.REAL || right.getType() == Type.REAL
+                ? Type.REAL : Type.INT;
+        } else if (op.matches("%|<<|>>|&|\\||\\^")) {
+            return Type.INT;
+        } else {
+            return Type.BOOLEAN;
+        }
+    }
+}
@@ -69,6 +69,13 @@ public class Type extends Declarable {
         return arrayOfThisType;
     }
 
+    /**
+     * Returns a reference to this type, as it would be written in a program.
+     */
+    public TypeReference getReference() {
+        return new TypeReference(getName(), 0);
+    }
+
     @Override
     public void analyze(AnalysisContext context) {
         // Intentionally empty - here only because it's nice to have primitives be of this class.
@@ -0,0 +1,93 @@
+package com.code.mycode.entities;
+
+/**
+ * A type as written in a program: the name of a type followed by some number of pairs of
+ * brackets, as in "int", "Point" or "real[][]".  References are resolved to types during
+ * semantic analysis, by looking up the name and making array types of it.
+ */
+public class TypeReference {
+
+    public static final TypeReference VOID = new TypeReference("void", 0);
+    public static final TypeReference BOOLEAN = new TypeReference("boolean", 0);
+    public static final TypeReference CHAR = new TypeReference("char", 0);
+    public static final TypeReference INT = new TypeReference("int", 0);
+    public static final TypeReference REAL = new TypeReference("real", 0);
+    public static final TypeReference STRING = new TypeReference("string", 0);
+
+    private final String name;
+    private final int dimensions;
+
+    public TypeReference(String name, int dimensions) {
+        this.name = name;
+        this.dimensions = dimensions;
+    }
+
+    /**
+     * Returns the reference written as the given text, a name followed by pairs of brackets, or
+     * null for null.
+     */
+    public static TypeReference parse(String text) {
+        if (text == null) {
+            return null;
+        }
+        int end = text.length();
+        while (text.startsWith("[]", end - 2)) {
+            end -= 2;
+        }
+        return new TypeReference(text.substring(0, end), (text.length() - end) / 2);
+    }
+
+    /**
+     * Returns the name of the type, without the brackets.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of pairs of brackets.
+     */
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Returns a reference to the type that is an array of this one.
+     */
+    public TypeReference array() {
+        return new TypeReference(name, dimensions + 1);
+    }
+
+    public boolean isVoid() {
+        return dimensions == 0 && name.equals("void");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TypeReference)) {
+            return false;
+        }
+        TypeReference other = TypeReference.class.cast(o);
+        return name.equals(other.name) && dimensions == other.dimensions;
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode() * 31 + dimensions;
+    }
+
+    /**
+     * Returns the reference as written in a program.
+     */
+    @Override
+    public String toString() {
+        if (dimensions == 0) {
+            return name;
+        }
+        StringBuilder result = new StringBuilder(name);
+        for (int i = 0; i < dimensions; i++) {
+            result.append("[]");
+        }
+        return result.toString();
+    }
+}
@@ -5,9 +5,11 @@ package com.code.mycode.entities;
  */
 public class Variable extends Declarable {
 
-    private String typename;
+    private TypeReference typename;
     private Expression initializer;
     private Type type;
+    private int frameLevel = -1;
+    private int frameSlot = -1;
 
     /**
      * An arbitrary variable, useful in semantic analysis to take the place of a variable that
@@ -16,7 +18,7 @@ public class Variable extends Declarable {
      */
     public static final Variable ARBITRARY = new Variable("<unknown>", Type.ARBITRARY);
 
-    public Variable(String name, String typename, Expression initializer) {
+    public Variable(String name, TypeReference typename, Expression initializer) {
         super(name);
         this.typename = typename;
         this.initializer = initializer;
@@ -29,16 +31,29 @@ public class Variable extends Declarable {
      */
     public Variable(String name, Type type) {
         super(name);
-        this.typename = type.getName();
+        this.typename = type.getReference();
         this.initializer = null;
         this.type = type;
     }
 
+    /**
+     * Special constructor for variables introduced by the optimizer, which already know their
+     * type and have an already analyzed initializer.
+     */
+    Variable(String name, Type type, Expression initializer) {
+        this(name, type);
+        this.initializer = initializer;
+    }
+
     public Expression getInitializer() {
         return initializer;
     }
 
-    public String getTypename() {
+    void setInitializer(Expression initializer) {
+        this.initializer = initializer;
+    }
+
+    public TypeReference getTypename() {
         return typename;
     }
 
@@ -46,6 +61,27 @@ public class Variable extends Declarable {
         return type;
     }
 
+    /**
+     * Returns the static nesting level of the frame holding this variable, or -1 if the
+     * variable has not been resolved by a FrameResolver.
+     */
+    public int getFrameLevel() {
+        return frameLevel;
+    }
+
+    /**
+     * Returns the index of this variable within the frame array for its kind, or -1 if the
+     * variable has not been resolved by a FrameResolver.
+     */
+    public int getFrameSlot() {
+        return frameSlot;
+    }
+
+    void setFrameSlot(int frameLevel, int frameSlot) {
+        this.frameLevel = frameLevel;
+        this.frameSlot = frameSlot;
+    }
+
     @Override
     public void analyze(AnalysisContext context) {
         type = context.lookupType(typename);
@@ -63,4 +99,10 @@ public class Variable extends Declarable {
             initializer = initializer.optimize();
         }
     }
+
+    void rewriteInitializer(ExpressionRewriter rewriter) {
+        if (initializer != null) {
+            initializer = rewriter.rewriteExpression(initializer);
+        }
+    }
 }
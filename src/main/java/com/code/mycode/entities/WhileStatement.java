@@ -38,4 +38,10 @@ public class WhileStatement extends Statement {
         }
         return this;
     }
+
+    @Override
+    void rewriteExpressions(ExpressionRewriter rewriter) {
+        condition = rewriter.rewriteExpression(condition);
+        rewriter.rewriteBlock(body);
+    }
 }
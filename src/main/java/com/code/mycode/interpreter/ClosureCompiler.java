@@ -0,0 +1,1708 @@
+package com.code.mycode.interpreter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.code.mycode.entities.ArrayAggregate;
+import com.code.mycode.entities.ArrayType;
+import com.code.mycode.entities.AssignmentStatement;
+import com.code.mycode.entities.Block;
+import com.code.mycode.entities.BooleanLiteral;
+import com.code.mycode.entities.BreakStatement;
+import com.code.mycode.entities.CallExpression;
+import com.code.mycode.entities.CallStatement;
+import com.code.mycode.entities.Case;
+import com.code.mycode.entities.CharLiteral;
+import com.code.mycode.entities.ClassicForStatement;
+import com.code.mycode.entities.Declarable;
+import com.code.mycode.entities.Declaration;
+import com.code.mycode.entities.DottedVariable;
+import com.code.mycode.entities.EmptyArray;
+import com.code.mycode.entities.Expression;
+import com.code.mycode.entities.ExpressionRewriter;
+import com.code.mycode.entities.FrameLayout;
+import com.code.mycode.entities.FrameResolver;
+import com.code.mycode.entities.Function;
+import com.code.mycode.entities.IfStatement;
+import com.code.mycode.entities.IncrementStatement;
+import com.code.mycode.entities.InfixExpression;
+import com.code.mycode.entities.IntegerLiteral;
+import com.code.mycode.entities.NullLiteral;
+import com.code.mycode.entities.PostfixExpression;
+import com.code.mycode.entities.PrefixExpression;
+import com.code.mycode.entities.PrintStatement;
+import com.code.mycode.entities.Program;
+import com.code.mycode.entities.RealLiteral;
+import com.code.mycode.entities.ReturnStatement;
+import com.code.mycode.entities.SimpleVariableReference;
+import com.code.mycode.entities.Statement;
+import com.code.mycode.entities.StringLiteral;
+import com.code.mycode.entities.StructAggregate;
+import com.code.mycode.entities.StructField;
+import com.code.mycode.entities.StructType;
+import com.code.mycode.entities.SubscriptedVariable;
+import com.code.mycode.entities.TailCallStatement;
+import com.code.mycode.entities.Type;
+import com.code.mycode.entities.Variable;
+import com.code.mycode.entities.VariableExpression;
+import com.code.mycode.entities.WhileStatement;
+
+/**
+ * Runs an analyzed program by first turning it into a tree of closures, one node object per
+ * expression and statement, and then running that.  Each node is made for exactly what its
+ * entity does, now that types and referents are known: an int addition becomes a node that
+ * adds two ints, a read of a local variable a node that indexes the current frame at a fixed
+ * slot, and a call a node holding the code of the function called.  Running the tree does no
+ * tests on entity classes, operators or types, just virtual calls the JIT can often inline.
+ *
+ * Compiling the tree is a single pass over the program, so this is a cheaper start than
+ * generating a class, and a faster run than the Interpreter.  Frames, values, output and run
+ * time errors are the Interpreter's.
+ */
+public class ClosureCompiler {
+
+    // How statements complete
+    private static final int NORMAL = 0, BREAK = 1, RETURN = 2, TAIL_CALL = 3;
+
+    private abstract static class LongNode {
+        abstract long eval(Frame f);
+    }
+
+    private abstract static class DoubleNode {
+        abstract double eval(Frame f);
+    }
+
+    private abstract static class ObjectNode {
+        abstract Object eval(Frame f);
+    }
+
+    private abstract static class StatementNode {
+        abstract int execute(Frame f);
+    }
+
+    /**
+     * The compiled form of a function, made before its body is compiled so that calls,
+     * recursive ones included, can refer to it.
+     */
+    private static class FunctionCode {
+        FrameLayout layout;
+        StatementNode body;
+        StatementNode[] binders;
+    }
+
+    private Reader input;
+    private PrintWriter output;
+    private Map<Function, FunctionCode> functions = new HashMap<Function, FunctionCode>();
+    private Map<Type, RuntimeType> runtimeTypes = new HashMap<Type, RuntimeType>();
+
+    // The function being compiled, null for the top level, and its nesting level
+    private Function function;
+    private int level;
+
+    // Where a return statement leaves its value, and a tail call the frame to continue in.
+    private long returnLong;
+    private double returnDouble;
+    private Object returnObject;
+    private Frame tailFrame;
+
+    // Where calls leave the frame made for the callee while arguments are bound into it
+    private Frame callee;
+
+    /**
+     * Creates an engine whose programs read from the given input, through getString, and print
+     * to the given output.
+     */
+    public ClosureCompiler(Reader input, PrintWriter output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Compiles and runs the given program, which must have been analyzed without errors.
+     */
+    public void run(Program program) {
+        StatementNode main = compile(program);
+        try {
+            main.execute(new Frame(program.getFrameLayout(), null));
+        } catch (StackOverflowError e) {
+            throw new RuntimeError("stack_overflow");
+        } finally {
+            output.flush();
+        }
+    }
+
+    private StatementNode compile(Program program) {
+        FrameResolver.resolve(program);
+        final List<Function> all = new ArrayList<Function>();
+        new ExpressionRewriter() {
+            @Override
+            public void visitStatement(Statement s) {
+                if (s instanceof Declaration) {
+                    Declarable d = Declaration.class.cast(s).getDeclarable();
+                    if (d instanceof Function) {
+                        all.add(Function.class.cast(d));
+                    }
+                }
+            }
+
+            @Override
+            public Expression rewrite(Expression e) {
+                return e;
+            }
+        }.rewriteBlock(program);
+
+        for (Function f: all) {
+            FunctionCode code = new FunctionCode();
+            code.layout = f.getFrameLayout();
+            functions.put(f, code);
+        }
+        for (Function f: all) {
+            function = f;
+            level = f.getFrameLayout().getLevel();
+            FunctionCode code = functions.get(f);
+            code.body = compileBlock(f.getBody());
+        }
+        function = null;
+        level = 0;
+        return compileBlock(program);
+    }
+
+    // Statements
+
+    private StatementNode compileBlock(Block block) {
+        List<StatementNode> nodes = new ArrayList<StatementNode>();
+        for (Statement s: block.getStatements()) {
+            StatementNode node = compileStatement(s);
+            if (node != null) {
+                nodes.add(node);
+            }
+        }
+        final StatementNode[] statements = nodes.toArray(new StatementNode[nodes.size()]);
+        if (statements.length == 1) {
+            return statements[0];
+        }
+        return new StatementNode() {
+            @Override
+            int execute(Frame f) {
+                for (StatementNode s: statements) {
+                    int completion = s.execute(f);
+                    if (completion != NORMAL) {
+                        return completion;
+                    }
+                }
+                return NORMAL;
+            }
+        };
+    }
+
+    /**
+     * Compiles a statement, returning null for declarations that do nothing at run time.
+     */
+    private StatementNode compileStatement(Statement s) {
+        if (s instanceof AssignmentStatement) {
+            AssignmentStatement a = AssignmentStatement.class.cast(s);
+            return compileAssignment(a.getLeft(), a.getRight());
+
+        } else if (s instanceof IncrementStatement) {
+            IncrementStatement i = IncrementStatement.class.cast(s);
+            final LongNode increment = compileIncrement(i.getTarget(), "++".equals(i.getOp()) ? 1 : -1, true);
+            return new StatementNode() {
+                @Override
+                int execute(Frame f) {
+                    increment.eval(f);
+                    return NORMAL;
+                }
+            };
+
+        } else if (s instanceof CallStatement) {
+            CallStatement c = CallStatement.class.cast(s);
+            final StatementNode call = compileCall(c.getFunction(), c.getArgs());
+            return new StatementNode() {
+                @Override
+                int execute(Frame f) {
+                    call.execute(f);
+                    return NORMAL;
+                }
+            };
+
+        } else if (s instanceof IfStatement) {
+            IfStatement i = IfStatement.class.cast(s);
+            List<Case> cases = i.getCases();
+            final LongNode[] conditions = new LongNode[cases.size()];
+            final StatementNode[] bodies = new StatementNode[cases.size()];
+            for (int c = 0; c < cases.size(); c++) {
+                conditions[c] = compileLong(cases.get(c).getCondition());
+                bodies[c] = compileBlock(cases.get(c).getBody());
+            }
+            final StatementNode elsePart = i.getElsePart() == null ? null : compileBlock(i.getElsePart());
+            if (conditions.length == 1) {
+                final LongNode condition = conditions[0];
+                final StatementNode body = bodies[0];
+                return new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        if (condition.eval(f) != 0) {
+                            return body.execute(f);
+                        }
+                        return elsePart == null ? NORMAL : elsePart.execute(f);
+                    }
+                };
+            }
+            return new StatementNode() {
+                @Override
+                int execute(Frame f) {
+                    for (int c = 0; c < conditions.length; c++) {
+                        if (conditions[c].eval(f) != 0) {
+                            return bodies[c].execute(f);
+                        }
+                    }
+                    return elsePart == null ? NORMAL : elsePart.execute(f);
+                }
+            };
+
+        } else if (s instanceof WhileStatement) {
+            WhileStatement w = WhileStatement.class.cast(s);
+            return compileLoop(null, compileLong(w.getCondition()), compileBlock(w.getBody()), null);
+
+        } else if (s instanceof ClassicForStatement) {
+            ClassicForStatement f = ClassicForStatement.class.cast(s);
+            List<StatementNode> init = new ArrayList<StatementNode>();
+            if (f.getIndexVariable() != null) {
+                init.add(compileInitialization(f.getIndexVariable()));
+                for (Variable v: f.getDerivedVariables()) {
+                    init.add(compileInitialization(v));
+                }
+            } else if (f.getInit() != null) {
+                init.add(compileEvaluation(f.getInit()));
+            }
+            List<StatementNode> updates = new ArrayList<StatementNode>();
+            if (f.getEach() != null) {
+                updates.add(compileStatement(f.getEach()));
+            }
+            for (AssignmentStatement update: f.getDerivedUpdates()) {
+                updates.add(compileStatement(update));
+            }
+            return compileLoop(init.toArray(new StatementNode[init.size()]),
+                f.getTest() == null ? null : compileLong(f.getTest()),
+                compileBlock(f.getBody()),
+                updates.toArray(new StatementNode[updates.size()]));
+
+        } else if (s instanceof ReturnStatement) {
+            Expression e = ReturnStatement.class.cast(s).getReturnExpression();
+            if (e == null) {
+                return new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        return RETURN;
+                    }
+                };
+            }
+            switch (FrameLayout.kindOf(function.getReturnType())) {
+            case LONG:
+                final LongNode l = compileLong(e);
+                return new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        returnLong = l.eval(f);
+                        return RETURN;
+                    }
+                };
+            case DOUBLE:
+                final DoubleNode d = compileDouble(e);
+                return new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        returnDouble = d.eval(f);
+                        return RETURN;
+                    }
+                };
+            default:
+                final ObjectNode o = compileObject(e);
+                return new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        returnObject = o.eval(f);
+                        return RETURN;
+                    }
+                };
+            }
+
+        } else if (s instanceof TailCallStatement) {
+            final FrameLayout layout = function.getFrameLayout();
+            final StatementNode[] binders = compileBinders(function, TailCallStatement.class.cast(s).getArgs());
+            return new StatementNode() {
+                @Override
+                int execute(Frame f) {
+                    Frame saved = callee;
+                    callee = new Frame(layout, f.parent);
+                    for (StatementNode binder: binders) {
+                        binder.execute(f);
+                    }
+                    tailFrame = callee;
+                    callee = saved;
+                    return TAIL_CALL;
+                }
+            };
+
+        } else if (s instanceof BreakStatement) {
+            return new StatementNode() {
+                @Override
+                int execute(Frame f) {
+                    return BREAK;
+                }
+            };
+
+        } else if (s instanceof PrintStatement) {
+            List<Expression> args = PrintStatement.class.cast(s).getArgs();
+            final ObjectNode[] displays = new ObjectNode[args.size()];
+            for (int i = 0; i < displays.length; i++) {
+                displays[i] = compileDisplay(args.get(i));
+            }
+            return new StatementNode() {
+                @Override
+                int execute(Frame f) {
+                    for (ObjectNode display: displays) {
+                        output.println(display.eval(f));
+                    }
+                    return NORMAL;
+                }
+            };
+
+        } else if (s instanceof Declaration) {
+            Declarable d = Declaration.class.cast(s).getDeclarable();
+            if (d instanceof Variable) {
+                return compileInitialization(Variable.class.cast(d));
+            }
+            return null;
+        }
+        throw new RuntimeException("Unknown entity class: " + s.getClass().getName());
+    }
+
+    /**
+     * Compiles a while loop, or a for loop with its initialization and updates.  A missing
+     * condition is always true.
+     */
+    private StatementNode compileLoop(final StatementNode[] init, final LongNode condition,
+            final StatementNode body, final StatementNode[] updates) {
+        return new StatementNode() {
+            @Override
+            int execute(Frame f) {
+                if (init != null) {
+                    for (StatementNode s: init) {
+                        s.execute(f);
+                    }
+                }
+                while (condition == null || condition.eval(f) != 0) {
+                    int completion = body.execute(f);
+                    if (completion == BREAK) {
+                        break;
+                    } else if (completion != NORMAL) {
+                        return completion;
+                    }
+                    if (updates != null) {
+                        for (StatementNode s: updates) {
+                            s.execute(f);
+                        }
+                    }
+                }
+                return NORMAL;
+            }
+        };
+    }
+
+    /**
+     * Compiles the setting of a variable to its initializer, or to the default for its type,
+     * each time its declaration is executed.
+     */
+    private StatementNode compileInitialization(Variable v) {
+        Expression initializer = v.getInitializer();
+        if (initializer != null) {
+            return compileStore(v, initializer);
+        }
+        final int slot = v.getFrameSlot();
+        switch (FrameLayout.kindOf(v.getType())) {
+        case LONG:
+            return new StatementNode() {
+                @Override
+                int execute(Frame f) {
+                    f.longs[slot] = 0;
+                    return NORMAL;
+                }
+            };
+        case DOUBLE:
+            return new StatementNode() {
+                @Override
+                int execute(Frame f) {
+                    f.doubles[slot] = 0;
+                    return NORMAL;
+                }
+            };
+        default:
+            final Object initial = v.getType() == Type.STRING ? "" : null;
+            return new StatementNode() {
+                @Override
+                int execute(Frame f) {
+                    f.objects[slot] = initial;
+                    return NORMAL;
+                }
+            };
+        }
+    }
+
+    /**
+     * Compiles the evaluation of an expression for its side effects.
+     */
+    private StatementNode compileEvaluation(Expression e) {
+        switch (FrameLayout.kindOf(e.getType())) {
+        case LONG:
+            final LongNode l = compileLong(e);
+            return new StatementNode() {
+                @Override
+                int execute(Frame f) {
+                    l.eval(f);
+                    return NORMAL;
+                }
+            };
+        case DOUBLE:
+            final DoubleNode d = compileDouble(e);
+            return new StatementNode() {
+                @Override
+                int execute(Frame f) {
+                    d.eval(f);
+                    return NORMAL;
+                }
+            };
+        default:
+            final ObjectNode o = compileObject(e);
+            return new StatementNode() {
+                @Override
+                int execute(Frame f) {
+                    o.eval(f);
+                    return NORMAL;
+                }
+            };
+        }
+    }
+
+    private StatementNode compileStore(Variable v, Expression value) {
+        final int slot = v.getFrameSlot();
+        final int hops = level - v.getFrameLevel();
+        switch (FrameLayout.kindOf(v.getType())) {
+        case LONG:
+            final LongNode l = compileLong(value);
+            if (hops == 0) {
+                return new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        f.longs[slot] = l.eval(f);
+                        return NORMAL;
+                    }
+                };
+            }
+            return new StatementNode() {
+                @Override
+                int execute(Frame f) {
+                    up(f, hops).longs[slot] = l.eval(f);
+                    return NORMAL;
+                }
+            };
+        case DOUBLE:
+            final DoubleNode d = compileDouble(value);
+            if (hops == 0) {
+                return new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        f.doubles[slot] = d.eval(f);
+                        return NORMAL;
+                    }
+                };
+            }
+            return new StatementNode() {
+                @Override
+                int execute(Frame f) {
+                    up(f, hops).doubles[slot] = d.eval(f);
+                    return NORMAL;
+                }
+            };
+        default:
+            final ObjectNode o = compileObject(value);
+            return new StatementNode() {
+                @Override
+                int execute(Frame f) {
+                    up(f, hops).objects[slot] = o.eval(f);
+                    return NORMAL;
+                }
+            };
+        }
+    }
+
+    private StatementNode compileAssignment(VariableExpression target, Expression value) {
+        FrameLayout.Kind kind = FrameLayout.kindOf(target.getType());
+        if (target instanceof SimpleVariableReference) {
+            return compileStore(SimpleVariableReference.class.cast(target).getReferent(), value);
+
+        } else if (target instanceof SubscriptedVariable) {
+            SubscriptedVariable s = SubscriptedVariable.class.cast(target);
+            final ObjectNode array = compileObject(s.getSequence());
+            final LongNode index = compileLong(s.getIndex());
+            switch (kind) {
+            case LONG:
+                final LongNode l = compileLong(value);
+                return new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        Object a = array.eval(f);
+                        long i = index.eval(f);
+                        long[] longs = (long[])checkNotNull(a);
+                        longs[checkIndex(i, longs.length)] = l.eval(f);
+                        return NORMAL;
+                    }
+                };
+            case DOUBLE:
+                final DoubleNode d = compileDouble(value);
+                return new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        Object a = array.eval(f);
+                        long i = index.eval(f);
+                        double[] doubles = (double[])checkNotNull(a);
+                        doubles[checkIndex(i, doubles.length)] = d.eval(f);
+                        return NORMAL;
+                    }
+                };
+            default:
+                final ObjectNode o = compileObject(value);
+                return new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        Object a = array.eval(f);
+                        long i = index.eval(f);
+                        Object[] objects = (Object[])checkNotNull(a);
+                        objects[checkIndex(i, objects.length)] = o.eval(f);
+                        return NORMAL;
+                    }
+                };
+            }
+
+        } else if (target instanceof DottedVariable) {
+            DottedVariable dotted = DottedVariable.class.cast(target);
+            final ObjectNode struct = compileObject(dotted.getStruct());
+            final int slot = dotted.getField().getFrameSlot();
+            switch (kind) {
+            case LONG:
+                final LongNode l = compileLong(value);
+                return new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        record(struct.eval(f)).longs[slot] = l.eval(f);
+                        return NORMAL;
+                    }
+                };
+            case DOUBLE:
+                final DoubleNode d = compileDouble(value);
+                return new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        record(struct.eval(f)).doubles[slot] = d.eval(f);
+                        return NORMAL;
+                    }
+                };
+            default:
+                final ObjectNode o = compileObject(value);
+                return new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        record(struct.eval(f)).objects[slot] = o.eval(f);
+                        return NORMAL;
+                    }
+                };
+            }
+        }
+        throw new RuntimeException("Unknown variable expression class: " + target.getClass().getName());
+    }
+
+    /**
+     * Compiles the addition of delta to an int variable, giving the new value if prefix is
+     * true, or the old value otherwise.
+     */
+    private LongNode compileIncrement(VariableExpression target, final int delta, final boolean prefix) {
+        if (target instanceof SimpleVariableReference) {
+            Variable v = SimpleVariableReference.class.cast(target).getReferent();
+            final int slot = v.getFrameSlot();
+            final int hops = level - v.getFrameLevel();
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    long[] longs = up(f, hops).longs;
+                    long old = longs[slot];
+                    longs[slot] = (int)(old + delta);
+                    return prefix ? longs[slot] : old;
+                }
+            };
+        } else if (target instanceof SubscriptedVariable) {
+            SubscriptedVariable s = SubscriptedVariable.class.cast(target);
+            final ObjectNode array = compileObject(s.getSequence());
+            final LongNode index = compileLong(s.getIndex());
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    long[] longs = (long[])checkNotNull(array.eval(f));
+                    int i = checkIndex(index.eval(f), longs.length);
+                    long old = longs[i];
+                    longs[i] = (int)(old + delta);
+                    return prefix ? longs[i] : old;
+                }
+            };
+        }
+        DottedVariable d = DottedVariable.class.cast(target);
+        final ObjectNode struct = compileObject(d.getStruct());
+        final int slot = d.getField().getFrameSlot();
+        return new LongNode() {
+            @Override
+            long eval(Frame f) {
+                long[] longs = record(struct.eval(f)).longs;
+                long old = longs[slot];
+                longs[slot] = (int)(old + delta);
+                return prefix ? longs[slot] : old;
+            }
+        };
+    }
+
+    // Calls
+
+    /**
+     * Compiles a call, leaving any result where return statements leave it.
+     */
+    private StatementNode compileCall(Function f, List<Expression> args) {
+        if (f.getBody() == null) {
+            return compileBuiltInCall(f, args);
+        }
+        final FunctionCode code = functions.get(f);
+        final StatementNode[] binders = compileBinders(f, args);
+        final int hops = level - code.layout.getLevel() + 1;
+        return new StatementNode() {
+            @Override
+            int execute(Frame caller) {
+                Frame saved = callee;
+                Frame frame = new Frame(code.layout, up(caller, hops));
+                callee = frame;
+                for (StatementNode binder: binders) {
+                    binder.execute(caller);
+                }
+                callee = saved;
+                while (code.body.execute(frame) == TAIL_CALL) {
+                    frame = tailFrame;
+                }
+                return NORMAL;
+            }
+        };
+    }
+
+    /**
+     * Compiles the evaluation of arguments in the caller's frame, each stored in a parameter
+     * slot of the callee's frame.
+     */
+    private StatementNode[] compileBinders(Function f, List<Expression> args) {
+        List<Variable> parameters = f.getParameters();
+        StatementNode[] binders = new StatementNode[parameters.size()];
+        for (int i = 0; i < binders.length; i++) {
+            final int slot = parameters.get(i).getFrameSlot();
+            switch (FrameLayout.kindOf(parameters.get(i).getType())) {
+            case LONG:
+                final LongNode l = compileLong(args.get(i));
+                binders[i] = new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        Frame frame = callee;
+                        frame.longs[slot] = l.eval(f);
+                        return NORMAL;
+                    }
+                };
+                break;
+            case DOUBLE:
+                final DoubleNode d = compileDouble(args.get(i));
+                binders[i] = new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        Frame frame = callee;
+                        frame.doubles[slot] = d.eval(f);
+                        return NORMAL;
+                    }
+                };
+                break;
+            default:
+                final ObjectNode o = compileObject(args.get(i));
+                binders[i] = new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        Frame frame = callee;
+                        frame.objects[slot] = o.eval(f);
+                        return NORMAL;
+                    }
+                };
+            }
+        }
+        return binders;
+    }
+
+    private StatementNode compileBuiltInCall(Function f, List<Expression> args) {
+        if (f == Function.PI) {
+            return new StatementNode() {
+                @Override
+                int execute(Frame frame) {
+                    returnDouble = Math.PI;
+                    return NORMAL;
+                }
+            };
+        } else if (f == Function.SUBSTRING) {
+            final ObjectNode s = compileObject(args.get(0));
+            final LongNode start = compileLong(args.get(1));
+            final LongNode end = compileLong(args.get(2));
+            return new StatementNode() {
+                @Override
+                int execute(Frame frame) {
+                    // Mirrors JavaScript's substring, which clamps and orders its arguments
+                    String string = string(s.eval(frame));
+                    long from = Math.min(Math.max(start.eval(frame), 0), string.length());
+                    long to = Math.min(Math.max(end.eval(frame), 0), string.length());
+                    returnObject = string.substring((int)Math.min(from, to), (int)Math.max(from, to));
+                    return NORMAL;
+                }
+            };
+        } else if (f == Function.GET_STRING) {
+            return new StatementNode() {
+                @Override
+                int execute(Frame frame) {
+                    returnObject = readInput();
+                    return NORMAL;
+                }
+            };
+        } else if (f == Function.ATAN) {
+            final DoubleNode y = compileDouble(args.get(0));
+            final DoubleNode x = compileDouble(args.get(1));
+            return new StatementNode() {
+                @Override
+                int execute(Frame frame) {
+                    double yValue = y.eval(frame);
+                    returnDouble = StrictMath.atan2(yValue, x.eval(frame));
+                    return NORMAL;
+                }
+            };
+        }
+        final DoubleNode x = compileDouble(args.get(0));
+        if (f == Function.SQRT) {
+            return new StatementNode() {
+                @Override
+                int execute(Frame frame) {
+                    returnDouble = StrictMath.sqrt(x.eval(frame));
+                    return NORMAL;
+                }
+            };
+        } else if (f == Function.SIN) {
+            return new StatementNode() {
+                @Override
+                int execute(Frame frame) {
+                    returnDouble = StrictMath.sin(x.eval(frame));
+                    return NORMAL;
+                }
+            };
+        } else if (f == Function.COS) {
+            return new StatementNode() {
+                @Override
+                int execute(Frame frame) {
+                    returnDouble = StrictMath.cos(x.eval(frame));
+                    return NORMAL;
+                }
+            };
+        } else if (f == Function.LN) {
+            return new StatementNode() {
+                @Override
+                int execute(Frame frame) {
+                    returnDouble = StrictMath.log(x.eval(frame));
+                    return NORMAL;
+                }
+            };
+        }
+        throw new RuntimeException("Unknown built-in function: " + f.getName());
+    }
+
+    private String readInput() {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[4096];
+        try {
+            for (int n; (n = input.read(buffer)) != -1;) {
+                builder.append(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new RuntimeError("input_error", e.getMessage());
+        }
+        return builder.toString();
+    }
+
+    // Expressions
+
+    /**
+     * Compiles an expression of type int, char, or boolean.
+     */
+    private LongNode compileLong(Expression e) {
+        if (e instanceof SimpleVariableReference) {
+            Variable v = SimpleVariableReference.class.cast(e).getReferent();
+            final int slot = v.getFrameSlot();
+            final int hops = level - v.getFrameLevel();
+            if (hops == 0) {
+                return new LongNode() {
+                    @Override
+                    long eval(Frame f) {
+                        return f.longs[slot];
+                    }
+                };
+            }
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return up(f, hops).longs[slot];
+                }
+            };
+        } else if (e instanceof IntegerLiteral) {
+            return constant(IntegerLiteral.class.cast(e).getValue().longValue());
+        } else if (e instanceof CharLiteral) {
+            return constant(CharLiteral.class.cast(e).getValue().longValue());
+        } else if (e instanceof BooleanLiteral) {
+            return constant(e == BooleanLiteral.TRUE ? 1 : 0);
+        } else if (e instanceof InfixExpression) {
+            return compileInfix(InfixExpression.class.cast(e));
+        } else if (e instanceof PrefixExpression) {
+            return compilePrefix(PrefixExpression.class.cast(e));
+        } else if (e instanceof PostfixExpression) {
+            PostfixExpression p = PostfixExpression.class.cast(e);
+            return compileIncrement(p.getOperand(), "++".equals(p.getOp()) ? 1 : -1, false);
+        } else if (e instanceof SubscriptedVariable) {
+            SubscriptedVariable s = SubscriptedVariable.class.cast(e);
+            final ObjectNode sequence = compileObject(s.getSequence());
+            final LongNode index = compileLong(s.getIndex());
+            if (s.getSequence().getType() == Type.STRING) {
+                return new LongNode() {
+                    @Override
+                    long eval(Frame f) {
+                        Object a = sequence.eval(f);
+                        long i = index.eval(f);
+                        String string = string(a);
+                        return string.charAt(checkIndex(i, string.length()));
+                    }
+                };
+            }
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    Object a = sequence.eval(f);
+                    long i = index.eval(f);
+                    long[] longs = (long[])checkNotNull(a);
+                    return longs[checkIndex(i, longs.length)];
+                }
+            };
+        } else if (e instanceof DottedVariable) {
+            DottedVariable d = DottedVariable.class.cast(e);
+            final ObjectNode struct = compileObject(d.getStruct());
+            final int slot = d.getField().getFrameSlot();
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return record(struct.eval(f)).longs[slot];
+                }
+            };
+        } else if (e instanceof CallExpression) {
+            CallExpression c = CallExpression.class.cast(e);
+            final StatementNode call = compileCall(c.getFunction(), c.getArgs());
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    call.execute(f);
+                    return returnLong;
+                }
+            };
+        }
+        throw new RuntimeException("Unknown entity class: " + e.getClass().getName());
+    }
+
+    private static LongNode constant(final long value) {
+        return new LongNode() {
+            @Override
+            long eval(Frame f) {
+                return value;
+            }
+        };
+    }
+
+    private LongNode compilePrefix(PrefixExpression e) {
+        String op = e.getOp();
+        if ("++".equals(op) || "--".equals(op)) {
+            VariableExpression target = VariableExpression.class.cast(e.getOperand());
+            return compileIncrement(target, "++".equals(op) ? 1 : -1, true);
+        } else if ("int".equals(op) || "char".equals(op)) {
+            return compileLong(e.getOperand());
+        } else if ("length".equals(op)) {
+            final ObjectNode sequence = compileObject(e.getOperand());
+            if (e.getOperand().getType() == Type.STRING) {
+                return new LongNode() {
+                    @Override
+                    long eval(Frame f) {
+                        return string(sequence.eval(f)).length();
+                    }
+                };
+            }
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return Values.length(checkNotNull(sequence.eval(f)));
+                }
+            };
+        }
+
+        final LongNode operand = compileLong(e.getOperand());
+        if ("-".equals(op)) {
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return (int)-operand.eval(f);
+                }
+            };
+        } else if ("!".equals(op)) {
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return operand.eval(f) == 0 ? 1 : 0;
+                }
+            };
+        } else if ("~".equals(op)) {
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return ~operand.eval(f);
+                }
+            };
+        }
+        throw new RuntimeException("Unknown prefix operator: " + op);
+    }
+
+    private LongNode compileInfix(InfixExpression e) {
+        String op = e.getOp();
+        if ("&&".equals(op)) {
+            final LongNode left = compileLong(e.getLeft());
+            final LongNode right = compileLong(e.getRight());
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return left.eval(f) != 0 && right.eval(f) != 0 ? 1 : 0;
+                }
+            };
+        } else if ("||".equals(op)) {
+            final LongNode left = compileLong(e.getLeft());
+            final LongNode right = compileLong(e.getRight());
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return left.eval(f) != 0 || right.eval(f) != 0 ? 1 : 0;
+                }
+            };
+        } else if (e.getType() == Type.BOOLEAN) {
+            return compileComparison(op, e.getLeft(), e.getRight());
+        }
+
+        final LongNode left = compileLong(e.getLeft());
+        if (e.getRight() instanceof IntegerLiteral && ("+".equals(op) || "-".equals(op))) {
+            int n = IntegerLiteral.class.cast(e.getRight()).getValue();
+            final int c = "+".equals(op) ? n : -n;
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return (int)left.eval(f) + c;
+                }
+            };
+        }
+        final LongNode right = compileLong(e.getRight());
+        if ("+".equals(op)) {
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return (int)left.eval(f) + (int)right.eval(f);
+                }
+            };
+        } else if ("-".equals(op)) {
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return (int)left.eval(f) - (int)right.eval(f);
+                }
+            };
+        } else if ("*".equals(op)) {
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return (int)left.eval(f) * (int)right.eval(f);
+                }
+            };
+        } else if ("/".equals(op)) {
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    int x = (int)left.eval(f);
+                    return x / checkDivisor((int)right.eval(f));
+                }
+            };
+        } else if ("%".equals(op)) {
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    int x = (int)left.eval(f);
+                    return x % checkDivisor((int)right.eval(f));
+                }
+            };
+        } else if ("<<".equals(op)) {
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return (int)left.eval(f) << (int)right.eval(f);
+                }
+            };
+        } else if (">>".equals(op)) {
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return (int)left.eval(f) >> (int)right.eval(f);
+                }
+            };
+        } else if ("&".equals(op)) {
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return left.eval(f) & right.eval(f);
+                }
+            };
+        } else if ("|".equals(op)) {
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return left.eval(f) | right.eval(f);
+                }
+            };
+        } else if ("^".equals(op)) {
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return left.eval(f) ^ right.eval(f);
+                }
+            };
+        }
+        throw new RuntimeException("Unknown infix operator: " + op);
+    }
+
+    /**
+     * Compiles a comparison.  Reals and ints compare numerically, strings by their UTF-16 code
+     * units, and arrays and structs by identity, as in JavaScript.
+     */
+    private LongNode compileComparison(String op, Expression leftExpression, Expression rightExpression) {
+        Type leftType = leftExpression.getType();
+        Type rightType = rightExpression.getType();
+        if (leftType == Type.REAL || rightType == Type.REAL) {
+            final DoubleNode left = compileDouble(leftExpression);
+            final DoubleNode right = compileDouble(rightExpression);
+            if ("<".equals(op)) {
+                return new LongNode() {
+                    @Override
+                    long eval(Frame f) {
+                        return left.eval(f) < right.eval(f) ? 1 : 0;
+                    }
+                };
+            } else if ("<=".equals(op)) {
+                return new LongNode() {
+                    @Override
+                    long eval(Frame f) {
+                        return left.eval(f) <= right.eval(f) ? 1 : 0;
+                    }
+                };
+            } else if (">".equals(op)) {
+                return new LongNode() {
+                    @Override
+                    long eval(Frame f) {
+                        return left.eval(f) > right.eval(f) ? 1 : 0;
+                    }
+                };
+            } else if (">=".equals(op)) {
+                return new LongNode() {
+                    @Override
+                    long eval(Frame f) {
+                        return left.eval(f) >= right.eval(f) ? 1 : 0;
+                    }
+                };
+            } else if ("==".equals(op)) {
+                return new LongNode() {
+                    @Override
+                    long eval(Frame f) {
+                        return left.eval(f) == right.eval(f) ? 1 : 0;
+                    }
+                };
+            }
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return left.eval(f) != right.eval(f) ? 1 : 0;
+                }
+            };
+
+        } else if (FrameLayout.kindOf(leftType) == FrameLayout.Kind.LONG) {
+            final LongNode left = compileLong(leftExpression);
+            final LongNode right = compileLong(rightExpression);
+            if ("<".equals(op)) {
+                return new LongNode() {
+                    @Override
+                    long eval(Frame f) {
+                        return left.eval(f) < right.eval(f) ? 1 : 0;
+                    }
+                };
+            } else if ("<=".equals(op)) {
+                return new LongNode() {
+                    @Override
+                    long eval(Frame f) {
+                        return left.eval(f) <= right.eval(f) ? 1 : 0;
+                    }
+                };
+            } else if (">".equals(op)) {
+                return new LongNode() {
+                    @Override
+                    long eval(Frame f) {
+                        return left.eval(f) > right.eval(f) ? 1 : 0;
+                    }
+                };
+            } else if (">=".equals(op)) {
+                return new LongNode() {
+                    @Override
+                    long eval(Frame f) {
+                        return left.eval(f) >= right.eval(f) ? 1 : 0;
+                    }
+                };
+            } else if ("==".equals(op)) {
+                return new LongNode() {
+                    @Override
+                    long eval(Frame f) {
+                        return left.eval(f) == right.eval(f) ? 1 : 0;
+                    }
+                };
+            }
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return left.eval(f) != right.eval(f) ? 1 : 0;
+                }
+            };
+        }
+
+        final ObjectNode left = compileObject(leftExpression);
+        final ObjectNode right = compileObject(rightExpression);
+        if ("==".equals(op) || "!=".equals(op)) {
+            final long equal = "==".equals(op) ? 1 : 0;
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    Object x = left.eval(f);
+                    Object y = right.eval(f);
+                    return x == y || (x instanceof String && x.equals(y)) ? equal : 1 - equal;
+                }
+            };
+        } else if ("<".equals(op)) {
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return string(left.eval(f)).compareTo(string(right.eval(f))) < 0 ? 1 : 0;
+                }
+            };
+        } else if ("<=".equals(op)) {
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return string(left.eval(f)).compareTo(string(right.eval(f))) <= 0 ? 1 : 0;
+                }
+            };
+        } else if (">".equals(op)) {
+            return new LongNode() {
+                @Override
+                long eval(Frame f) {
+                    return string(left.eval(f)).compareTo(string(right.eval(f))) > 0 ? 1 : 0;
+                }
+            };
+        }
+        return new LongNode() {
+            @Override
+            long eval(Frame f) {
+                return string(left.eval(f)).compareTo(string(right.eval(f))) >= 0 ? 1 : 0;
+            }
+        };
+    }
+
+    /**
+     * Compiles an expression of type real, or of type int where a real is expected.
+     */
+    private DoubleNode compileDouble(Expression e) {
+        if (e.getType() != Type.REAL) {
+            final LongNode l = compileLong(e);
+            return new DoubleNode() {
+                @Override
+                double eval(Frame f) {
+                    return l.eval(f);
+                }
+            };
+        } else if (e instanceof SimpleVariableReference) {
+            Variable v = SimpleVariableReference.class.cast(e).getReferent();
+            final int slot = v.getFrameSlot();
+            final int hops = level - v.getFrameLevel();
+            if (hops == 0) {
+                return new DoubleNode() {
+                    @Override
+                    double eval(Frame f) {
+                        return f.doubles[slot];
+                    }
+                };
+            }
+            return new DoubleNode() {
+                @Override
+                double eval(Frame f) {
+                    return up(f, hops).doubles[slot];
+                }
+            };
+        } else if (e instanceof RealLiteral) {
+            final double value = RealLiteral.class.cast(e).getValue();
+            return new DoubleNode() {
+                @Override
+                double eval(Frame f) {
+                    return value;
+                }
+            };
+        } else if (e instanceof InfixExpression) {
+            InfixExpression i = InfixExpression.class.cast(e);
+            String op = i.getOp();
+            final DoubleNode left = compileDouble(i.getLeft());
+            final DoubleNode right = compileDouble(i.getRight());
+            if ("+".equals(op)) {
+                return new DoubleNode() {
+                    @Override
+                    double eval(Frame f) {
+                        return left.eval(f) + right.eval(f);
+                    }
+                };
+            } else if ("-".equals(op)) {
+                return new DoubleNode() {
+                    @Override
+                    double eval(Frame f) {
+                        return left.eval(f) - right.eval(f);
+                    }
+                };
+            } else if ("*".equals(op)) {
+                return new DoubleNode() {
+                    @Override
+                    double eval(Frame f) {
+                        return left.eval(f) * right.eval(f);
+                    }
+                };
+            } else if ("/".equals(op)) {
+                return new DoubleNode() {
+                    @Override
+                    double eval(Frame f) {
+                        return left.eval(f) / right.eval(f);
+                    }
+                };
+            }
+            throw new RuntimeException("Unknown infix operator: " + op);
+        } else if (e instanceof PrefixExpression) {
+            final DoubleNode operand = compileDouble(PrefixExpression.class.cast(e).getOperand());
+            return new DoubleNode() {
+                @Override
+                double eval(Frame f) {
+                    return -operand.eval(f);
+                }
+            };
+        } else if (e instanceof SubscriptedVariable) {
+            SubscriptedVariable s = SubscriptedVariable.class.cast(e);
+            final ObjectNode array = compileObject(s.getSequence());
+            final LongNode index = compileLong(s.getIndex());
+            return new DoubleNode() {
+                @Override
+                double eval(Frame f) {
+                    Object a = array.eval(f);
+                    long i = index.eval(f);
+                    double[] doubles = (double[])checkNotNull(a);
+                    return doubles[checkIndex(i, doubles.length)];
+                }
+            };
+        } else if (e instanceof DottedVariable) {
+            DottedVariable d = DottedVariable.class.cast(e);
+            final ObjectNode struct = compileObject(d.getStruct());
+            final int slot = d.getField().getFrameSlot();
+            return new DoubleNode() {
+                @Override
+                double eval(Frame f) {
+                    return record(struct.eval(f)).doubles[slot];
+                }
+            };
+        } else if (e instanceof CallExpression) {
+            CallExpression c = CallExpression.class.cast(e);
+            final StatementNode call = compileCall(c.getFunction(), c.getArgs());
+            return new DoubleNode() {
+                @Override
+                double eval(Frame f) {
+                    call.execute(f);
+                    return returnDouble;
+                }
+            };
+        }
+        throw new RuntimeException("Unknown entity class: " + e.getClass().getName());
+    }
+
+    /**
+     * Compiles an expression of any other type: strings, arrays, structs and null.
+     */
+    private ObjectNode compileObject(Expression e) {
+        if (e instanceof SimpleVariableReference) {
+            Variable v = SimpleVariableReference.class.cast(e).getReferent();
+            final int slot = v.getFrameSlot();
+            final int hops = level - v.getFrameLevel();
+            if (hops == 0) {
+                return new ObjectNode() {
+                    @Override
+                    Object eval(Frame f) {
+                        return f.objects[slot];
+                    }
+                };
+            }
+            return new ObjectNode() {
+                @Override
+                Object eval(Frame f) {
+                    return up(f, hops).objects[slot];
+                }
+            };
+        } else if (e instanceof StringLiteral) {
+            StringBuilder builder = new StringBuilder();
+            for (int codepoint: StringLiteral.class.cast(e).getValues()) {
+                builder.appendCodePoint(codepoint);
+            }
+            return constant(builder.toString());
+        } else if (e instanceof NullLiteral) {
+            return constant(null);
+        } else if (e instanceof SubscriptedVariable) {
+            SubscriptedVariable s = SubscriptedVariable.class.cast(e);
+            final ObjectNode array = compileObject(s.getSequence());
+            final LongNode index = compileLong(s.getIndex());
+            return new ObjectNode() {
+                @Override
+                Object eval(Frame f) {
+                    Object a = array.eval(f);
+                    long i = index.eval(f);
+                    Object[] objects = (Object[])checkNotNull(a);
+                    return objects[checkIndex(i, objects.length)];
+                }
+            };
+        } else if (e instanceof DottedVariable) {
+            DottedVariable d = DottedVariable.class.cast(e);
+            final ObjectNode struct = compileObject(d.getStruct());
+            final int slot = d.getField().getFrameSlot();
+            return new ObjectNode() {
+                @Override
+                Object eval(Frame f) {
+                    return record(struct.eval(f)).objects[slot];
+                }
+            };
+        } else if (e instanceof CallExpression) {
+            CallExpression c = CallExpression.class.cast(e);
+            final StatementNode call = compileCall(c.getFunction(), c.getArgs());
+            return new ObjectNode() {
+                @Override
+                Object eval(Frame f) {
+                    call.execute(f);
+                    return returnObject;
+                }
+            };
+        } else if (e instanceof EmptyArray) {
+            EmptyArray a = EmptyArray.class.cast(e);
+            return compileNewArray(ArrayType.class.cast(a.getType()).getBaseType(), compileLong(a.getBound()));
+        } else if (e instanceof ArrayAggregate) {
+            return compileArrayAggregate(ArrayAggregate.class.cast(e));
+        } else if (e instanceof StructAggregate) {
+            return compileStructAggregate(StructAggregate.class.cast(e));
+        } else if (e instanceof PrefixExpression) {
+            PrefixExpression p = PrefixExpression.class.cast(e);
+            if ("string".equals(p.getOp())) {
+                return compileJson(p.getOperand());
+            }
+            throw new RuntimeException("Unknown prefix operator: " + p.getOp());
+        }
+        throw new RuntimeException("Unknown entity class: " + e.getClass().getName());
+    }
+
+    private static ObjectNode constant(final Object value) {
+        return new ObjectNode() {
+            @Override
+            Object eval(Frame f) {
+                return value;
+            }
+        };
+    }
+
+    private ObjectNode compileNewArray(Type base, final LongNode size) {
+        switch (FrameLayout.kindOf(base)) {
+        case LONG:
+            return new ObjectNode() {
+                @Override
+                Object eval(Frame f) {
+                    return new long[checkSize(size.eval(f))];
+                }
+            };
+        case DOUBLE:
+            return new ObjectNode() {
+                @Override
+                Object eval(Frame f) {
+                    return new double[checkSize(size.eval(f))];
+                }
+            };
+        default:
+            final Object initial = base == Type.STRING ? "" : null;
+            return new ObjectNode() {
+                @Override
+                Object eval(Frame f) {
+                    Object[] objects = new Object[checkSize(size.eval(f))];
+                    if (initial != null) {
+                        for (int i = 0; i < objects.length; i++) {
+                            objects[i] = initial;
+                        }
+                    }
+                    return objects;
+                }
+            };
+        }
+    }
+
+    private ObjectNode compileArrayAggregate(ArrayAggregate a) {
+        List<Expression> args = a.getArgs();
+        switch (FrameLayout.kindOf(ArrayType.class.cast(a.getType()).getBaseType())) {
+        case LONG:
+            final LongNode[] longs = new LongNode[args.size()];
+            for (int i = 0; i < longs.length; i++) {
+                longs[i] = compileLong(args.get(i));
+            }
+            return new ObjectNode() {
+                @Override
+                Object eval(Frame f) {
+                    long[] array = new long[longs.length];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = longs[i].eval(f);
+                    }
+                    return array;
+                }
+            };
+        case DOUBLE:
+            final DoubleNode[] doubles = new DoubleNode[args.size()];
+            for (int i = 0; i < doubles.length; i++) {
+                doubles[i] = compileDouble(args.get(i));
+            }
+            return new ObjectNode() {
+                @Override
+                Object eval(Frame f) {
+                    double[] array = new double[doubles.length];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = doubles[i].eval(f);
+                    }
+                    return array;
+                }
+            };
+        default:
+            final ObjectNode[] objects = new ObjectNode[args.size()];
+            for (int i = 0; i < objects.length; i++) {
+                objects[i] = compileObject(args.get(i));
+            }
+            return new ObjectNode() {
+                @Override
+                Object eval(Frame f) {
+                    Object[] array = new Object[objects.length];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = objects[i].eval(f);
+                    }
+                    return array;
+                }
+            };
+        }
+    }
+
+    private ObjectNode compileStructAggregate(StructAggregate a) {
+        StructType type = StructType.class.cast(a.getType());
+        final RuntimeType runtimeType = runtimeType(type);
+        List<StructField> fields = type.getFields();
+        List<Expression> args = a.getArgs();
+        final StatementNode[] initializers = new StatementNode[fields.size()];
+        for (int i = 0; i < initializers.length; i++) {
+            final int slot = fields.get(i).getFrameSlot();
+            switch (FrameLayout.kindOf(fields.get(i).getType())) {
+            case LONG:
+                final LongNode l = compileLong(args.get(i));
+                initializers[i] = new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        Frame record = callee;
+                        record.longs[slot] = l.eval(f);
+                        return NORMAL;
+                    }
+                };
+                break;
+            case DOUBLE:
+                final DoubleNode d = compileDouble(args.get(i));
+                initializers[i] = new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        Frame record = callee;
+                        record.doubles[slot] = d.eval(f);
+                        return NORMAL;
+                    }
+                };
+                break;
+            default:
+                final ObjectNode o = compileObject(args.get(i));
+                initializers[i] = new StatementNode() {
+                    @Override
+                    int execute(Frame f) {
+                        Frame record = callee;
+                        record.objects[slot] = o.eval(f);
+                        return NORMAL;
+                    }
+                };
+            }
+        }
+        // Field initializers find the record where binders find the callee's frame
+        return new ObjectNode() {
+            @Override
+            Object eval(Frame f) {
+                Frame saved = callee;
+                Frame record = runtimeType.newRecord();
+                for (StatementNode initializer: initializers) {
+                    callee = record;
+                    initializer.execute(f);
+                }
+                callee = saved;
+                return record;
+            }
+        };
+    }
+
+    /**
+     * Compiles the conversion of an expression's value to the text print gives.
+     */
+    private ObjectNode compileDisplay(Expression e) {
+        final RuntimeType type = runtimeType(e.getType());
+        switch (FrameLayout.kindOf(e.getType())) {
+        case LONG:
+            final LongNode l = compileLong(e);
+            return new ObjectNode() {
+                @Override
+                Object eval(Frame f) {
+                    return Values.display(l.eval(f), type);
+                }
+            };
+        case DOUBLE:
+            final DoubleNode d = compileDouble(e);
+            return new ObjectNode() {
+                @Override
+                Object eval(Frame f) {
+                    return Values.formatReal(d.eval(f));
+                }
+            };
+        default:
+            final ObjectNode o = compileObject(e);
+            return new ObjectNode() {
+                @Override
+                Object eval(Frame f) {
+                    return Values.display(o.eval(f), type);
+                }
+            };
+        }
+    }
+
+    /**
+     * Compiles the conversion of an expression's value to JSON, for the string operator.
+     */
+    private ObjectNode compileJson(Expression e) {
+        final RuntimeType type = runtimeType(e.getType());
+        switch (FrameLayout.kindOf(e.getType())) {
+        case LONG:
+            final LongNode l = compileLong(e);
+            return new ObjectNode() {
+                @Override
+                Object eval(Frame f) {
+                    return Values.json(l.eval(f), type);
+                }
+            };
+        case DOUBLE:
+            final DoubleNode d = compileDouble(e);
+            return new ObjectNode() {
+                @Override
+                Object eval(Frame f) {
+                    return Values.json(d.eval(f));
+                }
+            };
+        default:
+            final ObjectNode o = compileObject(e);
+            return new ObjectNode() {
+                @Override
+                Object eval(Frame f) {
+                    return Values.json(o.eval(f), type);
+                }
+            };
+        }
+    }
+
+    private RuntimeType runtimeType(Type type) {
+        return RuntimeType.of(type, runtimeTypes);
+    }
+
+    private static Frame up(Frame frame, int hops) {
+        for (int i = 0; i < hops; i++) {
+            frame = frame.parent;
+        }
+        return frame;
+    }
+
+    private static Object checkNotNull(Object value) {
+        if (value == null) {
+            throw new RuntimeError("null_dereference");
+        }
+        return value;
+    }
+
+    private static int checkIndex(long index, int length) {
+        if (index < 0 || index >= length) {
+            throw new RuntimeError("index_out_of_bounds", index, length);
+        }
+        return (int)index;
+    }
+
+    private static int checkDivisor(int divisor) {
+        if (divisor == 0) {
+            throw new RuntimeError("division_by_zero");
+        }
+        return divisor;
+    }
+
+    private static int checkSize(long size) {
+        if (size < 0) {
+            throw new RuntimeError("negative_array_size", size);
+        }
+        return (int)size;
+    }
+
+    private static Frame record(Object value) {
+        return (Frame)checkNotNull(value);
+    }
+
+    private static String string(Object value) {
+        return (String)checkNotNull(value);
+    }
+}
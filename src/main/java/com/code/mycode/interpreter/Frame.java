@@ -0,0 +1,29 @@
+package com.code.mycode.interpreter;
+
+import com.code.mycode.entities.FrameLayout;
+
+/**
+ * The storage for one activation of a function, for the top level of a program, or for one
+ * struct value.  Activation frames link to the frame of the lexically enclosing function, the
+ * static chain through which nested functions reach the variables of their parents.
+ */
+public final class Frame {
+
+    public final long[] longs;
+    public final double[] doubles;
+    public final Object[] objects;
+    public final Frame parent;
+    public final int level;
+
+    public Frame(int longs, int doubles, int objects, Frame parent, int level) {
+        this.longs = new long[longs];
+        this.doubles = new double[doubles];
+        this.objects = new Object[objects];
+        this.parent = parent;
+        this.level = level;
+    }
+
+    public Frame(FrameLayout layout, Frame parent) {
+        this(layout.getLongs(), layout.getDoubles(), layout.getObjects(), parent, layout.getLevel());
+    }
+}
@@ -0,0 +1,822 @@
+package com.code.mycode.interpreter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.code.mycode.entities.ArrayAggregate;
+import com.code.mycode.entities.ArrayType;
+import com.code.mycode.entities.AssignmentStatement;
+import com.code.mycode.entities.Block;
+import com.code.mycode.entities.BooleanLiteral;
+import com.code.mycode.entities.BreakStatement;
+import com.code.mycode.entities.CallExpression;
+import com.code.mycode.entities.CallStatement;
+import com.code.mycode.entities.Case;
+import com.code.mycode.entities.CharLiteral;
+import com.code.mycode.entities.ClassicForStatement;
+import com.code.mycode.entities.Declarable;
+import com.code.mycode.entities.Declaration;
+import com.code.mycode.entities.DottedVariable;
+import com.code.mycode.entities.EmptyArray;
+import com.code.mycode.entities.Expression;
+import com.code.mycode.entities.FrameLayout;
+import com.code.mycode.entities.FrameResolver;
+import com.code.mycode.entities.Function;
+import com.code.mycode.entities.IfStatement;
+import com.code.mycode.entities.IncrementStatement;
+import com.code.mycode.entities.InfixExpression;
+import com.code.mycode.entities.IntegerLiteral;
+import com.code.mycode.entities.NullLiteral;
+import com.code.mycode.entities.PostfixExpression;
+import com.code.mycode.entities.PrefixExpression;
+import com.code.mycode.entities.PrintStatement;
+import com.code.mycode.entities.Program;
+import com.code.mycode.entities.RealLiteral;
+import com.code.mycode.entities.ReturnStatement;
+import com.code.mycode.entities.SimpleVariableReference;
+import com.code.mycode.entities.Statement;
+import com.code.mycode.entities.StringLiteral;
+import com.code.mycode.entities.StructAggregate;
+import com.code.mycode.entities.StructField;
+import com.code.mycode.entities.StructType;
+import com.code.mycode.entities.SubscriptedVariable;
+import com.code.mycode.entities.TailCallStatement;
+import com.code.mycode.entities.Type;
+import com.code.mycode.entities.Variable;
+import com.code.mycode.entities.VariableExpression;
+import com.code.mycode.entities.WhileStatement;
+
+/**
+ * Runs an analyzed program by walking its semantic graph.  Before running, every variable is
+ * resolved to a slot in a frame by the FrameResolver, so variable access is an array index
+ * after a short walk up the static chain.
+ *
+ * Expressions are evaluated by one of three methods chosen by their static type, so that no
+ * value is ever boxed: evaluateLong for ints, chars and booleans (booleans as 0 or 1),
+ * evaluateDouble for reals, and evaluateObject for everything else.  Ints are kept within 32
+ * bits.  Arrays of ints, chars and booleans are long arrays, arrays of reals are double arrays,
+ * and structs are parentless frames laid out like activation records.
+ *
+ * Output matches that of the JavaScript translation, and errors JavaScript would let pass
+ * silently, like subscripts out of bounds, integer division by zero, or uses of null, stop the
+ * program with a RuntimeError.
+ */
+public class Interpreter {
+
+    private enum Completion {NORMAL, BREAK, RETURN, TAIL_CALL}
+
+    /**
+     * Signals that a run has used up its budget of statements or of allocated elements.
+     */
+    @SuppressWarnings("serial")
+    static class BudgetExceeded extends RuntimeException {
+    }
+
+    private Reader input;
+    private PrintWriter output;
+    private Map<StringLiteral, String> strings = new IdentityHashMap<StringLiteral, String>();
+    private Map<Type, RuntimeType> runtimeTypes = new HashMap<Type, RuntimeType>();
+
+    // Where a return statement leaves its value, and a tail call the frame to continue in.
+    private long returnLong;
+    private double returnDouble;
+    private Object returnObject;
+    private Frame tailFrame;
+
+    // Budgets, unlimited unless a partial evaluator sets them.
+    private long steps = Long.MAX_VALUE;
+    private long elements = Long.MAX_VALUE;
+
+    /**
+     * Creates an interpreter whose programs read from the given input, through getString, and
+     * print to the given output.
+     */
+    public Interpreter(Reader input, PrintWriter output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Runs the given program, which must have been analyzed without errors.
+     */
+    public void run(Program program) {
+        FrameResolver.resolve(program);
+        try {
+            execute(program, new Frame(program.getFrameLayout(), null));
+        } catch (StackOverflowError e) {
+            throw new RuntimeError("stack_overflow");
+        } finally {
+            output.flush();
+        }
+    }
+
+    /**
+     * Limits the number of statements executed and the number of array elements and struct
+     * fields allocated from now on.  Running out of either throws BudgetExceeded.
+     */
+    void setBudget(long steps, long elements) {
+        this.steps = steps;
+        this.elements = elements;
+    }
+
+    /**
+     * Returns the frame for the top level of the given program, which must have been analyzed
+     * without errors, for running its statements one at a time with executeTopLevel.
+     */
+    Frame start(Program program) {
+        FrameResolver.resolve(program);
+        return new Frame(program.getFrameLayout(), null);
+    }
+
+    /**
+     * Executes one statement of the top level of a program in its frame.
+     */
+    void executeTopLevel(Statement s, Frame frame) {
+        try {
+            execute(s, frame);
+        } catch (StackOverflowError e) {
+            throw new RuntimeError("stack_overflow");
+        } finally {
+            output.flush();
+        }
+    }
+
+    private Completion execute(Block block, Frame frame) {
+        List<Statement> statements = block.getStatements();
+        for (int i = 0, n = statements.size(); i < n; i++) {
+            Completion completion = execute(statements.get(i), frame);
+            if (completion != Completion.NORMAL) {
+                return completion;
+            }
+        }
+        return Completion.NORMAL;
+    }
+
+    private Completion execute(Statement s, Frame frame) {
+        if (--steps < 0) {
+            throw new BudgetExceeded();
+        }
+        if (s instanceof AssignmentStatement) {
+            AssignmentStatement a = AssignmentStatement.class.cast(s);
+            assign(a.getLeft(), a.getRight(), frame);
+            return Completion.NORMAL;
+
+        } else if (s instanceof IncrementStatement) {
+            IncrementStatement i = IncrementStatement.class.cast(s);
+            increment(i.getTarget(), "++".equals(i.getOp()) ? 1 : -1, true, frame);
+            return Completion.NORMAL;
+
+        } else if (s instanceof CallStatement) {
+            CallStatement c = CallStatement.class.cast(s);
+            call(c.getFunction(), c.getArgs(), frame);
+            return Completion.NORMAL;
+
+        } else if (s instanceof IfStatement) {
+            IfStatement i = IfStatement.class.cast(s);
+            for (Case c: i.getCases()) {
+                if (evaluateLong(c.getCondition(), frame) != 0) {
+                    return execute(c.getBody(), frame);
+                }
+            }
+            return i.getElsePart() == null ? Completion.NORMAL : execute(i.getElsePart(), frame);
+
+        } else if (s instanceof WhileStatement) {
+            WhileStatement w = WhileStatement.class.cast(s);
+            while (evaluateLong(w.getCondition(), frame) != 0) {
+                Completion completion = execute(w.getBody(), frame);
+                if (completion == Completion.BREAK) {
+                    break;
+                } else if (completion != Completion.NORMAL) {
+                    return completion;
+                }
+            }
+            return Completion.NORMAL;
+
+        } else if (s instanceof ClassicForStatement) {
+            return executeFor(ClassicForStatement.class.cast(s), frame);
+
+        } else if (s instanceof ReturnStatement) {
+            Expression e = ReturnStatement.class.cast(s).getReturnExpression();
+            if (e != null) {
+                setReturnValue(e, frame);
+            }
+            return Completion.RETURN;
+
+        } else if (s instanceof TailCallStatement) {
+            TailCallStatement t = TailCallStatement.class.cast(s);
+            Function f = t.getFunction();
+            Frame next = new Frame(f.getFrameLayout(), frame.parent);
+            bind(f.getParameters(), t.getArgs(), frame, next);
+            tailFrame = next;
+            return Completion.TAIL_CALL;
+
+        } else if (s instanceof BreakStatement) {
+            return Completion.BREAK;
+
+        } else if (s instanceof PrintStatement) {
+            for (Expression e: PrintStatement.class.cast(s).getArgs()) {
+                output.println(display(e, frame));
+            }
+            return Completion.NORMAL;
+
+        } else if (s instanceof Declaration) {
+            Declarable d = Declaration.class.cast(s).getDeclarable();
+            if (d instanceof Variable) {
+                initialize(Variable.class.cast(d), frame);
+            }
+            return Completion.NORMAL;
+        }
+        throw new RuntimeException("Unknown entity class: " + s.getClass().getName());
+    }
+
+    private Completion executeFor(ClassicForStatement s, Frame frame) {
+        if (s.getIndexVariable() != null) {
+            initialize(s.getIndexVariable(), frame);
+            for (Variable v: s.getDerivedVariables()) {
+                initialize(v, frame);
+            }
+        } else if (s.getInit() != null) {
+            evaluate(s.getInit(), frame);
+        }
+        while (s.getTest() == null || evaluateLong(s.getTest(), frame) != 0) {
+            Completion completion = execute(s.getBody(), frame);
+            if (completion == Completion.BREAK) {
+                break;
+            } else if (completion != Completion.NORMAL) {
+                return completion;
+            }
+            if (s.getEach() != null) {
+                execute(s.getEach(), frame);
+            }
+            for (AssignmentStatement update: s.getDerivedUpdates()) {
+                execute(update, frame);
+            }
+        }
+        return Completion.NORMAL;
+    }
+
+    /**
+     * Sets a variable to its initializer, or to the default for its type, each time its
+     * declaration is executed.
+     */
+    private void initialize(Variable v, Frame frame) {
+        Frame home = frameOf(v, frame);
+        int slot = v.getFrameSlot();
+        Expression initializer = v.getInitializer();
+        switch (FrameLayout.kindOf(v.getType())) {
+        case LONG:
+            home.longs[slot] = initializer == null ? 0 : evaluateLong(initializer, frame);
+            break;
+        case DOUBLE:
+            home.doubles[slot] = initializer == null ? 0 : evaluateDouble(initializer, frame);
+            break;
+        default:
+            home.objects[slot] = initializer == null ? initialValue(v.getType()) : evaluateObject(initializer, frame);
+        }
+    }
+
+    private void assign(VariableExpression target, Expression value, Frame frame) {
+        if (target instanceof SimpleVariableReference) {
+            Variable v = SimpleVariableReference.class.cast(target).getReferent();
+            Frame home = frameOf(v, frame);
+            int slot = v.getFrameSlot();
+            switch (FrameLayout.kindOf(v.getType())) {
+            case LONG:
+                home.longs[slot] = evaluateLong(value, frame);
+                break;
+            case DOUBLE:
+                home.doubles[slot] = evaluateDouble(value, frame);
+                break;
+            default:
+                home.objects[slot] = evaluateObject(value, frame);
+            }
+
+        } else if (target instanceof SubscriptedVariable) {
+            SubscriptedVariable s = SubscriptedVariable.class.cast(target);
+            Object array = evaluateObject(s.getSequence(), frame);
+            long index = evaluateLong(s.getIndex(), frame);
+            if (array instanceof long[]) {
+                long[] longs = (long[])array;
+                longs[checkIndex(index, longs.length)] = evaluateLong(value, frame);
+            } else if (array instanceof double[]) {
+                double[] doubles = (double[])array;
+                doubles[checkIndex(index, doubles.length)] = evaluateDouble(value, frame);
+            } else {
+                Object[] objects = (Object[])checkNotNull(array);
+                objects[checkIndex(index, objects.length)] = evaluateObject(value, frame);
+            }
+
+        } else if (target instanceof DottedVariable) {
+            DottedVariable d = DottedVariable.class.cast(target);
+            Frame record = record(evaluateObject(d.getStruct(), frame));
+            StructField field = d.getField();
+            switch (FrameLayout.kindOf(field.getType())) {
+            case LONG:
+                record.longs[field.getFrameSlot()] = evaluateLong(value, frame);
+                break;
+            case DOUBLE:
+                record.doubles[field.getFrameSlot()] = evaluateDouble(value, frame);
+                break;
+            default:
+                record.objects[field.getFrameSlot()] = evaluateObject(value, frame);
+            }
+        } else {
+            throw new RuntimeException("Unknown variable expression class: " + target.getClass().getName());
+        }
+    }
+
+    /**
+     * Adds delta to an int variable, returning the new value if prefix is true or the old
+     * value otherwise.
+     */
+    private long increment(VariableExpression target, int delta, boolean prefix, Frame frame) {
+        long[] longs;
+        int index;
+        if (target instanceof SimpleVariableReference) {
+            Variable v = SimpleVariableReference.class.cast(target).getReferent();
+            longs = frameOf(v, frame).longs;
+            index = v.getFrameSlot();
+        } else if (target instanceof SubscriptedVariable) {
+            SubscriptedVariable s = SubscriptedVariable.class.cast(target);
+            longs = (long[])checkNotNull(evaluateObject(s.getSequence(), frame));
+            index = checkIndex(evaluateLong(s.getIndex(), frame), longs.length);
+        } else {
+            DottedVariable d = DottedVariable.class.cast(target);
+            longs = record(evaluateObject(d.getStruct(), frame)).longs;
+            index = d.getField().getFrameSlot();
+        }
+        long old = longs[index];
+        longs[index] = (int)(old + delta);
+        return prefix ? longs[index] : old;
+    }
+
+    /**
+     * Calls a function, leaving any result where return statements leave it.
+     */
+    private void call(Function f, List<Expression> args, Frame frame) {
+        if (f.getBody() == null) {
+            callBuiltIn(f, args, frame);
+            return;
+        }
+        FrameLayout layout = f.getFrameLayout();
+        Frame callee = new Frame(layout, enclosing(layout.getLevel() - 1, frame));
+        bind(f.getParameters(), args, frame, callee);
+        while (execute(f.getBody(), callee) == Completion.TAIL_CALL) {
+            callee = tailFrame;
+        }
+    }
+
+    /**
+     * Evaluates the arguments of a call in the caller's frame, storing them in the parameter
+     * slots of the callee's frame.
+     */
+    private void bind(List<Variable> parameters, List<Expression> args, Frame caller, Frame callee) {
+        for (int i = 0, n = parameters.size(); i < n; i++) {
+            Variable parameter = parameters.get(i);
+            int slot = parameter.getFrameSlot();
+            switch (FrameLayout.kindOf(parameter.getType())) {
+            case LONG:
+                callee.longs[slot] = evaluateLong(args.get(i), caller);
+                break;
+            case DOUBLE:
+                callee.doubles[slot] = evaluateDouble(args.get(i), caller);
+                break;
+            default:
+                callee.objects[slot] = evaluateObject(args.get(i), caller);
+            }
+        }
+    }
+
+    private void callBuiltIn(Function f, List<Expression> args, Frame frame) {
+        if (f == Function.SQRT) {
+            returnDouble = StrictMath.sqrt(evaluateDouble(args.get(0), frame));
+        } else if (f == Function.SIN) {
+            returnDouble = StrictMath.sin(evaluateDouble(args.get(0), frame));
+        } else if (f == Function.COS) {
+            returnDouble = StrictMath.cos(evaluateDouble(args.get(0), frame));
+        } else if (f == Function.ATAN) {
+            double y = evaluateDouble(args.get(0), frame);
+            returnDouble = StrictMath.atan2(y, evaluateDouble(args.get(1), frame));
+        } else if (f == Function.LN) {
+            returnDouble = StrictMath.log(evaluateDouble(args.get(0), frame));
+        } else if (f == Function.PI) {
+            returnDouble = Math.PI;
+        } else if (f == Function.SUBSTRING) {
+            // Mirrors JavaScript's substring, which clamps and orders its arguments
+            String s = string(evaluateObject(args.get(0), frame));
+            long start = Math.min(Math.max(evaluateLong(args.get(1), frame), 0), s.length());
+            long end = Math.min(Math.max(evaluateLong(args.get(2), frame), 0), s.length());
+            returnObject = s.substring((int)Math.min(start, end), (int)Math.max(start, end));
+        } else if (f == Function.GET_STRING) {
+            returnObject = readInput();
+        } else {
+            throw new RuntimeException("Unknown built-in function: " + f.getName());
+        }
+    }
+
+    private String readInput() {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[4096];
+        try {
+            for (int n; (n = input.read(buffer)) != -1;) {
+                builder.append(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new RuntimeError("input_error", e.getMessage());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Stores the value of a return statement's expression.  Int values are stored as reals as
+     * well, since a function returning real may return an int.
+     */
+    private void setReturnValue(Expression e, Frame frame) {
+        switch (FrameLayout.kindOf(e.getType())) {
+        case LONG:
+            returnLong = evaluateLong(e, frame);
+            returnDouble = returnLong;
+            break;
+        case DOUBLE:
+            returnDouble = evaluateDouble(e, frame);
+            break;
+        default:
+            returnObject = evaluateObject(e, frame);
+        }
+    }
+
+    /**
+     * Evaluates an expression for its side effects, as in the initialization part of a for
+     * statement.
+     */
+    private void evaluate(Expression e, Frame frame) {
+        switch (FrameLayout.kindOf(e.getType())) {
+        case LONG:
+            evaluateLong(e, frame);
+            break;
+        case DOUBLE:
+            evaluateDouble(e, frame);
+            break;
+        default:
+            evaluateObject(e, frame);
+        }
+    }
+
+    /**
+     * Evaluates an expression of type int, char, or boolean.
+     */
+    private long evaluateLong(Expression e, Frame frame) {
+        if (e instanceof SimpleVariableReference) {
+            Variable v = SimpleVariableReference.class.cast(e).getReferent();
+            return frameOf(v, frame).longs[v.getFrameSlot()];
+        } else if (e instanceof IntegerLiteral) {
+            return IntegerLiteral.class.cast(e).getValue();
+        } else if (e instanceof InfixExpression) {
+            return evaluateInfix(InfixExpression.class.cast(e), frame);
+        } else if (e instanceof SubscriptedVariable) {
+            SubscriptedVariable s = SubscriptedVariable.class.cast(e);
+            Object sequence = evaluateObject(s.getSequence(), frame);
+            long index = evaluateLong(s.getIndex(), frame);
+            if (sequence instanceof String) {
+                String string = (String)sequence;
+                return string.charAt(checkIndex(index, string.length()));
+            }
+            long[] longs = (long[])checkNotNull(sequence);
+            return longs[checkIndex(index, longs.length)];
+        } else if (e instanceof DottedVariable) {
+            DottedVariable d = DottedVariable.class.cast(e);
+            return record(evaluateObject(d.getStruct(), frame)).longs[d.getField().getFrameSlot()];
+        } else if (e instanceof CallExpression) {
+            CallExpression c = CallExpression.class.cast(e);
+            call(c.getFunction(), c.getArgs(), frame);
+            return returnLong;
+        } else if (e instanceof PrefixExpression) {
+            return evaluatePrefix(PrefixExpression.class.cast(e), frame);
+        } else if (e instanceof PostfixExpression) {
+            PostfixExpression p = PostfixExpression.class.cast(e);
+            return increment(p.getOperand(), "++".equals(p.getOp()) ? 1 : -1, false, frame);
+        } else if (e instanceof CharLiteral) {
+            return CharLiteral.class.cast(e).getValue();
+        } else if (e instanceof BooleanLiteral) {
+            return e == BooleanLiteral.TRUE ? 1 : 0;
+        }
+        throw new RuntimeException("Unknown entity class: " + e.getClass().getName());
+    }
+
+    private long evaluatePrefix(PrefixExpression e, Frame frame) {
+        String op = e.getOp();
+        if ("-".equals(op)) {
+            return (int)-evaluateLong(e.getOperand(), frame);
+        } else if ("!".equals(op)) {
+            return evaluateLong(e.getOperand(), frame) == 0 ? 1 : 0;
+        } else if ("~".equals(op)) {
+            return ~evaluateLong(e.getOperand(), frame);
+        } else if ("length".equals(op)) {
+            Object sequence = checkNotNull(evaluateObject(e.getOperand(), frame));
+            return sequence instanceof String ? ((String)sequence).length() : Values.length(sequence);
+        } else if ("int".equals(op) || "char".equals(op)) {
+            return evaluateLong(e.getOperand(), frame);
+        } else if ("++".equals(op) || "--".equals(op)) {
+            VariableExpression target = VariableExpression.class.cast(e.getOperand());
+            return increment(target, "++".equals(op) ? 1 : -1, true, frame);
+        }
+        throw new RuntimeException("Unknown prefix operator: " + op);
+    }
+
+    private long evaluateInfix(InfixExpression e, Frame frame) {
+        String op = e.getOp();
+        Expression left = e.getLeft();
+        Expression right = e.getRight();
+        if ("&&".equals(op)) {
+            return evaluateLong(left, frame) != 0 && evaluateLong(right, frame) != 0 ? 1 : 0;
+        } else if ("||".equals(op)) {
+            return evaluateLong(left, frame) != 0 || evaluateLong(right, frame) != 0 ? 1 : 0;
+        } else if (e.getType() == Type.BOOLEAN) {
+            return compare(op, left, right, frame) ? 1 : 0;
+        }
+
+        int x = (int)evaluateLong(left, frame);
+        int y = (int)evaluateLong(right, frame);
+        if ("+".equals(op)) return x + y;
+        else if ("-".equals(op)) return x - y;
+        else if ("*".equals(op)) return x * y;
+        else if ("/".equals(op)) return x / checkDivisor(y);
+        else if ("%".equals(op)) return x % checkDivisor(y);
+        else if ("<<".equals(op)) return x << y;
+        else if (">>".equals(op)) return x >> y;
+        else if ("&".equals(op)) return x & y;
+        else if ("|".equals(op)) return x | y;
+        else if ("^".equals(op)) return x ^ y;
+        throw new RuntimeException("Unknown infix operator: " + op);
+    }
+
+    /**
+     * Evaluates a comparison.  Reals and ints compare numerically, strings by their UTF-16 code
+     * units, and arrays and structs by identity, as in JavaScript.
+     */
+    private boolean compare(String op, Expression left, Expression right, Frame frame) {
+        Type leftType = left.getType();
+        Type rightType = right.getType();
+        if (leftType == Type.REAL || rightType == Type.REAL) {
+            double x = evaluateDouble(left, frame);
+            double y = evaluateDouble(right, frame);
+            if ("<".equals(op)) return x < y;
+            else if ("<=".equals(op)) return x <= y;
+            else if (">".equals(op)) return x > y;
+            else if (">=".equals(op)) return x >= y;
+            else if ("==".equals(op)) return x == y;
+            else return x != y;
+        } else if (FrameLayout.kindOf(leftType) == FrameLayout.Kind.LONG) {
+            long x = evaluateLong(left, frame);
+            long y = evaluateLong(right, frame);
+            if ("<".equals(op)) return x < y;
+            else if ("<=".equals(op)) return x <= y;
+            else if (">".equals(op)) return x > y;
+            else if (">=".equals(op)) return x >= y;
+            else if ("==".equals(op)) return x == y;
+            else return x != y;
+        }
+
+        Object x = evaluateObject(left, frame);
+        Object y = evaluateObject(right, frame);
+        if ("==".equals(op)) {
+            return x == y || (x instanceof String && x.equals(y));
+        } else if ("!=".equals(op)) {
+            return !(x == y || (x instanceof String && x.equals(y)));
+        }
+        int comparison = string(x).compareTo(string(y));
+        if ("<".equals(op)) return comparison < 0;
+        else if ("<=".equals(op)) return comparison <= 0;
+        else if (">".equals(op)) return comparison > 0;
+        else return comparison >= 0;
+    }
+
+    /**
+     * Evaluates an expression of type real, or of type int where a real is expected.
+     */
+    private double evaluateDouble(Expression e, Frame frame) {
+        if (e.getType() != Type.REAL) {
+            return evaluateLong(e, frame);
+        } else if (e instanceof SimpleVariableReference) {
+            Variable v = SimpleVariableReference.class.cast(e).getReferent();
+            return frameOf(v, frame).doubles[v.getFrameSlot()];
+        } else if (e instanceof RealLiteral) {
+            return RealLiteral.class.cast(e).getValue();
+        } else if (e instanceof InfixExpression) {
+            InfixExpression i = InfixExpression.class.cast(e);
+            String op = i.getOp();
+            double x = evaluateDouble(i.getLeft(), frame);
+            double y = evaluateDouble(i.getRight(), frame);
+            if ("+".equals(op)) return x + y;
+            else if ("-".equals(op)) return x - y;
+            else if ("*".equals(op)) return x * y;
+            else if ("/".equals(op)) return x / y;
+            throw new RuntimeException("Unknown infix operator: " + op);
+        } else if (e instanceof SubscriptedVariable) {
+            SubscriptedVariable s = SubscriptedVariable.class.cast(e);
+            double[] doubles = (double[])checkNotNull(evaluateObject(s.getSequence(), frame));
+            return doubles[checkIndex(evaluateLong(s.getIndex(), frame), doubles.length)];
+        } else if (e instanceof DottedVariable) {
+            DottedVariable d = DottedVariable.class.cast(e);
+            return record(evaluateObject(d.getStruct(), frame)).doubles[d.getField().getFrameSlot()];
+        } else if (e instanceof CallExpression) {
+            CallExpression c = CallExpression.class.cast(e);
+            call(c.getFunction(), c.getArgs(), frame);
+            return returnDouble;
+        } else if (e instanceof PrefixExpression) {
+            return -evaluateDouble(PrefixExpression.class.cast(e).getOperand(), frame);
+        }
+        throw new RuntimeException("Unknown entity class: " + e.getClass().getName());
+    }
+
+    /**
+     * Evaluates an expression of a reference type: string, array, struct, or the type of null.
+     */
+    private Object evaluateObject(Expression e, Frame frame) {
+        if (e instanceof SimpleVariableReference) {
+            Variable v = SimpleVariableReference.class.cast(e).getReferent();
+            return frameOf(v, frame).objects[v.getFrameSlot()];
+        } else if (e instanceof StringLiteral) {
+            return string(StringLiteral.class.cast(e));
+        } else if (e instanceof SubscriptedVariable) {
+            SubscriptedVariable s = SubscriptedVariable.class.cast(e);
+            Object[] objects = (Object[])checkNotNull(evaluateObject(s.getSequence(), frame));
+            return objects[checkIndex(evaluateLong(s.getIndex(), frame), objects.length)];
+        } else if (e instanceof DottedVariable) {
+            DottedVariable d = DottedVariable.class.cast(e);
+            return record(evaluateObject(d.getStruct(), frame)).objects[d.getField().getFrameSlot()];
+        } else if (e instanceof CallExpression) {
+            CallExpression c = CallExpression.class.cast(e);
+            call(c.getFunction(), c.getArgs(), frame);
+            return returnObject;
+        } else if (e instanceof NullLiteral) {
+            return null;
+        } else if (e instanceof EmptyArray) {
+            EmptyArray a = EmptyArray.class.cast(e);
+            long size = evaluateLong(a.getBound(), frame);
+            if (size < 0) {
+                throw new RuntimeError("negative_array_size", size);
+            }
+            return newArray(ArrayType.class.cast(a.getType()).getBaseType(), (int)size);
+        } else if (e instanceof ArrayAggregate) {
+            ArrayAggregate a = ArrayAggregate.class.cast(e);
+            List<Expression> args = a.getArgs();
+            Object array = newArray(ArrayType.class.cast(a.getType()).getBaseType(), args.size());
+            for (int i = 0; i < args.size(); i++) {
+                if (array instanceof long[]) {
+                    ((long[])array)[i] = evaluateLong(args.get(i), frame);
+                } else if (array instanceof double[]) {
+                    ((double[])array)[i] = evaluateDouble(args.get(i), frame);
+                } else {
+                    ((Object[])array)[i] = evaluateObject(args.get(i), frame);
+                }
+            }
+            return array;
+        } else if (e instanceof StructAggregate) {
+            StructAggregate a = StructAggregate.class.cast(e);
+            StructType type = StructType.class.cast(a.getType());
+            allocate(type.getFields().size());
+            Frame record = new Frame(type.getFrameLayout(), null);
+            List<StructField> fields = type.getFields();
+            List<Expression> args = a.getArgs();
+            for (int i = 0; i < fields.size(); i++) {
+                StructField field = fields.get(i);
+                switch (FrameLayout.kindOf(field.getType())) {
+                case LONG:
+                    record.longs[field.getFrameSlot()] = evaluateLong(args.get(i), frame);
+                    break;
+                case DOUBLE:
+                    record.doubles[field.getFrameSlot()] = evaluateDouble(args.get(i), frame);
+                    break;
+                default:
+                    record.objects[field.getFrameSlot()] = evaluateObject(args.get(i), frame);
+                }
+            }
+            return record;
+        } else if (e instanceof PrefixExpression) {
+            PrefixExpression p = PrefixExpression.class.cast(e);
+            if ("string".equals(p.getOp())) {
+                return json(p.getOperand(), frame);
+            }
+            throw new RuntimeException("Unknown prefix operator: " + p.getOp());
+        }
+        throw new RuntimeException("Unknown entity class: " + e.getClass().getName());
+    }
+
+    private String string(StringLiteral literal) {
+        String value = strings.get(literal);
+        if (value == null) {
+            StringBuilder builder = new StringBuilder();
+            for (int codepoint: literal.getValues()) {
+                builder.appendCodePoint(codepoint);
+            }
+            value = builder.toString();
+            strings.put(literal, value);
+        }
+        return value;
+    }
+
+    private Object newArray(Type base, int size) {
+        allocate(size);
+        switch (FrameLayout.kindOf(base)) {
+        case LONG:
+            return new long[size];
+        case DOUBLE:
+            return new double[size];
+        default:
+            Object[] objects = new Object[size];
+            Object initial = initialValue(base);
+            if (initial != null) {
+                for (int i = 0; i < size; i++) {
+                    objects[i] = initial;
+                }
+            }
+            return objects;
+        }
+    }
+
+    private void allocate(int size) {
+        if ((elements -= size) < 0) {
+            throw new BudgetExceeded();
+        }
+    }
+
+    static Object initialValue(Type type) {
+        return type == Type.STRING ? "" : null;
+    }
+
+    private String display(Expression e, Frame frame) {
+        switch (FrameLayout.kindOf(e.getType())) {
+        case LONG:
+            return Values.display(evaluateLong(e, frame), runtimeType(e.getType()));
+        case DOUBLE:
+            return Values.formatReal(evaluateDouble(e, frame));
+        default:
+            return Values.display(evaluateObject(e, frame), runtimeType(e.getType()));
+        }
+    }
+
+    private String json(Expression e, Frame frame) {
+        switch (FrameLayout.kindOf(e.getType())) {
+        case LONG:
+            return Values.json(evaluateLong(e, frame), runtimeType(e.getType()));
+        case DOUBLE:
+            return Values.json(evaluateDouble(e, frame));
+        default:
+            return Values.json(evaluateObject(e, frame), runtimeType(e.getType()));
+        }
+    }
+
+    private RuntimeType runtimeType(Type type) {
+        return RuntimeType.of(type, runtimeTypes);
+    }
+
+    /**
+     * Returns the frame holding the given variable, found up the static chain from the given
+     * frame.
+     */
+    private static Frame frameOf(Variable v, Frame frame) {
+        return enclosing(v.getFrameLevel(), frame);
+    }
+
+    private static Frame enclosing(int level, Frame frame) {
+        while (frame.level > level) {
+            frame = frame.parent;
+        }
+        return frame;
+    }
+
+    private static Object checkNotNull(Object value) {
+        if (value == null) {
+            throw new RuntimeError("null_dereference");
+        }
+        return value;
+    }
+
+    private static int checkIndex(long index, int length) {
+        if (index < 0 || index >= length) {
+            throw new RuntimeError("index_out_of_bounds", index, length);
+        }
+        return (int)index;
+    }
+
+    private static int checkDivisor(int divisor) {
+        if (divisor == 0) {
+            throw new RuntimeError("division_by_zero");
+        }
+        return divisor;
+    }
+
+    private static Frame record(Object value) {
+        return (Frame)checkNotNull(value);
+    }
+
+    private static String string(Object value) {
+        return (String)checkNotNull(value);
+    }
+}
@@ -0,0 +1,424 @@
+package com.code.mycode.interpreter;
+
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.code.mycode.entities.ArrayType;
+import com.code.mycode.entities.Block;
+import com.code.mycode.entities.CallExpression;
+import com.code.mycode.entities.CallStatement;
+import com.code.mycode.entities.ClassicForStatement;
+import com.code.mycode.entities.Declaration;
+import com.code.mycode.entities.Expression;
+import com.code.mycode.entities.ExpressionRewriter;
+import com.code.mycode.entities.FrameLayout;
+import com.code.mycode.entities.Function;
+import com.code.mycode.entities.Precomputed;
+import com.code.mycode.entities.Program;
+import com.code.mycode.entities.SimpleVariableReference;
+import com.code.mycode.entities.Statement;
+import com.code.mycode.entities.StructField;
+import com.code.mycode.entities.StructType;
+import com.code.mycode.entities.TailCallStatement;
+import com.code.mycode.entities.Type;
+import com.code.mycode.entities.Variable;
+import com.code.mycode.entities.VariableExpression;
+
+/**
+ * Runs as much of a program as it can before the program reads its input, and replaces what
+ * it ran with the output it printed.  A program that never calls getString becomes a single
+ * print statement.
+ *
+ * The statements of the top level are run one at a time by an Interpreter with budgets for the
+ * statements executed and the array elements and struct fields allocated.  Running stops at
+ * the first statement that reads input, runs out of budget, or fails with a RuntimeError, or
+ * once the output grows past its own budget.  The program is then cut at the last statement
+ * boundary where every top level variable the rest of the program uses holds a value that can
+ * be written as an expression: reals must be finite, and arrays and structs may be neither
+ * shared nor contain themselves.
+ *
+ * The residual program keeps the declarations of functions and types, prints the output of the
+ * statements before the cut, redeclares the variables the rest uses with their values at the
+ * cut, and goes on with the statements after it.  Since these start with the statement that
+ * stopped the run, a program failing before it reads input fails the same way, just sooner.
+ */
+public class PartialEvaluator {
+
+    public static final long DEFAULT_STEPS = 10000000;
+    public static final long DEFAULT_ELEMENTS = 1000000;
+    public static final int DEFAULT_OUTPUT = 1000000;
+
+    /**
+     * Signals that the program being run wants to read its input.
+     */
+    @SuppressWarnings("serial")
+    private static class InputNeeded extends RuntimeException {
+    }
+
+    private static final Reader NO_INPUT = new Reader() {
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            throw new InputNeeded();
+        }
+
+        @Override
+        public void close() {
+            // Nothing to close
+        }
+    };
+
+    private long steps;
+    private long elements;
+    private int output;
+
+    // What is left for inspecting values at statement boundaries, which is charged by element.
+    private long inspections;
+
+    public PartialEvaluator(long steps, long elements, int output) {
+        this.steps = steps;
+        this.elements = elements;
+        this.output = output;
+    }
+
+    public PartialEvaluator() {
+        this(DEFAULT_STEPS, DEFAULT_ELEMENTS, DEFAULT_OUTPUT);
+    }
+
+    /**
+     * Replaces the statements of the given program, which must have been analyzed without
+     * errors, with those of its residual program.  Returns the number of top level statements
+     * folded away; if none could be, the program is left as it was.
+     */
+    public int evaluate(Program program) {
+        List<Statement> statements = program.getStatements();
+        StringWriter printed = new StringWriter();
+        Interpreter interpreter = new Interpreter(NO_INPUT, new PrintWriter(printed));
+        interpreter.setBudget(steps, elements);
+        Frame frame = interpreter.start(program);
+        List<Set<Variable>> needed = neededVariables(statements);
+        inspections = steps;
+
+        List<Variable> declared = new ArrayList<Variable>();
+        int cut = 0;
+        int length = 0;
+        for (int i = 0; i < statements.size(); i++) {
+            try {
+                interpreter.executeTopLevel(statements.get(i), frame);
+            } catch (InputNeeded e) {
+                break;
+            } catch (Interpreter.BudgetExceeded e) {
+                break;
+            } catch (RuntimeError e) {
+                break;
+            }
+            if (printed.getBuffer().length() > output) {
+                break;
+            }
+            noteDeclared(statements.get(i), declared);
+            if (representable(declared, needed.get(i + 1), frame)) {
+                cut = i + 1;
+                length = printed.getBuffer().length();
+            } else if (inspections < 0) {
+                break;
+            }
+        }
+        if (cut == 0) {
+            return 0;
+        }
+
+        // Unless the whole program ran, the values at the cut are gone, so run up to it again.
+        if (cut < statements.size()) {
+            frame = rerun(program, cut);
+        }
+
+        List<Statement> residual = new ArrayList<Statement>();
+        declared.clear();
+        for (Statement s: statements.subList(0, cut)) {
+            if (s instanceof Declaration && !(Declaration.class.cast(s).getDeclarable() instanceof Variable)) {
+                residual.add(s);
+            }
+            noteDeclared(s, declared);
+        }
+        if (length > 0) {
+            residual.add(Precomputed.print(lines(printed.toString().substring(0, length))));
+        }
+        for (Variable v: declared) {
+            if (needed.get(cut).contains(v)) {
+                residual.add(Precomputed.declaration(v, expression(get(v, frame), v.getType())));
+            }
+        }
+        residual.addAll(statements.subList(cut, statements.size()));
+        statements.clear();
+        statements.addAll(residual);
+        return cut;
+    }
+
+    private static Frame rerun(Program program, int count) {
+        Interpreter interpreter = new Interpreter(NO_INPUT, new PrintWriter(new StringWriter()));
+        Frame frame = interpreter.start(program);
+        for (Statement s: program.getStatements().subList(0, count)) {
+            interpreter.executeTopLevel(s, frame);
+        }
+        return frame;
+    }
+
+    private static void noteDeclared(Statement s, List<Variable> declared) {
+        if (s instanceof Declaration && Declaration.class.cast(s).getDeclarable() instanceof Variable) {
+            declared.add(Variable.class.cast(Declaration.class.cast(s).getDeclarable()));
+        }
+    }
+
+    /**
+     * Splits printed text into the lines of a print statement.
+     */
+    private static List<String> lines(String text) {
+        String separator = System.getProperty("line.separator");
+        List<String> result = new ArrayList<String>();
+        for (int start = 0, end; start < text.length(); start = end + separator.length()) {
+            end = text.indexOf(separator, start);
+            result.add(text.substring(start, end));
+        }
+        return result;
+    }
+
+    // Values
+
+    private static Object get(Variable v, Frame frame) {
+        switch (FrameLayout.kindOf(v.getType())) {
+        case LONG:
+            return frame.longs[v.getFrameSlot()];
+        case DOUBLE:
+            return frame.doubles[v.getFrameSlot()];
+        default:
+            return frame.objects[v.getFrameSlot()];
+        }
+    }
+
+    /**
+     * Returns whether the values of those of the declared variables that are needed can be
+     * written as expressions.
+     */
+    private boolean representable(List<Variable> declared, Set<Variable> needed, Frame frame) {
+        Map<Object, Boolean> seen = new IdentityHashMap<Object, Boolean>();
+        for (Variable v: declared) {
+            if (needed.contains(v) && !representable(get(v, frame), seen)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean representable(Object value, Map<Object, Boolean> seen) {
+        inspections--;
+        if (value instanceof Double) {
+            return isFinite((Double)value);
+        } else if (value == null || value instanceof Long || value instanceof String) {
+            return true;
+        } else if (seen.put(value, Boolean.TRUE) != null || inspections < 0) {
+            return false;
+        } else if (value instanceof long[]) {
+            inspections -= ((long[])value).length;
+            return true;
+        } else if (value instanceof double[]) {
+            for (double d: (double[])value) {
+                inspections--;
+                if (!isFinite(d)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (value instanceof Object[]) {
+            for (Object element: (Object[])value) {
+                if (!representable(element, seen)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        Frame record = (Frame)value;
+        for (double d: record.doubles) {
+            if (!isFinite(d)) {
+                return false;
+            }
+        }
+        for (Object field: record.objects) {
+            if (!representable(field, seen)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isFinite(double d) {
+        return !Double.isNaN(d) && !Double.isInfinite(d);
+    }
+
+    /**
+     * Returns an expression evaluating to a copy of the given value, which is representable.
+     */
+    private static Expression expression(Object value, Type type) {
+        if (value instanceof Long) {
+            return Precomputed.value((Long)value, type);
+        } else if (value instanceof Double) {
+            return Precomputed.value((Double)value);
+        } else if (value == null || value instanceof String) {
+            return Precomputed.value((String)value);
+        } else if (value instanceof Frame) {
+            StructType struct = StructType.class.cast(type);
+            Frame record = (Frame)value;
+            List<Expression> fields = new ArrayList<Expression>();
+            for (StructField field: struct.getFields()) {
+                fields.add(expression(field(record, field), field.getType()));
+            }
+            return Precomputed.struct(struct, fields);
+        }
+
+        ArrayType arrayType = ArrayType.class.cast(type);
+        Type base = arrayType.getBaseType();
+        int length = Values.length(value);
+        List<Expression> elements = new ArrayList<Expression>(length);
+        boolean allInitial = true;
+        for (int i = 0; i < length; i++) {
+            Object element = element(value, i);
+            allInitial &= isInitial(element, base);
+            elements.add(expression(element, base));
+        }
+        return allInitial ? Precomputed.emptyArray(arrayType, length) : Precomputed.array(arrayType, elements);
+    }
+
+    private static Object field(Frame record, StructField field) {
+        switch (FrameLayout.kindOf(field.getType())) {
+        case LONG:
+            return record.longs[field.getFrameSlot()];
+        case DOUBLE:
+            return record.doubles[field.getFrameSlot()];
+        default:
+            return record.objects[field.getFrameSlot()];
+        }
+    }
+
+    private static Object element(Object array, int index) {
+        if (array instanceof long[]) {
+            return ((long[])array)[index];
+        } else if (array instanceof double[]) {
+            return ((double[])array)[index];
+        }
+        return ((Object[])array)[index];
+    }
+
+    /**
+     * Returns whether an element holds what a new array of its base type starts with.  Negative
+     * zero does not count.
+     */
+    private static boolean isInitial(Object element, Type base) {
+        if (element instanceof Long) {
+            return (Long)element == 0;
+        } else if (element instanceof Double) {
+            return Double.doubleToRawLongBits((Double)element) == 0;
+        }
+        Object initial = Interpreter.initialValue(base);
+        return element == null ? initial == null : element.equals(initial);
+    }
+
+    // Uses
+
+    /**
+     * Returns, for each position in the given statements, the variables used by the statements
+     * from that position on, directly or through the functions they call.  There is one more
+     * set than statements, the last one empty.
+     */
+    private static List<Set<Variable>> neededVariables(List<Statement> statements) {
+        Map<Function, Set<Variable>> functionUses = new HashMap<Function, Set<Variable>>();
+        Map<Function, Set<Function>> functionCalls = new HashMap<Function, Set<Function>>();
+        for (Statement s: statements) {
+            if (s instanceof Declaration && Declaration.class.cast(s).getDeclarable() instanceof Function) {
+                Function f = Function.class.cast(Declaration.class.cast(s).getDeclarable());
+                if (f.getBody() != null) {
+                    Set<Variable> uses = new HashSet<Variable>();
+                    Set<Function> calls = new HashSet<Function>();
+                    scan(f.getBody(), true, uses, calls);
+                    functionUses.put(f, uses);
+                    functionCalls.put(f, calls);
+                }
+            }
+        }
+
+        List<Set<Variable>> result = new ArrayList<Set<Variable>>(Collections.nCopies(statements.size() + 1,
+                Collections.<Variable>emptySet()));
+        for (int i = statements.size() - 1; i >= 0; i--) {
+            Set<Variable> uses = new HashSet<Variable>(result.get(i + 1));
+            Set<Function> calls = new HashSet<Function>();
+            scan(new Block(Collections.singletonList(statements.get(i))), false, uses, calls);
+            List<Function> pending = new ArrayList<Function>(calls);
+            while (!pending.isEmpty()) {
+                Function f = pending.remove(pending.size() - 1);
+                if (functionUses.containsKey(f)) {
+                    uses.addAll(functionUses.get(f));
+                    for (Function g: functionCalls.get(f)) {
+                        if (calls.add(g)) {
+                            pending.add(g);
+                        }
+                    }
+                }
+            }
+            result.set(i, uses);
+        }
+        return result;
+    }
+
+    /**
+     * Notes the variables a block refers to and the functions it calls, including those of the
+     * functions nested in it if asked to.
+     */
+    private static void scan(Block block, final boolean entersFunctions, final Set<Variable> uses,
+            final Set<Function> calls) {
+        new ExpressionRewriter() {
+            @Override
+            public boolean entersFunctions() {
+                return entersFunctions;
+            }
+
+            @Override
+            public void visitStatement(Statement s) {
+                if (s instanceof CallStatement) {
+                    calls.add(CallStatement.class.cast(s).getFunction());
+                } else if (s instanceof TailCallStatement) {
+                    calls.add(TailCallStatement.class.cast(s).getFunction());
+                } else if (s instanceof ClassicForStatement) {
+                    // Initializers of derived variables are not otherwise visited
+                    for (Variable v: ClassicForStatement.class.cast(s).getDerivedVariables()) {
+                        rewriteExpression(v.getInitializer());
+                    }
+                }
+            }
+
+            @Override
+            public Expression rewrite(Expression e) {
+                note(e);
+                return e;
+            }
+
+            @Override
+            public void written(VariableExpression target) {
+                note(target);
+            }
+
+            private void note(Expression e) {
+                if (e instanceof SimpleVariableReference) {
+                    uses.add(SimpleVariableReference.class.cast(e).getReferent());
+                } else if (e instanceof CallExpression) {
+                    calls.add(CallExpression.class.cast(e).getFunction());
+                }
+            }
+        }.rewriteBlock(block);
+    }
+}
@@ -0,0 +1,26 @@
+package com.code.mycode.interpreter;
+
+/**
+ * An error detected while running a program, such as a subscript out of bounds.  The key and
+ * arguments name a message in the compiler's resource bundle.
+ */
+@SuppressWarnings("serial")
+public class RuntimeError extends RuntimeException {
+
+    private String key;
+    private Object[] arguments;
+
+    public RuntimeError(String key, Object... arguments) {
+        super(key);
+        this.key = key;
+        this.arguments = arguments;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Object[] getArguments() {
+        return arguments;
+    }
+}
@@ -0,0 +1,160 @@
+package com.code.mycode.interpreter;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+import com.code.mycode.entities.ArrayType;
+import com.code.mycode.entities.FrameLayout;
+import com.code.mycode.entities.StructField;
+import com.code.mycode.entities.StructType;
+import com.code.mycode.entities.Type;
+
+/**
+ * What needs to be known about a type at run time: enough to print and stringify values, and
+ * to create structs.  Unlike types, which are entities of the semantic graph, these can be
+ * serialized along with compiled code.
+ */
+public final class RuntimeType implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Kind {INT, CHAR, BOOLEAN, REAL, STRING, ARRAY, STRUCT, NULL}
+
+    public static final RuntimeType INT = new RuntimeType(Kind.INT, "int");
+    public static final RuntimeType CHAR = new RuntimeType(Kind.CHAR, "char");
+    public static final RuntimeType BOOLEAN = new RuntimeType(Kind.BOOLEAN, "boolean");
+    public static final RuntimeType REAL = new RuntimeType(Kind.REAL, "real");
+    public static final RuntimeType STRING = new RuntimeType(Kind.STRING, "string");
+    public static final RuntimeType NULL = new RuntimeType(Kind.NULL, "null");
+
+    private Kind kind;
+    private String name;
+    private RuntimeType base;
+    private String[] fieldNames;
+    private RuntimeType[] fieldTypes;
+    private int[] fieldSlots;
+    private int longs;
+    private int doubles;
+    private int objects;
+
+    private RuntimeType(Kind kind, String name) {
+        this.kind = kind;
+        this.name = name;
+    }
+
+    /**
+     * Returns the runtime type for the given type, which must have been resolved by a
+     * FrameResolver if it is or contains a struct type.  Runtime types already made are
+     * looked up in, and new ones added to, the given map, which also takes care of recursive
+     * struct types.
+     */
+    public static RuntimeType of(Type type, Map<Type, RuntimeType> made) {
+        if (type == Type.INT) {
+            return INT;
+        } else if (type == Type.CHAR) {
+            return CHAR;
+        } else if (type == Type.BOOLEAN) {
+            return BOOLEAN;
+        } else if (type == Type.REAL) {
+            return REAL;
+        } else if (type == Type.STRING) {
+            return STRING;
+        }
+
+        RuntimeType result = made.get(type);
+        if (result != null) {
+            return result;
+        }
+        if (type instanceof ArrayType) {
+            result = new RuntimeType(Kind.ARRAY, type.getName());
+            made.put(type, result);
+            result.base = of(ArrayType.class.cast(type).getBaseType(), made);
+        } else if (type instanceof StructType) {
+            result = new RuntimeType(Kind.STRUCT, type.getName());
+            made.put(type, result);
+            List<StructField> fields = StructType.class.cast(type).getFields();
+            FrameLayout layout = StructType.class.cast(type).getFrameLayout();
+            result.fieldNames = new String[fields.size()];
+            result.fieldTypes = new RuntimeType[fields.size()];
+            result.fieldSlots = new int[fields.size()];
+            for (int i = 0; i < fields.size(); i++) {
+                result.fieldNames[i] = fields.get(i).getName();
+                result.fieldTypes[i] = of(fields.get(i).getType(), made);
+                result.fieldSlots[i] = fields.get(i).getFrameSlot();
+            }
+            result.longs = layout.getLongs();
+            result.doubles = layout.getDoubles();
+            result.objects = layout.getObjects();
+        } else {
+            result = NULL;
+        }
+        return result;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns whether values of this type live in long slots.
+     */
+    public boolean isLong() {
+        return kind == Kind.INT || kind == Kind.CHAR || kind == Kind.BOOLEAN;
+    }
+
+    /**
+     * Returns the base type of an array type.
+     */
+    public RuntimeType getBase() {
+        return base;
+    }
+
+    public int getFieldCount() {
+        return fieldNames.length;
+    }
+
+    public String getFieldName(int i) {
+        return fieldNames[i];
+    }
+
+    public RuntimeType getFieldType(int i) {
+        return fieldTypes[i];
+    }
+
+    public int getFieldSlot(int i) {
+        return fieldSlots[i];
+    }
+
+    /**
+     * Returns a new, zeroed, record for a struct type.
+     */
+    public Frame newRecord() {
+        return new Frame(longs, doubles, objects, null, 0);
+    }
+
+    /**
+     * Singletons have to stay singletons through serialization, since they are compared by
+     * identity.
+     */
+    private Object readResolve() {
+        switch (kind) {
+        case INT: return INT;
+        case CHAR: return CHAR;
+        case BOOLEAN: return BOOLEAN;
+        case REAL: return REAL;
+        case STRING: return STRING;
+        case NULL: return NULL;
+        default: return this;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
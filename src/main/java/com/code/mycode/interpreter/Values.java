@@ -0,0 +1,238 @@
+package com.code.mycode.interpreter;
+
+import java.math.BigDecimal;
+
+/**
+ * Conversions of run time values to text, matching what the JavaScript back end produces, so
+ * a program prints the same thing whether it is interpreted or translated and run by Node.
+ *
+ * At run time, ints, chars and booleans are longs; reals are doubles; strings are Strings;
+ * arrays are long, double or Object arrays according to their base type; structs are Frames
+ * with no parent; and null is null.  Since primitive values carry no type, every conversion
+ * takes the runtime type of the value as well.
+ */
+public final class Values {
+
+    private Values() {
+    }
+
+    /**
+     * Returns the text console.log writes for a value of type int, char or boolean.  Chars are
+     * written as the character itself.
+     */
+    public static String display(long value, RuntimeType type) {
+        if (type == RuntimeType.BOOLEAN) {
+            return value != 0 ? "true" : "false";
+        } else if (type == RuntimeType.CHAR) {
+            return String.valueOf((char)value);
+        }
+        return Long.toString(value);
+    }
+
+    /**
+     * Returns the text console.log writes for a string, array, struct or null.  Strings are
+     * written as is, and arrays and structs roughly as Node inspects them.
+     */
+    public static String display(Object value, RuntimeType type) {
+        if (value instanceof String) {
+            return (String)value;
+        }
+        StringBuilder builder = new StringBuilder();
+        inspect(value, type, builder);
+        return builder.toString();
+    }
+
+    /**
+     * Returns the text JSON.stringify produces for a value of type int, char or boolean.
+     */
+    public static String json(long value, RuntimeType type) {
+        if (type == RuntimeType.BOOLEAN) {
+            return value != 0 ? "true" : "false";
+        }
+        return Long.toString(value);
+    }
+
+    /**
+     * Returns the text JSON.stringify produces for a real.
+     */
+    public static String json(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : formatReal(value);
+    }
+
+    /**
+     * Returns the text JSON.stringify produces for a string, array, struct or null.
+     */
+    public static String json(Object value, RuntimeType type) {
+        StringBuilder builder = new StringBuilder();
+        json(value, type, builder);
+        return builder.toString();
+    }
+
+    /**
+     * Formats a real as JavaScript's Number.prototype.toString does: integral values without a
+     * fraction, and exponential notation only for very large or very small magnitudes.
+     */
+    public static String formatReal(double d) {
+        if (Double.isNaN(d)) {
+            return "NaN";
+        } else if (d == 0) {
+            return "0";
+        } else if (Double.isInfinite(d)) {
+            return d > 0 ? "Infinity" : "-Infinity";
+        } else if (d < 0) {
+            return "-" + formatReal(-d);
+        }
+
+        // The value is digits * 10^(n - k), where k is the number of digits.
+        BigDecimal decimal = new BigDecimal(Double.toString(d)).stripTrailingZeros();
+        String digits = decimal.unscaledValue().toString();
+        int k = digits.length();
+        int n = k - decimal.scale();
+        if (k <= n && n <= 21) {
+            return digits + zeros(n - k);
+        } else if (0 < n && n <= 21) {
+            return digits.substring(0, n) + "." + digits.substring(n);
+        } else if (-6 < n && n <= 0) {
+            return "0." + zeros(-n) + digits;
+        }
+        String exponent = (n - 1 >= 0 ? "e+" : "e-") + Math.abs(n - 1);
+        return k == 1 ? digits + exponent : digits.charAt(0) + "." + digits.substring(1) + exponent;
+    }
+
+    /**
+     * Returns the string in double quotes, with the escapes JSON.stringify uses.
+     */
+    public static String quote(String s) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c == '\n') {
+                builder.append("\\n");
+            } else if (c == '\t') {
+                builder.append("\\t");
+            } else if (c == '\r') {
+                builder.append("\\r");
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int)c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private static String zeros(int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append('0');
+        }
+        return builder.toString();
+    }
+
+    private static void inspect(Object value, RuntimeType type, StringBuilder builder) {
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof String) {
+            builder.append('\'').append(((String)value).replace("\\", "\\\\").replace("'", "\\'")).append('\'');
+        } else if (type.getKind() == RuntimeType.Kind.ARRAY) {
+            RuntimeType base = type.getBase();
+            int length = length(value);
+            if (length == 0) {
+                builder.append("[]");
+                return;
+            }
+            builder.append("[ ");
+            for (int i = 0; i < length; i++) {
+                builder.append(i == 0 ? "" : ", ");
+                if (value instanceof long[]) {
+                    inspect(((long[])value)[i], base, builder);
+                } else if (value instanceof double[]) {
+                    builder.append(formatReal(((double[])value)[i]));
+                } else {
+                    inspect(((Object[])value)[i], base, builder);
+                }
+            }
+            builder.append(" ]");
+        } else {
+            if (type.getFieldCount() == 0) {
+                builder.append("{}");
+                return;
+            }
+            Frame record = (Frame)value;
+            builder.append("{ ");
+            for (int i = 0; i < type.getFieldCount(); i++) {
+                RuntimeType fieldType = type.getFieldType(i);
+                int slot = type.getFieldSlot(i);
+                builder.append(i == 0 ? "" : ", ").append(type.getFieldName(i)).append(": ");
+                if (fieldType.isLong()) {
+                    inspect(record.longs[slot], fieldType, builder);
+                } else if (fieldType == RuntimeType.REAL) {
+                    builder.append(formatReal(record.doubles[slot]));
+                } else {
+                    inspect(record.objects[slot], fieldType, builder);
+                }
+            }
+            builder.append(" }");
+        }
+    }
+
+    private static void inspect(long value, RuntimeType type, StringBuilder builder) {
+        if (type == RuntimeType.CHAR) {
+            builder.append('\'').append((char)value).append('\'');
+        } else {
+            builder.append(display(value, type));
+        }
+    }
+
+    private static void json(Object value, RuntimeType type, StringBuilder builder) {
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof String) {
+            builder.append(quote((String)value));
+        } else if (type.getKind() == RuntimeType.Kind.ARRAY) {
+            RuntimeType base = type.getBase();
+            builder.append('[');
+            for (int i = 0; i < length(value); i++) {
+                builder.append(i == 0 ? "" : ",");
+                if (value instanceof long[]) {
+                    builder.append(json(((long[])value)[i], base));
+                } else if (value instanceof double[]) {
+                    builder.append(json(((double[])value)[i]));
+                } else {
+                    json(((Object[])value)[i], base, builder);
+                }
+            }
+            builder.append(']');
+        } else {
+            Frame record = (Frame)value;
+            builder.append('{');
+            for (int i = 0; i < type.getFieldCount(); i++) {
+                RuntimeType fieldType = type.getFieldType(i);
+                int slot = type.getFieldSlot(i);
+                builder.append(i == 0 ? "" : ",").append(quote(type.getFieldName(i))).append(':');
+                if (fieldType.isLong()) {
+                    builder.append(json(record.longs[slot], fieldType));
+                } else if (fieldType == RuntimeType.REAL) {
+                    builder.append(json(record.doubles[slot]));
+                } else {
+                    json(record.objects[slot], fieldType, builder);
+                }
+            }
+            builder.append('}');
+        }
+    }
+
+    /**
+     * Returns the length of an array of any representation.
+     */
+    public static int length(Object array) {
+        if (array instanceof long[]) {
+            return ((long[])array).length;
+        } else if (array instanceof double[]) {
+            return ((double[])array).length;
+        }
+        return ((Object[])array).length;
+    }
+}
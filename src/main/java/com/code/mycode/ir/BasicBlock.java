@@ -0,0 +1,83 @@
+package com.code.mycode.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A basic block: phis, then a straight-line sequence of instructions ending in a terminator.
+ */
+public class BasicBlock {
+
+    private int id;
+    private List<Instruction> phis = new ArrayList<Instruction>();
+    private List<Instruction> instructions = new ArrayList<Instruction>();
+    private List<BasicBlock> predecessors = new ArrayList<BasicBlock>();
+
+    BasicBlock(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public List<Instruction> getPhis() {
+        return phis;
+    }
+
+    /**
+     * Returns the instructions of this block other than phis, the last being the terminator.
+     */
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    public List<BasicBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    /**
+     * Returns the terminator, or null while the block is still being built.
+     */
+    public Instruction getTerminator() {
+        if (instructions.isEmpty()) {
+            return null;
+        }
+        Instruction last = instructions.get(instructions.size() - 1);
+        return last.getOpcode().isTerminator() ? last : null;
+    }
+
+    public List<BasicBlock> getSuccessors() {
+        Instruction terminator = getTerminator();
+        return terminator == null ? Collections.<BasicBlock>emptyList() : terminator.getTargets();
+    }
+
+    void append(Instruction instruction) {
+        instruction.setBlock(this);
+        if (instruction.isPhi()) {
+            phis.add(instruction);
+        } else {
+            instructions.add(instruction);
+        }
+    }
+
+    /**
+     * Removes the given predecessor, along with the corresponding phi operands.
+     */
+    void removePredecessor(BasicBlock predecessor) {
+        int index = predecessors.indexOf(predecessor);
+        if (index < 0) {
+            return;
+        }
+        predecessors.remove(index);
+        for (Instruction phi: phis) {
+            phi.removeOperand(index);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "b" + id;
+    }
+}
@@ -0,0 +1,31 @@
+package com.code.mycode.ir;
+
+import com.code.mycode.entities.Type;
+
+/**
+ * A constant.  Ints and chars are held as Integers, reals as Doubles, booleans as Booleans,
+ * strings as Strings, and null as null.
+ */
+public class Constant extends Value {
+
+    private Object value;
+
+    public Constant(Type type, Object value) {
+        super(type);
+        this.value = value;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        if (value instanceof String) {
+            return "\"" + value + "\"";
+        } else if (getType() == Type.CHAR) {
+            return "'" + new String(Character.toChars((Integer)value)) + "'";
+        }
+        return String.valueOf(value);
+    }
+}
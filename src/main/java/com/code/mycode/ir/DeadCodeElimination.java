@@ -0,0 +1,46 @@
+package com.code.mycode.ir;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/**
+ * Removes pure instructions whose values are never used, including phis used only by themselves.
+ */
+public class DeadCodeElimination {
+
+    private DeadCodeElimination() {
+        // Not instantiable
+    }
+
+    public static void run(IrFunction function) {
+        LinkedList<Instruction> worklist = new LinkedList<Instruction>();
+        for (BasicBlock block: function.getBlocks()) {
+            worklist.addAll(block.getPhis());
+            worklist.addAll(block.getInstructions());
+        }
+        while (!worklist.isEmpty()) {
+            Instruction instruction = worklist.removeFirst();
+            if (instruction.getBlock() == null || !instruction.getOpcode().isPure()) {
+                continue;
+            }
+            if (!isDead(instruction)) {
+                continue;
+            }
+            for (Value operand: new ArrayList<Value>(instruction.getOperands())) {
+                if (operand instanceof Instruction) {
+                    worklist.add(Instruction.class.cast(operand));
+                }
+            }
+            function.remove(instruction);
+        }
+    }
+
+    private static boolean isDead(Instruction instruction) {
+        for (Instruction user: instruction.getUsers()) {
+            if (user != instruction) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,82 @@
+package com.code.mycode.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The dominator tree of a function, computed with the iterative algorithm of Cooper, Harvey and
+ * Kennedy ("A Simple, Fast Dominance Algorithm").
+ */
+public class Dominators {
+
+    private Map<BasicBlock, BasicBlock> idoms = new HashMap<BasicBlock, BasicBlock>();
+    private Map<BasicBlock, List<BasicBlock>> children = new HashMap<BasicBlock, List<BasicBlock>>();
+
+    public Dominators(IrFunction function) {
+        List<BasicBlock> order = function.reversePostorder();
+        Map<BasicBlock, Integer> numbers = new HashMap<BasicBlock, Integer>();
+        for (int i = 0; i < order.size(); i++) {
+            numbers.put(order.get(i), i);
+        }
+
+        BasicBlock entry = function.getEntry();
+        idoms.put(entry, entry);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block: order) {
+                if (block == entry) {
+                    continue;
+                }
+                BasicBlock idom = null;
+                for (BasicBlock predecessor: block.getPredecessors()) {
+                    if (!idoms.containsKey(predecessor)) {
+                        continue;
+                    }
+                    idom = idom == null ? predecessor : intersect(predecessor, idom, numbers);
+                }
+                if (idom != null && idom != idoms.get(block)) {
+                    idoms.put(block, idom);
+                    changed = true;
+                }
+            }
+        }
+
+        for (BasicBlock block: order) {
+            children.put(block, new ArrayList<BasicBlock>());
+        }
+        for (BasicBlock block: order) {
+            if (block != entry) {
+                children.get(idoms.get(block)).add(block);
+            }
+        }
+    }
+
+    private BasicBlock intersect(BasicBlock a, BasicBlock b, Map<BasicBlock, Integer> numbers) {
+        while (a != b) {
+            while (numbers.get(a) > numbers.get(b)) {
+                a = idoms.get(a);
+            }
+            while (numbers.get(b) > numbers.get(a)) {
+                b = idoms.get(b);
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Returns the immediate dominator of the given block; the entry is its own.
+     */
+    public BasicBlock getImmediateDominator(BasicBlock block) {
+        return idoms.get(block);
+    }
+
+    /**
+     * Returns the blocks immediately dominated by the given block.
+     */
+    public List<BasicBlock> getChildren(BasicBlock block) {
+        return children.get(block);
+    }
+}
@@ -0,0 +1,112 @@
+package com.code.mycode.ir;
+
+import java.util.List;
+
+import com.code.mycode.entities.Type;
+
+/**
+ * Evaluation of pure instructions on constant operands, following MyCode semantics: ints are
+ * 32-bit two's complement with truncating division, and chars are their codepoints.
+ */
+final class Folding {
+
+    private Folding() {
+        // Not instantiable
+    }
+
+    /**
+     * Returns the result of the given operation on the given constants, or null if it should not
+     * be folded, as for division by zero.
+     */
+    static Object fold(Opcode opcode, Type type, List<Object> operands) {
+        Object x = operands.isEmpty() ? null : operands.get(0);
+        Object y = operands.size() < 2 ? null : operands.get(1);
+
+        switch (opcode) {
+        case NOT:
+            return !(Boolean)x;
+        case NEG:
+            return x instanceof Double ? (Object)(-(Double)x) : (Object)(-(Integer)x);
+        case COMPL:
+            return ~(Integer)x;
+        case CONVERT:
+            if (type == Type.REAL) {
+                return ((Number)x).doubleValue();
+            }
+            return x instanceof Integer ? x : null;
+        case LENGTH:
+            return x instanceof String ? (Object)((String)x).length() : null;
+        case CHAR_AT:
+            if (x instanceof String && (Integer)y >= 0 && (Integer)y < ((String)x).length()) {
+                return (int)((String)x).charAt((Integer)y);
+            }
+            return null;
+        case EQ:
+            return same(x, y);
+        case NE:
+            Object equal = same(x, y);
+            return equal == null ? null : (Object)!(Boolean)equal;
+        case LT: case LE: case GT: case GE:
+            return compare(opcode, x, y);
+        default:
+            break;
+        }
+
+        if (x instanceof Double || y instanceof Double) {
+            double a = ((Number)x).doubleValue(), b = ((Number)y).doubleValue();
+            switch (opcode) {
+            case ADD: return a + b;
+            case SUB: return a - b;
+            case MUL: return a * b;
+            case DIV: return a / b;
+            default: return null;
+            }
+        } else if (x instanceof Integer && y instanceof Integer) {
+            int a = (Integer)x, b = (Integer)y;
+            switch (opcode) {
+            case ADD: return a + b;
+            case SUB: return a - b;
+            case MUL: return a * b;
+            case DIV: return b == 0 ? null : (Object)(a / b);
+            case MOD: return b == 0 ? null : (Object)(a % b);
+            case SHL: return a << b;
+            case SHR: return a >> b;
+            case AND: return a & b;
+            case OR: return a | b;
+            case XOR: return a ^ b;
+            default: return null;
+            }
+        }
+        return null;
+    }
+
+    private static Object same(Object x, Object y) {
+        if (x instanceof Number && y instanceof Number) {
+            return ((Number)x).doubleValue() == ((Number)y).doubleValue();
+        } else if (x instanceof String || x instanceof Boolean) {
+            return x.equals(y);
+        }
+        return null;
+    }
+
+    private static Object compare(Opcode opcode, Object x, Object y) {
+        int c;
+        if (x instanceof String && y instanceof String) {
+            c = ((String)x).compareTo((String)y);
+        } else if (x instanceof Number && y instanceof Number) {
+            double a = ((Number)x).doubleValue(), b = ((Number)y).doubleValue();
+            if (Double.isNaN(a) || Double.isNaN(b)) {
+                return false;
+            }
+            c = Double.compare(a == 0.0 ? 0.0 : a, b == 0.0 ? 0.0 : b);
+        } else {
+            return null;
+        }
+        switch (opcode) {
+        case LT: return c < 0;
+        case LE: return c <= 0;
+        case GT: return c > 0;
+        default: return c >= 0;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.code.mycode.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.code.mycode.entities.Type;
+
+/**
+ * An instruction, which is also the value it computes.  Besides its operands, an instruction may
+ * carry an attribute: the Function called by CALL, the StructField of GETFIELD and PUTFIELD, the
+ * Variable of LOAD_VAR and STORE_VAR, the StructType of STRUCT, or the element type of NEW_ARRAY
+ * and ARRAY.  Terminators also have target blocks.
+ *
+ * The operands of a phi line up with the predecessors of its block.
+ */
+public class Instruction extends Value {
+
+    private int id;
+    private Opcode opcode;
+    private List<Value> operands = new ArrayList<Value>();
+    private Object attribute;
+    private List<BasicBlock> targets = Collections.emptyList();
+    private BasicBlock block;
+
+    Instruction(int id, Opcode opcode, Type type, Object attribute, Value... operands) {
+        super(type);
+        this.id = id;
+        this.opcode = opcode;
+        this.attribute = attribute;
+        for (Value operand: operands) {
+            addOperand(operand);
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    public List<Value> getOperands() {
+        return Collections.unmodifiableList(operands);
+    }
+
+    public Value getOperand(int index) {
+        return operands.get(index);
+    }
+
+    public Object getAttribute() {
+        return attribute;
+    }
+
+    public List<BasicBlock> getTargets() {
+        return targets;
+    }
+
+    public BasicBlock getBlock() {
+        return block;
+    }
+
+    void setBlock(BasicBlock block) {
+        this.block = block;
+    }
+
+    void setTargets(BasicBlock... targets) {
+        this.targets = Arrays.asList(targets);
+    }
+
+    void addOperand(Value operand) {
+        operands.add(operand);
+        operand.addUser(this);
+    }
+
+    void setOperand(int index, Value operand) {
+        operands.get(index).removeUser(this);
+        operands.set(index, operand);
+        operand.addUser(this);
+    }
+
+    void removeOperand(int index) {
+        operands.remove(index).removeUser(this);
+    }
+
+    void replaceOperand(Value old, Value replacement) {
+        for (int i = 0; i < operands.size(); i++) {
+            if (operands.get(i) == old) {
+                setOperand(i, replacement);
+            }
+        }
+    }
+
+    /**
+     * Detaches this instruction from its operands, so it no longer counts as a user of them.
+     */
+    void dropOperands() {
+        for (Value operand: operands) {
+            operand.removeUser(this);
+        }
+        operands.clear();
+    }
+
+    public boolean isPhi() {
+        return opcode == Opcode.PHI;
+    }
+
+    @Override
+    public String toString() {
+        return "%" + id;
+    }
+}
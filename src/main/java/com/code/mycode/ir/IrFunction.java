@@ -0,0 +1,197 @@
+package com.code.mycode.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import com.code.mycode.entities.Function;
+import com.code.mycode.entities.Type;
+import com.code.mycode.entities.Variable;
+
+/**
+ * A function in SSA form: its parameters and a control flow graph of basic blocks, the first of
+ * which is the entry.  The top level statements of a program make up a function too, with no
+ * source function and no parameters.
+ *
+ * Variables of this function that nested functions also use cannot be SSA values, since a call
+ * may change them.  They are kept in memory, accessed with LOAD_VAR and STORE_VAR, and listed as
+ * the function's shared variables.
+ */
+public class IrFunction {
+
+    private Function source;
+    private IrFunction parent;
+    private List<Parameter> parameters = new ArrayList<Parameter>();
+    private List<BasicBlock> blocks = new ArrayList<BasicBlock>();
+    private List<Variable> sharedVariables = new ArrayList<Variable>();
+    private List<IrFunction> nestedFunctions = new ArrayList<IrFunction>();
+    private int nextBlockId = 0;
+    private int nextInstructionId = 0;
+
+    IrFunction(Function source, IrFunction parent) {
+        this.source = source;
+        this.parent = parent;
+        if (source != null) {
+            int index = 0;
+            for (Variable v: source.getParameters()) {
+                parameters.add(new Parameter(v, index++));
+            }
+        }
+    }
+
+    /**
+     * Returns the function this was lowered from, or null for the top level of the program.
+     */
+    public Function getSource() {
+        return source;
+    }
+
+    public IrFunction getParent() {
+        return parent;
+    }
+
+    public String getName() {
+        return source == null ? "<main>" : source.getName();
+    }
+
+    public Type getReturnType() {
+        return source == null ? null : source.getReturnType();
+    }
+
+    public List<Parameter> getParameters() {
+        return parameters;
+    }
+
+    public List<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    public BasicBlock getEntry() {
+        return blocks.get(0);
+    }
+
+    public List<Variable> getSharedVariables() {
+        return sharedVariables;
+    }
+
+    public List<IrFunction> getNestedFunctions() {
+        return nestedFunctions;
+    }
+
+    BasicBlock newBlock() {
+        BasicBlock block = new BasicBlock(nextBlockId++);
+        blocks.add(block);
+        return block;
+    }
+
+    Instruction newInstruction(Opcode opcode, Type type, Object attribute, Value... operands) {
+        return new Instruction(nextInstructionId++, opcode, type, attribute, operands);
+    }
+
+    /**
+     * Returns the blocks reachable from the entry in reverse postorder, which puts every block
+     * before its successors, back edges aside.
+     */
+    public List<BasicBlock> reversePostorder() {
+        List<BasicBlock> order = new ArrayList<BasicBlock>();
+        Set<BasicBlock> visited = new HashSet<BasicBlock>();
+
+        // Iterative depth first search, to survive very large functions
+        List<BasicBlock> stack = new ArrayList<BasicBlock>();
+        List<Iterator<BasicBlock>> successors = new ArrayList<Iterator<BasicBlock>>();
+        stack.add(getEntry());
+        successors.add(getEntry().getSuccessors().iterator());
+        visited.add(getEntry());
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            if (successors.get(top).hasNext()) {
+                BasicBlock next = successors.get(top).next();
+                if (visited.add(next)) {
+                    stack.add(next);
+                    successors.add(next.getSuccessors().iterator());
+                }
+            } else {
+                order.add(stack.remove(top));
+                successors.remove(top);
+            }
+        }
+        Collections.reverse(order);
+        return order;
+    }
+
+    /**
+     * Deletes the blocks that cannot be reached from the entry, fixing up the predecessor lists
+     * and phis of the blocks that remain.
+     */
+    public void removeUnreachableBlocks() {
+        Set<BasicBlock> reachable = new HashSet<BasicBlock>(reversePostorder());
+        for (Iterator<BasicBlock> it = blocks.iterator(); it.hasNext();) {
+            BasicBlock block = it.next();
+            if (reachable.contains(block)) {
+                continue;
+            }
+            it.remove();
+            for (BasicBlock successor: block.getSuccessors()) {
+                successor.removePredecessor(block);
+            }
+            for (Instruction phi: block.getPhis()) {
+                phi.dropOperands();
+            }
+            for (Instruction instruction: block.getInstructions()) {
+                instruction.dropOperands();
+            }
+        }
+        List<BasicBlock> order = reversePostorder();
+        blocks.clear();
+        blocks.addAll(order);
+        removeTrivialPhis();
+    }
+
+    /**
+     * Replaces each phi whose operands are all the same value, or the phi itself, with that
+     * value.  Such phis are left behind when control flow is simplified.
+     */
+    public void removeTrivialPhis() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block: blocks) {
+                for (Instruction phi: new ArrayList<Instruction>(block.getPhis())) {
+                    Value same = null;
+                    boolean trivial = true;
+                    for (Value operand: phi.getOperands()) {
+                        if (operand != phi && operand != same) {
+                            trivial = same == null;
+                            same = operand;
+                        }
+                        if (!trivial) {
+                            break;
+                        }
+                    }
+                    if (trivial && same != null) {
+                        phi.replaceAllUsesWith(same);
+                        remove(phi);
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes an instruction that is no longer used from its block, leaving it with no block.
+     */
+    void remove(Instruction instruction) {
+        BasicBlock block = instruction.getBlock();
+        if (instruction.isPhi()) {
+            block.getPhis().remove(instruction);
+        } else {
+            block.getInstructions().remove(instruction);
+        }
+        instruction.dropOperands();
+        instruction.setBlock(null);
+    }
+}
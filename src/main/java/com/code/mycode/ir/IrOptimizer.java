@@ -0,0 +1,20 @@
+package com.code.mycode.ir;
+
+/**
+ * Runs the SSA optimizations over every function of a program: constant propagation, which also
+ * prunes dead branches, then value numbering, then removal of the computations left unused.
+ */
+public class IrOptimizer {
+
+    private IrOptimizer() {
+        // Not instantiable
+    }
+
+    public static void optimize(IrProgram program) {
+        for (IrFunction function: program.getFunctions()) {
+            SparsePropagation.run(function);
+            ValueNumbering.run(function);
+            DeadCodeElimination.run(function);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.code.mycode.ir;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.code.mycode.entities.Function;
+import com.code.mycode.entities.StructField;
+import com.code.mycode.entities.Type;
+import com.code.mycode.entities.Variable;
+
+/**
+ * A whole program in SSA form: the top level function and, nested within it, the functions the
+ * program declares.
+ */
+public class IrProgram {
+
+    private IrFunction main;
+    private List<IrFunction> functions = new ArrayList<IrFunction>();
+
+    IrProgram(IrFunction main) {
+        this.main = main;
+    }
+
+    public IrFunction getMain() {
+        return main;
+    }
+
+    /**
+     * Returns every function, the top level first, then each function before those nested
+     * within it.
+     */
+    public List<IrFunction> getFunctions() {
+        return Collections.unmodifiableList(functions);
+    }
+
+    void add(IrFunction function) {
+        functions.add(function);
+    }
+
+    /**
+     * Writes a readable listing of the program.
+     */
+    public void print(PrintWriter writer) {
+        for (IrFunction f: functions) {
+            List<String> parameters = new ArrayList<String>();
+            for (Parameter p: f.getParameters()) {
+                parameters.add(p + ": " + p.getType().getName());
+            }
+            writer.println("function " + f.getName() + "(" + join(parameters) + ")"
+                + (f.getReturnType() == null ? "" : ": " + f.getReturnType().getName()));
+            if (!f.getSharedVariables().isEmpty()) {
+                List<String> shared = new ArrayList<String>();
+                for (Variable v: f.getSharedVariables()) {
+                    shared.add(name(v));
+                }
+                writer.println("  shared " + join(shared));
+            }
+            for (BasicBlock block: f.getBlocks()) {
+                writer.println("  " + block + ":" + (block.getPredecessors().isEmpty() ? ""
+                    : "  ; preds " + join(block.getPredecessors())));
+                for (Instruction i: block.getPhis()) {
+                    writer.println("    " + format(i));
+                }
+                for (Instruction i: block.getInstructions()) {
+                    writer.println("    " + format(i));
+                }
+            }
+            writer.println();
+        }
+        writer.flush();
+    }
+
+    private static String format(Instruction i) {
+        StringBuilder result = new StringBuilder();
+        if (i.getType() != null) {
+            result.append(i).append(": ").append(i.getType().getName()).append(" = ");
+        }
+        result.append(i.getOpcode().name().toLowerCase());
+        Object attribute = i.getAttribute();
+        if (attribute instanceof Function) {
+            result.append(" ").append(((Function)attribute).getName());
+        } else if (attribute instanceof StructField) {
+            result.append(" .").append(((StructField)attribute).getName());
+        } else if (attribute instanceof Variable) {
+            result.append(" ").append(name((Variable)attribute));
+        } else if (attribute instanceof Type) {
+            result.append(" ").append(((Type)attribute).getName());
+        }
+        if (!i.getOperands().isEmpty()) {
+            result.append(" ").append(join(i.getOperands()));
+        }
+        if (!i.getTargets().isEmpty()) {
+            result.append(" -> ").append(join(i.getTargets()));
+        }
+        return result.toString();
+    }
+
+    private static String name(Variable v) {
+        return v.getName() + "#" + v.getId();
+    }
+
+    private static String join(List<?> items) {
+        StringBuilder result = new StringBuilder();
+        for (Iterator<?> it = items.iterator(); it.hasNext();) {
+            result.append(it.next());
+            if (it.hasNext()) {
+                result.append(", ");
+            }
+        }
+        return result.toString();
+    }
+}
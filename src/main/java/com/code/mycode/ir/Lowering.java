@@ -0,0 +1,760 @@
+package com.code.mycode.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.code.mycode.entities.ArrayAggregate;
+import com.code.mycode.entities.ArrayType;
+import com.code.mycode.entities.AssignmentStatement;
+import com.code.mycode.entities.Block;
+import com.code.mycode.entities.BooleanLiteral;
+import com.code.mycode.entities.BreakStatement;
+import com.code.mycode.entities.CallExpression;
+import com.code.mycode.entities.CallStatement;
+import com.code.mycode.entities.Case;
+import com.code.mycode.entities.CharLiteral;
+import com.code.mycode.entities.ClassicForStatement;
+import com.code.mycode.entities.Declarable;
+import com.code.mycode.entities.Declaration;
+import com.code.mycode.entities.DottedVariable;
+import com.code.mycode.entities.EmptyArray;
+import com.code.mycode.entities.Expression;
+import com.code.mycode.entities.ExpressionRewriter;
+import com.code.mycode.entities.Function;
+import com.code.mycode.entities.IfStatement;
+import com.code.mycode.entities.IncrementStatement;
+import com.code.mycode.entities.InfixExpression;
+import com.code.mycode.entities.IntegerLiteral;
+import com.code.mycode.entities.NullLiteral;
+import com.code.mycode.entities.PostfixExpression;
+import com.code.mycode.entities.PrefixExpression;
+import com.code.mycode.entities.PrintStatement;
+import com.code.mycode.entities.Program;
+import com.code.mycode.entities.RealLiteral;
+import com.code.mycode.entities.ReturnStatement;
+import com.code.mycode.entities.SimpleVariableReference;
+import com.code.mycode.entities.Statement;
+import com.code.mycode.entities.StringLiteral;
+import com.code.mycode.entities.StructAggregate;
+import com.code.mycode.entities.StructField;
+import com.code.mycode.entities.StructType;
+import com.code.mycode.entities.SubscriptedVariable;
+import com.code.mycode.entities.TailCallStatement;
+import com.code.mycode.entities.Type;
+import com.code.mycode.entities.Variable;
+import com.code.mycode.entities.VariableExpression;
+import com.code.mycode.entities.WhileStatement;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Lowers an analyzed program into SSA form.  SSA construction is done on the fly, as in Braun et
+ * al., "Simple and Efficient Construction of Static Single Assignment Form": each block records
+ * the current value of every variable assigned in it, reads look backwards through the
+ * predecessors, placing phis where paths merge, and phis found to be trivial are removed as soon
+ * as they are completed.  A block is sealed once all of its predecessors are known; reads in
+ * blocks not yet sealed (loop headers) get phis whose operands are filled in at sealing time.
+ */
+public class Lowering {
+
+    private static final ImmutableMap<String, Opcode> INFIX_OPCODES =
+        ImmutableMap.<String, Opcode>builder()
+            .put("+", Opcode.ADD).put("-", Opcode.SUB).put("*", Opcode.MUL)
+            .put("/", Opcode.DIV).put("%", Opcode.MOD)
+            .put("<<", Opcode.SHL).put(">>", Opcode.SHR)
+            .put("&", Opcode.AND).put("|", Opcode.OR).put("^", Opcode.XOR)
+            .put("==", Opcode.EQ).put("!=", Opcode.NE)
+            .put("<", Opcode.LT).put("<=", Opcode.LE).put(">", Opcode.GT).put(">=", Opcode.GE)
+            .build();
+
+    private IrProgram program;
+    private Map<Variable, IrFunction> owners = new HashMap<Variable, IrFunction>();
+    private Set<Variable> shared = new HashSet<Variable>();
+
+    /**
+     * Lowers the given program, which must have been analyzed without errors.
+     */
+    public static IrProgram lower(Program program) {
+        return new Lowering().run(program);
+    }
+
+    private IrProgram run(Program source) {
+        IrFunction main = new IrFunction(null, null);
+        program = new IrProgram(main);
+        findSharedVariables(null, source, new HashMap<Variable, Function>(),
+            new HashMap<Variable, Set<Function>>());
+        new FunctionBuilder(main).build(source);
+        return program;
+    }
+
+    /**
+     * Finds the variables used by functions other than the one declaring them.  The top level
+     * of the program is represented by a null function.
+     */
+    private void findSharedVariables(final Function f, Block body,
+            final Map<Variable, Function> declarers, final Map<Variable, Set<Function>> users) {
+
+        final List<Function> nested = new ArrayList<Function>();
+        new ExpressionRewriter() {
+            @Override
+            public boolean entersFunctions() {
+                return false;
+            }
+
+            @Override
+            public void visitStatement(Statement s) {
+                if (s instanceof Declaration) {
+                    Declarable d = Declaration.class.cast(s).getDeclarable();
+                    if (d instanceof Variable) {
+                        declarers.put(Variable.class.cast(d), f);
+                    } else if (d instanceof Function) {
+                        nested.add(Function.class.cast(d));
+                    }
+                } else if (s instanceof ClassicForStatement
+                        && ClassicForStatement.class.cast(s).getIndexVariable() != null) {
+                    declarers.put(ClassicForStatement.class.cast(s).getIndexVariable(), f);
+                }
+            }
+
+            @Override
+            public Expression rewrite(Expression e) {
+                if (e instanceof SimpleVariableReference) {
+                    use(SimpleVariableReference.class.cast(e).getReferent());
+                }
+                return e;
+            }
+
+            @Override
+            public void written(VariableExpression target) {
+                if (target instanceof SimpleVariableReference) {
+                    use(SimpleVariableReference.class.cast(target).getReferent());
+                }
+            }
+
+            private void use(Variable v) {
+                Set<Function> functions = users.get(v);
+                if (functions == null) {
+                    functions = new HashSet<Function>();
+                    users.put(v, functions);
+                }
+                functions.add(f);
+            }
+        }.rewriteBlock(body);
+
+        for (Function g: nested) {
+            for (Variable parameter: g.getParameters()) {
+                declarers.put(parameter, g);
+            }
+            findSharedVariables(g, g.getBody(), declarers, users);
+        }
+
+        if (f == null) {
+            for (Map.Entry<Variable, Set<Function>> entry: users.entrySet()) {
+                Variable v = entry.getKey();
+                for (Function user: entry.getValue()) {
+                    if (declarers.containsKey(v) && declarers.get(v) != user) {
+                        shared.add(v);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A place that can be read and written: a variable, an array element, or a struct field.
+     * The array, index, and struct are evaluated once, when the place is created.
+     */
+    private static class Place {
+        Variable variable;
+        Value base;
+        Value index;
+        StructField field;
+        Type type;
+    }
+
+    /**
+     * Lowers the body of one function.
+     */
+    private class FunctionBuilder {
+
+        private IrFunction ir;
+        private BasicBlock current;
+        private Map<Variable, Map<BasicBlock, Value>> currentDefs =
+            new HashMap<Variable, Map<BasicBlock, Value>>();
+        private Set<BasicBlock> sealed = new HashSet<BasicBlock>();
+        private Map<BasicBlock, Map<Variable, Instruction>> incompletePhis =
+            new HashMap<BasicBlock, Map<Variable, Instruction>>();
+        private Map<Value, Value> forwards = new HashMap<Value, Value>();
+        private LinkedList<BasicBlock> breakTargets = new LinkedList<BasicBlock>();
+        private BasicBlock tailTarget;
+
+        FunctionBuilder(IrFunction ir) {
+            this.ir = ir;
+            program.add(ir);
+        }
+
+        void build(Block body) {
+            BasicBlock entry = ir.newBlock();
+            seal(entry);
+            current = entry;
+
+            for (Parameter p: ir.getParameters()) {
+                owners.put(p.getVariable(), ir);
+                assign(p.getVariable(), p);
+            }
+
+            // Tail calls jump back to just after the parameters are stored
+            Function source = ir.getSource();
+            if (source != null && source.isTailRecursive()) {
+                tailTarget = ir.newBlock();
+                jump(tailTarget);
+                current = tailTarget;
+            }
+
+            lowerBlock(body);
+            if (current.getTerminator() == null) {
+                emit(Opcode.RETURN, null, null);
+            }
+            if (tailTarget != null) {
+                seal(tailTarget);
+            }
+            ir.removeUnreachableBlocks();
+        }
+
+        // Blocks and control flow
+
+        private BasicBlock newSealedBlock() {
+            BasicBlock block = ir.newBlock();
+            seal(block);
+            return block;
+        }
+
+        private Instruction emit(Opcode opcode, Type type, Object attribute, Value... operands) {
+            Instruction instruction = ir.newInstruction(opcode, type, attribute, operands);
+            current.append(instruction);
+            return instruction;
+        }
+
+        /**
+         * Ends the current block with a jump, leaving an unreachable block as the current one,
+         * to receive any dead code that follows.
+         */
+        private void jump(BasicBlock target) {
+            emit(Opcode.JUMP, null, null).setTargets(target);
+            target.getPredecessors().add(current);
+            current = newSealedBlock();
+        }
+
+        private void branch(Value condition, BasicBlock ifTrue, BasicBlock ifFalse) {
+            if (condition instanceof Constant) {
+                jump(Boolean.TRUE.equals(Constant.class.cast(condition).getValue()) ? ifTrue : ifFalse);
+                return;
+            }
+            emit(Opcode.BRANCH, null, null, condition).setTargets(ifTrue, ifFalse);
+            ifTrue.getPredecessors().add(current);
+            ifFalse.getPredecessors().add(current);
+            current = newSealedBlock();
+        }
+
+        private void terminate(Opcode opcode, Value... operands) {
+            emit(opcode, null, null, operands);
+            current = newSealedBlock();
+        }
+
+        // SSA construction
+
+        private void writeVariable(Variable v, BasicBlock block, Value value) {
+            Map<BasicBlock, Value> defs = currentDefs.get(v);
+            if (defs == null) {
+                defs = new HashMap<BasicBlock, Value>();
+                currentDefs.put(v, defs);
+            }
+            defs.put(block, value);
+        }
+
+        private Value readVariable(Variable v, BasicBlock block) {
+            Map<BasicBlock, Value> defs = currentDefs.get(v);
+            if (defs != null && defs.containsKey(block)) {
+                return resolve(defs.get(block));
+            }
+            return readVariableRecursive(v, block);
+        }
+
+        private Value readVariableRecursive(Variable v, BasicBlock block) {
+            Value value;
+            if (!sealed.contains(block)) {
+                Instruction phi = newPhi(block, v.getType());
+                Map<Variable, Instruction> phis = incompletePhis.get(block);
+                if (phis == null) {
+                    phis = new HashMap<Variable, Instruction>();
+                    incompletePhis.put(block, phis);
+                }
+                phis.put(v, phi);
+                value = phi;
+            } else if (block.getPredecessors().size() == 1) {
+                value = readVariable(v, block.getPredecessors().get(0));
+            } else if (block.getPredecessors().isEmpty()) {
+                // Only in unreachable code
+                value = initialValue(v.getType());
+            } else {
+                Instruction phi = newPhi(block, v.getType());
+                writeVariable(v, block, phi);
+                value = addPhiOperands(v, phi);
+            }
+            writeVariable(v, block, value);
+            return value;
+        }
+
+        private Instruction newPhi(BasicBlock block, Type type) {
+            Instruction phi = ir.newInstruction(Opcode.PHI, type, null);
+            block.append(phi);
+            return phi;
+        }
+
+        private Value addPhiOperands(Variable v, Instruction phi) {
+            for (BasicBlock predecessor: phi.getBlock().getPredecessors()) {
+                phi.addOperand(readVariable(v, predecessor));
+            }
+            return tryRemoveTrivialPhi(phi);
+        }
+
+        /**
+         * Replaces a phi whose operands are all the same value (or the phi itself) with that
+         * value, then tries again on the phis that used it, which may have become trivial too.
+         */
+        private Value tryRemoveTrivialPhi(Instruction phi) {
+            Value same = null;
+            for (Value operand: phi.getOperands()) {
+                if (operand == same || operand == phi) {
+                    continue;
+                }
+                if (same != null) {
+                    return phi;
+                }
+                same = operand;
+            }
+            if (same == null) {
+                same = initialValue(phi.getType());
+            }
+
+            List<Instruction> users = new ArrayList<Instruction>(phi.getUsers());
+            users.remove(phi);
+            phi.replaceAllUsesWith(same);
+            ir.remove(phi);
+            forwards.put(phi, same);
+
+            for (Instruction user: users) {
+                if (user.isPhi() && user.getBlock() != null) {
+                    tryRemoveTrivialPhi(user);
+                }
+            }
+            return same;
+        }
+
+        private Value resolve(Value value) {
+            while (forwards.containsKey(value)) {
+                value = forwards.get(value);
+            }
+            return value;
+        }
+
+        private void seal(BasicBlock block) {
+            Map<Variable, Instruction> phis = incompletePhis.remove(block);
+            if (phis != null) {
+                for (Map.Entry<Variable, Instruction> entry: phis.entrySet()) {
+                    addPhiOperands(entry.getKey(), entry.getValue());
+                }
+            }
+            sealed.add(block);
+        }
+
+        // Variables
+
+        private void assign(Variable v, Value value) {
+            value = coerce(value, v.getType());
+            if (shared.contains(v)) {
+                if (!ir.getSharedVariables().contains(v) && owners.get(v) == ir) {
+                    ir.getSharedVariables().add(v);
+                }
+                emit(Opcode.STORE_VAR, null, v, value);
+            } else {
+                writeVariable(v, current, value);
+            }
+        }
+
+        private Value read(Variable v) {
+            if (shared.contains(v)) {
+                return emit(Opcode.LOAD_VAR, v.getType(), v);
+            }
+            return readVariable(v, current);
+        }
+
+        private Place place(VariableExpression e) {
+            Place place = new Place();
+            place.type = e.getType();
+            if (e instanceof SimpleVariableReference) {
+                place.variable = SimpleVariableReference.class.cast(e).getReferent();
+            } else if (e instanceof SubscriptedVariable) {
+                SubscriptedVariable s = SubscriptedVariable.class.cast(e);
+                place.base = lower(s.getSequence());
+                place.index = lower(s.getIndex());
+            } else if (e instanceof DottedVariable) {
+                DottedVariable d = DottedVariable.class.cast(e);
+                place.base = lower(d.getStruct());
+                place.field = d.getField();
+            } else {
+                throw new RuntimeException("Not a writable expression: " + e.getClass().getName());
+            }
+            return place;
+        }
+
+        private Value load(Place place) {
+            if (place.variable != null) {
+                return read(place.variable);
+            } else if (place.field != null) {
+                return emit(Opcode.GETFIELD, place.type, place.field, place.base);
+            } else if (place.base.getType() == Type.STRING) {
+                return emit(Opcode.CHAR_AT, Type.CHAR, null, place.base, place.index);
+            } else {
+                return emit(Opcode.ALOAD, place.type, null, place.base, place.index);
+            }
+        }
+
+        private void store(Place place, Value value) {
+            value = coerce(value, place.type);
+            if (place.variable != null) {
+                assign(place.variable, value);
+            } else if (place.field != null) {
+                emit(Opcode.PUTFIELD, null, place.field, place.base, value);
+            } else {
+                emit(Opcode.ASTORE, null, null, place.base, place.index, value);
+            }
+        }
+
+        // Statements
+
+        private void lowerBlock(Block block) {
+            for (Statement s: block.getStatements()) {
+                lowerStatement(s);
+            }
+        }
+
+        private void lowerStatement(Statement s) {
+            if (s instanceof Declaration) {
+                Declarable d = Declaration.class.cast(s).getDeclarable();
+                if (d instanceof Variable) {
+                    declare(Variable.class.cast(d), Variable.class.cast(d).getInitializer());
+                } else if (d instanceof Function) {
+                    IrFunction nested = new IrFunction(Function.class.cast(d), ir);
+                    ir.getNestedFunctions().add(nested);
+                    new FunctionBuilder(nested).build(Function.class.cast(d).getBody());
+                }
+
+            } else if (s instanceof AssignmentStatement) {
+                AssignmentStatement a = AssignmentStatement.class.cast(s);
+                Place place = place(a.getLeft());
+                store(place, lower(a.getRight()));
+
+            } else if (s instanceof IncrementStatement) {
+                IncrementStatement i = IncrementStatement.class.cast(s);
+                increment(place(i.getTarget()), i.getOp());
+
+            } else if (s instanceof CallStatement) {
+                CallStatement c = CallStatement.class.cast(s);
+                call(c.getFunction(), c.getArgs(), null);
+
+            } else if (s instanceof PrintStatement) {
+                for (Expression arg: PrintStatement.class.cast(s).getArgs()) {
+                    emit(Opcode.PRINT, null, null, lower(arg));
+                }
+
+            } else if (s instanceof BreakStatement) {
+                jump(breakTargets.peek());
+
+            } else if (s instanceof ReturnStatement) {
+                Expression e = ReturnStatement.class.cast(s).getReturnExpression();
+                if (e == null) {
+                    terminate(Opcode.RETURN);
+                } else {
+                    terminate(Opcode.RETURN, coerce(lower(e), ir.getReturnType()));
+                }
+
+            } else if (s instanceof TailCallStatement) {
+                lowerTailCall(TailCallStatement.class.cast(s));
+
+            } else if (s instanceof IfStatement) {
+                lowerIf(IfStatement.class.cast(s));
+
+            } else if (s instanceof WhileStatement) {
+                WhileStatement w = WhileStatement.class.cast(s);
+                lowerLoop(w.getCondition(), w.getBody(), null, null);
+
+            } else if (s instanceof ClassicForStatement) {
+                ClassicForStatement f = ClassicForStatement.class.cast(s);
+                if (f.getIndexVariable() != null) {
+                    declare(f.getIndexVariable(), f.getInit());
+                    for (Variable v: f.getDerivedVariables()) {
+                        declare(v, v.getInitializer());
+                    }
+                } else if (f.getInit() != null) {
+                    lower(f.getInit());
+                }
+                lowerLoop(f.getTest(), f.getBody(), f.getEach(), f.getDerivedUpdates());
+
+            } else {
+                throw new RuntimeException("Unknown statement class: " + s.getClass().getName());
+            }
+        }
+
+        private void declare(Variable v, Expression initializer) {
+            owners.put(v, ir);
+            assign(v, initializer == null ? initialValue(v.getType()) : lower(initializer));
+        }
+
+        private void lowerTailCall(TailCallStatement s) {
+            List<Value> args = new ArrayList<Value>();
+            for (Expression arg: s.getArgs()) {
+                args.add(lower(arg));
+            }
+            for (int i = 0; i < args.size(); i++) {
+                assign(ir.getParameters().get(i).getVariable(), args.get(i));
+            }
+            jump(tailTarget);
+        }
+
+        private void lowerIf(IfStatement s) {
+            BasicBlock join = ir.newBlock();
+            for (Case c: s.getCases()) {
+                Value condition = lower(c.getCondition());
+                BasicBlock then = ir.newBlock();
+                BasicBlock next = ir.newBlock();
+                branch(condition, then, next);
+                seal(then);
+                seal(next);
+                current = then;
+                lowerBlock(c.getBody());
+                jump(join);
+                current = next;
+            }
+            if (s.getElsePart() != null) {
+                lowerBlock(s.getElsePart());
+            }
+            jump(join);
+            seal(join);
+            current = join;
+        }
+
+        private void lowerLoop(Expression test, Block body, Statement each,
+                List<AssignmentStatement> updates) {
+            BasicBlock header = ir.newBlock();
+            jump(header);
+            current = header;
+            Value condition = test == null ? bool(true) : lower(test);
+            BasicBlock bodyBlock = ir.newBlock();
+            BasicBlock exit = ir.newBlock();
+            branch(condition, bodyBlock, exit);
+            seal(bodyBlock);
+
+            current = bodyBlock;
+            breakTargets.push(exit);
+            lowerBlock(body);
+            breakTargets.pop();
+            if (each != null) {
+                lowerStatement(each);
+            }
+            if (updates != null) {
+                for (AssignmentStatement update: updates) {
+                    lowerStatement(update);
+                }
+            }
+            jump(header);
+            seal(header);
+            seal(exit);
+            current = exit;
+        }
+
+        // Expressions
+
+        private Value lower(Expression e) {
+            if (e instanceof IntegerLiteral) {
+                return new Constant(Type.INT, IntegerLiteral.class.cast(e).getValue());
+            } else if (e instanceof RealLiteral) {
+                return new Constant(Type.REAL, RealLiteral.class.cast(e).getValue());
+            } else if (e instanceof CharLiteral) {
+                return new Constant(Type.CHAR, CharLiteral.class.cast(e).getValue());
+            } else if (e instanceof BooleanLiteral) {
+                return bool(e == BooleanLiteral.TRUE);
+            } else if (e instanceof StringLiteral) {
+                StringBuilder builder = new StringBuilder();
+                for (int codepoint: StringLiteral.class.cast(e).getValues()) {
+                    builder.appendCodePoint(codepoint);
+                }
+                return new Constant(Type.STRING, builder.toString());
+            } else if (e instanceof NullLiteral) {
+                return new Constant(Type.NULL_TYPE, null);
+
+            } else if (e instanceof CallExpression) {
+                CallExpression c = CallExpression.class.cast(e);
+                return call(c.getFunction(), c.getArgs(), e.getType());
+            } else if (e instanceof VariableExpression) {
+                return load(place(VariableExpression.class.cast(e)));
+
+            } else if (e instanceof EmptyArray) {
+                Type base = ArrayType.class.cast(e.getType()).getBaseType();
+                Value bound = lower(EmptyArray.class.cast(e).getBound());
+                return emit(Opcode.NEW_ARRAY, e.getType(), base, bound);
+            } else if (e instanceof ArrayAggregate) {
+                Type base = ArrayType.class.cast(e.getType()).getBaseType();
+                Instruction array = ir.newInstruction(Opcode.ARRAY, e.getType(), base);
+                for (Expression arg: ArrayAggregate.class.cast(e).getArgs()) {
+                    array.addOperand(coerce(lower(arg), base));
+                }
+                current.append(array);
+                return array;
+            } else if (e instanceof StructAggregate) {
+                Instruction struct = ir.newInstruction(Opcode.STRUCT, e.getType(), e.getType());
+                List<StructField> fields = StructType.class.cast(e.getType()).getFields();
+                int i = 0;
+                for (Expression arg: StructAggregate.class.cast(e).getArgs()) {
+                    struct.addOperand(coerce(lower(arg), fields.get(i++).getType()));
+                }
+                current.append(struct);
+                return struct;
+
+            } else if (e instanceof PrefixExpression) {
+                return lowerPrefix(PrefixExpression.class.cast(e));
+            } else if (e instanceof PostfixExpression) {
+                PostfixExpression p = PostfixExpression.class.cast(e);
+                return increment(place(p.getOperand()), p.getOp()).getOperand(0);
+            } else if (e instanceof InfixExpression) {
+                return lowerInfix(InfixExpression.class.cast(e));
+            }
+            throw new RuntimeException("Unknown expression class: " + e.getClass().getName());
+        }
+
+        private Value call(Function f, List<Expression> args, Type type) {
+            Instruction call = ir.newInstruction(Opcode.CALL, type, f);
+            int i = 0;
+            for (Expression arg: args) {
+                call.addOperand(coerce(lower(arg), f.getParameters().get(i++).getType()));
+            }
+            current.append(call);
+            return call;
+        }
+
+        /**
+         * Adds or subtracts one at a place, returning the instruction computing the new value,
+         * whose first operand is the old value.
+         */
+        private Instruction increment(Place place, String op) {
+            Value old = load(place);
+            Instruction updated = emit("++".equals(op) ? Opcode.ADD : Opcode.SUB, Type.INT, null,
+                old, new Constant(Type.INT, 1));
+            store(place, updated);
+            return updated;
+        }
+
+        private Value lowerPrefix(PrefixExpression e) {
+            String op = e.getOp();
+            if ("++".equals(op) || "--".equals(op)) {
+                return increment(place(VariableExpression.class.cast(e.getOperand())), op);
+            }
+            Value operand = lower(e.getOperand());
+            if ("-".equals(op)) {
+                return emit(Opcode.NEG, e.getType(), null, operand);
+            } else if ("!".equals(op)) {
+                return emit(Opcode.NOT, Type.BOOLEAN, null, operand);
+            } else if ("~".equals(op)) {
+                return emit(Opcode.COMPL, Type.INT, null, operand);
+            } else if ("int".equals(op) || "char".equals(op)) {
+                return emit(Opcode.CONVERT, e.getType(), null, operand);
+            } else if ("string".equals(op)) {
+                return emit(Opcode.TO_STRING, Type.STRING, null, operand);
+            } else if ("length".equals(op)) {
+                return emit(Opcode.LENGTH, Type.INT, null, operand);
+            }
+            throw new RuntimeException("Unknown prefix operator: " + op);
+        }
+
+        private Value lowerInfix(InfixExpression e) {
+            String op = e.getOp();
+            if ("&&".equals(op) || "||".equals(op)) {
+                return lowerShortCircuit(e, "&&".equals(op));
+            }
+
+            Value left = lower(e.getLeft());
+            Value right = lower(e.getRight());
+            if (left.getType() == Type.REAL || right.getType() == Type.REAL) {
+                left = coerce(left, Type.REAL);
+                right = coerce(right, Type.REAL);
+            }
+            return emit(INFIX_OPCODES.get(op), e.getType(), null, left, right);
+        }
+
+        /**
+         * Lowers a && b, or a || b, into a branch around the evaluation of b, and a phi.
+         */
+        private Value lowerShortCircuit(InfixExpression e, boolean and) {
+            Value left = lower(e.getLeft());
+            BasicBlock rightBlock = ir.newBlock();
+            BasicBlock join = ir.newBlock();
+            if (and) {
+                branch(left, rightBlock, join);
+            } else {
+                branch(left, join, rightBlock);
+            }
+            seal(rightBlock);
+            current = rightBlock;
+            Value right = lower(e.getRight());
+            BasicBlock rightEnd = current;
+            jump(join);
+            seal(join);
+            current = join;
+
+            Instruction phi = newPhi(join, Type.BOOLEAN);
+            for (BasicBlock predecessor: join.getPredecessors()) {
+                phi.addOperand(predecessor == rightEnd ? right : bool(!and));
+            }
+            return tryRemoveTrivialPhi(phi);
+        }
+
+        /**
+         * Converts ints to reals where reals are expected.  (Chars and ints already share a
+         * representation, and every other assignment is type-correct already.)
+         */
+        private Value coerce(Value value, Type type) {
+            if (type == Type.REAL && value.getType() == Type.INT) {
+                if (value instanceof Constant) {
+                    return new Constant(Type.REAL,
+                        ((Integer)Constant.class.cast(value).getValue()).doubleValue());
+                }
+                return emit(Opcode.CONVERT, Type.REAL, null, value);
+            }
+            return value;
+        }
+    }
+
+    private static Constant bool(boolean value) {
+        return new Constant(Type.BOOLEAN, value);
+    }
+
+    /**
+     * Returns the value of a variable of the given type that has not been initialized.
+     */
+    static Constant initialValue(Type type) {
+        if (type == Type.INT || type == Type.CHAR) {
+            return new Constant(type, 0);
+        } else if (type == Type.REAL) {
+            return new Constant(type, 0.0);
+        } else if (type == Type.BOOLEAN) {
+            return new Constant(type, false);
+        } else if (type == Type.STRING) {
+            return new Constant(type, "");
+        }
+        return new Constant(type, null);
+    }
+}
@@ -0,0 +1,68 @@
+package com.code.mycode.ir;
+
+/**
+ * The operations of the SSA intermediate representation.  Pure operations depend only on their
+ * operands, so they can be folded, numbered, and deleted when unused; the rest read or write
+ * memory, do input or output, or transfer control.
+ */
+public enum Opcode {
+
+    // Arithmetic, typed by the instruction's result type (int or real)
+    ADD(true), SUB(true), MUL(true), DIV(true), MOD(true), NEG(true),
+
+    // Bitwise operations on ints
+    SHL(true), SHR(true), AND(true), OR(true), XOR(true), COMPL(true),
+
+    // Comparisons, producing booleans
+    EQ(true), NE(true), LT(true), LE(true), GT(true), GE(true),
+
+    // Boolean negation
+    NOT(true),
+
+    // Conversion between int, char and real, to the instruction's type
+    CONVERT(true),
+
+    // Operations on strings and arrays.  Arrays never change length, so LENGTH is pure.
+    LENGTH(true), CHAR_AT(true), TO_STRING(false),
+
+    // Allocation: an array of a given length, an array of the operands, a struct of the operands
+    NEW_ARRAY(false), ARRAY(false), STRUCT(false),
+
+    // Memory access: array elements, struct fields, and variables shared with nested functions
+    ALOAD(false), ASTORE(false), GETFIELD(false), PUTFIELD(false), LOAD_VAR(false), STORE_VAR(false),
+
+    // Calls and output
+    CALL(false), PRINT(false),
+
+    // SSA merge of values flowing in from predecessor blocks
+    PHI(true),
+
+    // Terminators
+    JUMP(false), BRANCH(false), RETURN(false);
+
+    private final boolean pure;
+
+    private Opcode(boolean pure) {
+        this.pure = pure;
+    }
+
+    /**
+     * Returns whether instructions with this opcode have no effect other than computing a value
+     * from their operands.
+     */
+    public boolean isPure() {
+        return pure;
+    }
+
+    public boolean isTerminator() {
+        return this == JUMP || this == BRANCH || this == RETURN;
+    }
+
+    /**
+     * Returns whether the operands of this operation can be swapped.
+     */
+    public boolean isCommutative() {
+        return this == ADD || this == MUL || this == AND || this == OR || this == XOR
+            || this == EQ || this == NE;
+    }
+}
@@ -0,0 +1,31 @@
+package com.code.mycode.ir;
+
+import com.code.mycode.entities.Variable;
+
+/**
+ * The value of a function parameter on entry to the function.
+ */
+public class Parameter extends Value {
+
+    private Variable variable;
+    private int index;
+
+    public Parameter(Variable variable, int index) {
+        super(variable.getType());
+        this.variable = variable;
+        this.index = index;
+    }
+
+    public Variable getVariable() {
+        return variable;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "%arg" + index;
+    }
+}
@@ -0,0 +1,202 @@
+package com.code.mycode.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck).  Values start out unknown and are
+ * lowered, never raised, to a constant or to "varying" as the instructions computing them are
+ * visited; blocks are only visited once some edge into them is found to be executable, so
+ * constants flowing into a branch can prune whole regions before they are ever looked at.
+ * Every instruction is visited a bounded number of times, so the running time is linear in the
+ * size of the function.
+ *
+ * Afterwards, instructions found constant are replaced by constants, branches on constants
+ * become jumps, and the blocks never reached are deleted.
+ */
+public class SparsePropagation {
+
+    // Lattice values besides constants.  Unknown (the top) is represented by absence.
+    private static final Object VARYING = new Object();
+
+    private IrFunction function;
+    private Map<Value, Object> lattice = new HashMap<Value, Object>();
+    private Set<BasicBlock> executableBlocks = new HashSet<BasicBlock>();
+    private Map<BasicBlock, Set<BasicBlock>> executableEdges = new HashMap<BasicBlock, Set<BasicBlock>>();
+    private LinkedList<BasicBlock[]> flowWorklist = new LinkedList<BasicBlock[]>();
+    private LinkedList<Instruction> ssaWorklist = new LinkedList<Instruction>();
+
+    private SparsePropagation(IrFunction function) {
+        this.function = function;
+    }
+
+    /**
+     * Propagates constants through the given function, simplifying it.
+     */
+    public static void run(IrFunction function) {
+        SparsePropagation propagation = new SparsePropagation(function);
+        propagation.solve();
+        propagation.rewrite();
+    }
+
+    private void solve() {
+        flowWorklist.add(new BasicBlock[] {null, function.getEntry()});
+        while (!flowWorklist.isEmpty() || !ssaWorklist.isEmpty()) {
+            if (!flowWorklist.isEmpty()) {
+                BasicBlock[] edge = flowWorklist.removeFirst();
+                if (edge[0] != null && !markEdge(edge[0], edge[1])) {
+                    continue;
+                }
+                BasicBlock block = edge[1];
+                for (Instruction phi: block.getPhis()) {
+                    visit(phi);
+                }
+                if (executableBlocks.add(block)) {
+                    for (Instruction instruction: block.getInstructions()) {
+                        visit(instruction);
+                    }
+                }
+            } else {
+                Instruction instruction = ssaWorklist.removeFirst();
+                if (executableBlocks.contains(instruction.getBlock())) {
+                    visit(instruction);
+                }
+            }
+        }
+    }
+
+    private boolean markEdge(BasicBlock from, BasicBlock to) {
+        Set<BasicBlock> targets = executableEdges.get(from);
+        if (targets == null) {
+            targets = new HashSet<BasicBlock>();
+            executableEdges.put(from, targets);
+        }
+        return targets.add(to);
+    }
+
+    private boolean isExecutable(BasicBlock from, BasicBlock to) {
+        Set<BasicBlock> targets = executableEdges.get(from);
+        return targets != null && targets.contains(to);
+    }
+
+    private void visit(Instruction instruction) {
+        Opcode opcode = instruction.getOpcode();
+        if (opcode == Opcode.JUMP) {
+            flowWorklist.add(new BasicBlock[] {instruction.getBlock(), instruction.getTargets().get(0)});
+            return;
+        } else if (opcode == Opcode.BRANCH) {
+            Object condition = valueOf(instruction.getOperand(0));
+            List<BasicBlock> targets = instruction.getTargets();
+            if (condition == VARYING) {
+                flowWorklist.add(new BasicBlock[] {instruction.getBlock(), targets.get(0)});
+                flowWorklist.add(new BasicBlock[] {instruction.getBlock(), targets.get(1)});
+            } else if (condition != null) {
+                BasicBlock target = Boolean.TRUE.equals(condition) ? targets.get(0) : targets.get(1);
+                flowWorklist.add(new BasicBlock[] {instruction.getBlock(), target});
+            }
+            return;
+        } else if (instruction.getType() == null) {
+            return;
+        }
+
+        Object result;
+        if (instruction.isPhi()) {
+            result = null;
+            List<BasicBlock> predecessors = instruction.getBlock().getPredecessors();
+            for (int i = 0; i < predecessors.size(); i++) {
+                if (isExecutable(predecessors.get(i), instruction.getBlock())) {
+                    result = meet(result, valueOf(instruction.getOperand(i)));
+                }
+            }
+        } else if (opcode.isPure()) {
+            result = evaluate(instruction);
+        } else {
+            result = VARYING;
+        }
+
+        Object old = lattice.get(instruction);
+        if (result != null && !result.equals(old)) {
+            lattice.put(instruction, result);
+            ssaWorklist.addAll(instruction.getUsers());
+        }
+    }
+
+    /**
+     * Returns the lattice value of the given value: null for unknown, VARYING, or a constant.
+     */
+    private Object valueOf(Value value) {
+        if (value instanceof Constant) {
+            Object constant = Constant.class.cast(value).getValue();
+            return constant == null ? VARYING : constant;
+        } else if (value instanceof Parameter) {
+            return VARYING;
+        }
+        return lattice.get(value);
+    }
+
+    private static Object meet(Object x, Object y) {
+        if (x == null) {
+            return y;
+        } else if (y == null) {
+            return x;
+        } else if (x == VARYING || y == VARYING || !x.equals(y)) {
+            return VARYING;
+        }
+        return x;
+    }
+
+    private Object evaluate(Instruction instruction) {
+        List<Object> operands = new ArrayList<Object>();
+        for (Value operand: instruction.getOperands()) {
+            Object value = valueOf(operand);
+            if (value == VARYING) {
+                return VARYING;
+            }
+            operands.add(value);
+        }
+        if (operands.contains(null)) {
+            return null;
+        }
+        Object result = Folding.fold(instruction.getOpcode(), instruction.getType(), operands);
+        return result == null ? VARYING : result;
+    }
+
+    private void rewrite() {
+        for (BasicBlock block: function.getBlocks()) {
+            if (!executableBlocks.contains(block)) {
+                continue;
+            }
+            List<Instruction> all = new ArrayList<Instruction>(block.getPhis());
+            all.addAll(block.getInstructions());
+            for (Instruction instruction: all) {
+                Object value = lattice.get(instruction);
+                if (value != null && value != VARYING && instruction.getOpcode().isPure()) {
+                    instruction.replaceAllUsesWith(new Constant(instruction.getType(), value));
+                    function.remove(instruction);
+                }
+            }
+
+            Instruction terminator = block.getTerminator();
+            if (terminator != null && terminator.getOpcode() == Opcode.BRANCH) {
+                BasicBlock ifTrue = terminator.getTargets().get(0);
+                BasicBlock ifFalse = terminator.getTargets().get(1);
+                boolean trueTaken = isExecutable(block, ifTrue);
+                boolean falseTaken = isExecutable(block, ifFalse);
+                if (trueTaken != falseTaken) {
+                    BasicBlock taken = trueTaken ? ifTrue : ifFalse;
+                    function.remove(terminator);
+                    Instruction jump = function.newInstruction(Opcode.JUMP, null, null);
+                    jump.setTargets(taken);
+                    block.append(jump);
+                    (trueTaken ? ifFalse : ifTrue).removePredecessor(block);
+                }
+            }
+        }
+        function.removeUnreachableBlocks();
+    }
+}
@@ -0,0 +1,52 @@
+package com.code.mycode.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.code.mycode.entities.Type;
+
+/**
+ * A value in the SSA intermediate representation: a constant, a function parameter, or the
+ * result of an instruction.  Every value has a type from the semantic graph (null for
+ * instructions producing nothing), and knows the instructions that use it.
+ */
+public abstract class Value {
+
+    private Type type;
+    private List<Instruction> users = new ArrayList<Instruction>();
+
+    protected Value(Type type) {
+        this.type = type;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the instructions using this value, once for each operand position.
+     */
+    public List<Instruction> getUsers() {
+        return users;
+    }
+
+    void addUser(Instruction user) {
+        users.add(user);
+    }
+
+    void removeUser(Instruction user) {
+        users.remove(user);
+    }
+
+    /**
+     * Makes every user of this value use the given value instead.
+     */
+    public void replaceAllUsesWith(Value replacement) {
+        if (replacement == this) {
+            return;
+        }
+        for (Instruction user: new ArrayList<Instruction>(users)) {
+            user.replaceOperand(this, replacement);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.code.mycode.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dominator-based global value numbering.  The dominator tree is walked from the entry with a
+ * scoped table of the pure instructions seen so far on the way down; an instruction computing
+ * the same operation on the same operands as one that dominates it is replaced by that one.
+ * Each instruction is hashed once, so the pass is linear in the size of the function.
+ */
+public class ValueNumbering {
+
+    private ValueNumbering() {
+        // Not instantiable
+    }
+
+    /**
+     * Removes the redundant computations from the given function.
+     */
+    public static void run(IrFunction function) {
+        Dominators dominators = new Dominators(function);
+        Map<List<Object>, Instruction> available = new HashMap<List<Object>, Instruction>();
+
+        // An explicit stack of (block, keys added in that block) pairs, with a null block marking
+        // the point where a block's scope ends.
+        List<BasicBlock> stack = new ArrayList<BasicBlock>();
+        List<List<List<Object>>> scopes = new ArrayList<List<List<Object>>>();
+        stack.add(function.getEntry());
+        while (!stack.isEmpty()) {
+            BasicBlock block = stack.remove(stack.size() - 1);
+            if (block == null) {
+                for (List<Object> key: scopes.remove(scopes.size() - 1)) {
+                    available.remove(key);
+                }
+                continue;
+            }
+
+            List<List<Object>> added = new ArrayList<List<Object>>();
+            List<Instruction> instructions = new ArrayList<Instruction>(block.getPhis());
+            instructions.addAll(block.getInstructions());
+            for (Instruction instruction: instructions) {
+                if (!instruction.getOpcode().isPure()) {
+                    continue;
+                }
+                List<Object> key = key(instruction);
+                Instruction existing = available.get(key);
+                if (existing != null) {
+                    instruction.replaceAllUsesWith(existing);
+                    function.remove(instruction);
+                } else {
+                    available.put(key, instruction);
+                    added.add(key);
+                }
+            }
+
+            scopes.add(added);
+            stack.add(null);
+            stack.addAll(dominators.getChildren(block));
+        }
+    }
+
+    /**
+     * Returns a key equal for instructions computing the same value.  Operands of commutative
+     * operations are put in a canonical order, and phis are only equal within a block.
+     */
+    private static List<Object> key(Instruction instruction) {
+        List<Object> key = new ArrayList<Object>();
+        key.add(instruction.getOpcode());
+        key.add(instruction.getType());
+        key.add(instruction.getAttribute());
+        if (instruction.isPhi()) {
+            key.add(instruction.getBlock());
+        }
+        List<Value> operands = new ArrayList<Value>(instruction.getOperands());
+        if (instruction.getOpcode().isCommutative() && rank(operands.get(0)) > rank(operands.get(1))) {
+            operands.add(operands.remove(0));
+        }
+        for (Value operand: operands) {
+            if (operand instanceof Constant) {
+                key.add(Arrays.asList(operand.getType(), Constant.class.cast(operand).getValue()));
+            } else {
+                key.add(operand);
+            }
+        }
+        return key;
+    }
+
+    private static int rank(Value value) {
+        if (value instanceof Instruction) {
+            return Instruction.class.cast(value).getId() + 1000000;
+        } else if (value instanceof Parameter) {
+            return Parameter.class.cast(value).getIndex();
+        }
+        return -1;
+    }
+}
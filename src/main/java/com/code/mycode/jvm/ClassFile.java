@@ -0,0 +1,216 @@
+package com.code.mycode.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assembles a class file: a constant pool, built as entries are asked for, and the fields and
+ * methods of the class.
+ *
+ * Class files are written in version 49 (Java 5), the last version whose methods need no stack
+ * map frames; the virtual machine verifies them by type inference instead.  That keeps the
+ * assembler free of any data flow analysis, at a small cost in loading time.
+ */
+final class ClassFile {
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final String name;
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndexes = new HashMap<String, Integer>();
+    private int poolCount = 1;
+
+    private final ByteArrayOutputStream memberBytes = new ByteArrayOutputStream();
+    private final DataOutputStream members = new DataOutputStream(memberBytes);
+    private int fieldCount = 0;
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+    private final DataOutputStream methods = new DataOutputStream(methodBytes);
+    private int methodCount = 0;
+
+    /**
+     * Creates a class with the given internal name, such as "a/b/C", extending Object.
+     */
+    ClassFile(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    // The constant pool
+
+    int utf8(String s) {
+        Integer index = poolIndexes.get("U" + s);
+        if (index == null) {
+            index = poolCount++;
+            try {
+                pool.writeByte(CONSTANT_UTF8);
+                pool.writeUTF(s);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            poolIndexes.put("U" + s, index);
+        }
+        return index;
+    }
+
+    int classRef(String internalName) {
+        return entry("C" + internalName, CONSTANT_CLASS, utf8(internalName));
+    }
+
+    int string(String s) {
+        return entry("S" + s, CONSTANT_STRING, utf8(s));
+    }
+
+    int integer(int value) {
+        Integer index = poolIndexes.get("I" + value);
+        if (index == null) {
+            index = poolCount++;
+            try {
+                pool.writeByte(CONSTANT_INTEGER);
+                pool.writeInt(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            poolIndexes.put("I" + value, index);
+        }
+        return index;
+    }
+
+    int doubleConstant(double value) {
+        String key = "D" + Double.doubleToRawLongBits(value);
+        Integer index = poolIndexes.get(key);
+        if (index == null) {
+            index = poolCount;
+            // Doubles take two entries
+            poolCount += 2;
+            try {
+                pool.writeByte(CONSTANT_DOUBLE);
+                pool.writeDouble(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            poolIndexes.put(key, index);
+        }
+        return index;
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return entry("F" + owner + "." + name + ":" + descriptor, CONSTANT_FIELDREF,
+            classRef(owner), nameAndType(name, descriptor));
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return entry("M" + owner + "." + name + descriptor, CONSTANT_METHODREF,
+            classRef(owner), nameAndType(name, descriptor));
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return entry("N" + name + ":" + descriptor, CONSTANT_NAME_AND_TYPE,
+            utf8(name), utf8(descriptor));
+    }
+
+    /**
+     * Returns the index of an entry made of a tag and two-byte indexes of other entries, which
+     * must have been made already.
+     */
+    private int entry(String key, int tag, int... references) {
+        Integer index = poolIndexes.get(key);
+        if (index == null) {
+            index = poolCount++;
+            try {
+                pool.writeByte(tag);
+                for (int reference: references) {
+                    pool.writeShort(reference);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            poolIndexes.put(key, index);
+        }
+        return index;
+    }
+
+    // Members
+
+    void addField(int access, String name, String descriptor) {
+        try {
+            members.writeShort(access);
+            members.writeShort(utf8(name));
+            members.writeShort(utf8(descriptor));
+            members.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fieldCount++;
+    }
+
+    void addMethod(int access, String name, String descriptor, Code code) {
+        byte[] bytes = code.toByteArray();
+        try {
+            methods.writeShort(access);
+            methods.writeShort(utf8(name));
+            methods.writeShort(utf8(descriptor));
+            methods.writeShort(1);
+            methods.writeShort(utf8("Code"));
+            methods.writeInt(12 + bytes.length);
+            methods.writeShort(code.getMaxStack());
+            methods.writeShort(code.getMaxLocals());
+            methods.writeInt(bytes.length);
+            methods.write(bytes);
+            methods.writeShort(0);
+            methods.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methodCount++;
+    }
+
+    /**
+     * Returns the bytes of the finished class file.
+     */
+    byte[] toByteArray() {
+        int thisClass = classRef(name);
+        int superClass = classRef("java/lang/Object");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(fieldCount);
+            memberBytes.writeTo(out);
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+            out.writeShort(0);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,1057 @@
+package com.code.mycode.jvm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.code.mycode.entities.ArrayAggregate;
+import com.code.mycode.entities.ArrayType;
+import com.code.mycode.entities.AssignmentStatement;
+import com.code.mycode.entities.Block;
+import com.code.mycode.entities.BooleanLiteral;
+import com.code.mycode.entities.BreakStatement;
+import com.code.mycode.entities.CallExpression;
+import com.code.mycode.entities.CallStatement;
+import com.code.mycode.entities.Case;
+import com.code.mycode.entities.CharLiteral;
+import com.code.mycode.entities.ClassicForStatement;
+import com.code.mycode.entities.Declarable;
+import com.code.mycode.entities.Declaration;
+import com.code.mycode.entities.DottedVariable;
+import com.code.mycode.entities.EmptyArray;
+import com.code.mycode.entities.Expression;
+import com.code.mycode.entities.ExpressionRewriter;
+import com.code.mycode.entities.FrameLayout;
+import com.code.mycode.entities.FrameResolver;
+import com.code.mycode.entities.Function;
+import com.code.mycode.entities.IfStatement;
+import com.code.mycode.entities.IncrementStatement;
+import com.code.mycode.entities.InfixExpression;
+import com.code.mycode.entities.IntegerLiteral;
+import com.code.mycode.entities.NullLiteral;
+import com.code.mycode.entities.PostfixExpression;
+import com.code.mycode.entities.PrefixExpression;
+import com.code.mycode.entities.PrintStatement;
+import com.code.mycode.entities.Program;
+import com.code.mycode.entities.RealLiteral;
+import com.code.mycode.entities.ReturnStatement;
+import com.code.mycode.entities.SimpleVariableReference;
+import com.code.mycode.entities.Statement;
+import com.code.mycode.entities.StringLiteral;
+import com.code.mycode.entities.StructAggregate;
+import com.code.mycode.entities.StructField;
+import com.code.mycode.entities.StructType;
+import com.code.mycode.entities.SubscriptedVariable;
+import com.code.mycode.entities.TailCallStatement;
+import com.code.mycode.entities.Type;
+import com.code.mycode.entities.Variable;
+import com.code.mycode.entities.VariableExpression;
+import com.code.mycode.entities.WhileStatement;
+import com.code.mycode.interpreter.RuntimeType;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Compiles an analyzed program into a single JVM class, so that the JIT compiler of the
+ * running virtual machine can compile its hot code to machine code.  The top level of the
+ * program becomes a static method named main, and every function, nested or not, a static
+ * method of its own.
+ *
+ * Ints, chars and booleans are JVM ints, and reals JVM doubles, held in local variables of the
+ * methods.  Only variables that nested functions refer to live anywhere else: those are kept in
+ * frames like the interpreter's, which functions declaring nested functions create on entry,
+ * and which every function receives the frame of its static parent as its first argument to
+ * reach.  Arrays, structs and strings are represented as in the interpreter, so printing and
+ * conversion to string are shared with it through Support.
+ */
+public class ClassGenerator {
+
+    static final String CLASS_NAME = "MyCodeProgram";
+    static final String SUPPORT_FIELD = "support";
+    static final String MAIN_METHOD = "main";
+
+    private static final String FRAME = "com/code/mycode/interpreter/Frame";
+    private static final String FRAME_DESCRIPTOR = "L" + FRAME + ";";
+    private static final String STRING = "java/lang/String";
+    private static final String STRING_DESCRIPTOR = "Ljava/lang/String;";
+    private static final String OBJECT_DESCRIPTOR = "Ljava/lang/Object;";
+
+    private static final ImmutableMap<String, Integer> INT_OPS = ImmutableMap.<String, Integer>builder()
+        .put("+", Code.IADD).put("-", Code.ISUB).put("*", Code.IMUL).put("/", Code.IDIV).put("%", Code.IREM)
+        .put("<<", Code.ISHL).put(">>", Code.ISHR).put("&", Code.IAND).put("|", Code.IOR).put("^", Code.IXOR)
+        .build();
+
+    private static final ImmutableMap<String, Integer> REAL_OPS = ImmutableMap.of(
+        "+", Code.DADD, "-", Code.DSUB, "*", Code.DMUL, "/", Code.DDIV);
+
+    // Comparison jumps, in the order ==, !=, <, <=, >, >=
+    private static final List<String> COMPARISONS = Arrays.asList("==", "!=", "<", "<=", ">", ">=");
+    private static final int[] INT_JUMPS = {
+        Code.IF_ICMPEQ, Code.IF_ICMPNE, Code.IF_ICMPLT, Code.IF_ICMPLE, Code.IF_ICMPGT, Code.IF_ICMPGE};
+    private static final int[] NEGATED_INT_JUMPS = {
+        Code.IF_ICMPNE, Code.IF_ICMPEQ, Code.IF_ICMPGE, Code.IF_ICMPGT, Code.IF_ICMPLE, Code.IF_ICMPLT};
+    private static final int[] ZERO_JUMPS = {Code.IFEQ, Code.IFNE, Code.IFLT, Code.IFLE, Code.IFGT, Code.IFGE};
+    private static final int[] NEGATED_ZERO_JUMPS = {Code.IFNE, Code.IFEQ, Code.IFGE, Code.IFGT, Code.IFLE, Code.IFLT};
+
+    private ClassFile classFile = new ClassFile(CLASS_NAME);
+    private List<Function> functions = new ArrayList<Function>();
+    private Map<Function, String> methodNames = new HashMap<Function, String>();
+    private Set<Variable> captured = new HashSet<Variable>();
+    private Set<Block> withFrames = new HashSet<Block>();
+    private Map<Type, RuntimeType> runtimeTypes = new HashMap<Type, RuntimeType>();
+    private List<RuntimeType> types = new ArrayList<RuntimeType>();
+
+    /**
+     * Compiles the given program, which must have been analyzed without errors.
+     */
+    public static GeneratedProgram generate(Program program) {
+        return new ClassGenerator().generateProgram(program);
+    }
+
+    private GeneratedProgram generateProgram(Program program) {
+        FrameResolver.resolve(program);
+        scan(program, 0);
+        classFile.addField(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, SUPPORT_FIELD, Support.DESCRIPTOR);
+        new MethodGenerator(null, program, 0).generate();
+        for (Function f: functions) {
+            new MethodGenerator(f, f.getBody(), f.getFrameLayout().getLevel()).generate();
+        }
+        return new GeneratedProgram(CLASS_NAME, classFile.toByteArray(),
+            types.toArray(new RuntimeType[types.size()]));
+    }
+
+    /**
+     * Finds the functions declared in a block, outside of nested functions, the variables of
+     * enclosing functions the block refers to, and whether the block needs a frame for
+     * functions nested in it.  Then does the same for each nested function.
+     */
+    private void scan(final Block body, final int level) {
+        final List<Function> nested = new ArrayList<Function>();
+        final ExpressionRewriter rewriter = new ExpressionRewriter() {
+            @Override
+            public boolean entersFunctions() {
+                return false;
+            }
+
+            @Override
+            public void visitStatement(Statement s) {
+                if (s instanceof Declaration) {
+                    Declarable d = Declaration.class.cast(s).getDeclarable();
+                    if (d instanceof Function && Function.class.cast(d).getBody() != null) {
+                        nested.add(Function.class.cast(d));
+                    }
+                } else if (s instanceof ClassicForStatement) {
+                    // Initializers of derived variables are not otherwise visited
+                    for (Variable v: ClassicForStatement.class.cast(s).getDerivedVariables()) {
+                        rewriteExpression(v.getInitializer());
+                    }
+                }
+            }
+
+            @Override
+            public Expression rewrite(Expression e) {
+                note(e);
+                return e;
+            }
+
+            @Override
+            public void written(VariableExpression target) {
+                note(target);
+            }
+
+            private void note(Expression e) {
+                if (e instanceof SimpleVariableReference) {
+                    Variable v = SimpleVariableReference.class.cast(e).getReferent();
+                    if (v.getFrameLevel() < level) {
+                        captured.add(v);
+                    }
+                }
+            }
+        };
+        rewriter.rewriteBlock(body);
+
+        if (!nested.isEmpty()) {
+            withFrames.add(body);
+        }
+        for (Function f: nested) {
+            methodNames.put(f, f.getName() + "$" + functions.size());
+            functions.add(f);
+            scan(f.getBody(), level + 1);
+        }
+    }
+
+    private int typeIndex(Type type) {
+        RuntimeType runtimeType = RuntimeType.of(type, runtimeTypes);
+        int index = types.indexOf(runtimeType);
+        if (index < 0) {
+            index = types.size();
+            types.add(runtimeType);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the kind of local variable holding a value of the given type: 'I', 'D' or 'A'.
+     */
+    private static char kindOf(Type type) {
+        switch (FrameLayout.kindOf(type)) {
+        case LONG:
+            return 'I';
+        case DOUBLE:
+            return 'D';
+        default:
+            return 'A';
+        }
+    }
+
+    private static String descriptor(Type type) {
+        switch (FrameLayout.kindOf(type)) {
+        case LONG:
+            return "I";
+        case DOUBLE:
+            return "D";
+        default:
+            if (type == Type.STRING) {
+                return STRING_DESCRIPTOR;
+            } else if (type instanceof StructType) {
+                return FRAME_DESCRIPTOR;
+            } else if (type instanceof ArrayType) {
+                switch (FrameLayout.kindOf(ArrayType.class.cast(type).getBaseType())) {
+                case LONG:
+                    return "[J";
+                case DOUBLE:
+                    return "[D";
+                default:
+                    return "[" + OBJECT_DESCRIPTOR;
+                }
+            }
+            return OBJECT_DESCRIPTOR;
+        }
+    }
+
+    private String methodDescriptor(Function f) {
+        StringBuilder builder = new StringBuilder("(").append(FRAME_DESCRIPTOR);
+        for (Variable parameter: f.getParameters()) {
+            builder.append(descriptor(parameter.getType()));
+        }
+        return builder.append(')').append(f.isVoid() ? "V" : descriptor(f.getReturnType())).toString();
+    }
+
+    /**
+     * Generates the method for the top level of a program or for one function.
+     */
+    private class MethodGenerator {
+
+        private Function function;
+        private Block body;
+        private int level;
+        private Code code;
+        private Map<Variable, Integer> locals = new HashMap<Variable, Integer>();
+        private int frame = -1;
+        private Code.Label start;
+        private LinkedList<Code.Label> breaks = new LinkedList<Code.Label>();
+
+        MethodGenerator(Function function, Block body, int level) {
+            this.function = function;
+            this.body = body;
+            this.level = level;
+            int slots = 0;
+            if (function != null) {
+                // The frame of the static parent comes first
+                slots = 1;
+                for (Variable parameter: function.getParameters()) {
+                    locals.put(parameter, slots);
+                    slots += kindOf(parameter.getType()) == 'D' ? 2 : 1;
+                }
+            }
+            code = new Code(classFile, slots);
+        }
+
+        void generate() {
+            start = code.newLabel();
+            code.mark(start);
+            if (withFrames.contains(body)) {
+                makeFrame();
+            }
+            compileBlock(body);
+            code.setStack(0);
+
+            if (function == null) {
+                code.op(Code.RETURN);
+                classFile.addMethod(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, MAIN_METHOD, "()V", code);
+                return;
+            }
+            // Falling off the end of a function returns the default value of its type
+            if (function.isVoid()) {
+                code.op(Code.RETURN);
+            } else if (kindOf(function.getReturnType()) == 'I') {
+                code.iconst(0);
+                code.op(Code.IRETURN);
+            } else if (kindOf(function.getReturnType()) == 'D') {
+                code.dconst(0.0);
+                code.op(Code.DRETURN);
+            } else {
+                code.op(Code.ACONST_NULL);
+                code.op(Code.ARETURN);
+            }
+            classFile.addMethod(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, methodNames.get(function),
+                methodDescriptor(function), code);
+        }
+
+        /**
+         * Creates the frame holding the variables nested functions refer to, and copies the
+         * parameters among them into it.
+         */
+        private void makeFrame() {
+            FrameLayout layout = function == null
+                ? Program.class.cast(body).getFrameLayout() : function.getFrameLayout();
+            code.newObject(FRAME);
+            code.op(Code.DUP);
+            code.iconst(layout.getLongs());
+            code.iconst(layout.getDoubles());
+            code.iconst(layout.getObjects());
+            if (function == null) {
+                code.op(Code.ACONST_NULL);
+            } else {
+                code.load('A', 0);
+            }
+            code.iconst(level);
+            code.invokespecial(FRAME, "<init>", "(IIIL" + FRAME + ";I)V");
+            frame = code.newLocal(1);
+            code.store('A', frame);
+
+            if (function != null) {
+                for (Variable parameter: function.getParameters()) {
+                    if (captured.contains(parameter)) {
+                        beginStore(parameter);
+                        code.load(kindOf(parameter.getType()), locals.get(parameter));
+                        endStore(parameter);
+                    }
+                }
+            }
+        }
+
+        // Variables
+
+        /**
+         * Pushes the frame of the function at the given level, reached from this one.
+         */
+        private void loadFrame(int frameLevel) {
+            if (frameLevel == level) {
+                code.load('A', frame);
+                return;
+            }
+            code.load('A', 0);
+            for (int i = level - 1; i > frameLevel; i--) {
+                code.getfield(FRAME, "parent", FRAME_DESCRIPTOR);
+            }
+        }
+
+        private void loadSlotArray(char kind) {
+            if (kind == 'I') {
+                code.getfield(FRAME, "longs", "[J");
+            } else if (kind == 'D') {
+                code.getfield(FRAME, "doubles", "[D");
+            } else {
+                code.getfield(FRAME, "objects", "[" + OBJECT_DESCRIPTOR);
+            }
+        }
+
+        /**
+         * Loads an element of a long, double or object array, whose reference and index are on
+         * the stack, leaving a value of the given type.
+         */
+        private void loadElement(Type type) {
+            char kind = kindOf(type);
+            if (kind == 'I') {
+                code.op(Code.LALOAD);
+                code.op(Code.L2I);
+            } else if (kind == 'D') {
+                code.op(Code.DALOAD);
+            } else {
+                code.op(Code.AALOAD);
+                castTo(type);
+            }
+        }
+
+        /**
+         * Stores a value of the given type into an element of a long, double or object array,
+         * the array and index being beneath the value on the stack.
+         */
+        private void storeElement(Type type) {
+            char kind = kindOf(type);
+            if (kind == 'I') {
+                code.op(Code.I2L);
+                code.op(Code.LASTORE);
+            } else if (kind == 'D') {
+                code.op(Code.DASTORE);
+            } else {
+                code.op(Code.AASTORE);
+            }
+        }
+
+        private void castTo(Type type) {
+            String descriptor = descriptor(type);
+            if (descriptor.startsWith("[")) {
+                code.checkcast(descriptor);
+            } else if (!descriptor.equals(OBJECT_DESCRIPTOR)) {
+                code.checkcast(descriptor.substring(1, descriptor.length() - 1));
+            }
+        }
+
+        private int local(Variable v) {
+            Integer local = locals.get(v);
+            if (local == null) {
+                local = code.newLocal(kindOf(v.getType()) == 'D' ? 2 : 1);
+                locals.put(v, local);
+            }
+            return local;
+        }
+
+        private void loadVariable(Variable v) {
+            if (captured.contains(v)) {
+                loadFrame(v.getFrameLevel());
+                loadSlotArray(kindOf(v.getType()));
+                code.iconst(v.getFrameSlot());
+                loadElement(v.getType());
+            } else {
+                code.load(kindOf(v.getType()), local(v));
+            }
+        }
+
+        /**
+         * Starts a store into a variable, pushing what goes beneath the value.  The value and
+         * endStore follow.
+         */
+        private void beginStore(Variable v) {
+            if (captured.contains(v)) {
+                loadFrame(v.getFrameLevel());
+                loadSlotArray(kindOf(v.getType()));
+                code.iconst(v.getFrameSlot());
+            }
+        }
+
+        private void endStore(Variable v) {
+            if (captured.contains(v)) {
+                storeElement(v.getType());
+            } else {
+                code.store(kindOf(v.getType()), local(v));
+            }
+        }
+
+        // Statements
+
+        private void compileBlock(Block block) {
+            for (Statement s: block.getStatements()) {
+                code.setStack(0);
+                compileStatement(s);
+            }
+        }
+
+        private void compileStatement(Statement s) {
+            if (s instanceof AssignmentStatement) {
+                AssignmentStatement a = AssignmentStatement.class.cast(s);
+                assign(a.getLeft(), a.getRight());
+
+            } else if (s instanceof IncrementStatement) {
+                IncrementStatement i = IncrementStatement.class.cast(s);
+                increment(i.getTarget(), "++".equals(i.getOp()) ? 1 : -1, true, false);
+
+            } else if (s instanceof CallStatement) {
+                CallStatement c = CallStatement.class.cast(s);
+                compileCall(c.getFunction(), c.getArgs());
+                if (!c.getFunction().isVoid()) {
+                    code.op(kindOf(c.getFunction().getReturnType()) == 'D' ? Code.POP2 : Code.POP);
+                }
+
+            } else if (s instanceof IfStatement) {
+                IfStatement i = IfStatement.class.cast(s);
+                Code.Label end = code.newLabel();
+                List<Case> cases = i.getCases();
+                for (int c = 0; c < cases.size(); c++) {
+                    Code.Label otherwise = code.newLabel();
+                    branch(cases.get(c).getCondition(), false, otherwise);
+                    compileBlock(cases.get(c).getBody());
+                    if (c < cases.size() - 1 || i.getElsePart() != null) {
+                        code.jump(Code.GOTO, end);
+                    }
+                    code.mark(otherwise);
+                }
+                if (i.getElsePart() != null) {
+                    compileBlock(i.getElsePart());
+                }
+                code.mark(end);
+
+            } else if (s instanceof WhileStatement) {
+                WhileStatement w = WhileStatement.class.cast(s);
+                compileLoop(w.getCondition(), w.getBody(), null);
+
+            } else if (s instanceof ClassicForStatement) {
+                ClassicForStatement f = ClassicForStatement.class.cast(s);
+                if (f.getIndexVariable() != null) {
+                    initialize(f.getIndexVariable());
+                    for (Variable v: f.getDerivedVariables()) {
+                        initialize(v);
+                    }
+                } else if (f.getInit() != null) {
+                    compile(f.getInit().getType(), f.getInit());
+                    code.op(kindOf(f.getInit().getType()) == 'D' ? Code.POP2 : Code.POP);
+                }
+                compileLoop(f.getTest(), f.getBody(), f);
+
+            } else if (s instanceof ReturnStatement) {
+                Expression e = ReturnStatement.class.cast(s).getReturnExpression();
+                if (e == null) {
+                    code.op(Code.RETURN);
+                } else {
+                    Type type = function.getReturnType();
+                    compile(type, e);
+                    char kind = kindOf(type);
+                    code.op(kind == 'I' ? Code.IRETURN : kind == 'D' ? Code.DRETURN : Code.ARETURN);
+                }
+
+            } else if (s instanceof TailCallStatement) {
+                // All arguments are evaluated before any parameter changes
+                List<Variable> parameters = function.getParameters();
+                List<Expression> args = TailCallStatement.class.cast(s).getArgs();
+                for (int i = 0; i < args.size(); i++) {
+                    compile(parameters.get(i).getType(), args.get(i));
+                }
+                for (int i = args.size() - 1; i >= 0; i--) {
+                    code.store(kindOf(parameters.get(i).getType()), locals.get(parameters.get(i)));
+                }
+                code.jump(Code.GOTO, start);
+
+            } else if (s instanceof BreakStatement) {
+                code.jump(Code.GOTO, breaks.peek());
+
+            } else if (s instanceof PrintStatement) {
+                for (Expression e: PrintStatement.class.cast(s).getArgs()) {
+                    code.getstatic(CLASS_NAME, SUPPORT_FIELD, Support.DESCRIPTOR);
+                    compile(e.getType(), e);
+                    char kind = kindOf(e.getType());
+                    if (kind == 'I') {
+                        code.iconst(typeIndex(e.getType()));
+                        code.invokevirtual(Support.NAME, "print", "(II)V");
+                    } else if (kind == 'D') {
+                        code.invokevirtual(Support.NAME, "print", "(D)V");
+                    } else {
+                        code.iconst(typeIndex(e.getType()));
+                        code.invokevirtual(Support.NAME, "print", "(" + OBJECT_DESCRIPTOR + "I)V");
+                    }
+                }
+
+            } else if (s instanceof Declaration) {
+                Declarable d = Declaration.class.cast(s).getDeclarable();
+                if (d instanceof Variable) {
+                    initialize(Variable.class.cast(d));
+                }
+
+            } else {
+                throw new RuntimeException("Unknown entity class: " + s.getClass().getName());
+            }
+        }
+
+        /**
+         * Compiles a while loop, or the loop part of a for statement, with the test at the
+         * bottom.  A missing test is always true.
+         */
+        private void compileLoop(Expression test, Block loopBody, ClassicForStatement updates) {
+            Code.Label top = code.newLabel();
+            Code.Label bottom = code.newLabel();
+            Code.Label exit = code.newLabel();
+            code.jump(Code.GOTO, bottom);
+            code.mark(top);
+            breaks.push(exit);
+            compileBlock(loopBody);
+            if (updates != null) {
+                if (updates.getEach() != null) {
+                    code.setStack(0);
+                    compileStatement(updates.getEach());
+                }
+                for (AssignmentStatement update: updates.getDerivedUpdates()) {
+                    code.setStack(0);
+                    compileStatement(update);
+                }
+            }
+            breaks.pop();
+            code.setStack(0);
+            code.mark(bottom);
+            if (test == null) {
+                code.jump(Code.GOTO, top);
+            } else {
+                branch(test, true, top);
+            }
+            code.mark(exit);
+        }
+
+        /**
+         * Sets a variable to its initializer, or to the default for its type.
+         */
+        private void initialize(Variable v) {
+            beginStore(v);
+            Expression initializer = v.getInitializer();
+            if (initializer != null) {
+                compile(v.getType(), initializer);
+            } else if (kindOf(v.getType()) == 'I') {
+                code.iconst(0);
+            } else if (kindOf(v.getType()) == 'D') {
+                code.dconst(0.0);
+            } else if (v.getType() == Type.STRING) {
+                code.sconst("");
+            } else {
+                code.op(Code.ACONST_NULL);
+            }
+            endStore(v);
+        }
+
+        private void assign(VariableExpression target, Expression value) {
+            Type type = target.getType();
+            if (target instanceof SimpleVariableReference) {
+                Variable v = SimpleVariableReference.class.cast(target).getReferent();
+                beginStore(v);
+                compile(type, value);
+                endStore(v);
+            } else if (target instanceof SubscriptedVariable) {
+                pushElement(SubscriptedVariable.class.cast(target));
+                compile(type, value);
+                storeElement(type);
+            } else if (target instanceof DottedVariable) {
+                pushField(DottedVariable.class.cast(target));
+                compile(type, value);
+                storeElement(type);
+            } else {
+                throw new RuntimeException("Unknown variable expression class: " + target.getClass().getName());
+            }
+        }
+
+        /**
+         * Pushes an array and a checked index into it.
+         */
+        private void pushElement(SubscriptedVariable s) {
+            compileObject(s.getSequence());
+            code.op(Code.DUP);
+            code.op(Code.ARRAYLENGTH);
+            compileInt(s.getIndex());
+            checkIndex();
+        }
+
+        /**
+         * Pushes the slot array of a record holding a field, and the field's slot.
+         */
+        private void pushField(DottedVariable d) {
+            compileObject(d.getStruct());
+            loadSlotArray(kindOf(d.getType()));
+            code.iconst(d.getField().getFrameSlot());
+        }
+
+        /**
+         * Checks the index on top of the stack against the length beneath it, leaving just the
+         * index.
+         */
+        private void checkIndex() {
+            code.op(Code.SWAP);
+            code.invokestatic(Support.NAME, "checkIndex", "(II)I");
+        }
+
+        /**
+         * Adds delta to an int variable.  If the value is wanted, pushes the new value if
+         * prefix is true, or the old value otherwise.
+         */
+        private void increment(VariableExpression target, int delta, boolean prefix, boolean wanted) {
+            if (target instanceof SimpleVariableReference
+                    && !captured.contains(SimpleVariableReference.class.cast(target).getReferent())) {
+                int local = local(SimpleVariableReference.class.cast(target).getReferent());
+                if (wanted && !prefix) {
+                    code.load('I', local);
+                }
+                code.iinc(local, delta);
+                if (wanted && prefix) {
+                    code.load('I', local);
+                }
+                return;
+            }
+
+            if (target instanceof SimpleVariableReference) {
+                Variable v = SimpleVariableReference.class.cast(target).getReferent();
+                beginStore(v);
+            } else if (target instanceof SubscriptedVariable) {
+                pushElement(SubscriptedVariable.class.cast(target));
+            } else {
+                pushField(DottedVariable.class.cast(target));
+            }
+            // The long array and index are on the stack
+            code.op(Code.DUP2);
+            code.op(Code.LALOAD);
+            code.op(Code.L2I);
+            if (wanted && !prefix) {
+                code.op(Code.DUP_X2);
+            }
+            code.iconst(delta);
+            code.op(Code.IADD);
+            if (wanted && prefix) {
+                code.op(Code.DUP_X2);
+            }
+            code.op(Code.I2L);
+            code.op(Code.LASTORE);
+        }
+
+        /**
+         * Pushes the arguments of a call and makes it, leaving the result, if any, on the stack.
+         */
+        private void compileCall(Function f, List<Expression> args) {
+            if (f.getBody() == null) {
+                compileBuiltInCall(f, args);
+                return;
+            }
+            loadFrame(f.getFrameLayout().getLevel() - 1);
+            List<Variable> parameters = f.getParameters();
+            for (int i = 0; i < args.size(); i++) {
+                compile(parameters.get(i).getType(), args.get(i));
+            }
+            code.invokestatic(CLASS_NAME, methodNames.get(f), methodDescriptor(f));
+        }
+
+        private void compileBuiltInCall(Function f, List<Expression> args) {
+            if (f == Function.PI) {
+                code.dconst(Math.PI);
+            } else if (f == Function.SUBSTRING) {
+                compileObject(args.get(0));
+                compileInt(args.get(1));
+                compileInt(args.get(2));
+                code.invokestatic(Support.NAME, "substring", "(" + STRING_DESCRIPTOR + "II)" + STRING_DESCRIPTOR);
+            } else if (f == Function.GET_STRING) {
+                code.getstatic(CLASS_NAME, SUPPORT_FIELD, Support.DESCRIPTOR);
+                code.invokevirtual(Support.NAME, "readInput", "()" + STRING_DESCRIPTOR);
+            } else if (f == Function.ATAN) {
+                compileDouble(args.get(0));
+                compileDouble(args.get(1));
+                code.invokestatic("java/lang/StrictMath", "atan2", "(DD)D");
+            } else {
+                compileDouble(args.get(0));
+                String name = f == Function.SQRT ? "sqrt" : f == Function.SIN ? "sin" : f == Function.COS ? "cos" : "log";
+                code.invokestatic("java/lang/StrictMath", name, "(D)D");
+            }
+        }
+
+        // Expressions
+
+        /**
+         * Pushes the value of an expression as a value of the given type, which differs from
+         * the expression's own only in that an int may be wanted as a real.
+         */
+        private void compile(Type type, Expression e) {
+            switch (kindOf(type)) {
+            case 'I':
+                compileInt(e);
+                break;
+            case 'D':
+                compileDouble(e);
+                break;
+            default:
+                compileObject(e);
+            }
+        }
+
+        /**
+         * Pushes the value of an expression of type int, char or boolean.
+         */
+        private void compileInt(Expression e) {
+            if (e instanceof SimpleVariableReference) {
+                loadVariable(SimpleVariableReference.class.cast(e).getReferent());
+            } else if (e instanceof IntegerLiteral) {
+                code.iconst(IntegerLiteral.class.cast(e).getValue());
+            } else if (e instanceof CharLiteral) {
+                code.iconst(CharLiteral.class.cast(e).getValue());
+            } else if (e instanceof BooleanLiteral) {
+                code.iconst(e == BooleanLiteral.TRUE ? 1 : 0);
+            } else if (e instanceof InfixExpression) {
+                InfixExpression i = InfixExpression.class.cast(e);
+                Integer op = INT_OPS.get(i.getOp());
+                if (op == null) {
+                    compileCondition(e);
+                } else {
+                    compileInt(i.getLeft());
+                    compileInt(i.getRight());
+                    code.op(op);
+                }
+            } else if (e instanceof SubscriptedVariable) {
+                SubscriptedVariable s = SubscriptedVariable.class.cast(e);
+                if (s.getSequence().getType() == Type.STRING) {
+                    compileObject(s.getSequence());
+                    code.op(Code.DUP);
+                    code.invokevirtual(STRING, "length", "()I");
+                    compileInt(s.getIndex());
+                    checkIndex();
+                    code.invokevirtual(STRING, "charAt", "(I)C");
+                } else {
+                    pushElement(s);
+                    loadElement(e.getType());
+                }
+            } else if (e instanceof DottedVariable) {
+                pushField(DottedVariable.class.cast(e));
+                loadElement(e.getType());
+            } else if (e instanceof CallExpression) {
+                CallExpression c = CallExpression.class.cast(e);
+                compileCall(c.getFunction(), c.getArgs());
+            } else if (e instanceof PostfixExpression) {
+                PostfixExpression p = PostfixExpression.class.cast(e);
+                increment(p.getOperand(), "++".equals(p.getOp()) ? 1 : -1, false, true);
+            } else if (e instanceof PrefixExpression) {
+                PrefixExpression p = PrefixExpression.class.cast(e);
+                String op = p.getOp();
+                if ("++".equals(op) || "--".equals(op)) {
+                    VariableExpression operand = VariableExpression.class.cast(p.getOperand());
+                    increment(operand, "++".equals(op) ? 1 : -1, true, true);
+                } else if ("int".equals(op) || "char".equals(op)) {
+                    compileInt(p.getOperand());
+                } else if ("!".equals(op)) {
+                    compileCondition(e);
+                } else if ("-".equals(op)) {
+                    compileInt(p.getOperand());
+                    code.op(Code.INEG);
+                } else if ("~".equals(op)) {
+                    compileInt(p.getOperand());
+                    code.iconst(-1);
+                    code.op(Code.IXOR);
+                } else if ("length".equals(op)) {
+                    compileObject(p.getOperand());
+                    if (p.getOperand().getType() == Type.STRING) {
+                        code.invokevirtual(STRING, "length", "()I");
+                    } else {
+                        code.op(Code.ARRAYLENGTH);
+                    }
+                } else {
+                    throw new RuntimeException("Unknown prefix operator: " + op);
+                }
+            } else {
+                throw new RuntimeException("Unknown entity class: " + e.getClass().getName());
+            }
+        }
+
+        /**
+         * Pushes 1 or 0 for a boolean expression compiled through jumps.
+         */
+        private void compileCondition(Expression e) {
+            Code.Label otherwise = code.newLabel();
+            Code.Label end = code.newLabel();
+            branch(e, false, otherwise);
+            code.iconst(1);
+            code.jump(Code.GOTO, end);
+            code.mark(otherwise);
+            code.setStack(code.getStack() - 1);
+            code.iconst(0);
+            code.mark(end);
+        }
+
+        /**
+         * Compiles a boolean expression so as to jump to the label when its value is the given
+         * one, and to fall through otherwise.
+         */
+        private void branch(Expression e, boolean when, Code.Label label) {
+            if (e instanceof InfixExpression) {
+                InfixExpression i = InfixExpression.class.cast(e);
+                String op = i.getOp();
+                boolean and = "&&".equals(op);
+                if (and || "||".equals(op)) {
+                    if (and != when) {
+                        // Either operand alone decides
+                        branch(i.getLeft(), when, label);
+                        branch(i.getRight(), when, label);
+                    } else {
+                        Code.Label skip = code.newLabel();
+                        branch(i.getLeft(), !when, skip);
+                        branch(i.getRight(), when, label);
+                        code.mark(skip);
+                    }
+                    return;
+                }
+                int comparison = COMPARISONS.indexOf(op);
+                if (comparison >= 0) {
+                    branchOnComparison(comparison, i.getLeft(), i.getRight(), when, label);
+                    return;
+                }
+            } else if (e instanceof PrefixExpression && "!".equals(PrefixExpression.class.cast(e).getOp())) {
+                branch(PrefixExpression.class.cast(e).getOperand(), !when, label);
+                return;
+            } else if (e instanceof BooleanLiteral) {
+                if ((e == BooleanLiteral.TRUE) == when) {
+                    code.jump(Code.GOTO, label);
+                }
+                return;
+            }
+            compileInt(e);
+            code.jump(when ? Code.IFNE : Code.IFEQ, label);
+        }
+
+        /**
+         * Compiles a comparison to a jump.  Reals and ints compare numerically, strings by their
+         * UTF-16 code units or by value, and arrays and structs by identity.
+         */
+        private void branchOnComparison(int comparison, Expression left, Expression right,
+                boolean when, Code.Label label) {
+            Type leftType = left.getType();
+            Type rightType = right.getType();
+            if (leftType == Type.REAL || rightType == Type.REAL) {
+                compileDouble(left);
+                compileDouble(right);
+                // With dcmpg, NaN compares greater, and with dcmpl less, so that it is unordered
+                String op = COMPARISONS.get(comparison);
+                code.op("<".equals(op) || "<=".equals(op) ? Code.DCMPG : Code.DCMPL);
+                code.jump(when ? ZERO_JUMPS[comparison] : NEGATED_ZERO_JUMPS[comparison], label);
+            } else if (kindOf(leftType) == 'I') {
+                compileInt(left);
+                compileInt(right);
+                code.jump(when ? INT_JUMPS[comparison] : NEGATED_INT_JUMPS[comparison], label);
+            } else if (comparison < 2) {
+                boolean equal = comparison == 0;
+                compileObject(left);
+                compileObject(right);
+                if (leftType == Type.STRING || rightType == Type.STRING) {
+                    code.invokestatic(Support.NAME, "same", "(" + OBJECT_DESCRIPTOR + OBJECT_DESCRIPTOR + ")Z");
+                    code.jump(equal == when ? Code.IFNE : Code.IFEQ, label);
+                } else {
+                    code.jump(equal == when ? Code.IF_ACMPEQ : Code.IF_ACMPNE, label);
+                }
+            } else {
+                compileObject(left);
+                compileObject(right);
+                code.invokevirtual(STRING, "compareTo", "(" + STRING_DESCRIPTOR + ")I");
+                code.jump(when ? ZERO_JUMPS[comparison] : NEGATED_ZERO_JUMPS[comparison], label);
+            }
+        }
+
+        /**
+         * Pushes the value of an expression of type real, or of type int where a real is
+         * expected.
+         */
+        private void compileDouble(Expression e) {
+            if (e.getType() != Type.REAL) {
+                compileInt(e);
+                code.op(Code.I2D);
+            } else if (e instanceof SimpleVariableReference) {
+                loadVariable(SimpleVariableReference.class.cast(e).getReferent());
+            } else if (e instanceof RealLiteral) {
+                code.dconst(RealLiteral.class.cast(e).getValue());
+            } else if (e instanceof InfixExpression) {
+                InfixExpression i = InfixExpression.class.cast(e);
+                compileDouble(i.getLeft());
+                compileDouble(i.getRight());
+                code.op(REAL_OPS.get(i.getOp()));
+            } else if (e instanceof PrefixExpression) {
+                compileDouble(PrefixExpression.class.cast(e).getOperand());
+                code.op(Code.DNEG);
+            } else if (e instanceof SubscriptedVariable) {
+                pushElement(SubscriptedVariable.class.cast(e));
+                loadElement(e.getType());
+            } else if (e instanceof DottedVariable) {
+                pushField(DottedVariable.class.cast(e));
+                loadElement(e.getType());
+            } else if (e instanceof CallExpression) {
+                CallExpression c = CallExpression.class.cast(e);
+                compileCall(c.getFunction(), c.getArgs());
+            } else {
+                throw new RuntimeException("Unknown entity class: " + e.getClass().getName());
+            }
+        }
+
+        /**
+         * Pushes the value of an expression of a reference type.
+         */
+        private void compileObject(Expression e) {
+            if (e instanceof SimpleVariableReference) {
+                loadVariable(SimpleVariableReference.class.cast(e).getReferent());
+            } else if (e instanceof StringLiteral) {
+                StringBuilder builder = new StringBuilder();
+                for (int codepoint: StringLiteral.class.cast(e).getValues()) {
+                    builder.appendCodePoint(codepoint);
+                }
+                code.sconst(builder.toString());
+            } else if (e instanceof NullLiteral) {
+                code.op(Code.ACONST_NULL);
+            } else if (e instanceof SubscriptedVariable) {
+                pushElement(SubscriptedVariable.class.cast(e));
+                loadElement(e.getType());
+            } else if (e instanceof DottedVariable) {
+                pushField(DottedVariable.class.cast(e));
+                loadElement(e.getType());
+            } else if (e instanceof CallExpression) {
+                CallExpression c = CallExpression.class.cast(e);
+                compileCall(c.getFunction(), c.getArgs());
+            } else if (e instanceof EmptyArray) {
+                EmptyArray a = EmptyArray.class.cast(e);
+                compileInt(a.getBound());
+                newArray(ArrayType.class.cast(a.getType()).getBaseType());
+            } else if (e instanceof ArrayAggregate) {
+                ArrayAggregate a = ArrayAggregate.class.cast(e);
+                Type base = ArrayType.class.cast(a.getType()).getBaseType();
+                code.iconst(a.getArgs().size());
+                newArray(base);
+                for (int i = 0; i < a.getArgs().size(); i++) {
+                    code.op(Code.DUP);
+                    code.iconst(i);
+                    compile(base, a.getArgs().get(i));
+                    storeElement(base);
+                }
+            } else if (e instanceof StructAggregate) {
+                StructAggregate a = StructAggregate.class.cast(e);
+                List<StructField> fields = StructType.class.cast(a.getType()).getFields();
+                code.getstatic(CLASS_NAME, SUPPORT_FIELD, Support.DESCRIPTOR);
+                code.iconst(typeIndex(a.getType()));
+                code.invokevirtual(Support.NAME, "newRecord", "(I)" + FRAME_DESCRIPTOR);
+                for (int i = 0; i < fields.size(); i++) {
+                    Type type = fields.get(i).getType();
+                    code.op(Code.DUP);
+                    loadSlotArray(kindOf(type));
+                    code.iconst(fields.get(i).getFrameSlot());
+                    compile(type, a.getArgs().get(i));
+                    storeElement(type);
+                }
+            } else if (e instanceof PrefixExpression) {
+                // The only prefix operator giving an object is string
+                Expression operand = PrefixExpression.class.cast(e).getOperand();
+                char kind = kindOf(operand.getType());
+                code.getstatic(CLASS_NAME, SUPPORT_FIELD, Support.DESCRIPTOR);
+                compile(operand.getType(), operand);
+                if (kind == 'I') {
+                    code.iconst(typeIndex(operand.getType()));
+                    code.invokevirtual(Support.NAME, "json", "(II)" + STRING_DESCRIPTOR);
+                } else if (kind == 'D') {
+                    code.invokevirtual(Support.NAME, "json", "(D)" + STRING_DESCRIPTOR);
+                } else {
+                    code.iconst(typeIndex(operand.getType()));
+                    code.invokevirtual(Support.NAME, "json", "(" + OBJECT_DESCRIPTOR + "I)" + STRING_DESCRIPTOR);
+                }
+            } else {
+                throw new RuntimeException("Unknown entity class: " + e.getClass().getName());
+            }
+        }
+
+        /**
+         * Makes an array with the given base type, of the length on the stack.
+         */
+        private void newArray(Type base) {
+            switch (kindOf(base)) {
+            case 'I':
+                code.invokestatic(Support.NAME, "checkSize", "(I)I");
+                code.newarray(Code.T_LONG);
+                break;
+            case 'D':
+                code.invokestatic(Support.NAME, "checkSize", "(I)I");
+                code.newarray(Code.T_DOUBLE);
+                break;
+            default:
+                if (base == Type.STRING) {
+                    code.invokestatic(Support.NAME, "newStrings", "(I)[" + OBJECT_DESCRIPTOR);
+                } else {
+                    code.invokestatic(Support.NAME, "checkSize", "(I)I");
+                    code.anewarray("java/lang/Object");
+                }
+            }
+        }
+    }
+}
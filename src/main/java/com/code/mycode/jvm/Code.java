@@ -0,0 +1,428 @@
+package com.code.mycode.jvm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Assembles the code of one method, keeping track of the depth of the operand stack and the
+ * number of local variable slots so the Code attribute can be written without further
+ * analysis.  Forward jumps go to labels, which are patched when they are placed.
+ *
+ * The stack depth is tracked along the straight-line order of emission; code that jumps over
+ * instructions pushing a value, as when a condition is turned into 0 or 1, sets the depth back
+ * by hand with setStack.
+ */
+final class Code {
+
+    // The opcodes used, with their names in the JVM specification
+    static final int ACONST_NULL = 1;
+    static final int ICONST_0 = 3;
+    static final int DCONST_0 = 14;
+    static final int DCONST_1 = 15;
+    static final int BIPUSH = 16;
+    static final int SIPUSH = 17;
+    static final int LDC = 18;
+    static final int LDC_W = 19;
+    static final int LDC2_W = 20;
+    static final int ILOAD = 21;
+    static final int DLOAD = 24;
+    static final int ALOAD = 25;
+    static final int LALOAD = 47;
+    static final int DALOAD = 49;
+    static final int AALOAD = 50;
+    static final int ISTORE = 54;
+    static final int DSTORE = 57;
+    static final int ASTORE = 58;
+    static final int LASTORE = 80;
+    static final int DASTORE = 82;
+    static final int AASTORE = 83;
+    static final int POP = 87;
+    static final int POP2 = 88;
+    static final int DUP = 89;
+    static final int DUP_X1 = 90;
+    static final int DUP_X2 = 91;
+    static final int DUP2 = 92;
+    static final int DUP2_X1 = 93;
+    static final int DUP2_X2 = 94;
+    static final int SWAP = 95;
+    static final int IADD = 96;
+    static final int DADD = 99;
+    static final int ISUB = 100;
+    static final int DSUB = 103;
+    static final int IMUL = 104;
+    static final int DMUL = 107;
+    static final int IDIV = 108;
+    static final int DDIV = 111;
+    static final int IREM = 112;
+    static final int INEG = 116;
+    static final int DNEG = 119;
+    static final int ISHL = 120;
+    static final int ISHR = 122;
+    static final int IAND = 126;
+    static final int IOR = 128;
+    static final int IXOR = 130;
+    static final int IINC = 132;
+    static final int I2L = 133;
+    static final int I2D = 135;
+    static final int L2I = 136;
+    static final int DCMPL = 151;
+    static final int DCMPG = 152;
+    static final int IFEQ = 153;
+    static final int IFNE = 154;
+    static final int IFLT = 155;
+    static final int IFGE = 156;
+    static final int IFGT = 157;
+    static final int IFLE = 158;
+    static final int IF_ICMPEQ = 159;
+    static final int IF_ICMPNE = 160;
+    static final int IF_ICMPLT = 161;
+    static final int IF_ICMPGE = 162;
+    static final int IF_ICMPGT = 163;
+    static final int IF_ICMPLE = 164;
+    static final int IF_ACMPEQ = 165;
+    static final int IF_ACMPNE = 166;
+    static final int GOTO = 167;
+    static final int IRETURN = 172;
+    static final int DRETURN = 175;
+    static final int ARETURN = 176;
+    static final int RETURN = 177;
+    static final int GETSTATIC = 178;
+    static final int GETFIELD = 180;
+    static final int INVOKEVIRTUAL = 182;
+    static final int INVOKESPECIAL = 183;
+    static final int INVOKESTATIC = 184;
+    static final int NEW = 187;
+    static final int NEWARRAY = 188;
+    static final int ANEWARRAY = 189;
+    static final int ARRAYLENGTH = 190;
+    static final int CHECKCAST = 192;
+    static final int WIDE = 196;
+
+    // Element types for newarray
+    static final int T_DOUBLE = 7;
+    static final int T_LONG = 11;
+
+    /**
+     * The change in stack depth, in slots, made by each instruction without operands.
+     */
+    private static final int[] DELTAS = new int[256];
+    static {
+        Arrays.fill(DELTAS, Integer.MIN_VALUE);
+        DELTAS[ACONST_NULL] = 1;
+        DELTAS[DCONST_0] = DELTAS[DCONST_1] = 2;
+        DELTAS[LALOAD] = DELTAS[DALOAD] = 0;
+        DELTAS[AALOAD] = -1;
+        DELTAS[LASTORE] = DELTAS[DASTORE] = -4;
+        DELTAS[AASTORE] = -3;
+        DELTAS[POP] = -1;
+        DELTAS[POP2] = -2;
+        DELTAS[DUP] = DELTAS[DUP_X1] = DELTAS[DUP_X2] = 1;
+        DELTAS[DUP2] = DELTAS[DUP2_X1] = DELTAS[DUP2_X2] = 2;
+        DELTAS[SWAP] = 0;
+        DELTAS[IADD] = DELTAS[ISUB] = DELTAS[IMUL] = DELTAS[IDIV] = DELTAS[IREM] = -1;
+        DELTAS[ISHL] = DELTAS[ISHR] = DELTAS[IAND] = DELTAS[IOR] = DELTAS[IXOR] = -1;
+        DELTAS[DADD] = DELTAS[DSUB] = DELTAS[DMUL] = DELTAS[DDIV] = -2;
+        DELTAS[INEG] = DELTAS[DNEG] = 0;
+        DELTAS[I2L] = DELTAS[I2D] = 1;
+        DELTAS[L2I] = -1;
+        DELTAS[DCMPL] = DELTAS[DCMPG] = -3;
+        DELTAS[IRETURN] = DELTAS[ARETURN] = -1;
+        DELTAS[DRETURN] = -2;
+        DELTAS[RETURN] = 0;
+        DELTAS[ARRAYLENGTH] = 0;
+    }
+
+    /**
+     * A position in the code, possibly not yet known, that jumps can go to.
+     */
+    static final class Label {
+        private int position = -1;
+        private List<Integer> jumps = new ArrayList<Integer>();
+    }
+
+    private final ClassFile classFile;
+    private byte[] code = new byte[256];
+    private int size = 0;
+    private int stack = 0;
+    private int maxStack = 0;
+    private int maxLocals;
+
+    /**
+     * Creates the code of a method whose parameters take the given number of local slots.
+     */
+    Code(ClassFile classFile, int parameterSlots) {
+        this.classFile = classFile;
+        this.maxLocals = parameterSlots;
+    }
+
+    int getMaxStack() {
+        return maxStack;
+    }
+
+    int getMaxLocals() {
+        return maxLocals;
+    }
+
+    int getStack() {
+        return stack;
+    }
+
+    void setStack(int stack) {
+        this.stack = stack;
+    }
+
+    /**
+     * Reserves the next local variable slot, or two slots for a double.
+     */
+    int newLocal(int slots) {
+        int local = maxLocals;
+        maxLocals += slots;
+        return local;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(code, size);
+    }
+
+    // Emitting
+
+    private void adjust(int delta) {
+        stack += delta;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void u1(int b) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[size++] = (byte)b;
+    }
+
+    private void u2(int s) {
+        u1(s >> 8);
+        u1(s);
+    }
+
+    /**
+     * Emits an instruction with no operands.
+     */
+    void op(int opcode) {
+        if (DELTAS[opcode] == Integer.MIN_VALUE) {
+            throw new IllegalArgumentException("Not a simple opcode: " + opcode);
+        }
+        u1(opcode);
+        adjust(DELTAS[opcode]);
+    }
+
+    void iconst(int value) {
+        if (value >= -1 && value <= 5) {
+            u1(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            u1(BIPUSH);
+            u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            u1(SIPUSH);
+            u2(value);
+        } else {
+            ldc(classFile.integer(value));
+        }
+        adjust(1);
+    }
+
+    void dconst(double value) {
+        if (Double.doubleToRawLongBits(value) == 0L) {
+            op(DCONST_0);
+        } else if (value == 1.0) {
+            op(DCONST_1);
+        } else {
+            u1(LDC2_W);
+            u2(classFile.doubleConstant(value));
+            adjust(2);
+        }
+    }
+
+    void sconst(String value) {
+        ldc(classFile.string(value));
+        adjust(1);
+    }
+
+    private void ldc(int index) {
+        if (index < 256) {
+            u1(LDC);
+            u1(index);
+        } else {
+            u1(LDC_W);
+            u2(index);
+        }
+    }
+
+    /**
+     * Loads a local of the given kind: 'I' for ints, 'D' for doubles, 'A' for references.
+     */
+    void load(char kind, int local) {
+        local(kind == 'I' ? ILOAD : kind == 'D' ? DLOAD : ALOAD, local);
+        adjust(kind == 'D' ? 2 : 1);
+    }
+
+    void store(char kind, int local) {
+        local(kind == 'I' ? ISTORE : kind == 'D' ? DSTORE : ASTORE, local);
+        adjust(kind == 'D' ? -2 : -1);
+    }
+
+    private void local(int opcode, int local) {
+        if (local < 256) {
+            u1(opcode);
+            u1(local);
+        } else {
+            u1(WIDE);
+            u1(opcode);
+            u2(local);
+        }
+    }
+
+    void iinc(int local, int delta) {
+        if (local < 256 && delta >= Byte.MIN_VALUE && delta <= Byte.MAX_VALUE) {
+            u1(IINC);
+            u1(local);
+            u1(delta);
+        } else {
+            u1(WIDE);
+            u1(IINC);
+            u2(local);
+            u2(delta);
+        }
+    }
+
+    void newarray(int elementType) {
+        u1(NEWARRAY);
+        u1(elementType);
+    }
+
+    void anewarray(String elementClass) {
+        u1(ANEWARRAY);
+        u2(classFile.classRef(elementClass));
+    }
+
+    void newObject(String internalName) {
+        u1(NEW);
+        u2(classFile.classRef(internalName));
+        adjust(1);
+    }
+
+    void checkcast(String internalName) {
+        u1(CHECKCAST);
+        u2(classFile.classRef(internalName));
+    }
+
+    void getstatic(String owner, String name, String descriptor) {
+        u1(GETSTATIC);
+        u2(classFile.fieldRef(owner, name, descriptor));
+        adjust(slots(descriptor));
+    }
+
+    void getfield(String owner, String name, String descriptor) {
+        u1(GETFIELD);
+        u2(classFile.fieldRef(owner, name, descriptor));
+        adjust(slots(descriptor) - 1);
+    }
+
+    void invokestatic(String owner, String name, String descriptor) {
+        invoke(INVOKESTATIC, owner, name, descriptor, 0);
+    }
+
+    void invokevirtual(String owner, String name, String descriptor) {
+        invoke(INVOKEVIRTUAL, owner, name, descriptor, 1);
+    }
+
+    void invokespecial(String owner, String name, String descriptor) {
+        invoke(INVOKESPECIAL, owner, name, descriptor, 1);
+    }
+
+    private void invoke(int opcode, String owner, String name, String descriptor, int receiver) {
+        u1(opcode);
+        u2(classFile.methodRef(owner, name, descriptor));
+        int close = descriptor.indexOf(')');
+        adjust(slots(descriptor.substring(close + 1))
+            - parameterSlots(descriptor.substring(1, close)) - receiver);
+    }
+
+    // Jumps
+
+    Label newLabel() {
+        return new Label();
+    }
+
+    /**
+     * Emits a jump, conditional or not, to the given label.
+     */
+    void jump(int opcode, Label label) {
+        int start = size;
+        u1(opcode);
+        if (label.position >= 0) {
+            u2(offset(start, label.position));
+        } else {
+            label.jumps.add(start);
+            u2(0);
+        }
+        if (opcode >= IF_ICMPEQ && opcode <= IF_ACMPNE) {
+            adjust(-2);
+        } else if (opcode != GOTO) {
+            adjust(-1);
+        }
+    }
+
+    /**
+     * Places the label at the current position.
+     */
+    void mark(Label label) {
+        label.position = size;
+        for (int jump: label.jumps) {
+            int offset = offset(jump, size);
+            code[jump + 1] = (byte)(offset >> 8);
+            code[jump + 2] = (byte)offset;
+        }
+        label.jumps.clear();
+    }
+
+    private static int offset(int from, int to) {
+        int offset = to - from;
+        if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+            throw new IllegalStateException("Method too large");
+        }
+        return offset;
+    }
+
+    // Descriptors
+
+    /**
+     * Returns the number of stack slots taken by a value of the given field descriptor, or 0
+     * for V.
+     */
+    static int slots(String descriptor) {
+        char c = descriptor.charAt(0);
+        return c == 'V' ? 0 : c == 'J' || c == 'D' ? 2 : 1;
+    }
+
+    /**
+     * Returns the number of slots taken by a list of parameter descriptors.
+     */
+    static int parameterSlots(String descriptors) {
+        int slots = 0;
+        for (int i = 0; i < descriptors.length(); i++) {
+            char c = descriptors.charAt(i);
+            if (c == 'J' || c == 'D') {
+                slots += 2;
+            } else {
+                slots += 1;
+                while (descriptors.charAt(i) == '[') {
+                    i++;
+                }
+                if (descriptors.charAt(i) == 'L') {
+                    i = descriptors.indexOf(';', i);
+                }
+            }
+        }
+        return slots;
+    }
+}
@@ -0,0 +1,178 @@
+package com.code.mycode.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * A program translated to Java source and compiled in memory by the system Java compiler,
+ * which can be run in this virtual machine.  The source is kept for reading when debugging.
+ *
+ * The translated class must have a public static field "support" of type JavaSupport and a
+ * public static method "main" with no parameters.  Each run loads the classes afresh, in a
+ * class loader of their own.
+ */
+public class CompiledJavaProgram {
+
+    public static final String SUPPORT_FIELD = "support";
+    public static final String MAIN_METHOD = "main";
+
+    private String className;
+    private String source;
+    private Map<String, byte[]> classes;
+
+    private CompiledJavaProgram(String className, String source, Map<String, byte[]> classes) {
+        this.className = className;
+        this.source = source;
+        this.classes = classes;
+    }
+
+    /**
+     * Compiles the given source, which declares the class of the given name in the unnamed
+     * package.  The source comes from the translator, so a failure to compile is a bug, and
+     * reported as an IllegalStateException carrying javac's messages.
+     */
+    public static CompiledJavaProgram compile(String className, final String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No Java compiler available, is this running on a JRE?");
+        }
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        final Map<String, ByteArrayOutputStream> outputs = new HashMap<String, ByteArrayOutputStream>();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, null, null);
+        ForwardingJavaFileManager<StandardJavaFileManager> manager =
+                new ForwardingJavaFileManager<StandardJavaFileManager>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name,
+                    JavaFileObject.Kind kind, FileObject sibling) {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                outputs.put(name, bytes);
+                return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return bytes;
+                    }
+                };
+            }
+        };
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("mem:///" + className + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        List<String> options = Arrays.asList("-g", "-nowarn", "-classpath", classPath());
+        if (!compiler.getTask(null, manager, diagnostics, options, null, Arrays.asList(file)).call()) {
+            StringBuilder message = new StringBuilder("Translated source does not compile:");
+            for (Diagnostic<? extends JavaFileObject> d: diagnostics.getDiagnostics()) {
+                message.append('\n').append(d.getLineNumber()).append(": ").append(d.getMessage(null));
+            }
+            throw new IllegalStateException(message.toString());
+        }
+
+        Map<String, byte[]> classes = new HashMap<String, byte[]>();
+        for (Map.Entry<String, ByteArrayOutputStream> output: outputs.entrySet()) {
+            classes.put(output.getKey(), output.getValue().toByteArray());
+        }
+        return new CompiledJavaProgram(className, source, classes);
+    }
+
+    /**
+     * Returns the class path of this virtual machine, with wherever this class was loaded from,
+     * so that javac finds JavaSupport even when the class path does not say where it is.
+     */
+    private static String classPath() {
+        String path = System.getProperty("java.class.path");
+        CodeSource code = JavaSupport.class.getProtectionDomain().getCodeSource();
+        if (code != null) {
+            try {
+                path = new File(code.getLocation().toURI()).getPath() + File.pathSeparator + path;
+            } catch (URISyntaxException e) {
+                // Then the class path alone will have to do
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Returns the binary name of the main class, such as "MyCodeProgram".
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Returns the Java source the program was compiled from.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Runs the program with the given input and output.  Errors the JVM detects on its own,
+     * like uses of null, are reported as the same RuntimeErrors the interpreter gives.
+     */
+    public void run(Reader input, PrintWriter output) {
+        try {
+            Class<?> c = new ProgramLoader().loadClass(className);
+            c.getField(SUPPORT_FIELD).set(null, new JavaSupport(input, output));
+            Method main = c.getMethod(MAIN_METHOD);
+            main.invoke(null);
+        } catch (InvocationTargetException e) {
+            throw GeneratedProgram.failure(e.getCause());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            output.flush();
+        }
+    }
+
+    /**
+     * Loads the compiled classes, leaving everything else to the loader of the compiler.
+     */
+    private class ProgramLoader extends ClassLoader {
+
+        ProgramLoader() {
+            super(CompiledJavaProgram.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
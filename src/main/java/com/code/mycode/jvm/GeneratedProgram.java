@@ -0,0 +1,100 @@
+package com.code.mycode.jvm;
+
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import com.code.mycode.interpreter.RuntimeError;
+import com.code.mycode.interpreter.RuntimeType;
+
+/**
+ * A program compiled to a JVM class, which can be loaded and run in this virtual machine.  Each
+ * run loads the class afresh, in a class loader of its own, so runs share no static state and
+ * the class can be collected once the run is over.
+ */
+public class GeneratedProgram {
+
+    private String className;
+    private byte[] bytes;
+    private RuntimeType[] types;
+
+    GeneratedProgram(String className, byte[] bytes, RuntimeType[] types) {
+        this.className = className;
+        this.bytes = bytes;
+        this.types = types;
+    }
+
+    /**
+     * Returns the binary name of the class, such as "MyCodeProgram".
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Returns the class file.
+     */
+    public byte[] getBytes() {
+        return bytes.clone();
+    }
+
+    /**
+     * Runs the program with the given input and output.  Errors the JVM detects on its own,
+     * like uses of null, are reported as the same RuntimeErrors the interpreter gives.
+     */
+    public void run(Reader input, PrintWriter output) {
+        try {
+            Class<?> c = new ProgramLoader().define();
+            c.getField(ClassGenerator.SUPPORT_FIELD).set(null, new Support(input, output, types));
+            Method main = c.getMethod(ClassGenerator.MAIN_METHOD);
+            main.invoke(null);
+        } catch (InvocationTargetException e) {
+            throw failure(e.getCause());
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            output.flush();
+        }
+    }
+
+    /**
+     * Returns what to throw for an exception thrown by a generated class: RuntimeErrors as
+     * they are, and errors the JVM detects on its own as the RuntimeErrors the interpreter
+     * gives for them.  Any other Error is thrown from here.
+     */
+    static RuntimeException failure(Throwable cause) {
+        if (cause instanceof RuntimeError) {
+            return (RuntimeError)cause;
+        } else if (cause instanceof NullPointerException) {
+            return new RuntimeError("null_dereference");
+        } else if (cause instanceof ArithmeticException) {
+            return new RuntimeError("division_by_zero");
+        } else if (cause instanceof StackOverflowError) {
+            return new RuntimeError("stack_overflow");
+        } else if (cause instanceof RuntimeException) {
+            return (RuntimeException)cause;
+        } else if (cause instanceof Error) {
+            throw (Error)cause;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    /**
+     * Loads just the generated class, leaving everything else to the loader of the compiler.
+     */
+    private class ProgramLoader extends ClassLoader {
+
+        ProgramLoader() {
+            super(GeneratedProgram.class.getClassLoader());
+        }
+
+        Class<?> define() {
+            return defineClass(className, bytes, 0, bytes.length);
+        }
+    }
+}
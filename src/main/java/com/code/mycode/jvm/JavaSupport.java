@@ -0,0 +1,253 @@
+package com.code.mycode.jvm;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.lang.reflect.Array;
+
+import com.code.mycode.interpreter.RuntimeError;
+import com.code.mycode.interpreter.Values;
+
+/**
+ * What programs translated to Java source call on at run time: output, input, conversion to
+ * string, and the checks whose failures have to be reported with the interpreter's messages.
+ *
+ * Translated programs use Java's own types, so unlike the interpreter this class can tell a
+ * value's MyCode type from its Java class: chars are chars, arrays are typed arrays, and
+ * structs are classes implementing Record.
+ */
+public final class JavaSupport {
+
+    /**
+     * What the classes translated from struct types give for printing and stringifying.
+     */
+    public interface Record {
+
+        /**
+         * Returns the names of the fields, in declaration order.
+         */
+        String[] names();
+
+        /**
+         * Returns the values of the fields, in declaration order, boxed.
+         */
+        Object[] values();
+    }
+
+    private Reader input;
+    private PrintWriter output;
+
+    public JavaSupport(Reader input, PrintWriter output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    public void print(int value) {
+        output.println(value);
+    }
+
+    public void print(char value) {
+        output.println(value);
+    }
+
+    public void print(boolean value) {
+        output.println(value);
+    }
+
+    public void print(double value) {
+        output.println(Values.formatReal(value));
+    }
+
+    public void print(Object value) {
+        if (value instanceof String) {
+            output.println((String)value);
+        } else {
+            StringBuilder builder = new StringBuilder();
+            inspect(value, builder);
+            output.println(builder);
+        }
+    }
+
+    public void flush() {
+        output.flush();
+    }
+
+    public String readInput() {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[4096];
+        try {
+            for (int n; (n = input.read(buffer)) != -1;) {
+                builder.append(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new RuntimeError("input_error", e.getMessage());
+        }
+        return builder.toString();
+    }
+
+    public static String json(int value) {
+        return Integer.toString(value);
+    }
+
+    public static String json(char value) {
+        return Integer.toString(value);
+    }
+
+    public static String json(boolean value) {
+        return Boolean.toString(value);
+    }
+
+    public static String json(double value) {
+        return Values.json(value);
+    }
+
+    public static String json(Object value) {
+        StringBuilder builder = new StringBuilder();
+        json(value, builder);
+        return builder.toString();
+    }
+
+    /**
+     * Mirrors JavaScript's substring, which clamps and orders its arguments.
+     */
+    public static String substring(String s, int start, int end) {
+        return Support.substring(s, start, end);
+    }
+
+    public static String[] newStrings(int size) {
+        String[] strings = new String[checkSize(size)];
+        for (int i = 0; i < size; i++) {
+            strings[i] = "";
+        }
+        return strings;
+    }
+
+    /**
+     * Compares strings by value, and anything else compared to a string by identity.
+     */
+    public static boolean same(Object x, Object y) {
+        return Support.same(x, y);
+    }
+
+    /**
+     * Returns the condition.  Conditions of loops made only of literals go through here, so that
+     * javac does not take them for constants and judge the code around the loop unreachable.
+     */
+    public static boolean condition(boolean value) {
+        return value;
+    }
+
+    public static int index(int[] array, int index) {
+        return Support.checkIndex(index, array.length);
+    }
+
+    public static int index(char[] array, int index) {
+        return Support.checkIndex(index, array.length);
+    }
+
+    public static int index(boolean[] array, int index) {
+        return Support.checkIndex(index, array.length);
+    }
+
+    public static int index(double[] array, int index) {
+        return Support.checkIndex(index, array.length);
+    }
+
+    public static int index(Object[] array, int index) {
+        return Support.checkIndex(index, array.length);
+    }
+
+    public static int index(String s, int index) {
+        return Support.checkIndex(index, s.length());
+    }
+
+    public static int checkSize(int size) {
+        return Support.checkSize(size);
+    }
+
+    private static void inspect(Object value, StringBuilder builder) {
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof String) {
+            builder.append('\'').append(((String)value).replace("\\", "\\\\").replace("'", "\\'")).append('\'');
+        } else if (value instanceof Character) {
+            builder.append('\'').append(((Character)value).charValue()).append('\'');
+        } else if (value instanceof Double) {
+            builder.append(Values.formatReal((Double)value));
+        } else if (value instanceof Record) {
+            Record record = (Record)value;
+            String[] names = record.names();
+            Object[] values = record.values();
+            if (names.length == 0) {
+                builder.append("{}");
+                return;
+            }
+            builder.append("{ ");
+            for (int i = 0; i < names.length; i++) {
+                builder.append(i == 0 ? "" : ", ").append(names[i]).append(": ");
+                inspect(values[i], builder);
+            }
+            builder.append(" }");
+        } else if (value.getClass().isArray()) {
+            Object[] elements = elements(value);
+            if (elements.length == 0) {
+                builder.append("[]");
+                return;
+            }
+            builder.append("[ ");
+            for (int i = 0; i < elements.length; i++) {
+                builder.append(i == 0 ? "" : ", ");
+                inspect(elements[i], builder);
+            }
+            builder.append(" ]");
+        } else {
+            builder.append(value);
+        }
+    }
+
+    private static void json(Object value, StringBuilder builder) {
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof String) {
+            builder.append(Values.quote((String)value));
+        } else if (value instanceof Character) {
+            builder.append((int)((Character)value).charValue());
+        } else if (value instanceof Double) {
+            builder.append(Values.json((Double)value));
+        } else if (value instanceof Record) {
+            Record record = (Record)value;
+            String[] names = record.names();
+            Object[] values = record.values();
+            builder.append('{');
+            for (int i = 0; i < names.length; i++) {
+                builder.append(i == 0 ? "" : ",").append(Values.quote(names[i])).append(':');
+                json(values[i], builder);
+            }
+            builder.append('}');
+        } else if (value.getClass().isArray()) {
+            Object[] elements = elements(value);
+            builder.append('[');
+            for (int i = 0; i < elements.length; i++) {
+                builder.append(i == 0 ? "" : ",");
+                json(elements[i], builder);
+            }
+            builder.append(']');
+        } else {
+            builder.append(value);
+        }
+    }
+
+    /**
+     * Returns the elements of an array of any representation, boxed.
+     */
+    private static Object[] elements(Object array) {
+        if (array instanceof Object[]) {
+            return (Object[])array;
+        }
+        Object[] elements = new Object[Array.getLength(array)];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = Array.get(array, i);
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,113 @@
+package com.code.mycode.jvm;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+
+import com.code.mycode.interpreter.Frame;
+import com.code.mycode.interpreter.RuntimeError;
+import com.code.mycode.interpreter.RuntimeType;
+import com.code.mycode.interpreter.Values;
+
+/**
+ * What generated classes call on at run time for anything more than a few instructions:
+ * output, input, conversion to string, and the checks whose failures have to be reported with
+ * the interpreter's messages.  A generated class holds its instance in a static field; the
+ * static methods are small enough for the JIT to inline.
+ *
+ * Public only because generated classes live in their own class loader.
+ */
+public final class Support {
+
+    static final String NAME = "com/code/mycode/jvm/Support";
+    static final String DESCRIPTOR = "L" + NAME + ";";
+
+    private Reader input;
+    private PrintWriter output;
+    private RuntimeType[] types;
+
+    Support(Reader input, PrintWriter output, RuntimeType[] types) {
+        this.input = input;
+        this.output = output;
+        this.types = types;
+    }
+
+    public void print(int value, int type) {
+        output.println(Values.display(value, types[type]));
+    }
+
+    public void print(double value) {
+        output.println(Values.formatReal(value));
+    }
+
+    public void print(Object value, int type) {
+        output.println(Values.display(value, types[type]));
+    }
+
+    public String json(int value, int type) {
+        return Values.json(value, types[type]);
+    }
+
+    public String json(double value) {
+        return Values.json(value);
+    }
+
+    public String json(Object value, int type) {
+        return Values.json(value, types[type]);
+    }
+
+    public Frame newRecord(int type) {
+        return types[type].newRecord();
+    }
+
+    public String readInput() {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[4096];
+        try {
+            for (int n; (n = input.read(buffer)) != -1;) {
+                builder.append(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new RuntimeError("input_error", e.getMessage());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Mirrors JavaScript's substring, which clamps and orders its arguments.
+     */
+    public static String substring(String s, int start, int end) {
+        start = Math.min(Math.max(start, 0), s.length());
+        end = Math.min(Math.max(end, 0), s.length());
+        return s.substring(Math.min(start, end), Math.max(start, end));
+    }
+
+    public static Object[] newStrings(int size) {
+        Object[] strings = new Object[checkSize(size)];
+        for (int i = 0; i < size; i++) {
+            strings[i] = "";
+        }
+        return strings;
+    }
+
+    /**
+     * Compares values of reference types, strings by value and everything else by identity.
+     */
+    public static boolean same(Object x, Object y) {
+        return x == y || (x instanceof String && x.equals(y));
+    }
+
+    public static int checkIndex(int index, int length) {
+        if (index < 0 || index >= length) {
+            throw new RuntimeError("index_out_of_bounds", (long)index, length);
+        }
+        return index;
+    }
+
+    public static int checkSize(int size) {
+        if (size < 0) {
+            throw new RuntimeError("negative_array_size", (long)size);
+        }
+        return size;
+    }
+}
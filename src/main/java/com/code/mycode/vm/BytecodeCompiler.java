@@ -0,0 +1,983 @@
+package com.code.mycode.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import com.code.mycode.entities.ArrayAggregate;
+import com.code.mycode.entities.ArrayType;
+import com.code.mycode.entities.AssignmentStatement;
+import com.code.mycode.entities.Block;
+import com.code.mycode.entities.BooleanLiteral;
+import com.code.mycode.entities.BreakStatement;
+import com.code.mycode.entities.CallExpression;
+import com.code.mycode.entities.CallStatement;
+import com.code.mycode.entities.Case;
+import com.code.mycode.entities.CharLiteral;
+import com.code.mycode.entities.ClassicForStatement;
+import com.code.mycode.entities.Declarable;
+import com.code.mycode.entities.Declaration;
+import com.code.mycode.entities.DottedVariable;
+import com.code.mycode.entities.EmptyArray;
+import com.code.mycode.entities.Expression;
+import com.code.mycode.entities.ExpressionRewriter;
+import com.code.mycode.entities.FrameLayout;
+import com.code.mycode.entities.FrameResolver;
+import com.code.mycode.entities.Function;
+import com.code.mycode.entities.IfStatement;
+import com.code.mycode.entities.IncrementStatement;
+import com.code.mycode.entities.InfixExpression;
+import com.code.mycode.entities.IntegerLiteral;
+import com.code.mycode.entities.NullLiteral;
+import com.code.mycode.entities.PostfixExpression;
+import com.code.mycode.entities.PrefixExpression;
+import com.code.mycode.entities.PrintStatement;
+import com.code.mycode.entities.Program;
+import com.code.mycode.entities.RealLiteral;
+import com.code.mycode.entities.ReturnStatement;
+import com.code.mycode.entities.SimpleVariableReference;
+import com.code.mycode.entities.Statement;
+import com.code.mycode.entities.StringLiteral;
+import com.code.mycode.entities.StructAggregate;
+import com.code.mycode.entities.StructField;
+import com.code.mycode.entities.StructType;
+import com.code.mycode.entities.SubscriptedVariable;
+import com.code.mycode.entities.TailCallStatement;
+import com.code.mycode.entities.Type;
+import com.code.mycode.entities.Variable;
+import com.code.mycode.entities.VariableExpression;
+import com.code.mycode.entities.WhileStatement;
+import com.code.mycode.interpreter.RuntimeType;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Compiles an analyzed program into code for the register machine.
+ *
+ * Each function gets its own three register files.  The first registers of each file are the
+ * frame slots the FrameResolver gives the function's variables, parameters first, so a local
+ * variable is used in place with no loads or stores; temporaries follow, and are reused from
+ * one statement to the next.  Variables of enclosing functions are reached with the GETUP and
+ * PUTUP instructions, which walk a fixed number of frames up the static chain.
+ *
+ * Conditions are compiled to jumps rather than to boolean values where possible, comparing
+ * ints with fused compare-and-jump instructions, and loops test their condition at the bottom,
+ * so each iteration runs a single jump.  Self-recursive tail calls become moves into the
+ * parameters and a jump back to the start of the function.
+ */
+public class BytecodeCompiler {
+
+    private static final ImmutableMap<String, Integer> INT_OPS = ImmutableMap.<String, Integer>builder()
+        .put("+", Op.IADD).put("-", Op.ISUB).put("*", Op.IMUL).put("/", Op.IDIV).put("%", Op.IMOD)
+        .put("<<", Op.ISHL).put(">>", Op.ISHR).put("&", Op.IAND).put("|", Op.IOR).put("^", Op.IXOR)
+        .build();
+
+    private static final ImmutableMap<String, Integer> REAL_OPS = ImmutableMap.of(
+        "+", Op.DADD, "-", Op.DSUB, "*", Op.DMUL, "/", Op.DDIV);
+
+    // Comparison opcodes, in the order ==, !=, <, <=, >, >=
+    private static final List<String> COMPARISONS = Arrays.asList("==", "!=", "<", "<=", ">", ">=");
+    private static final int[] LONG_COMPARES = {Op.LEQ, Op.LNE, Op.LLT, Op.LLE, Op.LGT, Op.LGE};
+    private static final int[] DOUBLE_COMPARES = {Op.DEQ, Op.DNE, Op.DLT, Op.DLE, Op.DGT, Op.DGE};
+    private static final int[] OBJECT_COMPARES = {Op.AEQ, Op.ANE, Op.SLT, Op.SLE, Op.SGT, Op.SGE};
+    private static final int[] JUMPS = {Op.JEQ, Op.JNE, Op.JLT, Op.JLE, Op.JGT, Op.JGE};
+    private static final int[] NEGATED_JUMPS = {Op.JNE, Op.JEQ, Op.JGE, Op.JGT, Op.JLE, Op.JLT};
+
+    private Map<Function, Integer> functionIndexes = new HashMap<Function, Integer>();
+    private List<Function> functions = new ArrayList<Function>();
+    private Map<Type, RuntimeType> runtimeTypes = new HashMap<Type, RuntimeType>();
+    private List<RuntimeType> types = new ArrayList<RuntimeType>();
+
+    /**
+     * Compiles the given program, which must have been analyzed without errors.
+     */
+    public static BytecodeProgram compile(Program program) {
+        return new BytecodeCompiler().compileProgram(program);
+    }
+
+    private BytecodeProgram compileProgram(Program program) {
+        FrameResolver.resolve(program);
+        new ExpressionRewriter() {
+            @Override
+            public void visitStatement(Statement s) {
+                if (s instanceof Declaration) {
+                    Declarable d = Declaration.class.cast(s).getDeclarable();
+                    if (d instanceof Function) {
+                        functionIndexes.put(Function.class.cast(d), functions.size());
+                        functions.add(Function.class.cast(d));
+                    }
+                }
+            }
+
+            @Override
+            public Expression rewrite(Expression e) {
+                return e;
+            }
+        }.rewriteBlock(program);
+
+        BytecodeFunction main = new FunctionCompiler(null, program.getFrameLayout()).compile(program);
+        List<BytecodeFunction> compiled = new ArrayList<BytecodeFunction>();
+        for (Function f: functions) {
+            compiled.add(new FunctionCompiler(f, f.getFrameLayout()).compile(f.getBody()));
+        }
+        return new BytecodeProgram(main, compiled, types);
+    }
+
+    private int typeIndex(Type type) {
+        RuntimeType runtimeType = RuntimeType.of(type, runtimeTypes);
+        int index = types.indexOf(runtimeType);
+        if (index < 0) {
+            index = types.size();
+            types.add(runtimeType);
+        }
+        return index;
+    }
+
+    private static char kindOf(Type type) {
+        switch (FrameLayout.kindOf(type)) {
+        case LONG:
+            return BytecodeFunction.LONG;
+        case DOUBLE:
+            return BytecodeFunction.DOUBLE;
+        default:
+            return BytecodeFunction.OBJECT;
+        }
+    }
+
+    /**
+     * Returns whether evaluating the expression could change a variable, in which case values
+     * of variables read before it have to be copied out of their registers first.
+     */
+    private static boolean hasSideEffects(Expression e) {
+        if (e instanceof CallExpression) {
+            Function f = CallExpression.class.cast(e).getFunction();
+            if (f.getBody() != null || f == Function.GET_STRING) {
+                return true;
+            }
+            return anyHasSideEffects(CallExpression.class.cast(e).getArgs());
+        } else if (e instanceof PostfixExpression) {
+            return true;
+        } else if (e instanceof PrefixExpression) {
+            PrefixExpression p = PrefixExpression.class.cast(e);
+            return "++".equals(p.getOp()) || "--".equals(p.getOp()) || hasSideEffects(p.getOperand());
+        } else if (e instanceof InfixExpression) {
+            InfixExpression i = InfixExpression.class.cast(e);
+            return hasSideEffects(i.getLeft()) || hasSideEffects(i.getRight());
+        } else if (e instanceof SubscriptedVariable) {
+            SubscriptedVariable s = SubscriptedVariable.class.cast(e);
+            return hasSideEffects(s.getSequence()) || hasSideEffects(s.getIndex());
+        } else if (e instanceof DottedVariable) {
+            return hasSideEffects(DottedVariable.class.cast(e).getStruct());
+        } else if (e instanceof EmptyArray) {
+            return hasSideEffects(EmptyArray.class.cast(e).getBound());
+        } else if (e instanceof ArrayAggregate) {
+            return anyHasSideEffects(ArrayAggregate.class.cast(e).getArgs());
+        } else if (e instanceof StructAggregate) {
+            return anyHasSideEffects(StructAggregate.class.cast(e).getArgs());
+        }
+        return false;
+    }
+
+    private static boolean anyHasSideEffects(List<Expression> expressions) {
+        for (Expression e: expressions) {
+            if (hasSideEffects(e)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compiles the top level of a program, or the body of one function.
+     */
+    private class FunctionCompiler {
+
+        private Function function;
+        private int level;
+        private int[] code = new int[64];
+        private int size = 0;
+        private List<Double> doubleConstants = new ArrayList<Double>();
+        private List<Object> objectConstants = new ArrayList<Object>();
+        private LinkedList<List<Integer>> breaks = new LinkedList<List<Integer>>();
+
+        // The first temporary of each register file, the next free one, and the most in use
+        private int longBase, doubleBase, objectBase;
+        private int nextLong, nextDouble, nextObject;
+        private int maxLong, maxDouble, maxObject;
+
+        FunctionCompiler(Function function, FrameLayout layout) {
+            this.function = function;
+            this.level = layout.getLevel();
+            maxLong = nextLong = longBase = layout.getLongs();
+            maxDouble = nextDouble = doubleBase = layout.getDoubles();
+            maxObject = nextObject = objectBase = layout.getObjects();
+        }
+
+        BytecodeFunction compile(Block body) {
+            compileBlock(body);
+            emit(Op.RET);
+
+            char[] parameterKinds = new char[0];
+            int[] parameterSlots = new int[0];
+            char resultKind = BytecodeFunction.NONE;
+            if (function != null) {
+                List<Variable> parameters = function.getParameters();
+                parameterKinds = new char[parameters.size()];
+                parameterSlots = new int[parameters.size()];
+                for (int i = 0; i < parameters.size(); i++) {
+                    parameterKinds[i] = kindOf(parameters.get(i).getType());
+                    parameterSlots[i] = parameters.get(i).getFrameSlot();
+                }
+                if (!function.isVoid()) {
+                    resultKind = kindOf(function.getReturnType());
+                }
+            }
+            double[] doubles = new double[doubleConstants.size()];
+            for (int i = 0; i < doubles.length; i++) {
+                doubles[i] = doubleConstants.get(i);
+            }
+            return new BytecodeFunction(function == null ? "<main>" : function.getName(), level,
+                Arrays.copyOf(code, size), maxLong, maxDouble, maxObject,
+                parameterKinds, parameterSlots, resultKind, doubles, objectConstants.toArray());
+        }
+
+        // Emitting code
+
+        private void emit(int... words) {
+            if (size + words.length > code.length) {
+                code = Arrays.copyOf(code, Math.max(code.length * 2, size + words.length));
+            }
+            for (int word: words) {
+                code[size++] = word;
+            }
+        }
+
+        private int here() {
+            return size;
+        }
+
+        /**
+         * Emits a jump whose target is not yet known, returning the position of the target
+         * operand to be patched later.
+         */
+        private int emitJump(int op, int... operands) {
+            emit(op);
+            emit(operands);
+            emit(-1);
+            return size - 1;
+        }
+
+        private void patch(List<Integer> holes, int target) {
+            for (int hole: holes) {
+                code[hole] = target;
+            }
+        }
+
+        private int doubleConstant(double value) {
+            int index = doubleConstants.indexOf(value);
+            if (index < 0) {
+                index = doubleConstants.size();
+                doubleConstants.add(value);
+            }
+            return index;
+        }
+
+        private int objectConstant(Object value) {
+            int index = objectConstants.indexOf(value);
+            if (index < 0) {
+                index = objectConstants.size();
+                objectConstants.add(value);
+            }
+            return index;
+        }
+
+        // Registers
+
+        private int temp(char kind) {
+            switch (kind) {
+            case BytecodeFunction.LONG:
+                maxLong = Math.max(maxLong, nextLong + 1);
+                return nextLong++;
+            case BytecodeFunction.DOUBLE:
+                maxDouble = Math.max(maxDouble, nextDouble + 1);
+                return nextDouble++;
+            default:
+                maxObject = Math.max(maxObject, nextObject + 1);
+                return nextObject++;
+            }
+        }
+
+        private void releaseTemps() {
+            nextLong = longBase;
+            nextDouble = doubleBase;
+            nextObject = objectBase;
+        }
+
+        private boolean isVariable(char kind, int register) {
+            switch (kind) {
+            case BytecodeFunction.LONG:
+                return register < longBase;
+            case BytecodeFunction.DOUBLE:
+                return register < doubleBase;
+            default:
+                return register < objectBase;
+            }
+        }
+
+        /**
+         * Returns the register to compute a value into: the target if there is one, otherwise a
+         * new temporary.
+         */
+        private int destination(char kind, int target) {
+            return target >= 0 ? target : temp(kind);
+        }
+
+        private int move(char kind, int source, int target) {
+            if (target < 0 || target == source) {
+                return source;
+            }
+            emit(kind == BytecodeFunction.LONG ? Op.LMOV : kind == BytecodeFunction.DOUBLE ? Op.DMOV : Op.AMOV,
+                target, source);
+            return target;
+        }
+
+        /**
+         * Copies a variable's register into a temporary if expressions evaluated after it was
+         * read could change the variable.
+         */
+        private int protect(char kind, int register, Expression... later) {
+            if (isVariable(kind, register) && anyHasSideEffects(Arrays.asList(later))) {
+                return move(kind, register, temp(kind));
+            }
+            return register;
+        }
+
+        // Statements
+
+        private void compileBlock(Block block) {
+            for (Statement s: block.getStatements()) {
+                compileStatement(s);
+                releaseTemps();
+            }
+        }
+
+        private void compileStatement(Statement s) {
+            if (s instanceof AssignmentStatement) {
+                AssignmentStatement a = AssignmentStatement.class.cast(s);
+                assign(a.getLeft(), a.getRight());
+
+            } else if (s instanceof IncrementStatement) {
+                IncrementStatement i = IncrementStatement.class.cast(s);
+                increment(i.getTarget(), "++".equals(i.getOp()) ? 1 : -1, true, false, -1);
+
+            } else if (s instanceof CallStatement) {
+                CallStatement c = CallStatement.class.cast(s);
+                compileCall(c.getFunction(), c.getArgs(), -1);
+
+            } else if (s instanceof IfStatement) {
+                IfStatement i = IfStatement.class.cast(s);
+                List<Integer> ends = new ArrayList<Integer>();
+                List<Case> cases = i.getCases();
+                for (int c = 0; c < cases.size(); c++) {
+                    List<Integer> otherwise = new ArrayList<Integer>();
+                    branch(cases.get(c).getCondition(), false, otherwise);
+                    compileBlock(cases.get(c).getBody());
+                    if (c < cases.size() - 1 || i.getElsePart() != null) {
+                        ends.add(emitJump(Op.JUMP));
+                    }
+                    patch(otherwise, here());
+                }
+                if (i.getElsePart() != null) {
+                    compileBlock(i.getElsePart());
+                }
+                patch(ends, here());
+
+            } else if (s instanceof WhileStatement) {
+                WhileStatement w = WhileStatement.class.cast(s);
+                compileLoop(w.getCondition(), w.getBody(), null);
+
+            } else if (s instanceof ClassicForStatement) {
+                ClassicForStatement f = ClassicForStatement.class.cast(s);
+                if (f.getIndexVariable() != null) {
+                    initialize(f.getIndexVariable());
+                    for (Variable v: f.getDerivedVariables()) {
+                        initialize(v);
+                    }
+                } else if (f.getInit() != null) {
+                    compile(kindOf(f.getInit().getType()), f.getInit(), -1);
+                }
+                releaseTemps();
+                compileLoop(f.getTest(), f.getBody(), f);
+
+            } else if (s instanceof ReturnStatement) {
+                Expression e = ReturnStatement.class.cast(s).getReturnExpression();
+                if (e == null) {
+                    emit(Op.RET);
+                } else {
+                    char kind = kindOf(function.getReturnType());
+                    int register = compile(kind, e, -1);
+                    emit(kind == BytecodeFunction.LONG ? Op.LRET : kind == BytecodeFunction.DOUBLE ? Op.DRET : Op.ARET,
+                        register);
+                }
+
+            } else if (s instanceof TailCallStatement) {
+                // Every argument goes into a fresh temporary before any parameter is changed
+                List<Variable> parameters = function.getParameters();
+                List<Expression> args = TailCallStatement.class.cast(s).getArgs();
+                int[] registers = new int[args.size()];
+                for (int i = 0; i < registers.length; i++) {
+                    char kind = kindOf(parameters.get(i).getType());
+                    registers[i] = compile(kind, args.get(i), temp(kind));
+                }
+                for (int i = 0; i < registers.length; i++) {
+                    move(kindOf(parameters.get(i).getType()), registers[i], parameters.get(i).getFrameSlot());
+                }
+                emit(Op.JUMP, 0);
+
+            } else if (s instanceof BreakStatement) {
+                breaks.peek().add(emitJump(Op.JUMP));
+
+            } else if (s instanceof PrintStatement) {
+                for (Expression e: PrintStatement.class.cast(s).getArgs()) {
+                    char kind = kindOf(e.getType());
+                    int register = compile(kind, e, -1);
+                    if (kind == BytecodeFunction.LONG) {
+                        emit(Op.PRINT_L, register, typeIndex(e.getType()));
+                    } else if (kind == BytecodeFunction.DOUBLE) {
+                        emit(Op.PRINT_D, register);
+                    } else {
+                        emit(Op.PRINT_A, register, typeIndex(e.getType()));
+                    }
+                    releaseTemps();
+                }
+
+            } else if (s instanceof Declaration) {
+                Declarable d = Declaration.class.cast(s).getDeclarable();
+                if (d instanceof Variable) {
+                    initialize(Variable.class.cast(d));
+                }
+
+            } else {
+                throw new RuntimeException("Unknown entity class: " + s.getClass().getName());
+            }
+        }
+
+        /**
+         * Compiles a while loop, or the loop part of a for statement, with the test at the
+         * bottom.  A missing test is always true.
+         */
+        private void compileLoop(Expression test, Block body, ClassicForStatement updates) {
+            int start = emitJump(Op.JUMP);
+            int top = here();
+            breaks.push(new ArrayList<Integer>());
+            compileBlock(body);
+            if (updates != null) {
+                if (updates.getEach() != null) {
+                    compileStatement(updates.getEach());
+                    releaseTemps();
+                }
+                for (AssignmentStatement update: updates.getDerivedUpdates()) {
+                    compileStatement(update);
+                    releaseTemps();
+                }
+            }
+            code[start] = here();
+            if (test == null) {
+                emit(Op.JUMP, top);
+            } else {
+                List<Integer> again = new ArrayList<Integer>();
+                branch(test, true, again);
+                patch(again, top);
+            }
+            patch(breaks.pop(), here());
+        }
+
+        /**
+         * Sets a variable of this function to its initializer, or to the default for its type.
+         */
+        private void initialize(Variable v) {
+            int slot = v.getFrameSlot();
+            Expression initializer = v.getInitializer();
+            char kind = kindOf(v.getType());
+            if (initializer != null) {
+                move(kind, compile(kind, initializer, slot), slot);
+            } else if (kind == BytecodeFunction.LONG) {
+                emit(Op.LCONST, slot, 0);
+            } else if (kind == BytecodeFunction.DOUBLE) {
+                emit(Op.DCONST, slot, doubleConstant(0.0));
+            } else if (v.getType() == Type.STRING) {
+                emit(Op.ACONST, slot, objectConstant(""));
+            } else {
+                emit(Op.ANULL, slot);
+            }
+        }
+
+        private void assign(VariableExpression target, Expression value) {
+            char kind = kindOf(target.getType());
+            if (target instanceof SimpleVariableReference) {
+                Variable v = SimpleVariableReference.class.cast(target).getReferent();
+                if (v.getFrameLevel() == level) {
+                    move(kind, compile(kind, value, v.getFrameSlot()), v.getFrameSlot());
+                } else {
+                    int register = compile(kind, value, -1);
+                    emit(kind == BytecodeFunction.LONG ? Op.LPUTUP : kind == BytecodeFunction.DOUBLE ? Op.DPUTUP : Op.APUTUP,
+                        level - v.getFrameLevel(), v.getFrameSlot(), register);
+                }
+
+            } else if (target instanceof SubscriptedVariable) {
+                SubscriptedVariable s = SubscriptedVariable.class.cast(target);
+                int array = compileObject(s.getSequence(), -1);
+                array = protect(BytecodeFunction.OBJECT, array, s.getIndex(), value);
+                int index = protect(BytecodeFunction.LONG, compileLong(s.getIndex(), -1), value);
+                int register = compile(kind, value, -1);
+                emit(kind == BytecodeFunction.LONG ? Op.LASTORE : kind == BytecodeFunction.DOUBLE ? Op.DASTORE : Op.AASTORE,
+                    array, index, register);
+
+            } else if (target instanceof DottedVariable) {
+                DottedVariable d = DottedVariable.class.cast(target);
+                int struct = protect(BytecodeFunction.OBJECT, compileObject(d.getStruct(), -1), value);
+                int register = compile(kind, value, -1);
+                emit(kind == BytecodeFunction.LONG ? Op.LPUTFIELD : kind == BytecodeFunction.DOUBLE ? Op.DPUTFIELD : Op.APUTFIELD,
+                    struct, d.getField().getFrameSlot(), register);
+
+            } else {
+                throw new RuntimeException("Unknown variable expression class: " + target.getClass().getName());
+            }
+        }
+
+        /**
+         * Adds delta to an int variable.  If the value is wanted, returns the register holding
+         * the new value if prefix is true, or the old value otherwise.
+         */
+        private int increment(VariableExpression target, int delta, boolean prefix, boolean wanted, int result) {
+            char kind = BytecodeFunction.LONG;
+            if (target instanceof SimpleVariableReference) {
+                Variable v = SimpleVariableReference.class.cast(target).getReferent();
+                int slot = v.getFrameSlot();
+                if (v.getFrameLevel() == level) {
+                    if (!wanted || prefix) {
+                        emit(Op.IADDN, slot, slot, delta);
+                        return move(kind, slot, result);
+                    }
+                    int old = move(kind, slot, temp(kind));
+                    emit(Op.IADDN, slot, slot, delta);
+                    return move(kind, old, result);
+                }
+                int hops = level - v.getFrameLevel();
+                int old = temp(kind);
+                int updated = temp(kind);
+                emit(Op.LGETUP, old, hops, slot);
+                emit(Op.IADDN, updated, old, delta);
+                emit(Op.LPUTUP, hops, slot, updated);
+                return move(kind, prefix ? updated : old, result);
+            }
+
+            int old = temp(kind);
+            int updated = temp(kind);
+            if (target instanceof SubscriptedVariable) {
+                SubscriptedVariable s = SubscriptedVariable.class.cast(target);
+                int array = protect(BytecodeFunction.OBJECT, compileObject(s.getSequence(), -1), s.getIndex());
+                int index = compileLong(s.getIndex(), -1);
+                emit(Op.LALOAD, old, array, index);
+                emit(Op.IADDN, updated, old, delta);
+                emit(Op.LASTORE, array, index, updated);
+            } else {
+                DottedVariable d = DottedVariable.class.cast(target);
+                int struct = compileObject(d.getStruct(), -1);
+                int slot = d.getField().getFrameSlot();
+                emit(Op.LGETFIELD, old, struct, slot);
+                emit(Op.IADDN, updated, old, delta);
+                emit(Op.LPUTFIELD, struct, slot, updated);
+            }
+            return move(kind, prefix ? updated : old, result);
+        }
+
+        /**
+         * Compiles a call, leaving the result, if any, in the given register.  Returns that
+         * register.
+         */
+        private int compileCall(Function f, List<Expression> args, int result) {
+            if (f.getBody() == null) {
+                return compileBuiltInCall(f, args, result);
+            }
+            List<Variable> parameters = f.getParameters();
+            int[] words = new int[4 + args.size()];
+            words[0] = Op.CALL;
+            words[1] = functionIndexes.get(f);
+            words[2] = result;
+            words[3] = args.size();
+            for (int i = 0; i < args.size(); i++) {
+                char kind = kindOf(parameters.get(i).getType());
+                int register = compile(kind, args.get(i), -1);
+                List<Expression> later = args.subList(i + 1, args.size());
+                words[4 + i] = protect(kind, register, later.toArray(new Expression[later.size()]));
+            }
+            emit(words);
+            return result;
+        }
+
+        private int compileBuiltInCall(Function f, List<Expression> args, int result) {
+            if (f == Function.PI) {
+                emit(Op.DCONST, result, doubleConstant(Math.PI));
+            } else if (f == Function.SUBSTRING) {
+                int s = protect(BytecodeFunction.OBJECT, compileObject(args.get(0), -1), args.get(1), args.get(2));
+                int start = protect(BytecodeFunction.LONG, compileLong(args.get(1), -1), args.get(2));
+                int end = compileLong(args.get(2), -1);
+                emit(Op.SUBSTRING, result, s, start, end);
+            } else if (f == Function.GET_STRING) {
+                emit(Op.GETSTRING, result);
+            } else if (f == Function.ATAN) {
+                int y = protect(BytecodeFunction.DOUBLE, compileDouble(args.get(0), -1), args.get(1));
+                int x = compileDouble(args.get(1), -1);
+                emit(Op.ATAN, result, y, x);
+            } else {
+                int x = compileDouble(args.get(0), -1);
+                int op = f == Function.SQRT ? Op.SQRT : f == Function.SIN ? Op.SIN : f == Function.COS ? Op.COS : Op.LN;
+                emit(op, result, x);
+            }
+            return result;
+        }
+
+        // Expressions
+
+        private int compile(char kind, Expression e, int target) {
+            switch (kind) {
+            case BytecodeFunction.LONG:
+                return compileLong(e, target);
+            case BytecodeFunction.DOUBLE:
+                return compileDouble(e, target);
+            default:
+                return compileObject(e, target);
+            }
+        }
+
+        /**
+         * Compiles an expression of type int, char or boolean, returning the register holding
+         * its value: the target, if one is given, and otherwise a temporary or the register of a
+         * variable.  Nothing is written to the target until all of the expression's operands
+         * have been read.
+         */
+        private int compileLong(Expression e, int target) {
+            char kind = BytecodeFunction.LONG;
+            if (e instanceof SimpleVariableReference) {
+                Variable v = SimpleVariableReference.class.cast(e).getReferent();
+                if (v.getFrameLevel() == level) {
+                    return move(kind, v.getFrameSlot(), target);
+                }
+                int d = destination(kind, target);
+                emit(Op.LGETUP, d, level - v.getFrameLevel(), v.getFrameSlot());
+                return d;
+            } else if (e instanceof IntegerLiteral) {
+                int d = destination(kind, target);
+                emit(Op.LCONST, d, IntegerLiteral.class.cast(e).getValue());
+                return d;
+            } else if (e instanceof CharLiteral) {
+                int d = destination(kind, target);
+                emit(Op.LCONST, d, CharLiteral.class.cast(e).getValue());
+                return d;
+            } else if (e instanceof BooleanLiteral) {
+                int d = destination(kind, target);
+                emit(Op.LCONST, d, e == BooleanLiteral.TRUE ? 1 : 0);
+                return d;
+            } else if (e instanceof InfixExpression) {
+                return compileInfix(InfixExpression.class.cast(e), target);
+            } else if (e instanceof SubscriptedVariable) {
+                SubscriptedVariable s = SubscriptedVariable.class.cast(e);
+                int sequence = protect(BytecodeFunction.OBJECT, compileObject(s.getSequence(), -1), s.getIndex());
+                int index = compileLong(s.getIndex(), -1);
+                int d = destination(kind, target);
+                emit(s.getSequence().getType() == Type.STRING ? Op.CHARAT : Op.LALOAD, d, sequence, index);
+                return d;
+            } else if (e instanceof DottedVariable) {
+                DottedVariable dotted = DottedVariable.class.cast(e);
+                int struct = compileObject(dotted.getStruct(), -1);
+                int d = destination(kind, target);
+                emit(Op.LGETFIELD, d, struct, dotted.getField().getFrameSlot());
+                return d;
+            } else if (e instanceof CallExpression) {
+                CallExpression c = CallExpression.class.cast(e);
+                return compileCall(c.getFunction(), c.getArgs(), destination(kind, target));
+            } else if (e instanceof PostfixExpression) {
+                PostfixExpression p = PostfixExpression.class.cast(e);
+                return increment(p.getOperand(), "++".equals(p.getOp()) ? 1 : -1, false, true, target);
+            } else if (e instanceof PrefixExpression) {
+                PrefixExpression p = PrefixExpression.class.cast(e);
+                String op = p.getOp();
+                if ("++".equals(op) || "--".equals(op)) {
+                    VariableExpression operand = VariableExpression.class.cast(p.getOperand());
+                    return increment(operand, "++".equals(op) ? 1 : -1, true, true, target);
+                } else if ("int".equals(op) || "char".equals(op)) {
+                    return compileLong(p.getOperand(), target);
+                } else if ("!".equals(op)) {
+                    return compileCondition(e, target);
+                }
+                int operand = "length".equals(op)
+                    ? compileObject(p.getOperand(), -1) : compileLong(p.getOperand(), -1);
+                int d = destination(kind, target);
+                emit("-".equals(op) ? Op.INEG : "~".equals(op) ? Op.ICOMPL : Op.LENGTH, d, operand);
+                return d;
+            }
+            throw new RuntimeException("Unknown entity class: " + e.getClass().getName());
+        }
+
+        private int compileInfix(InfixExpression e, int target) {
+            String op = e.getOp();
+            Expression left = e.getLeft();
+            Expression right = e.getRight();
+            if ("&&".equals(op) || "||".equals(op)) {
+                return compileCondition(e, target);
+            }
+
+            int comparison = COMPARISONS.indexOf(op);
+            if (comparison >= 0) {
+                int[] ops;
+                char kind;
+                if (left.getType() == Type.REAL || right.getType() == Type.REAL) {
+                    ops = DOUBLE_COMPARES;
+                    kind = BytecodeFunction.DOUBLE;
+                } else {
+                    kind = kindOf(left.getType());
+                    ops = kind == BytecodeFunction.LONG ? LONG_COMPARES : OBJECT_COMPARES;
+                }
+                int x = protect(kind, compile(kind, left, -1), right);
+                int y = compile(kind, right, -1);
+                int d = destination(BytecodeFunction.LONG, target);
+                emit(ops[comparison], d, x, y);
+                return d;
+            }
+
+            char kind = BytecodeFunction.LONG;
+            int x = compileLong(left, -1);
+            if (right instanceof IntegerLiteral && ("+".equals(op) || "-".equals(op))) {
+                int n = IntegerLiteral.class.cast(right).getValue();
+                int d = destination(kind, target);
+                emit(Op.IADDN, d, x, "+".equals(op) ? n : -n);
+                return d;
+            }
+            x = protect(kind, x, right);
+            int y = compileLong(right, -1);
+            int d = destination(kind, target);
+            emit(INT_OPS.get(op), d, x, y);
+            return d;
+        }
+
+        /**
+         * Compiles a boolean expression through jumps, for the logical operators whose right
+         * operand may not be evaluated.
+         */
+        private int compileCondition(Expression e, int target) {
+            int d = temp(BytecodeFunction.LONG);
+            List<Integer> otherwise = new ArrayList<Integer>();
+            branch(e, false, otherwise);
+            emit(Op.LCONST, d, 1);
+            int end = emitJump(Op.JUMP);
+            patch(otherwise, here());
+            emit(Op.LCONST, d, 0);
+            code[end] = here();
+            return move(BytecodeFunction.LONG, d, target);
+        }
+
+        /**
+         * Compiles a boolean expression so as to jump to the holes when its value is the given
+         * one, and to fall through otherwise.
+         */
+        private void branch(Expression e, boolean when, List<Integer> holes) {
+            if (e instanceof InfixExpression) {
+                InfixExpression i = InfixExpression.class.cast(e);
+                String op = i.getOp();
+                boolean and = "&&".equals(op);
+                if (and || "||".equals(op)) {
+                    if (and != when) {
+                        // Either operand alone decides
+                        branch(i.getLeft(), when, holes);
+                        branch(i.getRight(), when, holes);
+                    } else {
+                        List<Integer> skip = new ArrayList<Integer>();
+                        branch(i.getLeft(), !when, skip);
+                        branch(i.getRight(), when, holes);
+                        patch(skip, here());
+                    }
+                    return;
+                }
+                int comparison = COMPARISONS.indexOf(op);
+                if (comparison >= 0 && kindOf(i.getLeft().getType()) == BytecodeFunction.LONG
+                        && kindOf(i.getRight().getType()) == BytecodeFunction.LONG) {
+                    int x = protect(BytecodeFunction.LONG, compileLong(i.getLeft(), -1), i.getRight());
+                    int y = compileLong(i.getRight(), -1);
+                    holes.add(emitJump(when ? JUMPS[comparison] : NEGATED_JUMPS[comparison], x, y));
+                    return;
+                }
+            } else if (e instanceof PrefixExpression && "!".equals(PrefixExpression.class.cast(e).getOp())) {
+                branch(PrefixExpression.class.cast(e).getOperand(), !when, holes);
+                return;
+            } else if (e instanceof BooleanLiteral) {
+                if ((e == BooleanLiteral.TRUE) == when) {
+                    holes.add(emitJump(Op.JUMP));
+                }
+                return;
+            }
+            int register = compileLong(e, -1);
+            holes.add(emitJump(when ? Op.JUMP_IF_TRUE : Op.JUMP_IF_FALSE, register));
+        }
+
+        /**
+         * Compiles an expression of type real, or of type int where a real is expected.
+         */
+        private int compileDouble(Expression e, int target) {
+            char kind = BytecodeFunction.DOUBLE;
+            if (e.getType() != Type.REAL) {
+                int x = compileLong(e, -1);
+                int d = destination(kind, target);
+                emit(Op.I2D, d, x);
+                return d;
+            } else if (e instanceof SimpleVariableReference) {
+                Variable v = SimpleVariableReference.class.cast(e).getReferent();
+                if (v.getFrameLevel() == level) {
+                    return move(kind, v.getFrameSlot(), target);
+                }
+                int d = destination(kind, target);
+                emit(Op.DGETUP, d, level - v.getFrameLevel(), v.getFrameSlot());
+                return d;
+            } else if (e instanceof RealLiteral) {
+                int d = destination(kind, target);
+                emit(Op.DCONST, d, doubleConstant(RealLiteral.class.cast(e).getValue()));
+                return d;
+            } else if (e instanceof InfixExpression) {
+                InfixExpression i = InfixExpression.class.cast(e);
+                int x = protect(kind, compileDouble(i.getLeft(), -1), i.getRight());
+                int y = compileDouble(i.getRight(), -1);
+                int d = destination(kind, target);
+                emit(REAL_OPS.get(i.getOp()), d, x, y);
+                return d;
+            } else if (e instanceof PrefixExpression) {
+                int x = compileDouble(PrefixExpression.class.cast(e).getOperand(), -1);
+                int d = destination(kind, target);
+                emit(Op.DNEG, d, x);
+                return d;
+            } else if (e instanceof SubscriptedVariable) {
+                SubscriptedVariable s = SubscriptedVariable.class.cast(e);
+                int array = protect(BytecodeFunction.OBJECT, compileObject(s.getSequence(), -1), s.getIndex());
+                int index = compileLong(s.getIndex(), -1);
+                int d = destination(kind, target);
+                emit(Op.DALOAD, d, array, index);
+                return d;
+            } else if (e instanceof DottedVariable) {
+                DottedVariable dotted = DottedVariable.class.cast(e);
+                int struct = compileObject(dotted.getStruct(), -1);
+                int d = destination(kind, target);
+                emit(Op.DGETFIELD, d, struct, dotted.getField().getFrameSlot());
+                return d;
+            } else if (e instanceof CallExpression) {
+                CallExpression c = CallExpression.class.cast(e);
+                return compileCall(c.getFunction(), c.getArgs(), destination(kind, target));
+            }
+            throw new RuntimeException("Unknown entity class: " + e.getClass().getName());
+        }
+
+        /**
+         * Compiles an expression of a reference type.
+         */
+        private int compileObject(Expression e, int target) {
+            char kind = BytecodeFunction.OBJECT;
+            if (e instanceof SimpleVariableReference) {
+                Variable v = SimpleVariableReference.class.cast(e).getReferent();
+                if (v.getFrameLevel() == level) {
+                    return move(kind, v.getFrameSlot(), target);
+                }
+                int d = destination(kind, target);
+                emit(Op.AGETUP, d, level - v.getFrameLevel(), v.getFrameSlot());
+                return d;
+            } else if (e instanceof StringLiteral) {
+                StringBuilder builder = new StringBuilder();
+                for (int codepoint: StringLiteral.class.cast(e).getValues()) {
+                    builder.appendCodePoint(codepoint);
+                }
+                int d = destination(kind, target);
+                emit(Op.ACONST, d, objectConstant(builder.toString()));
+                return d;
+            } else if (e instanceof NullLiteral) {
+                int d = destination(kind, target);
+                emit(Op.ANULL, d);
+                return d;
+            } else if (e instanceof SubscriptedVariable) {
+                SubscriptedVariable s = SubscriptedVariable.class.cast(e);
+                int array = protect(kind, compileObject(s.getSequence(), -1), s.getIndex());
+                int index = compileLong(s.getIndex(), -1);
+                int d = destination(kind, target);
+                emit(Op.AALOAD, d, array, index);
+                return d;
+            } else if (e instanceof DottedVariable) {
+                DottedVariable dotted = DottedVariable.class.cast(e);
+                int struct = compileObject(dotted.getStruct(), -1);
+                int d = destination(kind, target);
+                emit(Op.AGETFIELD, d, struct, dotted.getField().getFrameSlot());
+                return d;
+            } else if (e instanceof CallExpression) {
+                CallExpression c = CallExpression.class.cast(e);
+                return compileCall(c.getFunction(), c.getArgs(), destination(kind, target));
+            } else if (e instanceof EmptyArray) {
+                EmptyArray a = EmptyArray.class.cast(e);
+                int length = compileLong(a.getBound(), -1);
+                int d = destination(kind, target);
+                newArray(ArrayType.class.cast(a.getType()).getBaseType(), d, length);
+                return d;
+            } else if (e instanceof ArrayAggregate) {
+                // Built in a temporary, since the elements may refer to the target
+                ArrayAggregate a = ArrayAggregate.class.cast(e);
+                Type base = ArrayType.class.cast(a.getType()).getBaseType();
+                char baseKind = kindOf(base);
+                int array = temp(kind);
+                int length = temp(BytecodeFunction.LONG);
+                emit(Op.LCONST, length, a.getArgs().size());
+                newArray(base, array, length);
+                for (int i = 0; i < a.getArgs().size(); i++) {
+                    int element = compile(baseKind, a.getArgs().get(i), -1);
+                    int index = temp(BytecodeFunction.LONG);
+                    emit(Op.LCONST, index, i);
+                    emit(baseKind == BytecodeFunction.LONG ? Op.LASTORE : baseKind == BytecodeFunction.DOUBLE ? Op.DASTORE : Op.AASTORE,
+                        array, index, element);
+                }
+                return move(kind, array, target);
+            } else if (e instanceof StructAggregate) {
+                StructAggregate a = StructAggregate.class.cast(e);
+                List<StructField> fields = StructType.class.cast(a.getType()).getFields();
+                int struct = temp(kind);
+                emit(Op.NEWSTRUCT, struct, typeIndex(a.getType()));
+                for (int i = 0; i < fields.size(); i++) {
+                    char fieldKind = kindOf(fields.get(i).getType());
+                    int value = compile(fieldKind, a.getArgs().get(i), -1);
+                    emit(fieldKind == BytecodeFunction.LONG ? Op.LPUTFIELD : fieldKind == BytecodeFunction.DOUBLE ? Op.DPUTFIELD : Op.APUTFIELD,
+                        struct, fields.get(i).getFrameSlot(), value);
+                }
+                return move(kind, struct, target);
+            } else if (e instanceof PrefixExpression) {
+                Expression operand = PrefixExpression.class.cast(e).getOperand();
+                char operandKind = kindOf(operand.getType());
+                int x = compile(operandKind, operand, -1);
+                int d = destination(kind, target);
+                if (operandKind == BytecodeFunction.LONG) {
+                    emit(Op.STRING_L, d, x, typeIndex(operand.getType()));
+                } else if (operandKind == BytecodeFunction.DOUBLE) {
+                    emit(Op.STRING_D, d, x);
+                } else {
+                    emit(Op.STRING_A, d, x, typeIndex(operand.getType()));
+                }
+                return d;
+            }
+            throw new RuntimeException("Unknown entity class: " + e.getClass().getName());
+        }
+
+        private void newArray(Type base, int array, int length) {
+            char baseKind = kindOf(base);
+            if (baseKind == BytecodeFunction.LONG) {
+                emit(Op.NEWARRAY_L, array, length);
+            } else if (baseKind == BytecodeFunction.DOUBLE) {
+                emit(Op.NEWARRAY_D, array, length);
+            } else {
+                emit(Op.NEWARRAY_A, array, length, typeIndex(base));
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.code.mycode.vm;
+
+import java.io.PrintWriter;
+import java.io.Serializable;
+
+import com.code.mycode.interpreter.Values;
+
+/**
+ * The compiled code of one function, or of the top level of a program, together with what is
+ * needed to make frames for it: the sizes of its register files, which start with the slots of
+ * its variables and continue with temporaries, and its static nesting level.
+ */
+public class BytecodeFunction implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The kinds of registers, used to describe parameters and results.
+     */
+    static final char LONG = 'L', DOUBLE = 'D', OBJECT = 'A', NONE = 'V';
+
+    final String name;
+    final int level;
+    final int[] code;
+    final int longs;
+    final int doubles;
+    final int objects;
+    final char[] parameterKinds;
+    final int[] parameterSlots;
+    final char resultKind;
+    final double[] doubleConstants;
+    final Object[] objectConstants;
+
+    BytecodeFunction(String name, int level, int[] code, int longs, int doubles, int objects,
+            char[] parameterKinds, int[] parameterSlots, char resultKind,
+            double[] doubleConstants, Object[] objectConstants) {
+        this.name = name;
+        this.level = level;
+        this.code = code;
+        this.longs = longs;
+        this.doubles = doubles;
+        this.objects = objects;
+        this.parameterKinds = parameterKinds;
+        this.parameterSlots = parameterSlots;
+        this.resultKind = resultKind;
+        this.doubleConstants = doubleConstants;
+        this.objectConstants = objectConstants;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of ints in the code.
+     */
+    public int getCodeSize() {
+        return code.length;
+    }
+
+    /**
+     * Writes a listing of the code.
+     */
+    void print(PrintWriter writer, BytecodeProgram program) {
+        writer.printf("function %s (level %d, registers %d/%d/%d)%n",
+            name, level, longs, doubles, objects);
+        for (int pc = 0; pc < code.length; pc += Op.length(code, pc)) {
+            int op = code[pc];
+            StringBuilder line = new StringBuilder(String.format("  %4d  %-14s", pc, Op.NAMES[op]));
+            for (int i = 1; i < Op.length(code, pc); i++) {
+                line.append(i == 1 ? "" : ", ").append(code[pc + i]);
+            }
+            if (op == Op.DCONST) {
+                line.append("  ; ").append(Values.formatReal(doubleConstants[code[pc + 2]]));
+            } else if (op == Op.ACONST) {
+                line.append("  ; ").append(Values.quote((String)objectConstants[code[pc + 2]]));
+            } else if (op == Op.CALL) {
+                line.append("  ; ").append(program.getFunction(code[pc + 1]).name);
+            } else if (op == Op.NEWSTRUCT || op == Op.NEWARRAY_A || op == Op.PRINT_A
+                    || op == Op.STRING_A) {
+                line.append("  ; ").append(program.getType(code[pc + Op.OPERANDS[op]]));
+            }
+            writer.println(line);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.code.mycode.vm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.util.List;
+
+import com.code.mycode.interpreter.RuntimeType;
+
+/**
+ * A program compiled for the register machine: the code of its top level, the code of all of
+ * its functions, nested or not, which calls refer to by index, and the table of types that
+ * instructions creating or printing values refer to by index.
+ *
+ * Compiled programs hold nothing from the semantic graph, so they can be written out and read
+ * back to be run again without parsing or analyzing the source.
+ */
+public class BytecodeProgram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private BytecodeFunction main;
+    private BytecodeFunction[] functions;
+    private RuntimeType[] types;
+
+    BytecodeProgram(BytecodeFunction main, List<BytecodeFunction> functions, List<RuntimeType> types) {
+        this.main = main;
+        this.functions = functions.toArray(new BytecodeFunction[functions.size()]);
+        this.types = types.toArray(new RuntimeType[types.size()]);
+    }
+
+    public BytecodeFunction getMain() {
+        return main;
+    }
+
+    BytecodeFunction getFunction(int index) {
+        return functions[index];
+    }
+
+    BytecodeFunction[] getFunctions() {
+        return functions;
+    }
+
+    RuntimeType getType(int index) {
+        return types[index];
+    }
+
+    RuntimeType[] getTypes() {
+        return types;
+    }
+
+    /**
+     * Writes the program to a stream, which is not closed.
+     */
+    public void write(OutputStream stream) throws IOException {
+        ObjectOutputStream out = new ObjectOutputStream(stream);
+        out.writeObject(this);
+        out.flush();
+    }
+
+    /**
+     * Reads a program written by write.
+     */
+    public static BytecodeProgram read(InputStream stream) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(stream);
+        try {
+            return BytecodeProgram.class.cast(in.readObject());
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e.getMessage());
+        } catch (ClassCastException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a listing of the whole program.
+     */
+    public void print(PrintWriter writer) {
+        main.print(writer, this);
+        for (BytecodeFunction f: functions) {
+            writer.println();
+            f.print(writer, this);
+        }
+        writer.flush();
+    }
+}
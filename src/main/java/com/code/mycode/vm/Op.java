@@ -0,0 +1,195 @@
+package com.code.mycode.vm;
+
+/**
+ * The opcodes of the register machine.  An instruction is an opcode followed by its operands,
+ * all ints, in the code array of a function.  Registers come in three files, named by the
+ * first letter of the opcodes using them: L for longs (ints, chars and booleans), D for
+ * doubles, and A for objects; opcodes starting with I work on L registers but keep results
+ * within 32 bits.  Operand names below are d for a destination register, a, b and c for
+ * source registers, k for an index into a constant pool or the type table, t for a jump
+ * target, and n for a literal count or amount.
+ *
+ * Opcodes are plain int constants rather than an enum so the dispatch loop switches on them
+ * directly.
+ */
+final class Op {
+
+    private Op() {
+    }
+
+    // Constants and moves
+    static final int LCONST = 0;        // d n
+    static final int DCONST = 1;        // d k
+    static final int ACONST = 2;        // d k
+    static final int ANULL = 3;         // d
+    static final int LMOV = 4;          // d a
+    static final int DMOV = 5;          // d a
+    static final int AMOV = 6;          // d a
+    static final int I2D = 7;           // d a
+
+    // Int arithmetic
+    static final int IADD = 8;          // d a b
+    static final int ISUB = 9;
+    static final int IMUL = 10;
+    static final int IDIV = 11;
+    static final int IMOD = 12;
+    static final int ISHL = 13;
+    static final int ISHR = 14;
+    static final int IAND = 15;
+    static final int IOR = 16;
+    static final int IXOR = 17;
+    static final int IADDN = 18;        // d a n
+    static final int INEG = 19;         // d a
+    static final int ICOMPL = 20;       // d a
+    static final int ZNOT = 21;         // d a
+
+    // Real arithmetic
+    static final int DADD = 22;         // d a b
+    static final int DSUB = 23;
+    static final int DMUL = 24;
+    static final int DDIV = 25;
+    static final int DNEG = 26;         // d a
+
+    // Comparisons, producing 0 or 1 in an L register
+    static final int LEQ = 27;          // d a b
+    static final int LNE = 28;
+    static final int LLT = 29;
+    static final int LLE = 30;
+    static final int LGT = 31;
+    static final int LGE = 32;
+    static final int DEQ = 33;
+    static final int DNE = 34;
+    static final int DLT = 35;
+    static final int DLE = 36;
+    static final int DGT = 37;
+    static final int DGE = 38;
+    static final int SLT = 39;
+    static final int SLE = 40;
+    static final int SGT = 41;
+    static final int SGE = 42;
+    static final int AEQ = 43;
+    static final int ANE = 44;
+
+    // Jumps
+    static final int JUMP = 45;         // t
+    static final int JUMP_IF_FALSE = 46; // a t
+    static final int JUMP_IF_TRUE = 47; // a t
+    static final int JEQ = 48;          // a b t, jumping if the L registers compare so
+    static final int JNE = 49;
+    static final int JLT = 50;
+    static final int JLE = 51;
+    static final int JGT = 52;
+    static final int JGE = 53;
+
+    // Variables of enclosing functions, n frames up the static chain
+    static final int LGETUP = 54;       // d n k
+    static final int DGETUP = 55;
+    static final int AGETUP = 56;
+    static final int LPUTUP = 57;       // n k a
+    static final int DPUTUP = 58;
+    static final int APUTUP = 59;
+
+    // Arrays, strings and structs; k is a type for NEWARRAY_A and NEWSTRUCT, a slot for fields
+    static final int NEWARRAY_L = 60;   // d a
+    static final int NEWARRAY_D = 61;   // d a
+    static final int NEWARRAY_A = 62;   // d a k
+    static final int LALOAD = 63;       // d a b
+    static final int DALOAD = 64;
+    static final int AALOAD = 65;
+    static final int LASTORE = 66;      // a b c
+    static final int DASTORE = 67;
+    static final int AASTORE = 68;
+    static final int CHARAT = 69;       // d a b
+    static final int LENGTH = 70;       // d a
+    static final int NEWSTRUCT = 71;    // d k
+    static final int LGETFIELD = 72;    // d a k
+    static final int DGETFIELD = 73;
+    static final int AGETFIELD = 74;
+    static final int LPUTFIELD = 75;    // a k b
+    static final int DPUTFIELD = 76;
+    static final int APUTFIELD = 77;
+
+    // Calls and returns; CALL is followed by the argument registers, and d is -1 for no result
+    static final int CALL = 78;         // k d n a...
+    static final int RET = 79;
+    static final int LRET = 80;         // a
+    static final int DRET = 81;
+    static final int ARET = 82;
+
+    // Built-in functions
+    static final int SQRT = 83;         // d a
+    static final int SIN = 84;
+    static final int COS = 85;
+    static final int LN = 86;
+    static final int ATAN = 87;         // d a b
+    static final int SUBSTRING = 88;    // d a b c
+    static final int GETSTRING = 89;    // d
+
+    // Output and conversion to string, k being the type of the value
+    static final int PRINT_L = 90;      // a k
+    static final int PRINT_D = 91;      // a
+    static final int PRINT_A = 92;      // a k
+    static final int STRING_L = 93;     // d a k
+    static final int STRING_D = 94;     // d a
+    static final int STRING_A = 95;     // d a k
+
+    static final String[] NAMES = {
+        "lconst", "dconst", "aconst", "anull", "lmov", "dmov", "amov", "i2d",
+        "iadd", "isub", "imul", "idiv", "imod", "ishl", "ishr", "iand", "ior", "ixor",
+        "iaddn", "ineg", "icompl", "znot",
+        "dadd", "dsub", "dmul", "ddiv", "dneg",
+        "leq", "lne", "llt", "lle", "lgt", "lge", "deq", "dne", "dlt", "dle", "dgt", "dge",
+        "slt", "sle", "sgt", "sge", "aeq", "ane",
+        "jump", "jump_if_false", "jump_if_true", "jeq", "jne", "jlt", "jle", "jgt", "jge",
+        "lgetup", "dgetup", "agetup", "lputup", "dputup", "aputup",
+        "newarray_l", "newarray_d", "newarray_a", "laload", "daload", "aaload",
+        "lastore", "dastore", "aastore", "charat", "length",
+        "newstruct", "lgetfield", "dgetfield", "agetfield", "lputfield", "dputfield", "aputfield",
+        "call", "ret", "lret", "dret", "aret",
+        "sqrt", "sin", "cos", "ln", "atan", "substring", "getstring",
+        "print_l", "print_d", "print_a", "string_l", "string_d", "string_a",
+    };
+
+    /**
+     * The number of operands of each opcode; for CALL, only the fixed ones.
+     */
+    static final int[] OPERANDS = {
+        2, 2, 2, 1, 2, 2, 2, 2,
+        3, 3, 3, 3, 3, 3, 3, 3, 3, 3,
+        3, 2, 2, 2,
+        3, 3, 3, 3, 2,
+        3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3,
+        3, 3, 3, 3, 3, 3,
+        1, 2, 2, 3, 3, 3, 3, 3, 3,
+        3, 3, 3, 3, 3, 3,
+        2, 2, 3, 3, 3, 3,
+        3, 3, 3, 3, 2,
+        2, 3, 3, 3, 3, 3, 3,
+        3, 0, 1, 1, 1,
+        2, 2, 2, 2, 3, 4, 1,
+        2, 1, 2, 3, 2, 3,
+    };
+
+    /**
+     * Returns the length of the instruction at the given position, opcode included.
+     */
+    static int length(int[] code, int pc) {
+        int op = code[pc];
+        return op == CALL ? 4 + code[pc + 3] : 1 + OPERANDS[op];
+    }
+
+    /**
+     * Returns the position of the jump target operand of a jump instruction, or -1 if the
+     * instruction is not a jump.
+     */
+    static int targetOperand(int op) {
+        if (op == JUMP) {
+            return 1;
+        } else if (op == JUMP_IF_FALSE || op == JUMP_IF_TRUE) {
+            return 2;
+        } else if (op >= JEQ && op <= JGE) {
+            return 3;
+        }
+        return -1;
+    }
+}
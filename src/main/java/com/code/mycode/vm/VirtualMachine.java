@@ -0,0 +1,579 @@
+package com.code.mycode.vm;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+
+import com.code.mycode.interpreter.Frame;
+import com.code.mycode.interpreter.RuntimeError;
+import com.code.mycode.interpreter.RuntimeType;
+import com.code.mycode.interpreter.Values;
+
+/**
+ * Runs programs compiled by the BytecodeCompiler.  The registers of a function are the slots of
+ * its frame, so frames are the same as the interpreter's, and values are represented the same
+ * way: ints, chars and booleans in longs, reals in doubles, arrays as long, double or object
+ * arrays, and structs as parentless frames.  Output and run time errors match the
+ * interpreter's too.
+ *
+ * Each function runs in one invocation of execute, a loop switching on the opcode with the
+ * code and the three register files of the frame in local variables.  Calls are calls of
+ * execute.
+ */
+public class VirtualMachine {
+
+    private Reader input;
+    private PrintWriter output;
+    private BytecodeFunction[] functions;
+    private RuntimeType[] types;
+
+    // Where a return instruction leaves its value
+    private long returnLong;
+    private double returnDouble;
+    private Object returnObject;
+
+    /**
+     * Creates a machine whose programs read from the given input, through getString, and print
+     * to the given output.
+     */
+    public VirtualMachine(Reader input, PrintWriter output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Runs the given program.
+     */
+    public void run(BytecodeProgram program) {
+        functions = program.getFunctions();
+        types = program.getTypes();
+        BytecodeFunction main = program.getMain();
+        try {
+            execute(main, new Frame(main.longs, main.doubles, main.objects, null, main.level));
+        } catch (StackOverflowError e) {
+            throw new RuntimeError("stack_overflow");
+        } finally {
+            output.flush();
+        }
+    }
+
+    private void execute(BytecodeFunction function, Frame frame) {
+        final int[] code = function.code;
+        final long[] l = frame.longs;
+        final double[] d = frame.doubles;
+        final Object[] a = frame.objects;
+        int pc = 0;
+
+        for (;;) {
+            switch (code[pc]) {
+            case Op.LCONST:
+                l[code[pc + 1]] = code[pc + 2];
+                pc += 3;
+                break;
+            case Op.DCONST:
+                d[code[pc + 1]] = function.doubleConstants[code[pc + 2]];
+                pc += 3;
+                break;
+            case Op.ACONST:
+                a[code[pc + 1]] = function.objectConstants[code[pc + 2]];
+                pc += 3;
+                break;
+            case Op.ANULL:
+                a[code[pc + 1]] = null;
+                pc += 2;
+                break;
+            case Op.LMOV:
+                l[code[pc + 1]] = l[code[pc + 2]];
+                pc += 3;
+                break;
+            case Op.DMOV:
+                d[code[pc + 1]] = d[code[pc + 2]];
+                pc += 3;
+                break;
+            case Op.AMOV:
+                a[code[pc + 1]] = a[code[pc + 2]];
+                pc += 3;
+                break;
+            case Op.I2D:
+                d[code[pc + 1]] = l[code[pc + 2]];
+                pc += 3;
+                break;
+
+            case Op.IADD:
+                l[code[pc + 1]] = (int)l[code[pc + 2]] + (int)l[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.ISUB:
+                l[code[pc + 1]] = (int)l[code[pc + 2]] - (int)l[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.IMUL:
+                l[code[pc + 1]] = (int)l[code[pc + 2]] * (int)l[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.IDIV:
+                l[code[pc + 1]] = (int)l[code[pc + 2]] / checkDivisor((int)l[code[pc + 3]]);
+                pc += 4;
+                break;
+            case Op.IMOD:
+                l[code[pc + 1]] = (int)l[code[pc + 2]] % checkDivisor((int)l[code[pc + 3]]);
+                pc += 4;
+                break;
+            case Op.ISHL:
+                l[code[pc + 1]] = (int)l[code[pc + 2]] << (int)l[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.ISHR:
+                l[code[pc + 1]] = (int)l[code[pc + 2]] >> (int)l[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.IAND:
+                l[code[pc + 1]] = l[code[pc + 2]] & l[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.IOR:
+                l[code[pc + 1]] = l[code[pc + 2]] | l[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.IXOR:
+                l[code[pc + 1]] = l[code[pc + 2]] ^ l[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.IADDN:
+                l[code[pc + 1]] = (int)(l[code[pc + 2]] + code[pc + 3]);
+                pc += 4;
+                break;
+            case Op.INEG:
+                l[code[pc + 1]] = (int)-l[code[pc + 2]];
+                pc += 3;
+                break;
+            case Op.ICOMPL:
+                l[code[pc + 1]] = ~l[code[pc + 2]];
+                pc += 3;
+                break;
+            case Op.ZNOT:
+                l[code[pc + 1]] = l[code[pc + 2]] == 0 ? 1 : 0;
+                pc += 3;
+                break;
+
+            case Op.DADD:
+                d[code[pc + 1]] = d[code[pc + 2]] + d[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.DSUB:
+                d[code[pc + 1]] = d[code[pc + 2]] - d[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.DMUL:
+                d[code[pc + 1]] = d[code[pc + 2]] * d[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.DDIV:
+                d[code[pc + 1]] = d[code[pc + 2]] / d[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.DNEG:
+                d[code[pc + 1]] = -d[code[pc + 2]];
+                pc += 3;
+                break;
+
+            case Op.LEQ:
+                l[code[pc + 1]] = l[code[pc + 2]] == l[code[pc + 3]] ? 1 : 0;
+                pc += 4;
+                break;
+            case Op.LNE:
+                l[code[pc + 1]] = l[code[pc + 2]] != l[code[pc + 3]] ? 1 : 0;
+                pc += 4;
+                break;
+            case Op.LLT:
+                l[code[pc + 1]] = l[code[pc + 2]] < l[code[pc + 3]] ? 1 : 0;
+                pc += 4;
+                break;
+            case Op.LLE:
+                l[code[pc + 1]] = l[code[pc + 2]] <= l[code[pc + 3]] ? 1 : 0;
+                pc += 4;
+                break;
+            case Op.LGT:
+                l[code[pc + 1]] = l[code[pc + 2]] > l[code[pc + 3]] ? 1 : 0;
+                pc += 4;
+                break;
+            case Op.LGE:
+                l[code[pc + 1]] = l[code[pc + 2]] >= l[code[pc + 3]] ? 1 : 0;
+                pc += 4;
+                break;
+            case Op.DEQ:
+                l[code[pc + 1]] = d[code[pc + 2]] == d[code[pc + 3]] ? 1 : 0;
+                pc += 4;
+                break;
+            case Op.DNE:
+                l[code[pc + 1]] = d[code[pc + 2]] != d[code[pc + 3]] ? 1 : 0;
+                pc += 4;
+                break;
+            case Op.DLT:
+                l[code[pc + 1]] = d[code[pc + 2]] < d[code[pc + 3]] ? 1 : 0;
+                pc += 4;
+                break;
+            case Op.DLE:
+                l[code[pc + 1]] = d[code[pc + 2]] <= d[code[pc + 3]] ? 1 : 0;
+                pc += 4;
+                break;
+            case Op.DGT:
+                l[code[pc + 1]] = d[code[pc + 2]] > d[code[pc + 3]] ? 1 : 0;
+                pc += 4;
+                break;
+            case Op.DGE:
+                l[code[pc + 1]] = d[code[pc + 2]] >= d[code[pc + 3]] ? 1 : 0;
+                pc += 4;
+                break;
+            case Op.SLT:
+                l[code[pc + 1]] = string(a[code[pc + 2]]).compareTo(string(a[code[pc + 3]])) < 0 ? 1 : 0;
+                pc += 4;
+                break;
+            case Op.SLE:
+                l[code[pc + 1]] = string(a[code[pc + 2]]).compareTo(string(a[code[pc + 3]])) <= 0 ? 1 : 0;
+                pc += 4;
+                break;
+            case Op.SGT:
+                l[code[pc + 1]] = string(a[code[pc + 2]]).compareTo(string(a[code[pc + 3]])) > 0 ? 1 : 0;
+                pc += 4;
+                break;
+            case Op.SGE:
+                l[code[pc + 1]] = string(a[code[pc + 2]]).compareTo(string(a[code[pc + 3]])) >= 0 ? 1 : 0;
+                pc += 4;
+                break;
+            case Op.AEQ:
+                l[code[pc + 1]] = same(a[code[pc + 2]], a[code[pc + 3]]) ? 1 : 0;
+                pc += 4;
+                break;
+            case Op.ANE:
+                l[code[pc + 1]] = same(a[code[pc + 2]], a[code[pc + 3]]) ? 0 : 1;
+                pc += 4;
+                break;
+
+            case Op.JUMP:
+                pc = code[pc + 1];
+                break;
+            case Op.JUMP_IF_FALSE:
+                pc = l[code[pc + 1]] == 0 ? code[pc + 2] : pc + 3;
+                break;
+            case Op.JUMP_IF_TRUE:
+                pc = l[code[pc + 1]] != 0 ? code[pc + 2] : pc + 3;
+                break;
+            case Op.JEQ:
+                pc = l[code[pc + 1]] == l[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                break;
+            case Op.JNE:
+                pc = l[code[pc + 1]] != l[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                break;
+            case Op.JLT:
+                pc = l[code[pc + 1]] < l[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                break;
+            case Op.JLE:
+                pc = l[code[pc + 1]] <= l[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                break;
+            case Op.JGT:
+                pc = l[code[pc + 1]] > l[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                break;
+            case Op.JGE:
+                pc = l[code[pc + 1]] >= l[code[pc + 2]] ? code[pc + 3] : pc + 4;
+                break;
+
+            case Op.LGETUP:
+                l[code[pc + 1]] = up(frame, code[pc + 2]).longs[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.DGETUP:
+                d[code[pc + 1]] = up(frame, code[pc + 2]).doubles[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.AGETUP:
+                a[code[pc + 1]] = up(frame, code[pc + 2]).objects[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.LPUTUP:
+                up(frame, code[pc + 1]).longs[code[pc + 2]] = l[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.DPUTUP:
+                up(frame, code[pc + 1]).doubles[code[pc + 2]] = d[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.APUTUP:
+                up(frame, code[pc + 1]).objects[code[pc + 2]] = a[code[pc + 3]];
+                pc += 4;
+                break;
+
+            case Op.NEWARRAY_L:
+                a[code[pc + 1]] = new long[checkSize(l[code[pc + 2]])];
+                pc += 3;
+                break;
+            case Op.NEWARRAY_D:
+                a[code[pc + 1]] = new double[checkSize(l[code[pc + 2]])];
+                pc += 3;
+                break;
+            case Op.NEWARRAY_A: {
+                Object[] array = new Object[checkSize(l[code[pc + 2]])];
+                if (types[code[pc + 3]] == RuntimeType.STRING) {
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = "";
+                    }
+                }
+                a[code[pc + 1]] = array;
+                pc += 4;
+                break;
+            }
+            case Op.LALOAD: {
+                long[] array = (long[])checkNotNull(a[code[pc + 2]]);
+                l[code[pc + 1]] = array[checkIndex(l[code[pc + 3]], array.length)];
+                pc += 4;
+                break;
+            }
+            case Op.DALOAD: {
+                double[] array = (double[])checkNotNull(a[code[pc + 2]]);
+                d[code[pc + 1]] = array[checkIndex(l[code[pc + 3]], array.length)];
+                pc += 4;
+                break;
+            }
+            case Op.AALOAD: {
+                Object[] array = (Object[])checkNotNull(a[code[pc + 2]]);
+                a[code[pc + 1]] = array[checkIndex(l[code[pc + 3]], array.length)];
+                pc += 4;
+                break;
+            }
+            case Op.LASTORE: {
+                long[] array = (long[])checkNotNull(a[code[pc + 1]]);
+                array[checkIndex(l[code[pc + 2]], array.length)] = l[code[pc + 3]];
+                pc += 4;
+                break;
+            }
+            case Op.DASTORE: {
+                double[] array = (double[])checkNotNull(a[code[pc + 1]]);
+                array[checkIndex(l[code[pc + 2]], array.length)] = d[code[pc + 3]];
+                pc += 4;
+                break;
+            }
+            case Op.AASTORE: {
+                Object[] array = (Object[])checkNotNull(a[code[pc + 1]]);
+                array[checkIndex(l[code[pc + 2]], array.length)] = a[code[pc + 3]];
+                pc += 4;
+                break;
+            }
+            case Op.CHARAT: {
+                String s = string(a[code[pc + 2]]);
+                l[code[pc + 1]] = s.charAt(checkIndex(l[code[pc + 3]], s.length()));
+                pc += 4;
+                break;
+            }
+            case Op.LENGTH: {
+                Object sequence = checkNotNull(a[code[pc + 2]]);
+                l[code[pc + 1]] = sequence instanceof String
+                    ? ((String)sequence).length() : Values.length(sequence);
+                pc += 3;
+                break;
+            }
+            case Op.NEWSTRUCT:
+                a[code[pc + 1]] = types[code[pc + 2]].newRecord();
+                pc += 3;
+                break;
+            case Op.LGETFIELD:
+                l[code[pc + 1]] = record(a[code[pc + 2]]).longs[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.DGETFIELD:
+                d[code[pc + 1]] = record(a[code[pc + 2]]).doubles[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.AGETFIELD:
+                a[code[pc + 1]] = record(a[code[pc + 2]]).objects[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.LPUTFIELD:
+                record(a[code[pc + 1]]).longs[code[pc + 2]] = l[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.DPUTFIELD:
+                record(a[code[pc + 1]]).doubles[code[pc + 2]] = d[code[pc + 3]];
+                pc += 4;
+                break;
+            case Op.APUTFIELD:
+                record(a[code[pc + 1]]).objects[code[pc + 2]] = a[code[pc + 3]];
+                pc += 4;
+                break;
+
+            case Op.CALL: {
+                BytecodeFunction callee = functions[code[pc + 1]];
+                Frame parent = frame;
+                while (parent.level >= callee.level) {
+                    parent = parent.parent;
+                }
+                Frame next = new Frame(callee.longs, callee.doubles, callee.objects, parent, callee.level);
+                char[] kinds = callee.parameterKinds;
+                int[] slots = callee.parameterSlots;
+                for (int i = 0; i < kinds.length; i++) {
+                    int register = code[pc + 4 + i];
+                    switch (kinds[i]) {
+                    case BytecodeFunction.LONG:
+                        next.longs[slots[i]] = l[register];
+                        break;
+                    case BytecodeFunction.DOUBLE:
+                        next.doubles[slots[i]] = d[register];
+                        break;
+                    default:
+                        next.objects[slots[i]] = a[register];
+                    }
+                }
+                execute(callee, next);
+                int result = code[pc + 2];
+                if (result >= 0) {
+                    switch (callee.resultKind) {
+                    case BytecodeFunction.LONG:
+                        l[result] = returnLong;
+                        break;
+                    case BytecodeFunction.DOUBLE:
+                        d[result] = returnDouble;
+                        break;
+                    case BytecodeFunction.OBJECT:
+                        a[result] = returnObject;
+                        break;
+                    }
+                }
+                pc += 4 + kinds.length;
+                break;
+            }
+            case Op.RET:
+                return;
+            case Op.LRET:
+                returnLong = l[code[pc + 1]];
+                return;
+            case Op.DRET:
+                returnDouble = d[code[pc + 1]];
+                return;
+            case Op.ARET:
+                returnObject = a[code[pc + 1]];
+                return;
+
+            case Op.SQRT:
+                d[code[pc + 1]] = StrictMath.sqrt(d[code[pc + 2]]);
+                pc += 3;
+                break;
+            case Op.SIN:
+                d[code[pc + 1]] = StrictMath.sin(d[code[pc + 2]]);
+                pc += 3;
+                break;
+            case Op.COS:
+                d[code[pc + 1]] = StrictMath.cos(d[code[pc + 2]]);
+                pc += 3;
+                break;
+            case Op.LN:
+                d[code[pc + 1]] = StrictMath.log(d[code[pc + 2]]);
+                pc += 3;
+                break;
+            case Op.ATAN:
+                d[code[pc + 1]] = StrictMath.atan2(d[code[pc + 2]], d[code[pc + 3]]);
+                pc += 4;
+                break;
+            case Op.SUBSTRING: {
+                // Mirrors JavaScript's substring, which clamps and orders its arguments
+                String s = string(a[code[pc + 2]]);
+                long start = Math.min(Math.max(l[code[pc + 3]], 0), s.length());
+                long end = Math.min(Math.max(l[code[pc + 4]], 0), s.length());
+                a[code[pc + 1]] = s.substring((int)Math.min(start, end), (int)Math.max(start, end));
+                pc += 5;
+                break;
+            }
+            case Op.GETSTRING:
+                a[code[pc + 1]] = readInput();
+                pc += 2;
+                break;
+
+            case Op.PRINT_L:
+                output.println(Values.display(l[code[pc + 1]], types[code[pc + 2]]));
+                pc += 3;
+                break;
+            case Op.PRINT_D:
+                output.println(Values.formatReal(d[code[pc + 1]]));
+                pc += 2;
+                break;
+            case Op.PRINT_A:
+                output.println(Values.display(a[code[pc + 1]], types[code[pc + 2]]));
+                pc += 3;
+                break;
+            case Op.STRING_L:
+                a[code[pc + 1]] = Values.json(l[code[pc + 2]], types[code[pc + 3]]);
+                pc += 4;
+                break;
+            case Op.STRING_D:
+                a[code[pc + 1]] = Values.json(d[code[pc + 2]]);
+                pc += 3;
+                break;
+            case Op.STRING_A:
+                a[code[pc + 1]] = Values.json(a[code[pc + 2]], types[code[pc + 3]]);
+                pc += 4;
+                break;
+
+            default:
+                throw new IllegalStateException("Bad opcode " + code[pc] + " at " + pc + " in " + function.name);
+            }
+        }
+    }
+
+    private String readInput() {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[4096];
+        try {
+            for (int n; (n = input.read(buffer)) != -1;) {
+                builder.append(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new RuntimeError("input_error", e.getMessage());
+        }
+        return builder.toString();
+    }
+
+    private static Frame up(Frame frame, int hops) {
+        for (int i = 0; i < hops; i++) {
+            frame = frame.parent;
+        }
+        return frame;
+    }
+
+    private static boolean same(Object x, Object y) {
+        return x == y || (x instanceof String && x.equals(y));
+    }
+
+    private static Object checkNotNull(Object value) {
+        if (value == null) {
+            throw new RuntimeError("null_dereference");
+        }
+        return value;
+    }
+
+    private static int checkIndex(long index, int length) {
+        if (index < 0 || index >= length) {
+            throw new RuntimeError("index_out_of_bounds", index, length);
+        }
+        return (int)index;
+    }
+
+    private static int checkDivisor(int divisor) {
+        if (divisor == 0) {
+            throw new RuntimeError("division_by_zero");
+        }
+        return divisor;
+    }
+
+    private static int checkSize(long size) {
+        if (size < 0) {
+            throw new RuntimeError("negative_array_size", size);
+        }
+        return (int)size;
+    }
+
+    private static Frame record(Object value) {
+        return (Frame)checkNotNull(value);
+    }
+
+    private static String string(Object value) {
+        return (String)checkNotNull(value);
+    }
+}
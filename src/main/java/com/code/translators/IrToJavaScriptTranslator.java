@@ -0,0 +1,392 @@
+package com.code.translators;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.code.mycode.entities.Entity;
+import com.code.mycode.entities.Function;
+import com.code.mycode.entities.StructField;
+import com.code.mycode.entities.StructType;
+import com.code.mycode.entities.Type;
+import com.code.mycode.entities.Variable;
+import com.code.mycode.ir.BasicBlock;
+import com.code.mycode.ir.Constant;
+import com.code.mycode.ir.Instruction;
+import com.code.mycode.ir.IrFunction;
+import com.code.mycode.ir.IrProgram;
+import com.code.mycode.ir.Opcode;
+import com.code.mycode.ir.Parameter;
+import com.code.mycode.ir.Value;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * A translator from the SSA form of a MyCode program to JavaScript.  Each function becomes a
+ * JavaScript function whose SSA values are local variables.  A function with more than one
+ * block becomes a loop around a switch on the number of the block to run next, with the phis of
+ * a block assigned on each edge into it.
+ *
+ * Unlike the translator working from the semantic graph, this one gives ints their 32-bit
+ * wrapping and truncating division semantics.
+ */
+public class IrToJavaScriptTranslator {
+
+    private PrintWriter writer;
+    private int indentPadding = 4;
+    private int indentLevel = 0;
+    private int temporaries = 0;
+
+    private static final String NEXT_BLOCK = "_b";
+
+    private ImmutableMap<Function, String> builtIns = ImmutableMap.<Function, String>builder()
+        .put(Function.ATAN, "Math.atan2")
+        .put(Function.COS, "Math.cos")
+        .put(Function.LN, "Math.log")
+        .put(Function.SIN, "Math.sin")
+        .put(Function.SQRT, "Math.sqrt")
+        .build();
+
+    private ImmutableMap<Opcode, String> infixOperators = ImmutableMap.<Opcode, String>builder()
+        .put(Opcode.ADD, "+").put(Opcode.SUB, "-").put(Opcode.MUL, "*")
+        .put(Opcode.DIV, "/").put(Opcode.MOD, "%")
+        .put(Opcode.SHL, "<<").put(Opcode.SHR, ">>")
+        .put(Opcode.AND, "&").put(Opcode.OR, "|").put(Opcode.XOR, "^")
+        .put(Opcode.EQ, "===").put(Opcode.NE, "!==")
+        .put(Opcode.LT, "<").put(Opcode.LE, "<=").put(Opcode.GT, ">").put(Opcode.GE, ">=")
+        .build();
+
+    public void translateProgram(IrProgram program, PrintWriter writer) {
+        this.writer = writer;
+        emit("(function () {");
+        indentLevel++;
+        emit("function _newArray(n, x) {");
+        emit("    var a = new Array(n);");
+        emit("    for (var i = 0; i < n; i++) a[i] = x;");
+        emit("    return a;");
+        emit("}");
+        translateBody(program.getMain());
+        indentLevel--;
+        emit("}());");
+        writer.flush();
+    }
+
+    private void translateFunction(IrFunction f) {
+        List<String> parameters = new ArrayList<String>();
+        for (Parameter p: f.getParameters()) {
+            parameters.add(name(p));
+        }
+        emit("function %s(%s) {", variable(f.getSource()), Joiner.on(", ").join(parameters));
+        indentLevel++;
+        translateBody(f);
+        indentLevel--;
+        emit("}");
+    }
+
+    private void translateBody(IrFunction f) {
+        if (!f.getSharedVariables().isEmpty()) {
+            List<String> shared = new ArrayList<String>();
+            for (Variable v: f.getSharedVariables()) {
+                shared.add(variable(v));
+            }
+            emit("var %s;", Joiner.on(", ").join(shared));
+        }
+        for (IrFunction nested: f.getNestedFunctions()) {
+            translateFunction(nested);
+        }
+
+        List<String> locals = new ArrayList<String>();
+        for (BasicBlock block: f.getBlocks()) {
+            for (Instruction i: block.getPhis()) {
+                locals.add(name(i));
+            }
+            for (Instruction i: block.getInstructions()) {
+                if (i.getType() != null && !i.getUsers().isEmpty()) {
+                    locals.add(name(i));
+                }
+            }
+        }
+        if (!locals.isEmpty()) {
+            emit("var %s;", Joiner.on(", ").join(locals));
+        }
+
+        if (f.getBlocks().size() == 1) {
+            translateBlock(f.getEntry());
+            return;
+        }
+        emit("var %s = %d;", NEXT_BLOCK, f.getEntry().getId());
+        emit("for (;;) {");
+        indentLevel++;
+        emit("switch (%s) {", NEXT_BLOCK);
+        for (BasicBlock block: f.getBlocks()) {
+            emit("case %d:", block.getId());
+            indentLevel++;
+            translateBlock(block);
+            indentLevel--;
+        }
+        emit("}");
+        indentLevel--;
+        emit("}");
+    }
+
+    private void translateBlock(BasicBlock block) {
+        for (Instruction i: block.getInstructions()) {
+            translateInstruction(i);
+        }
+    }
+
+    private void translateInstruction(Instruction i) {
+        Opcode opcode = i.getOpcode();
+        switch (opcode) {
+        case ASTORE:
+            emit("%s[%s] = %s;", operand(i, 0), operand(i, 1), operand(i, 2));
+            return;
+        case PUTFIELD:
+            emit("%s[%s] = %s;", operand(i, 0), property(i), operand(i, 1));
+            return;
+        case STORE_VAR:
+            emit("%s = %s;", variable((Variable)i.getAttribute()), operand(i, 0));
+            return;
+        case PRINT:
+            // Characters are kept as code units, so they have to be turned back into text.
+            if (i.getOperand(0).getType() == Type.CHAR) {
+                emit("console.log(String.fromCharCode(%s));", operand(i, 0));
+            } else {
+                emit("console.log(%s);", operand(i, 0));
+            }
+            return;
+        case RETURN:
+            emit(i.getOperands().isEmpty() ? "return;" : "return %s;", operands(i));
+            return;
+        case JUMP:
+            translateEdge(i.getBlock(), i.getTargets().get(0));
+            emit("continue;");
+            return;
+        case BRANCH:
+            emit("if (%s) {", operand(i, 0));
+            indentLevel++;
+            translateEdge(i.getBlock(), i.getTargets().get(0));
+            indentLevel--;
+            emit("} else {");
+            indentLevel++;
+            translateEdge(i.getBlock(), i.getTargets().get(1));
+            indentLevel--;
+            emit("}");
+            emit("continue;");
+            return;
+        default:
+            break;
+        }
+
+        String expression = translateExpression(i);
+        if (i.getType() != null && !i.getUsers().isEmpty()) {
+            emit("%s = %s;", name(i), expression);
+        } else {
+            emit("%s;", expression);
+        }
+    }
+
+    /**
+     * Assigns the phis of the target block their values for the edge from the given block, and
+     * sets the block to run next.  When a phi's value is another phi of the same block, all the
+     * values are saved in temporaries first, since the copies are meant to happen all at once.
+     */
+    private void translateEdge(BasicBlock from, BasicBlock to) {
+        int index = to.getPredecessors().indexOf(from);
+        List<Instruction> phis = to.getPhis();
+        boolean overlapping = false;
+        for (Instruction phi: phis) {
+            Value source = phi.getOperand(index);
+            if (source instanceof Instruction && phis.contains(source) && source != phi) {
+                overlapping = true;
+            }
+        }
+        List<String> values = new ArrayList<String>();
+        for (Instruction phi: phis) {
+            String value = value(phi.getOperand(index));
+            if (overlapping) {
+                String temporary = "_t" + temporaries++;
+                emit("var %s = %s;", temporary, value);
+                value = temporary;
+            }
+            values.add(value);
+        }
+        for (int k = 0; k < phis.size(); k++) {
+            if (!values.get(k).equals(name(phis.get(k)))) {
+                emit("%s = %s;", name(phis.get(k)), values.get(k));
+            }
+        }
+        emit("%s = %d;", NEXT_BLOCK, to.getId());
+    }
+
+    private String translateExpression(Instruction i) {
+        Opcode opcode = i.getOpcode();
+        boolean integer = i.getType() == Type.INT;
+        switch (opcode) {
+        case ADD:
+        case SUB:
+            return integer
+                ? String.format("(%s %s %s) | 0", operand(i, 0), infixOperators.get(opcode), operand(i, 1))
+                : String.format("%s %s %s", operand(i, 0), infixOperators.get(opcode), operand(i, 1));
+        case MUL:
+            return integer
+                ? String.format("Math.imul(%s, %s)", operand(i, 0), operand(i, 1))
+                : String.format("%s * %s", operand(i, 0), operand(i, 1));
+        case DIV:
+            return integer
+                ? String.format("(%s / %s) | 0", operand(i, 0), operand(i, 1))
+                : String.format("%s / %s", operand(i, 0), operand(i, 1));
+        case NEG:
+            return integer
+                ? String.format("(-%s) | 0", operand(i, 0))
+                : String.format("-%s", operand(i, 0));
+        case COMPL:
+            return String.format("~%s", operand(i, 0));
+        case NOT:
+            return String.format("!%s", operand(i, 0));
+        case CONVERT:
+            return operand(i, 0);
+        case LENGTH:
+            return String.format("%s.length", operand(i, 0));
+        case CHAR_AT:
+            return String.format("%s.charCodeAt(%s)", operand(i, 0), operand(i, 1));
+        case TO_STRING:
+            return String.format("JSON.stringify(%s)", operand(i, 0));
+        case NEW_ARRAY:
+            return String.format("_newArray(%s, %s)", operand(i, 0), initialValue((Type)i.getAttribute()));
+        case ARRAY:
+            return String.format("[%s]", operands(i));
+        case STRUCT:
+            Iterator<StructField> fields = ((StructType)i.getAttribute()).getFields().iterator();
+            List<String> pairs = new ArrayList<String>();
+            for (Value v: i.getOperands()) {
+                pairs.add(property(fields.next().getName()) + ": " + value(v));
+            }
+            return "{" + Joiner.on(", ").join(pairs) + "}";
+        case ALOAD:
+            return String.format("%s[%s]", operand(i, 0), operand(i, 1));
+        case GETFIELD:
+            return String.format("%s[%s]", operand(i, 0), property(i));
+        case LOAD_VAR:
+            return variable((Variable)i.getAttribute());
+        case CALL:
+            return translateCall(i);
+        case PHI:
+            return name(i);
+        default:
+            if (infixOperators.containsKey(opcode)) {
+                return String.format("%s %s %s", operand(i, 0), infixOperators.get(opcode), operand(i, 1));
+            }
+            throw new RuntimeException("Unknown opcode: " + opcode);
+        }
+    }
+
+    private String translateCall(Instruction i) {
+        Function f = (Function)i.getAttribute();
+        if (f == Function.PI) {
+            return "Math.PI";
+        } else if (f == Function.SUBSTRING) {
+            return String.format("%s.substring(%s, %s)", operand(i, 0), operand(i, 1), operand(i, 2));
+        } else if (f == Function.GET_STRING) {
+            return "fs.readFileSync('/dev/stdin')";
+        }
+        String function = builtIns.containsKey(f) ? builtIns.get(f) : variable(f);
+        return String.format("%s(%s)", function, operands(i));
+    }
+
+    private String operand(Instruction i, int index) {
+        return value(i.getOperand(index));
+    }
+
+    private String operands(Instruction i) {
+        List<String> result = new ArrayList<String>();
+        for (Value v: i.getOperands()) {
+            result.add(value(v));
+        }
+        return Joiner.on(", ").join(result);
+    }
+
+    private String value(Value v) {
+        if (v instanceof Constant) {
+            return constant(Constant.class.cast(v));
+        }
+        return name(v);
+    }
+
+    private String name(Value v) {
+        if (v instanceof Parameter) {
+            return "_a" + Parameter.class.cast(v).getIndex();
+        }
+        return "_r" + Instruction.class.cast(v).getId();
+    }
+
+    private String constant(Constant c) {
+        Object value = c.getValue();
+        if (value == null) {
+            return "null";
+        } else if (value instanceof String) {
+            return quote((String)value);
+        } else if (value instanceof Double && ((Double)value).isInfinite()) {
+            return (Double)value > 0 ? "Infinity" : "(-Infinity)";
+        }
+        String text = value.toString();
+        return text.startsWith("-") ? "(" + text + ")" : text;
+    }
+
+    private String initialValue(Type type) {
+        if (type == Type.INT || type == Type.CHAR || type == Type.REAL) {
+            return "0";
+        } else if (type == Type.BOOLEAN) {
+            return "false";
+        } else if (type == Type.STRING) {
+            return "\"\"";
+        }
+        return "null";
+    }
+
+    private String property(Instruction i) {
+        return property(((StructField)i.getAttribute()).getName());
+    }
+
+    private String property(String s) {
+        return quote(s);
+    }
+
+    /**
+     * Renders a string as a JavaScript string literal, escaping everything but the printable
+     * ASCII characters.
+     */
+    private String quote(String s) {
+        StringBuilder result = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (32 <= c && c <= 126 && c != '"' && c != '\\') {
+                result.append(c);
+            } else {
+                result.append(String.format("\\u%04x", (int)c));
+            }
+        }
+        result.append("\"");
+        return result.toString();
+    }
+
+    private String variable(Entity e) {
+        return String.format("_v%d", e.getId());
+    }
+
+    private void emit(String line, Object... args) {
+        int pad = indentPadding * indentLevel;
+
+        if (args.length != 0) {
+            line = String.format(line, args);
+        }
+
+        // printf does not allow "%0s" as a format specifier, darn it.
+        if (pad == 0) {
+            writer.println(line);
+        } else {
+            writer.printf("%" + pad + "s%s\n", "", line);
+        }
+    }
+}
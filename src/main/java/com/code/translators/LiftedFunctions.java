@@ -0,0 +1,227 @@
+package com.code.translators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.code.mycode.entities.Block;
+import com.code.mycode.entities.CallExpression;
+import com.code.mycode.entities.CallStatement;
+import com.code.mycode.entities.ClassicForStatement;
+import com.code.mycode.entities.Declarable;
+import com.code.mycode.entities.Declaration;
+import com.code.mycode.entities.Expression;
+import com.code.mycode.entities.ExpressionRewriter;
+import com.code.mycode.entities.FrameResolver;
+import com.code.mycode.entities.Function;
+import com.code.mycode.entities.Program;
+import com.code.mycode.entities.SimpleVariableReference;
+import com.code.mycode.entities.Statement;
+import com.code.mycode.entities.StructType;
+import com.code.mycode.entities.Variable;
+import com.code.mycode.entities.VariableExpression;
+
+/**
+ * What translators to languages without nested functions need to know to lift all functions
+ * of a program to the top: every function and struct type declared, the variables of each
+ * function, and which variables of enclosing functions each function uses, directly or through
+ * the functions it calls.  Those are the function's free variables, which the translation passes
+ * along by reference.  Top level variables used in functions are not free variables, but
+ * globals.
+ */
+class LiftedFunctions {
+
+    private List<Function> functions = new ArrayList<Function>();
+    private List<StructType> structs = new ArrayList<StructType>();
+    private Map<Function, Set<Variable>> references = new HashMap<Function, Set<Variable>>();
+    private Map<Function, Set<Function>> callees = new HashMap<Function, Set<Function>>();
+    private Map<Function, List<Variable>> declared = new HashMap<Function, List<Variable>>();
+    private Map<Function, List<Variable>> freeVariables = new HashMap<Function, List<Variable>>();
+    private Set<Variable> captured = new HashSet<Variable>();
+    private Set<Variable> globals = new LinkedHashSet<Variable>();
+
+    /**
+     * Analyzes a program, which must have been analyzed without errors.  Its frames are resolved
+     * here, for the frame levels of variables.
+     */
+    LiftedFunctions(Program program) {
+        FrameResolver.resolve(program);
+        scan(program, null);
+        findFreeVariables();
+    }
+
+    /**
+     * Returns the functions with bodies, outer functions before the functions nested in them.
+     */
+    List<Function> getFunctions() {
+        return functions;
+    }
+
+    /**
+     * Returns the struct types, in the order of their declarations.
+     */
+    List<StructType> getStructs() {
+        return structs;
+    }
+
+    /**
+     * Returns the parameters and variables of a function, not counting those of the functions
+     * nested in it.
+     */
+    List<Variable> getDeclared(Function f) {
+        return declared.get(f);
+    }
+
+    /**
+     * Returns the free variables of a function, ordered by id.
+     */
+    List<Variable> getFreeVariables(Function f) {
+        return freeVariables.get(f);
+    }
+
+    /**
+     * Returns whether a variable is a free variable of some function.
+     */
+    boolean isCaptured(Variable v) {
+        return captured.contains(v);
+    }
+
+    /**
+     * Returns the top level variables used in functions.
+     */
+    Set<Variable> getGlobals() {
+        return globals;
+    }
+
+    boolean isGlobal(Variable v) {
+        return globals.contains(v);
+    }
+
+    /**
+     * Notes the variables declared and referred to in a block, outside of nested functions, the
+     * functions it calls, and the functions and struct types declared in it.  Then does the same
+     * for each nested function.  The top level block is scanned as the function null.
+     */
+    private void scan(Block body, Function function) {
+        final Set<Variable> referenced = new HashSet<Variable>();
+        final Set<Function> called = new HashSet<Function>();
+        final List<Variable> variables = new ArrayList<Variable>();
+        final List<Function> nested = new ArrayList<Function>();
+        if (function != null) {
+            variables.addAll(function.getParameters());
+        }
+        new ExpressionRewriter() {
+            @Override
+            public boolean entersFunctions() {
+                return false;
+            }
+
+            @Override
+            public void visitStatement(Statement s) {
+                if (s instanceof Declaration) {
+                    Declarable d = Declaration.class.cast(s).getDeclarable();
+                    if (d instanceof Variable) {
+                        variables.add(Variable.class.cast(d));
+                    } else if (d instanceof Function && Function.class.cast(d).getBody() != null) {
+                        nested.add(Function.class.cast(d));
+                    } else if (d instanceof StructType) {
+                        structs.add(StructType.class.cast(d));
+                    }
+                } else if (s instanceof CallStatement) {
+                    called.add(CallStatement.class.cast(s).getFunction());
+                } else if (s instanceof ClassicForStatement) {
+                    ClassicForStatement f = ClassicForStatement.class.cast(s);
+                    if (f.getIndexVariable() != null) {
+                        variables.add(f.getIndexVariable());
+                    }
+                    // Initializers of derived variables are not otherwise visited
+                    for (Variable v: f.getDerivedVariables()) {
+                        variables.add(v);
+                        rewriteExpression(v.getInitializer());
+                    }
+                }
+            }
+
+            @Override
+            public Expression rewrite(Expression e) {
+                note(e);
+                return e;
+            }
+
+            @Override
+            public void written(VariableExpression target) {
+                note(target);
+            }
+
+            private void note(Expression e) {
+                if (e instanceof SimpleVariableReference) {
+                    referenced.add(SimpleVariableReference.class.cast(e).getReferent());
+                } else if (e instanceof CallExpression) {
+                    called.add(CallExpression.class.cast(e).getFunction());
+                }
+            }
+        }.rewriteBlock(body);
+
+        references.put(function, referenced);
+        callees.put(function, called);
+        declared.put(function, variables);
+        for (Function f: nested) {
+            functions.add(f);
+            scan(f.getBody(), f);
+        }
+    }
+
+    /**
+     * Finds the free variables of each function: those of enclosing functions it refers to
+     * itself, and those needed by the functions it calls, up to a fixed point.
+     */
+    private void findFreeVariables() {
+        Map<Function, Set<Variable>> free = new HashMap<Function, Set<Variable>>();
+        for (Function f: functions) {
+            Set<Variable> variables = new HashSet<Variable>();
+            for (Variable v: references.get(f)) {
+                if (v.getFrameLevel() == 0) {
+                    globals.add(v);
+                } else if (v.getFrameLevel() < level(f)) {
+                    variables.add(v);
+                }
+            }
+            free.put(f, variables);
+        }
+        for (boolean changed = true; changed;) {
+            changed = false;
+            for (Function f: functions) {
+                for (Function callee: callees.get(f)) {
+                    if (free.containsKey(callee)) {
+                        for (Variable v: free.get(callee)) {
+                            if (v.getFrameLevel() < level(f)) {
+                                changed |= free.get(f).add(v);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        for (Function f: functions) {
+            List<Variable> variables = new ArrayList<Variable>(free.get(f));
+            Collections.sort(variables, new Comparator<Variable>() {
+                @Override
+                public int compare(Variable x, Variable y) {
+                    return x.getId().compareTo(y.getId());
+                }
+            });
+            freeVariables.put(f, variables);
+            captured.addAll(variables);
+        }
+    }
+
+    private static int level(Function f) {
+        return f.getFrameLayout().getLevel();
+    }
+}
@@ -0,0 +1,1155 @@
+package com.code.translators;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.text.DecimalFormatSymbols;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+
+import com.code.mycode.entities.ArrayAggregate;
+import com.code.mycode.entities.ArrayType;
+import com.code.mycode.entities.AssignmentStatement;
+import com.code.mycode.entities.Block;
+import com.code.mycode.entities.BooleanLiteral;
+import com.code.mycode.entities.BreakStatement;
+import com.code.mycode.entities.CallExpression;
+import com.code.mycode.entities.CallStatement;
+import com.code.mycode.entities.Case;
+import com.code.mycode.entities.CharLiteral;
+import com.code.mycode.entities.ClassicForStatement;
+import com.code.mycode.entities.Declarable;
+import com.code.mycode.entities.Declaration;
+import com.code.mycode.entities.DottedVariable;
+import com.code.mycode.entities.EmptyArray;
+import com.code.mycode.entities.Expression;
+import com.code.mycode.entities.Function;
+import com.code.mycode.entities.IfStatement;
+import com.code.mycode.entities.IncrementStatement;
+import com.code.mycode.entities.InfixExpression;
+import com.code.mycode.entities.IntegerLiteral;
+import com.code.mycode.entities.NullLiteral;
+import com.code.mycode.entities.PostfixExpression;
+import com.code.mycode.entities.PrefixExpression;
+import com.code.mycode.entities.PrintStatement;
+import com.code.mycode.entities.Program;
+import com.code.mycode.entities.RealLiteral;
+import com.code.mycode.entities.ReturnStatement;
+import com.code.mycode.entities.SimpleVariableReference;
+import com.code.mycode.entities.Statement;
+import com.code.mycode.entities.StringLiteral;
+import com.code.mycode.entities.StructAggregate;
+import com.code.mycode.entities.StructField;
+import com.code.mycode.entities.StructType;
+import com.code.mycode.entities.SubscriptedVariable;
+import com.code.mycode.entities.TailCallStatement;
+import com.code.mycode.entities.Type;
+import com.code.mycode.entities.Variable;
+import com.code.mycode.entities.VariableExpression;
+import com.code.mycode.entities.WhileStatement;
+import com.code.util.IdGenerator;
+
+/**
+ * A translator from MyCode semantic graphs to a self-contained C99 program, which the system C
+ * compiler builds with nothing but the math library: cc -std=c99 -O2 program.c -lm
+ *
+ * The run time support in MyCodeRuntime.c is copied at the top of the program.  Structs become
+ * C structs, handled through pointers, and arrays and strings become blocks on the heap holding
+ * their length and then their elements; strings are of UTF-16 code units.  Functions are lifted
+ * to the top: the variables of enclosing functions they use are passed along by address, and
+ * the top level variables they use become globals.  Errors are reported with the messages of
+ * the given resource bundle, as the interpreter reports them.
+ *
+ * Where C leaves the order of evaluation open, as for the operands of most operators and the
+ * arguments of calls, operands whose order could show, because evaluating one has effects or
+ * because both can fail, are assigned to temporaries with the comma operator, in order.
+ */
+public class MyCodeToCTranslator {
+
+    private static final String RUNTIME = "/MyCodeRuntime.c";
+
+    // Keys of the messages the run time support reports errors with
+    private static final List<String> MESSAGES = Arrays.asList(
+        "index_out_of_bounds", "division_by_zero", "null_dereference", "negative_array_size", "input_error");
+
+    // Label at the top of the body of a tail recursive function
+    private static final String TAIL_LABEL = "mc_tail";
+
+    private ResourceBundle messages;
+    private PrintWriter writer;
+    private int indentPadding = 4;
+    private int indentLevel = 0;
+    private IdGenerator temporaries = new IdGenerator();
+
+    // Declarations of temporaries used by the statement being translated, emitted before it
+    private List<String> pendingTemporaries = new ArrayList<String>();
+
+    private LiftedFunctions lifted;
+
+    // The function being translated, or null for the top level
+    private Function function;
+
+    // Names of the string literals used, by their text, and the descriptors of array types
+    private Map<String, String> literals = new LinkedHashMap<String, String>();
+    private Map<String, ArrayType> arrayTypes = new LinkedHashMap<String, ArrayType>();
+
+    private ImmutableMap<Function, String> builtIns = ImmutableMap.<Function, String>builder()
+        .put(Function.ATAN, "atan2")
+        .put(Function.COS, "cos")
+        .put(Function.LN, "log")
+        .put(Function.SIN, "sin")
+        .put(Function.SQRT, "sqrt")
+        .build();
+
+    private ImmutableMap<Type, String> initialValues = ImmutableMap.<Type, String>builder()
+        .put(Type.BOOLEAN, "0")
+        .put(Type.CHAR, "0")
+        .put(Type.INT, "0")
+        .put(Type.REAL, "0.0")
+        .put(Type.STRING, "(&mc_empty)")
+        .build();
+
+    private ImmutableMap<Type, String> cTypes = ImmutableMap.<Type, String>builder()
+        .put(Type.BOOLEAN, "int32_t")
+        .put(Type.CHAR, "uint16_t")
+        .put(Type.INT, "int32_t")
+        .put(Type.REAL, "double")
+        .put(Type.STRING, "mc_array*")
+        .build();
+
+    private ImmutableMap<Type, String> typeNames = ImmutableMap.<Type, String>builder()
+        .put(Type.BOOLEAN, "boolean")
+        .put(Type.CHAR, "char")
+        .put(Type.INT, "int")
+        .put(Type.REAL, "real")
+        .put(Type.STRING, "string")
+        .put(Type.NULL_TYPE, "null")
+        .build();
+
+    private ImmutableMap<String, String> intOperators = ImmutableMap.<String, String>builder()
+        .put("+", "mc_add")
+        .put("-", "mc_sub")
+        .put("*", "mc_mul")
+        .put("/", "mc_div")
+        .put("%", "mc_mod")
+        .put("<<", "mc_shl")
+        .put(">>", "mc_shr")
+        .build();
+
+    /**
+     * Creates a translator reporting run time errors with messages from the given bundle.
+     */
+    public MyCodeToCTranslator(ResourceBundle messages) {
+        this.messages = messages;
+    }
+
+    /**
+     * Writes the program, which must have been analyzed without errors, as a C program.
+     */
+    public void translateProgram(Program program, PrintWriter writer) {
+        lifted = new LiftedFunctions(program);
+
+        // The code comes first, as it determines the literals and type descriptors needed.
+        StringWriter code = new StringWriter();
+        this.writer = new PrintWriter(code);
+        for (Function f: lifted.getFunctions()) {
+            emit("");
+            translateFunction(f);
+        }
+        StringWriter main = new StringWriter();
+        this.writer = new PrintWriter(main);
+        translateBlock(program);
+        this.writer.flush();
+
+        this.writer = new PrintWriter(code);
+        emit("");
+        emit("int main(void) {");
+        for (Map.Entry<String, String> literal: literals.entrySet()) {
+            emit("    %s = mc_string(%s, %d);", literal.getValue(), textName(literal.getValue()),
+                literal.getKey().length());
+        }
+        this.writer.print(main.toString());
+        emit("    return 0;");
+        emit("}");
+        this.writer.flush();
+
+        this.writer = writer;
+        emitRuntime();
+        for (StructType s: lifted.getStructs()) {
+            emit("struct %s;", structName(s));
+        }
+        for (StructType s: lifted.getStructs()) {
+            emit("");
+            translateStruct(s);
+        }
+        emitTypeDescriptors();
+        emit("");
+        for (Function f: lifted.getFunctions()) {
+            emit("%s;", signature(f));
+        }
+        emitLiterals();
+        if (!lifted.getGlobals().isEmpty()) {
+            emit("");
+        }
+        for (Variable v: lifted.getGlobals()) {
+            emit("static %s %s;", cType(v.getType()), name(v));
+        }
+        writer.print(code.toString());
+        writer.flush();
+    }
+
+    /**
+     * Writes the definitions of the messages for run time errors, turned into printf formats,
+     * and the run time support.
+     */
+    private void emitRuntime() {
+        emit("/* Translated from MyCode.  Build with: cc -std=c99 -O2 program.c -lm */");
+        emit("");
+        for (String key: MESSAGES) {
+            String pattern = messages.getString(key).replace("%", "%%");
+            emit("#define MC_%s %s", key.toUpperCase(), stringLiteral(MessageFormat.format(pattern, "%s", "%s")));
+        }
+        char grouping = new DecimalFormatSymbols().getGroupingSeparator();
+        emit("#define MC_GROUPING %s", grouping < 0x80 ? charLiteral(grouping) : "','");
+        emit("");
+
+        InputStream stream = MyCodeToCTranslator.class.getResourceAsStream(RUNTIME);
+        if (stream == null) {
+            throw new IllegalStateException("Missing resource " + RUNTIME);
+        }
+        try {
+            Reader reader = new InputStreamReader(stream, Charset.forName("UTF-8"));
+            char[] buffer = new char[4096];
+            for (int n; (n = reader.read(buffer)) != -1;) {
+                writer.write(buffer, 0, n);
+            }
+            reader.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read resource " + RUNTIME, e);
+        }
+        emit("");
+    }
+
+    // Declarations
+
+    private void translateStruct(StructType s) {
+        List<String> parameters = new ArrayList<String>();
+        emit("struct %s {", structName(s));
+        for (StructField field: s.getFields()) {
+            emit("    %s %s;", cType(field.getType()), fieldName(s, field));
+            parameters.add(cType(field.getType()) + " " + fieldName(s, field));
+        }
+        if (s.getFields().isEmpty()) {
+            // C has no empty structs
+            emit("    char unused;");
+        }
+        emit("};");
+        emit("");
+        emit("static struct %s* mc_new_%s(%s) {", structName(s), structName(s),
+            parameters.isEmpty() ? "void" : Joiner.on(", ").join(parameters));
+        emit("    struct %s* p = (struct %s*)mc_allocate(sizeof(struct %s));", structName(s), structName(s), structName(s));
+        for (StructField field: s.getFields()) {
+            emit("    p->%s = %s;", fieldName(s, field), fieldName(s, field));
+        }
+        emit("    return p;");
+        emit("}");
+    }
+
+    /**
+     * Writes the descriptors of the struct types and of the array types used, declared first,
+     * since types can refer to each other.
+     */
+    private void emitTypeDescriptors() {
+        Map<StructType, List<String>> fieldTypes = new LinkedHashMap<StructType, List<String>>();
+        for (StructType s: lifted.getStructs()) {
+            List<String> types = new ArrayList<String>();
+            for (StructField field: s.getFields()) {
+                types.add("&" + descriptor(field.getType()));
+            }
+            fieldTypes.put(s, types);
+        }
+        for (int i = 0; i < arrayTypes.size(); i++) {
+            // Registers the base types of base types, which extends the map as this goes.
+            descriptor(new ArrayList<ArrayType>(arrayTypes.values()).get(i).getBaseType());
+        }
+        if (fieldTypes.isEmpty() && arrayTypes.isEmpty()) {
+            return;
+        }
+
+        emit("");
+        for (StructType s: fieldTypes.keySet()) {
+            emit("static const mc_type %s;", descriptor(s));
+        }
+        for (String name: arrayTypes.keySet()) {
+            emit("static const mc_type %s;", name);
+        }
+        for (Map.Entry<StructType, List<String>> entry: fieldTypes.entrySet()) {
+            StructType s = entry.getKey();
+            String name = structName(s);
+            if (s.getFields().isEmpty()) {
+                emit("static const mc_type %s = {MC_STRUCT, NULL, 0, NULL, NULL, NULL};", descriptor(s));
+                continue;
+            }
+            List<String> names = new ArrayList<String>();
+            List<String> offsets = new ArrayList<String>();
+            for (StructField field: s.getFields()) {
+                names.add(stringLiteral(field.getName()));
+                offsets.add(String.format("offsetof(struct %s, %s)", name, fieldName(s, field)));
+            }
+            emit("static const char* const mc_names_%s[] = {%s};", name, Joiner.on(", ").join(names));
+            emit("static const mc_type* const mc_types_%s[] = {%s};", name, Joiner.on(", ").join(entry.getValue()));
+            emit("static const size_t mc_offsets_%s[] = {%s};", name, Joiner.on(", ").join(offsets));
+            emit("static const mc_type %s = {MC_STRUCT, NULL, %d, mc_names_%s, mc_types_%s, mc_offsets_%s};",
+                descriptor(s), names.size(), name, name, name);
+        }
+        for (Map.Entry<String, ArrayType> entry: arrayTypes.entrySet()) {
+            emit("static const mc_type %s = {MC_ARRAY, &%s, 0, NULL, NULL, NULL};",
+                entry.getKey(), descriptor(entry.getValue().getBaseType()));
+        }
+    }
+
+    /**
+     * Writes the UTF-16 code units of the string literals used, and the variables holding the
+     * strings, which main makes from them before anything else.
+     */
+    private void emitLiterals() {
+        if (literals.isEmpty()) {
+            return;
+        }
+        emit("");
+        for (Map.Entry<String, String> literal: literals.entrySet()) {
+            List<String> units = new ArrayList<String>();
+            for (char c: literal.getKey().toCharArray()) {
+                units.add(Integer.toString(c));
+            }
+            emit("static const uint16_t %s[] = {%s};", textName(literal.getValue()),
+                units.isEmpty() ? "0" : Joiner.on(", ").join(units));
+        }
+        for (String name: literals.values()) {
+            emit("static mc_array* %s;", name);
+        }
+    }
+
+    private String signature(Function f) {
+        List<String> parameters = new ArrayList<String>();
+        for (Variable p: f.getParameters()) {
+            parameters.add(cType(p.getType()) + " " + name(p));
+        }
+        for (Variable v: lifted.getFreeVariables(f)) {
+            parameters.add(cType(v.getType()) + "* " + name(v));
+        }
+        String returnType = f.isVoid() ? "void" : cType(f.getReturnType());
+        return String.format("static %s %s(%s)", returnType, functionName(f),
+            parameters.isEmpty() ? "void" : Joiner.on(", ").join(parameters));
+    }
+
+    private void translateFunction(Function f) {
+        function = f;
+        emit("%s {", signature(f));
+        if (f.isTailRecursive()) {
+            emit("%s: ;", TAIL_LABEL);
+        }
+        translateBlock(f.getBody());
+        List<Statement> statements = f.getBody().getStatements();
+        Statement last = statements.isEmpty() ? null : statements.get(statements.size() - 1);
+        if (!f.isVoid() && !(last instanceof ReturnStatement) && !(last instanceof TailCallStatement)) {
+            // MyCode lets functions returning values fall off their end
+            emit("    return %s;", initialValue(f.getReturnType()));
+        }
+        emit("}");
+        function = null;
+    }
+
+    // Statements
+
+    private void translateBlock(Block block) {
+        indentLevel++;
+        for (Statement s: block.getStatements()) {
+            translateStatement(s);
+        }
+        indentLevel--;
+    }
+
+    private void translateStatement(Statement s) {
+
+        if (s instanceof Declaration) {
+            Declarable d = Declaration.class.cast(s).getDeclarable();
+            if (d instanceof Variable) {
+                translateVariableDeclaration(Variable.class.cast(d));
+            }
+            // Functions and types are declared at the top of the program
+
+        } else if (s instanceof AssignmentStatement) {
+            emitStatement("%s;", translateAssignment(AssignmentStatement.class.cast(s)));
+
+        } else if (s instanceof IncrementStatement) {
+            emitStatement("%s;", translateIncrement(IncrementStatement.class.cast(s)));
+
+        } else if (s instanceof CallStatement) {
+            CallStatement c = CallStatement.class.cast(s);
+            if (c.getFunction() != Function.PI) {
+                emitStatement("%s;", translateCall(c.getFunction(), c.getArgs()));
+            }
+
+        } else if (s instanceof BreakStatement) {
+            emit("break;");
+
+        } else if (s instanceof ReturnStatement) {
+            Expression e = ReturnStatement.class.cast(s).getReturnExpression();
+            if (e == null) {
+                emit("return;");
+            } else {
+                emitStatement("return %s;", translateExpression(e));
+            }
+
+        } else if (s instanceof TailCallStatement) {
+            translateTailCallStatement(TailCallStatement.class.cast(s));
+
+        } else if (s instanceof PrintStatement) {
+            for (Expression e: PrintStatement.class.cast(s).getArgs()) {
+                emitStatement("%s;", translatePrint(e));
+            }
+
+        } else if (s instanceof IfStatement) {
+            translateIfStatement(IfStatement.class.cast(s));
+
+        } else if (s instanceof WhileStatement) {
+            WhileStatement w = WhileStatement.class.cast(s);
+            String condition = translateExpression(w.getCondition());
+            flushTemporaries();
+            emit("while (%s) {", condition);
+            translateBlock(w.getBody());
+            emit("}");
+
+        } else if (s instanceof ClassicForStatement) {
+            translateClassicForStatement(ClassicForStatement.class.cast(s));
+
+        } else {
+            throw new RuntimeException("Unknown statement class: " + s.getClass().getName());
+        }
+    }
+
+    private void translateVariableDeclaration(Variable v) {
+        String initializer = v.getInitializer() == null
+            ? initialValue(v.getType())
+            : translateExpression(v.getInitializer());
+        emitStatement("%s;", initialization(v, initializer));
+    }
+
+    /**
+     * Returns the C declaration of a local variable with the given initial value, or, for
+     * globals, the assignment of the value.
+     */
+    private String initialization(Variable v, String initializer) {
+        if (lifted.isGlobal(v)) {
+            return name(v) + " = " + initializer;
+        }
+        return cType(v.getType()) + " " + name(v) + " = " + initializer;
+    }
+
+    /**
+     * Translates an assignment.  The interpreter checks the array index or struct of the target
+     * before evaluating the value, so unless the value can make no difference, the address of
+     * the target is taken first.
+     */
+    private String translateAssignment(AssignmentStatement s) {
+        VariableExpression target = s.getLeft();
+        Expression value = s.getRight();
+        if (target instanceof SimpleVariableReference || isLiteral(value)
+                || !(hasEffects(value) || mayFail(value) || hasEffects(target))) {
+            return String.format("%s = %s", translateTarget(target), translateExpression(value));
+        }
+        String address = translateAddress(target);
+        Type type = target.getType();
+        String pointer = temporary((target instanceof SubscriptedVariable ? elementType(type) : cType(type)) + "*");
+        return String.format("(%s = %s, *%s = %s)", pointer, address, pointer, translateExpression(value));
+    }
+
+    private String translateIncrement(IncrementStatement s) {
+        int delta = "++".equals(s.getOp()) ? 1 : -1;
+        if (s.getTarget() instanceof SimpleVariableReference) {
+            String variable = translateTarget(s.getTarget());
+            return String.format("%s = mc_add(%s, %d)", variable, variable, delta);
+        }
+        return String.format("mc_increment(%s, %d)", translateAddress(s.getTarget()), delta);
+    }
+
+    private void translateTailCallStatement(TailCallStatement s) {
+        // Every argument is evaluated before any parameter is reassigned, since the arguments
+        // may refer to the parameters.  Parameters passed along unchanged need no assignment.
+        List<String> targets = new ArrayList<String>();
+        List<String> values = new ArrayList<String>();
+        List<String> types = new ArrayList<String>();
+        Iterator<Variable> parameters = s.getFunction().getParameters().iterator();
+        for (Expression arg: s.getArgs()) {
+            Variable parameter = parameters.next();
+            if (arg instanceof SimpleVariableReference
+                    && SimpleVariableReference.class.cast(arg).getReferent() == parameter) {
+                continue;
+            }
+            targets.add(name(parameter));
+            values.add(translateExpression(arg));
+            types.add(cType(parameter.getType()));
+        }
+        flushTemporaries();
+        if (targets.size() > 1) {
+            for (int i = 0; i < values.size(); i++) {
+                String temporary = temporaries.id("mc_t");
+                emit("%s %s = %s;", types.get(i), temporary, values.get(i));
+                values.set(i, temporary);
+            }
+        }
+        for (int i = 0; i < targets.size(); i++) {
+            emit("%s = %s;", targets.get(i), values.get(i));
+        }
+        emit("goto %s;", TAIL_LABEL);
+    }
+
+    private void translateIfStatement(IfStatement s) {
+        if (s.getCases().isEmpty()) {
+            // If and else-ifs were all optimized away!  Just do the else and get out.
+            if (s.getElsePart() != null) {
+                indentLevel--;
+                translateBlock(s.getElsePart());
+                indentLevel++;
+            }
+            return;
+        }
+        List<String> conditions = new ArrayList<String>();
+        for (Case c: s.getCases()) {
+            conditions.add(translateExpression(c.getCondition()));
+        }
+        flushTemporaries();
+
+        String lead = "if";
+        for (int i = 0; i < conditions.size(); i++) {
+            emit("%s (%s) {", lead, conditions.get(i));
+            translateBlock(s.getCases().get(i).getBody());
+            lead = "} else if";
+        }
+        if (s.getElsePart() != null) {
+            emit("} else {");
+            translateBlock(s.getElsePart());
+        }
+        emit("}");
+    }
+
+    private void translateClassicForStatement(ClassicForStatement s) {
+        List<Variable> variables = new ArrayList<Variable>();
+        if (s.getIndexVariable() != null) {
+            variables.add(s.getIndexVariable());
+            variables.addAll(s.getDerivedVariables());
+        }
+        List<String> values = new ArrayList<String>();
+        List<String> initializations = new ArrayList<String>();
+        boolean declarations = true;
+        for (Variable v: variables) {
+            values.add(translateExpression(v.getInitializer()));
+            initializations.add(initialization(v, values.get(values.size() - 1)));
+            declarations &= !lifted.isGlobal(v) && cType(v.getType()).equals(cType(variables.get(0).getType()));
+        }
+        String test = s.getTest() == null ? "" : translateExpression(s.getTest());
+        List<String> updates = new ArrayList<String>();
+        if (s.getEach() instanceof AssignmentStatement) {
+            updates.add(translateAssignment(AssignmentStatement.class.cast(s.getEach())));
+        } else if (s.getEach() instanceof IncrementStatement) {
+            updates.add(translateIncrement(IncrementStatement.class.cast(s.getEach())));
+        } else if (s.getEach() instanceof CallStatement) {
+            CallStatement c = CallStatement.class.cast(s.getEach());
+            updates.add(translateCall(c.getFunction(), c.getArgs()));
+        }
+        for (AssignmentStatement update: s.getDerivedUpdates()) {
+            updates.add(translateAssignment(update));
+        }
+        flushTemporaries();
+
+        // A single declaration can start the loop; anything else is done before it.
+        String init = "";
+        boolean wrapped = !variables.isEmpty() && !declarations;
+        if (wrapped) {
+            emit("{");
+            indentLevel++;
+            for (String initialization: initializations) {
+                emit("%s;", initialization);
+            }
+        } else if (!variables.isEmpty()) {
+            init = initializations.get(0);
+            for (int i = 1; i < variables.size(); i++) {
+                init += ", " + name(variables.get(i)) + " = " + values.get(i);
+            }
+        }
+        emit("for (%s; %s; %s) {", init, test, Joiner.on(", ").join(updates));
+        translateBlock(s.getBody());
+        emit("}");
+        if (wrapped) {
+            indentLevel--;
+            emit("}");
+        }
+    }
+
+    private String translatePrint(Expression e) {
+        Type type = e.getType();
+        String value = translateExpression(e);
+        if (cTypes.containsKey(type) && type != Type.STRING) {
+            return String.format("mc_print_%s(%s)", typeNames.get(type), value);
+        }
+        return String.format("mc_print_ref(%s, &%s)", value, descriptor(type));
+    }
+
+    // Expressions
+
+    private String translateExpression(Expression e) {
+        if (e instanceof IntegerLiteral) {
+            int value = IntegerLiteral.class.cast(e).getValue();
+            return value == Integer.MIN_VALUE ? "INT32_MIN" : translateNumber(Integer.toString(value));
+        } else if (e instanceof CharLiteral) {
+            return charLiteral(CharLiteral.class.cast(e).getValue());
+        } else if (e instanceof RealLiteral) {
+            return translateReal(RealLiteral.class.cast(e).getValue());
+        } else if (e instanceof NullLiteral) {
+            return "NULL";
+        } else if (e == BooleanLiteral.TRUE) {
+            return "1";
+        } else if (e == BooleanLiteral.FALSE) {
+            return "0";
+        } else if (e instanceof StringLiteral) {
+            return translateStringLiteral(StringLiteral.class.cast(e));
+        } else if (e instanceof ArrayAggregate) {
+            return translateArrayAggregate(ArrayAggregate.class.cast(e));
+        } else if (e instanceof StructAggregate) {
+            return translateStructAggregate(StructAggregate.class.cast(e));
+        } else if (e instanceof EmptyArray) {
+            return translateEmptyArray(EmptyArray.class.cast(e));
+        } else if (e instanceof PrefixExpression) {
+            return translatePrefixExpression(PrefixExpression.class.cast(e));
+        } else if (e instanceof PostfixExpression) {
+            PostfixExpression p = PostfixExpression.class.cast(e);
+            int delta = "++".equals(p.getOp()) ? 1 : -1;
+            return String.format("mc_post_increment(%s, %d)", translateAddress(p.getOperand()), delta);
+        } else if (e instanceof InfixExpression) {
+            return translateInfixExpression(InfixExpression.class.cast(e));
+        } else if (e instanceof VariableExpression) {
+            return translateVariableExpression(VariableExpression.class.cast(e));
+        }
+        throw new RuntimeException("Unknown entity class: " + e.getClass().getName());
+    }
+
+    /**
+     * Parenthesizes negative numbers, which the optimizer can produce, so that they can appear
+     * after any operator.
+     */
+    private String translateNumber(String number) {
+        return number.startsWith("-") ? "(" + number + ")" : number;
+    }
+
+    private String translateReal(double value) {
+        if (Double.isNaN(value)) {
+            return "NAN";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "INFINITY" : "(-INFINITY)";
+        }
+        return translateNumber(Double.toString(value));
+    }
+
+    private String translateStringLiteral(StringLiteral s) {
+        StringBuilder builder = new StringBuilder();
+        for (int codepoint: s.getValues()) {
+            builder.appendCodePoint(codepoint);
+        }
+        String text = builder.toString();
+        if (!literals.containsKey(text)) {
+            literals.put(text, "mc_literal" + literals.size());
+        }
+        return literals.get(text);
+    }
+
+    private String translatePrefixExpression(PrefixExpression e) {
+        String op = e.getOp();
+        if ("++".equals(op) || "--".equals(op)) {
+            VariableExpression target = VariableExpression.class.cast(e.getOperand());
+            return String.format("mc_increment(%s, %d)", translateAddress(target), "++".equals(op) ? 1 : -1);
+        }
+        String operand = translateExpression(e.getOperand());
+        if ("-".equals(op)) {
+            return e.getType() == Type.REAL ? "(-" + operand + ")" : "mc_neg(" + operand + ")";
+        } else if ("!".equals(op) || "~".equals(op)) {
+            return String.format("(%s%s)", op, operand);
+        } else if ("string".equals(op)) {
+            return translateJson(e.getOperand().getType(), operand);
+        } else if ("length".equals(op)) {
+            return String.format("mc_length(%s)", operand);
+        } else if ("int".equals(op) || "char".equals(op)) {
+            return String.format("((%s)%s)", cType(e.getType()), operand);
+        }
+        throw new RuntimeException("Unknown prefix operator: " + e.getOp());
+    }
+
+    private String translateJson(Type type, String value) {
+        if (cTypes.containsKey(type) && type != Type.STRING) {
+            return String.format("mc_json_%s(%s)", typeNames.get(type), value);
+        }
+        return String.format("mc_json_ref(%s, &%s)", value, descriptor(type));
+    }
+
+    private String translateInfixExpression(InfixExpression e) {
+        String op = e.getOp();
+        if ("&&".equals(op) || "||".equals(op)) {
+            // C evaluates these in order already
+            return String.format("(%s %s %s)", translateExpression(e.getLeft()), op, translateExpression(e.getRight()));
+        }
+        List<String> sequence = new ArrayList<String>();
+        List<String> operands = translateOperands(Arrays.asList(e.getLeft(), e.getRight()), sequence);
+        String left = operands.get(0);
+        String right = operands.get(1);
+        Type leftType = e.getLeft().getType();
+        Type rightType = e.getRight().getType();
+
+        String result;
+        if (e.getType() == Type.BOOLEAN && leftType != Type.REAL && rightType != Type.REAL
+                && !isScalar(leftType) && !isScalar(rightType)) {
+            result = translateReferenceComparison(op, leftType == Type.STRING || rightType == Type.STRING, left, right);
+        } else if (e.getType() == Type.INT && intOperators.containsKey(op)) {
+            result = String.format("%s(%s, %s)", intOperators.get(op), left, right);
+        } else {
+            // Operators on reals, the bitwise operators and the comparisons of numbers
+            result = String.format("(%s %s %s)", left, op, right);
+        }
+        return sequenced(sequence, result);
+    }
+
+    /**
+     * Compares strings by value and arrays, structs and null by identity.
+     */
+    private String translateReferenceComparison(String op, boolean strings, String left, String right) {
+        if (strings && "==".equals(op)) {
+            return String.format("mc_same(%s, %s)", left, right);
+        } else if (strings && "!=".equals(op)) {
+            return String.format("(!mc_same(%s, %s))", left, right);
+        } else if (strings) {
+            return String.format("(mc_compare(%s, %s) %s 0)", left, right, op);
+        }
+        return String.format("((void*)%s %s (void*)%s)", left, op, right);
+    }
+
+    private String translateEmptyArray(EmptyArray e) {
+        Type base = ArrayType.class.cast(e.getType()).getBaseType();
+        String bound = translateExpression(e.getBound());
+        if (base == Type.STRING) {
+            return String.format("mc_new_strings(%s)", bound);
+        }
+        return String.format("mc_new_array(%s, sizeof(%s))", bound, elementType(base));
+    }
+
+    private String translateArrayAggregate(ArrayAggregate e) {
+        Type base = ArrayType.class.cast(e.getType()).getBaseType();
+        String maker = base == Type.REAL ? "mc_reals" : base == Type.CHAR ? "mc_chars"
+            : isScalar(base) ? "mc_ints" : "mc_refs";
+        List<String> sequence = new ArrayList<String>();
+        List<String> args = new ArrayList<String>();
+        args.add(Integer.toString(e.getArgs().size()));
+        Iterator<Expression> elements = e.getArgs().iterator();
+        for (String arg: translateOperands(e.getArgs(), sequence)) {
+            // Variadic arguments are only promoted, not converted to the element type
+            boolean converted = !isScalar(base) || (base == Type.REAL && elements.next().getType() != Type.REAL);
+            args.add(converted ? String.format("(%s)%s", elementType(base), arg) : arg);
+        }
+        return sequenced(sequence, String.format("%s(%s)", maker, Joiner.on(", ").join(args)));
+    }
+
+    private String translateStructAggregate(StructAggregate e) {
+        List<String> sequence = new ArrayList<String>();
+        List<String> args = translateOperands(e.getArgs(), sequence);
+        return sequenced(sequence, String.format("mc_new_%s(%s)", structName(e.getType()), Joiner.on(", ").join(args)));
+    }
+
+    private String translateVariableExpression(VariableExpression v) {
+        if (v instanceof SimpleVariableReference) {
+            return variable(SimpleVariableReference.class.cast(v).getReferent());
+        } else if (v instanceof SubscriptedVariable) {
+            String element = "*" + translateAddress(v);
+            Type type = v.getType();
+            return isScalar(type) ? "(" + element + ")" : String.format("((%s)%s)", cType(type), element);
+        } else if (v instanceof DottedVariable) {
+            return translateTarget(v);
+        } else if (v instanceof CallExpression) {
+            CallExpression c = CallExpression.class.cast(v);
+            return translateCall(c.getFunction(), c.getArgs());
+        }
+        throw new RuntimeException("Unknown variable expression class: " + v.getClass().getName());
+    }
+
+    /**
+     * Translates an expression assigned to, as an lvalue.
+     */
+    private String translateTarget(VariableExpression v) {
+        if (v instanceof SimpleVariableReference) {
+            return variable(SimpleVariableReference.class.cast(v).getReferent());
+        } else if (v instanceof DottedVariable) {
+            DottedVariable d = DottedVariable.class.cast(v);
+            String struct = translateExpression(d.getStruct());
+            StructType type = StructType.class.cast(d.getStruct().getType());
+            return String.format("((%s)mc_check(%s))->%s", cType(type), struct, fieldName(type, d.getField()));
+        }
+        return "*" + translateAddress(v);
+    }
+
+    /**
+     * Translates the address of what an expression refers to.  The address of an array element
+     * is found by a call checking the index, and for arrays of strings, arrays and structs is a
+     * void**.
+     */
+    private String translateAddress(VariableExpression v) {
+        if (v instanceof SubscriptedVariable) {
+            SubscriptedVariable s = SubscriptedVariable.class.cast(v);
+            List<String> sequence = new ArrayList<String>();
+            List<String> operands = translateOperands(Arrays.asList(s.getSequence(), s.getIndex()), sequence);
+            String accessor = accessor(v.getType());
+            return sequenced(sequence, String.format("%s(%s, %s)", accessor, operands.get(0), operands.get(1)));
+        } else if (v instanceof SimpleVariableReference && isFree(SimpleVariableReference.class.cast(v).getReferent())) {
+            return name(SimpleVariableReference.class.cast(v).getReferent());
+        }
+        return "&" + translateTarget(v);
+    }
+
+    private String translateCall(Function f, List<Expression> args) {
+        if (f == Function.PI) {
+            return "3.141592653589793";
+        } else if (f == Function.GET_STRING) {
+            return "mc_get_string()";
+        }
+        List<String> sequence = new ArrayList<String>();
+        List<String> list = translateOperands(args, sequence);
+        String name;
+        if (f == Function.SUBSTRING) {
+            name = "mc_substring";
+        } else if (builtIns.containsKey(f)) {
+            name = builtIns.get(f);
+        } else {
+            name = functionName(f);
+            for (Variable v: lifted.getFreeVariables(f)) {
+                list.add(isFree(v) ? name(v) : "&" + name(v));
+            }
+        }
+        return sequenced(sequence, String.format("%s(%s)", name, Joiner.on(", ").join(list)));
+    }
+
+    // Order of evaluation
+
+    /**
+     * Translates operands which C may evaluate in any order, so that they are evaluated in the
+     * order given where that could make a difference.  Operands evaluated early are assigned to
+     * temporaries, and their assignments added to the sequence, for sequenced() to put first.
+     */
+    private List<String> translateOperands(List<Expression> operands, List<String> sequence) {
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; i < operands.size(); i++) {
+            Expression e = operands.get(i);
+            String operand = translateExpression(e);
+            boolean first = false;
+            for (int j = i + 1; j < operands.size() && !first; j++) {
+                first = mustPrecede(e, operands.get(j));
+            }
+            if (first) {
+                String temporary = temporary(cType(e.getType()));
+                sequence.add(temporary + " = " + operand);
+                operand = temporary;
+            }
+            result.add(operand);
+        }
+        return result;
+    }
+
+    private String sequenced(List<String> sequence, String expression) {
+        if (sequence.isEmpty()) {
+            return expression;
+        }
+        return "(" + Joiner.on(", ").join(sequence) + ", " + expression + ")";
+    }
+
+    /**
+     * Returns whether an operand must be evaluated before another: when either has effects the
+     * other could see, or both can fail, so that the order decides which error is reported.
+     */
+    private boolean mustPrecede(Expression e, Expression later) {
+        return (hasEffects(e) && !isLiteral(later)) || (hasEffects(later) && !isLiteral(e))
+            || (mayFail(e) && mayFail(later));
+    }
+
+    private boolean hasEffects(Expression e) {
+        if (e instanceof PostfixExpression) {
+            return true;
+        } else if (e instanceof PrefixExpression && PrefixExpression.class.cast(e).getOp().matches("\\+\\+|--")) {
+            return true;
+        } else if (e instanceof CallExpression) {
+            Function f = CallExpression.class.cast(e).getFunction();
+            if (f == Function.GET_STRING || (f.getBody() != null && !f.isPure())) {
+                return true;
+            }
+        }
+        for (Expression child: children(e)) {
+            if (hasEffects(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean mayFail(Expression e) {
+        if (e instanceof SubscriptedVariable || e instanceof DottedVariable || e instanceof EmptyArray) {
+            return true;
+        } else if (e instanceof CallExpression) {
+            Function f = CallExpression.class.cast(e).getFunction();
+            if (f == Function.SUBSTRING || f.getBody() != null) {
+                return true;
+            }
+        } else if (e instanceof PrefixExpression && "length".equals(PrefixExpression.class.cast(e).getOp())) {
+            return true;
+        } else if (e instanceof InfixExpression) {
+            InfixExpression i = InfixExpression.class.cast(e);
+            if (i.getType() == Type.INT && i.getOp().matches("/|%")) {
+                return true;
+            } else if (i.getLeft().getType() == Type.STRING && i.getOp().matches("<|<=|>|>=")) {
+                return true;
+            }
+        }
+        for (Expression child: children(e)) {
+            if (mayFail(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Expression> children(Expression e) {
+        if (e instanceof PrefixExpression) {
+            return Collections.singletonList(PrefixExpression.class.cast(e).getOperand());
+        } else if (e instanceof PostfixExpression) {
+            return Collections.<Expression>singletonList(PostfixExpression.class.cast(e).getOperand());
+        } else if (e instanceof InfixExpression) {
+            return Arrays.asList(InfixExpression.class.cast(e).getLeft(), InfixExpression.class.cast(e).getRight());
+        } else if (e instanceof CallExpression) {
+            return CallExpression.class.cast(e).getArgs();
+        } else if (e instanceof SubscriptedVariable) {
+            SubscriptedVariable s = SubscriptedVariable.class.cast(e);
+            return Arrays.asList(s.getSequence(), s.getIndex());
+        } else if (e instanceof DottedVariable) {
+            return Collections.<Expression>singletonList(DottedVariable.class.cast(e).getStruct());
+        } else if (e instanceof ArrayAggregate) {
+            return ArrayAggregate.class.cast(e).getArgs();
+        } else if (e instanceof StructAggregate) {
+            return StructAggregate.class.cast(e).getArgs();
+        } else if (e instanceof EmptyArray) {
+            return Collections.singletonList(EmptyArray.class.cast(e).getBound());
+        }
+        return Collections.emptyList();
+    }
+
+    private boolean isLiteral(Expression e) {
+        return e instanceof IntegerLiteral || e instanceof CharLiteral || e instanceof RealLiteral
+            || e instanceof BooleanLiteral || e instanceof NullLiteral || e instanceof StringLiteral;
+    }
+
+    private String temporary(String type) {
+        String name = temporaries.id("mc_t");
+        pendingTemporaries.add(type + " " + name);
+        return name;
+    }
+
+    // Names, types and literals
+
+    /**
+     * Returns whether a variable is a free variable of the function being translated, and so
+     * reached through a pointer.
+     */
+    private boolean isFree(Variable v) {
+        return function != null && lifted.getFreeVariables(function).contains(v);
+    }
+
+    private String variable(Variable v) {
+        return isFree(v) ? "(*" + name(v) + ")" : name(v);
+    }
+
+    /**
+     * Returns the C name of a variable.  The id makes it unique, so the MyCode name needs only
+     * to be made a C identifier.
+     */
+    private String name(Variable v) {
+        return identifier(v.getName()) + "_" + v.getId();
+    }
+
+    private String functionName(Function f) {
+        return identifier(f.getName()) + "_" + f.getId();
+    }
+
+    private String structName(Type type) {
+        return identifier(type.getName()) + "_" + type.getId();
+    }
+
+    /**
+     * Returns the C name of a field, numbered if its MyCode name had to be changed, which could
+     * make it the same as another's.
+     */
+    private String fieldName(StructType s, StructField field) {
+        String name = identifier(field.getName());
+        return name.equals(field.getName()) ? name + "_" : name + "_" + s.getFields().indexOf(field);
+    }
+
+    private String identifier(String name) {
+        StringBuilder builder = new StringBuilder();
+        for (char c: name.toCharArray()) {
+            builder.append(c < 0x80 && Character.isLetterOrDigit(c) ? c : '_');
+        }
+        return builder.toString();
+    }
+
+    private String textName(String literal) {
+        return literal.replace("mc_literal", "mc_text");
+    }
+
+    private boolean isScalar(Type type) {
+        return cTypes.containsKey(type) && type != Type.STRING;
+    }
+
+    private String cType(Type type) {
+        if (cTypes.containsKey(type)) {
+            return cTypes.get(type);
+        } else if (type instanceof ArrayType) {
+            return "mc_array*";
+        } else if (type instanceof StructType) {
+            return "struct " + structName(type) + "*";
+        }
+        return "void*";
+    }
+
+    /**
+     * Returns the C type of the elements of arrays of the given base type, as the accessors of
+     * the run time support see them.
+     */
+    private String elementType(Type base) {
+        return isScalar(base) ? cType(base) : "void*";
+    }
+
+    private String accessor(Type base) {
+        if (base == Type.INT || base == Type.BOOLEAN) {
+            return "mc_at_int";
+        } else if (base == Type.CHAR) {
+            return "mc_at_char";
+        } else if (base == Type.REAL) {
+            return "mc_at_real";
+        }
+        return "mc_at_ref";
+    }
+
+    /**
+     * Returns the name of the descriptor of a type, noting array types to be described.
+     */
+    private String descriptor(Type type) {
+        if (typeNames.containsKey(type)) {
+            return "mc_type_" + typeNames.get(type);
+        } else if (type instanceof ArrayType) {
+            String name = "mc_type_" + mangle(type);
+            if (!arrayTypes.containsKey(name)) {
+                arrayTypes.put(name, ArrayType.class.cast(type));
+            }
+            return name;
+        }
+        return "mc_type_" + structName(type);
+    }
+
+    private String mangle(Type type) {
+        if (typeNames.containsKey(type)) {
+            return typeNames.get(type);
+        } else if (type instanceof ArrayType) {
+            return "array_" + mangle(ArrayType.class.cast(type).getBaseType());
+        }
+        return structName(type);
+    }
+
+    private String initialValue(Type type) {
+        String value = initialValues.get(type);
+        return value == null ? "NULL" : value;
+    }
+
+    private String charLiteral(int c) {
+        if (c == '\'' || c == '\\') {
+            return "'\\" + (char)c + "'";
+        } else if (isDisplayable(c)) {
+            return "'" + (char)c + "'";
+        }
+        return Integer.toString(c);
+    }
+
+    /**
+     * Returns the string as a C string literal of its UTF-8 bytes, those other than printable
+     * ASCII in octal escapes.
+     */
+    private String stringLiteral(String s) {
+        StringBuilder result = new StringBuilder("\"");
+        for (byte b: s.getBytes(Charset.forName("UTF-8"))) {
+            int c = b & 0xFF;
+            if (c == '"' || c == '\\') {
+                result.append('\\').append((char)c);
+            } else if (isDisplayable(c) && c != '?') {
+                result.append((char)c);
+            } else {
+                result.append(String.format("\\%03o", c));
+            }
+        }
+        return result.append("\"").toString();
+    }
+
+    /**
+     * Returns whether or not a character can be written as is in the C output: the non-control
+     * ASCII characters.
+     */
+    private boolean isDisplayable(int c) {
+        return 32 <= c && c <= 126;
+    }
+
+    // Output
+
+    private void flushTemporaries() {
+        for (String declaration: pendingTemporaries) {
+            emit("%s;", declaration);
+        }
+        pendingTemporaries.clear();
+    }
+
+    /**
+     * Emits a line whose expressions have been translated, after the declarations of any
+     * temporaries they use.
+     */
+    private void emitStatement(String line, Object... args) {
+        flushTemporaries();
+        emit(line, args);
+    }
+
+    private void emit(String line, Object... args) {
+        int pad = indentPadding * indentLevel;
+
+        if (args.length != 0) {
+            line = String.format(line, args);
+        }
+
+        // printf does not allow "%0s" as a format specifier, darn it.
+        if (pad == 0 || line.isEmpty()) {
+            writer.println(line);
+        } else {
+            writer.printf("%" + pad + "s%s\n", "", line);
+        }
+    }
+}
@@ -1,14 +1,24 @@
 package com.code.translators;
 
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
 
 import com.code.mycode.entities.ArrayAggregate;
+import com.code.mycode.entities.ArrayType;
 import com.code.mycode.entities.AssignmentStatement;
 import com.code.mycode.entities.Block;
 import com.code.mycode.entities.BooleanLiteral;
@@ -18,6 +28,7 @@ import com.code.mycode.entities.CallStatement;
 import com.code.mycode.entities.Case;
 import com.code.mycode.entities.CharLiteral;
 import com.code.mycode.entities.ClassicForStatement;
+import com.code.mycode.entities.Declarable;
 import com.code.mycode.entities.Declaration;
 import com.code.mycode.entities.DottedVariable;
 import com.code.mycode.entities.EmptyArray;
@@ -42,19 +53,78 @@ import com.code.mycode.entities.StructAggregate;
 import com.code.mycode.entities.StructField;
 import com.code.mycode.entities.StructType;
 import com.code.mycode.entities.SubscriptedVariable;
+import com.code.mycode.entities.TailCallStatement;
 import com.code.mycode.entities.Type;
 import com.code.mycode.entities.Variable;
 import com.code.mycode.entities.VariableExpression;
 import com.code.mycode.entities.WhileStatement;
+import com.code.util.IdGenerator;
+import com.code.util.ShortIdGenerator;
 
 /**
  * A translator from MyCode semantic graphs to JavaScript.
+ *
+ * Arrays of ints, reals, chars and booleans are typed arrays, allocated at their full size, so
+ * they are dense and hold unboxed numbers; other arrays are plain arrays, also allocated at
+ * their full size.  A boolean array holds 0 and 1, so reading an element turns it back into a
+ * boolean, and values containing typed arrays are turned into plain ones before being printed
+ * or converted to JSON, so they look the same as plain arrays would.
+ *
+ * As in asm.js, the result of every int arithmetic operation is coerced back to 32 bits, with
+ * "|0" or Math.imul, so that ints overflow and divide as they do in MyCode, and engines can
+ * keep them in integer registers.
+ *
+ * Each struct type gets a constructor function assigning its fields in declaration order, so
+ * all structs of a type share one shape, and fields are accessed with the dot operator.
+ *
+ * Minified output is translated twice.  The first translation counts how often each entity and
+ * each string literal is used; then the most used get the shortest names, and string literals
+ * repeated often enough to pay for it are declared once up front.  The second translation
+ * writes the program with those names and without needless whitespace.
+ *
+ * A source map can be written along with the translation.  Each line of JavaScript is mapped
+ * to the statement it was translated from, and the name of each function and struct
+ * constructor to its name in the source, as each line is written.
  */
 public class MyCodeToJavaScriptTranslator {
 
     private PrintWriter writer;
+    private boolean usesPlain = false;
     private int indentPadding = 4;
     private int indentLevel = 0;
+    private IdGenerator temporaries = new IdGenerator();
+
+    // For minified output: the uses counted by the first translation, the names given out after
+    // it, and the last character written, to keep words on consecutive lines apart.
+    private boolean minified = false;
+    private boolean counting = false;
+    private Map<Object, Integer> uses = new LinkedHashMap<Object, Integer>();
+    private Map<Object, String> names = new HashMap<Object, String>();
+    private char last = ';';
+
+    // For source maps: the map, the URL the translation refers to it by, the innermost statement
+    // being translated, the function or struct type named by the line about to be written, and
+    // where that line goes.
+    private SourceMapWriter map;
+    private String mapUrl;
+    private Entity current;
+    private Declarable named;
+    private int generatedLine = 0;
+    private int generatedColumn = 0;
+
+    // Words a minified name must not be: JavaScript's reserved words and the globals the
+    // translation refers to.
+    private static final Set<String> RESERVED = new HashSet<String>(Arrays.asList(
+        "break", "case", "catch", "class", "const", "continue", "debugger", "default", "delete",
+        "do", "else", "enum", "export", "extends", "false", "finally", "for", "function", "if",
+        "implements", "import", "in", "instanceof", "interface", "let", "new", "null", "package",
+        "private", "protected", "public", "return", "static", "super", "switch", "this", "throw",
+        "true", "try", "typeof", "var", "void", "while", "with", "yield", "await", "arguments",
+        "eval", "undefined", "NaN", "Infinity", "Array", "ArrayBuffer", "Boolean", "Float64Array",
+        "Int32Array", "JSON", "Math", "Object", "Uint16Array", "Uint8Array", "console", "fs"));
+
+    // Label of the loop wrapping the body of a tail recursive function
+    private static final String TAIL_LABEL = "_tail";
 
     private ImmutableMap<Function, String> builtIns = ImmutableMap.<Function, String>builder()
         .put(Function.ATAN, "Math.atan2")
@@ -64,6 +134,13 @@ public class MyCodeToJavaScriptTranslator {
         .put(Function.SQRT, "Math.sqrt")
         .build();
 
+    private ImmutableMap<Type, String> typedArrays = ImmutableMap.<Type, String>builder()
+        .put(Type.BOOLEAN, "Uint8Array")
+        .put(Type.CHAR, "Uint16Array")
+        .put(Type.INT, "Int32Array")
+        .put(Type.REAL, "Float64Array")
+        .build();
+
     private ImmutableMap<Type, String> initialValues = ImmutableMap.<Type, String>builder()
         .put(Type.BOOLEAN, "false")
         .put(Type.CHAR, "'\\0'")
@@ -72,15 +149,116 @@ public class MyCodeToJavaScriptTranslator {
         .put(Type.STRING, "\"\"")
         .build();
 
+    /**
+     * Sets whether the translation is minified: with short names, shared string literals, and
+     * no indentation or line breaks.
+     */
+    public void setMinified(boolean minified) {
+        this.minified = minified;
+    }
+
+    /**
+     * Sets a source map to be written along with the translation, which the translation will
+     * refer to by the given URL.  The translator closes the map when done.
+     */
+    public void setSourceMap(SourceMapWriter map, String mapUrl) {
+        this.map = map;
+        this.mapUrl = mapUrl;
+    }
+
     public void translateProgram(Program program, PrintWriter writer) {
+        if (minified) {
+            counting = true;
+            this.writer = new PrintWriter(new StringWriter());
+            translateBlock(program);
+            counting = false;
+            allocateNames();
+            temporaries = new IdGenerator();
+        }
+
         this.writer = writer;
+        last = ';';
+        generatedLine = 0;
+        generatedColumn = 0;
         emit("(function () {");
+        if (minified) {
+            translateSharedStrings();
+        }
         translateBlock(program);
+
+        // Function declarations are hoisted, so the helper for printing can follow its uses.
+        if (usesPlain) {
+            indentLevel++;
+            emit("function _plain(v) {");
+            emit("    if (v instanceof Uint8Array) return Array.from(v, Boolean);");
+            emit("    if (ArrayBuffer.isView(v)) return Array.from(v);");
+            emit("    if (Array.isArray(v)) return v.map(_plain);");
+            emit("    if (v !== null && typeof v === \"object\") {");
+            emit("        var o = {};");
+            emit("        for (var k in v) o[k] = _plain(v[k]);");
+            emit("        return o;");
+            emit("    }");
+            emit("    return v;");
+            emit("}");
+            indentLevel--;
+        }
         emit("}());");
+        if (minified) {
+            writer.println();
+        }
+        if (map != null) {
+            writer.println("//# sourceMappingURL=" + mapUrl);
+            map.close();
+        }
+    }
+
+    /**
+     * Names the entities and shared string literals counted by the first translation, the most
+     * used first.  A literal is shared if declaring it once, with a name of about two characters,
+     * takes less space than repeating it.
+     */
+    private void allocateNames() {
+        List<Object> named = new ArrayList<Object>();
+        for (Map.Entry<Object, Integer> entry: uses.entrySet()) {
+            Object key = entry.getKey();
+            int count = entry.getValue();
+            if (!(key instanceof String) || (count - 1) * String.class.cast(key).length() > 4 + 2 * count) {
+                named.add(key);
+            }
+        }
+        Collections.sort(named, new Comparator<Object>() {
+            @Override
+            public int compare(Object x, Object y) {
+                return uses.get(y).compareTo(uses.get(x));
+            }
+        });
+        ShortIdGenerator generator = new ShortIdGenerator(RESERVED);
+        for (Object key: named) {
+            names.put(key, generator.id());
+        }
+    }
+
+    private void translateSharedStrings() {
+        List<String> declarations = new ArrayList<String>();
+        for (Map.Entry<Object, String> entry: names.entrySet()) {
+            if (entry.getKey() instanceof String) {
+                declarations.add(entry.getValue() + " = " + entry.getKey());
+            }
+        }
+        if (!declarations.isEmpty()) {
+            Collections.sort(declarations);
+            emit("var %s;", Joiner.on(", ").join(declarations));
+        }
+    }
+
+    private void count(Object key) {
+        Integer count = uses.get(key);
+        uses.put(key, count == null ? 1 : count + 1);
     }
 
     private void translateBlock(Block block) {
         indentLevel++;
+        translateStructTypes(block);
         for (Statement s: block.getStatements()) {
             translateStatement(s);
         }
@@ -88,6 +266,10 @@ public class MyCodeToJavaScriptTranslator {
     }
 
     private void translateStatement(Statement s) {
+        Entity enclosing = current;
+        if (s.hasPosition()) {
+            current = s;
+        }
 
         if (s instanceof Declaration) {
             translateDeclaration(Declaration.class.cast(s));
@@ -107,6 +289,9 @@ public class MyCodeToJavaScriptTranslator {
         } else if (s instanceof ReturnStatement) {
             translateReturnStatement(ReturnStatement.class.cast(s));
 
+        } else if (s instanceof TailCallStatement) {
+            translateTailCallStatement(TailCallStatement.class.cast(s));
+
         } else if (s instanceof PrintStatement) {
             translatePrintStatement(PrintStatement.class.cast(s));
 
@@ -122,6 +307,7 @@ public class MyCodeToJavaScriptTranslator {
         } else {
             throw new RuntimeException("Unknown statement class: " + s.getClass().getName());
         }
+        current = enclosing;
     }
 
     private void translateDeclaration(Declaration s) {
@@ -130,7 +316,7 @@ public class MyCodeToJavaScriptTranslator {
         } else if (s.getDeclarable() instanceof Function) {
             translateFunctionDeclaration(Function.class.cast(s.getDeclarable()));
         } else if (s.getDeclarable() instanceof Type) {
-            // Intentionally empty; type declarations do not get translated in JavaScript
+            // Intentionally empty; constructors for struct types start the block
         } else {
             throw new RuntimeException("Unknown declaration: " + s.getClass().getName());
         }
@@ -149,18 +335,79 @@ public class MyCodeToJavaScriptTranslator {
         emit ("var %s = %s;", variable(v), initializer);
     }
 
+    /**
+     * Emits the constructors for the struct types declared in a block, which may be used
+     * anywhere in it.  The constructor of the prototype is reset to Object so that Node prints
+     * structs as plain objects, without the name of the constructor.
+     */
+    private void translateStructTypes(Block block) {
+        for (Type type: block.getTypes()) {
+            if (type instanceof StructType) {
+                List<String> parameters = new ArrayList<String>();
+                List<String> assignments = new ArrayList<String>();
+                for (StructField field: StructType.class.cast(type).getFields()) {
+                    parameters.add(variable(field));
+                    assignments.add(String.format("this%s = %s;", field(field.getName()), variable(field)));
+                }
+                named = type;
+                emit("function %s(%s) {", variable(type), Joiner.on(", ").join(parameters));
+                for (String assignment: assignments) {
+                    emit("    %s", assignment);
+                }
+                emit("}");
+                emit("%s.prototype.constructor = Object;", variable(type));
+            }
+        }
+    }
+
     private void translateFunctionDeclaration(Function f) {
+        named = f;
         emit("function %s(%s) {", variable(f), translateParameters(f.getParameters()));
-        translateBlock(f.getBody());
+        if (f.isTailRecursive()) {
+            // Tail calls continue this loop, so falling off the end of the body must return.
+            indentLevel++;
+            emit("%s: while (true) {", TAIL_LABEL);
+            translateBlock(f.getBody());
+            List<Statement> statements = f.getBody().getStatements();
+            Statement last = statements.isEmpty() ? null : statements.get(statements.size() - 1);
+            if (!(last instanceof ReturnStatement || last instanceof TailCallStatement)) {
+                indentLevel++;
+                emit("return;");
+                indentLevel--;
+            }
+            emit("}");
+            indentLevel--;
+        } else {
+            translateBlock(f.getBody());
+        }
         emit("}");
     }
 
     private void translateAssignmentStatement(AssignmentStatement s) {
-        emit("%s = %s;", translateExpression(s.getLeft()), translateExpression(s.getRight()));
+        emit("%s;", translateAssignment(s));
+    }
+
+    private String translateAssignment(AssignmentStatement s) {
+        String left = translateTarget(s.getLeft());
+        String right = translateExpression(s.getRight());
+        return String.format("%s = %s", left, right);
     }
 
     private void translateIncrementStatement(IncrementStatement s) {
-        emit("%s%s;", translateExpression(s.getTarget()), s.getOp());
+        emit("%s;", translateIncrement(s.getTarget(), s.getOp()));
+    }
+
+    /**
+     * Translates an increment or decrement whose value is not used.  Elements of int arrays
+     * wrap around by themselves, being stored in an Int32Array; other targets are assigned the
+     * coerced result, when evaluating them twice does no harm.
+     */
+    private String translateIncrement(VariableExpression target, String op) {
+        String t = translateTarget(target);
+        if (target instanceof SubscriptedVariable || !isRepeatable(target)) {
+            return t + op;
+        }
+        return String.format("%s = (%s %s 1) | 0", t, t, op.substring(1));
     }
 
     private void translateCallStatement(CallStatement s) {
@@ -175,9 +422,37 @@ public class MyCodeToJavaScriptTranslator {
         }
     }
 
+    private void translateTailCallStatement(TailCallStatement s) {
+        // Every argument is evaluated before any parameter is reassigned, since the arguments
+        // may refer to the parameters.  Parameters passed along unchanged need no assignment.
+        List<String> targets = new ArrayList<String>();
+        List<String> values = new ArrayList<String>();
+        Iterator<Variable> parameters = s.getFunction().getParameters().iterator();
+        for (Expression arg: s.getArgs()) {
+            Variable parameter = parameters.next();
+            if (arg instanceof SimpleVariableReference
+                    && SimpleVariableReference.class.cast(arg).getReferent() == parameter) {
+                continue;
+            }
+            targets.add(variable(parameter));
+            values.add(translateExpression(arg));
+        }
+        if (targets.size() > 1) {
+            for (int i = 0; i < values.size(); i++) {
+                String temporary = temporaries.id("_t");
+                emit("var %s = %s;", temporary, values.get(i));
+                values.set(i, temporary);
+            }
+        }
+        for (int i = 0; i < targets.size(); i++) {
+            emit("%s = %s;", targets.get(i), values.get(i));
+        }
+        emit("continue %s;", TAIL_LABEL);
+    }
+
     private void translatePrintStatement(PrintStatement s) {
         for (Expression e: s.getArgs()) {
-            emit("console.log(%s);", translateExpression(e));
+            emit("console.log(%s);", plain(e));
         }
     }
 
@@ -191,6 +466,7 @@ public class MyCodeToJavaScriptTranslator {
         if (s.getElsePart() != null) {
             if (s.getCases().isEmpty()) {
                 // If and else-ifs were all optimized away!  Just do the else and get out.
+                translateStructTypes(s.getElsePart());
                 for (Statement statement: s.getElsePart().getStatements()) {
                     translateStatement(statement);
                 }
@@ -211,21 +487,31 @@ public class MyCodeToJavaScriptTranslator {
 
     private void translateClassicForStatement(ClassicForStatement s) {
         String init = "", test = "", each = "";
-        if (s.getInit() != null) {
-            init = String.format("var %s = %s", variable(s.getIndexVariable()), s.getInit());
+        if (s.getIndexVariable() != null) {
+            List<String> declarations = new ArrayList<String>();
+            String index = variable(s.getIndexVariable());
+            declarations.add(index + " = " + translateExpression(s.getInit()));
+            for (Variable v: s.getDerivedVariables()) {
+                declarations.add(variable(v) + " = " + translateExpression(v.getInitializer()));
+            }
+            init = "var " + Joiner.on(", ").join(declarations);
+        } else if (s.getInit() != null) {
+            init = translateExpression(s.getInit());
         }
         if (s.getTest() != null) {
             test = translateExpression(s.getTest());
         }
+        List<String> updates = new ArrayList<String>();
         if (s.getEach() instanceof AssignmentStatement) {
-            AssignmentStatement e = AssignmentStatement.class.cast(s.getEach());
-            String left = translateExpression(e.getLeft());
-            String right = translateExpression(e.getRight());
-            each = String.format("%s = %s", left, right);
+            updates.add(translateAssignment(AssignmentStatement.class.cast(s.getEach())));
         } else if (s.getEach() instanceof IncrementStatement) {
             IncrementStatement e = IncrementStatement.class.cast(s.getEach());
-            each = String.format("%s%s", variable(e.getTarget()), e.getOp());
+            updates.add(translateIncrement(e.getTarget(), e.getOp()));
+        }
+        for (AssignmentStatement update: s.getDerivedUpdates()) {
+            updates.add(translateAssignment(update));
         }
+        each = Joiner.on(", ").join(updates);
         emit("for (%s; %s; %s) {", init, test, each);
         translateBlock(s.getBody());
         emit("}");
@@ -233,11 +519,11 @@ public class MyCodeToJavaScriptTranslator {
 
     private String translateExpression(Expression e) {
         if (e instanceof IntegerLiteral) {
-            return IntegerLiteral.class.cast(e).getValue().toString();
+            return translateNumber(IntegerLiteral.class.cast(e).getValue().toString());
         } else if (e instanceof CharLiteral) {
             return CharLiteral.class.cast(e).getValue().toString();
         } else if (e instanceof RealLiteral) {
-            return RealLiteral.class.cast(e).getValue().toString();
+            return translateNumber(RealLiteral.class.cast(e).getValue().toString());
         } else if (e instanceof NullLiteral) {
             return "null";
         } else if (e == BooleanLiteral.TRUE) {
@@ -265,6 +551,14 @@ public class MyCodeToJavaScriptTranslator {
         }
     }
 
+    /**
+     * Parenthesizes negative numbers, which the optimizer can produce, so that they can appear
+     * after any operator.
+     */
+    private String translateNumber(String number) {
+        return number.startsWith("-") ? "(" + number + ")" : number;
+    }
+
     private String translateStringLiteral(StringLiteral s) {
         StringBuilder result = new StringBuilder("\"");
         for (int codepoint: s.getValues()) {
@@ -277,16 +571,33 @@ public class MyCodeToJavaScriptTranslator {
             }
         }
         result.append("\"");
-        return result.toString();
+        String literal = result.toString();
+        if (counting) {
+            count(literal);
+        } else if (names.containsKey(literal)) {
+            return names.get(literal);
+        }
+        return literal;
     }
 
     private String translatePrefixExpression(PrefixExpression e) {
         String op = e.getOp();
+        if ("string".equals(op)) {
+            return String.format("JSON.stringify(%s)", plain(e.getOperand()));
+        }
+        if ("++".equals(op) || "--".equals(op)) {
+            VariableExpression target = VariableExpression.class.cast(e.getOperand());
+            String t = translateTarget(target);
+            if (target instanceof SubscriptedVariable || !isRepeatable(target)) {
+                return String.format("(%s%s | 0)", op, t);
+            }
+            return String.format("(%s = (%s %s 1) | 0)", t, t, op.substring(1));
+        }
         String operand = translateExpression(e.getOperand());
-        if ("!~-".indexOf(op) >= 0 || "++".equals(op) || "--".equals(op)) {
-            return String.format("%s%s", op, operand);
-        } else if ("string".equals(e.getOp())) {
-            return String.format("JSON.stringify(%s)", operand);
+        if ("-".equals(op) && e.getType() == Type.INT) {
+            return String.format("(-%s | 0)", operand);
+        } else if ("!~-".indexOf(op) >= 0) {
+            return String.format("(%s%s)", op, operand);
         } else if ("length".equals(op)) {
             return String.format("(%s).length", operand);
         } else if ("int".equals(op) || "char".equals(op)) {
@@ -298,9 +609,15 @@ public class MyCodeToJavaScriptTranslator {
 
     private String translatePostfixExpression(PostfixExpression e) {
         String op = e.getOp();
-        String operand = translateExpression(e.getOperand());
+        VariableExpression target = e.getOperand();
         if ("++".equals(op) || "--".equals(op)) {
-            return String.format("%s%s", operand, op);
+            String t = translateTarget(target);
+            if (target instanceof SubscriptedVariable || !isRepeatable(target)) {
+                return String.format("%s%s", t, op);
+            }
+            // The new value is stored coerced, and the old one recovered from it
+            String inverse = "++".equals(op) ? "-" : "+";
+            return String.format("((%s = (%s %s 1) | 0) %s 1 | 0)", t, t, op.substring(1), inverse);
         } else {
             throw new RuntimeException("Unknown postfix operator: " + e.getOp());
         }
@@ -308,13 +625,47 @@ public class MyCodeToJavaScriptTranslator {
 
     private String translateInfixExpression(InfixExpression e) {
         // All MyCode binary operators look exactly the same as their JavaScript counterparts!
-        String left = translateExpression(e.getLeft());
-        String right = translateExpression(e.getRight());
-        return String.format("(%s %s %s)", left, e.getOp(), right);
+        // Only int arithmetic needs coercing, since the bitwise operators produce 32-bit ints.
+        //
+        // Long chains like a + b + c + ... nest down the left, so the whole chain is written into
+        // one builder: the openings of every operator outermost first, then the leftmost operand,
+        // then the rest of each operator innermost first.  This needs neither recursion nor
+        // copying the translation of the left operand at every level.
+        List<InfixExpression> spine = e.leftSpine();
+        StringBuilder result = new StringBuilder();
+        for (InfixExpression infix: spine) {
+            result.append(isIntMultiplication(infix) ? "Math.imul(" : isIntArithmetic(infix) ? "((" : "(");
+        }
+        result.append(translateExpression(spine.get(spine.size() - 1).getLeft()));
+        for (int i = spine.size() - 1; i >= 0; i--) {
+            InfixExpression infix = spine.get(i);
+            String right = translateExpression(infix.getRight());
+            if (isIntMultiplication(infix)) {
+                result.append(", ").append(right).append(")");
+            } else {
+                result.append(" ").append(infix.getOp()).append(" ").append(right);
+                result.append(isIntArithmetic(infix) ? ") | 0)" : ")");
+            }
+        }
+        return result.toString();
+    }
+
+    private boolean isIntMultiplication(InfixExpression e) {
+        return e.getType() == Type.INT && "*".equals(e.getOp());
+    }
+
+    private boolean isIntArithmetic(InfixExpression e) {
+        return e.getType() == Type.INT && "+-/%".contains(e.getOp());
     }
 
     private String translateEmptyArray(EmptyArray e) {
-        return String.format("Array()", translateExpression(e.getBound()));
+        Type base = ArrayType.class.cast(e.getType()).getBaseType();
+        String size = translateExpression(e.getBound());
+        if (typedArrays.containsKey(base)) {
+            return String.format("new %s(%s)", typedArrays.get(base), size);
+        }
+        String initializer = initialValues.get(base);
+        return String.format("new Array(%s).fill(%s)", size, initializer == null ? "null" : initializer);
     }
 
     private String translateArrayAggregate(ArrayAggregate e) {
@@ -322,24 +673,25 @@ public class MyCodeToJavaScriptTranslator {
         for (Expression arg : e.getArgs()) {
             expressions.add(translateExpression(arg));
         }
-        return "[" + Joiner.on(", ").join(expressions) + "]";
+        String elements = "[" + Joiner.on(", ").join(expressions) + "]";
+        Type base = ArrayType.class.cast(e.getType()).getBaseType();
+        if (typedArrays.containsKey(base)) {
+            return String.format("new %s(%s)", typedArrays.get(base), elements);
+        }
+        return elements;
     }
 
     private String translateStructAggregate(StructAggregate e) {
-        Iterator<StructField> fields = StructType.class.cast(e.getType()).getFields().iterator();
-        Iterator<Expression> values = e.getArgs().iterator();
-        List<String> pairs = new ArrayList<String>();
-        while (fields.hasNext() && values.hasNext()) {
-            pairs.add(property(fields.next().getName()) + ": " + translateExpression(values.next()));
-        }
-        return "{" + Joiner.on(", ").join(pairs) + "}";
+        return String.format("new %s(%s)", variable(e.getType()), translateExpressionList(e.getArgs()));
     }
 
     private String translateVariableExpression(VariableExpression v) {
         if (v instanceof SimpleVariableReference) {
             return variable(SimpleVariableReference.class.cast(v).getReferent());
         } else if (v instanceof SubscriptedVariable) {
-            return translateSubscriptedVariable(SubscriptedVariable.class.cast(v));
+            // Only arrays of booleans have boolean elements; they are stored as 0 or 1.
+            String element = translateSubscriptedVariable(SubscriptedVariable.class.cast(v));
+            return v.getType() == Type.BOOLEAN ? "!!" + element : element;
         } else if (v instanceof DottedVariable) {
             return translateDottedVariable(DottedVariable.class.cast(v));
         } else if (v instanceof CallExpression) {
@@ -349,6 +701,17 @@ public class MyCodeToJavaScriptTranslator {
         }
     }
 
+    /**
+     * Translates the target of an assignment, where an element of a boolean array is written
+     * as is.
+     */
+    private String translateTarget(VariableExpression v) {
+        if (v instanceof SubscriptedVariable) {
+            return translateSubscriptedVariable(SubscriptedVariable.class.cast(v));
+        }
+        return translateVariableExpression(v);
+    }
+
     private String translateSubscriptedVariable(SubscriptedVariable v) {
         String sequence = translateVariableExpression(v.getSequence());
         String index = translateExpression(v.getIndex());
@@ -357,8 +720,21 @@ public class MyCodeToJavaScriptTranslator {
 
     private String translateDottedVariable(DottedVariable v) {
         String struct = translateVariableExpression(v.getStruct());
-        String fieldName = property(v.getFieldName());
-        return String.format("%s[%s]", struct, fieldName);
+        return struct + field(v.getFieldName());
+    }
+
+    /**
+     * Returns the accessor of a field: a dot and the name, or the quoted name in brackets if it
+     * is not an ASCII identifier.
+     */
+    private String field(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(c < 128 && (Character.isLetter(c) || c == '_' || i > 0 && Character.isDigit(c)))) {
+                return "[" + property(name) + "]";
+            }
+        }
+        return "." + name;
     }
 
     private String translateCallExpression(CallExpression e) {
@@ -382,6 +758,51 @@ public class MyCodeToJavaScriptTranslator {
         return String.format("%s(%s)", function, args);
     }
 
+    /**
+     * Returns whether a variable expression can be evaluated twice with the same result and no
+     * side effects.
+     */
+    private boolean isRepeatable(Expression e) {
+        if (e instanceof SimpleVariableReference || e instanceof IntegerLiteral) {
+            return true;
+        } else if (e instanceof DottedVariable) {
+            return isRepeatable(DottedVariable.class.cast(e).getStruct());
+        } else if (e instanceof SubscriptedVariable) {
+            SubscriptedVariable s = SubscriptedVariable.class.cast(e);
+            return isRepeatable(s.getSequence()) && isRepeatable(s.getIndex());
+        }
+        return false;
+    }
+
+    /**
+     * Translates an expression to be printed or converted to JSON, turning any typed arrays in
+     * its value into plain arrays.
+     */
+    private String plain(Expression e) {
+        String value = translateExpression(e);
+        if (!containsTypedArray(e.getType(), new HashSet<Type>())) {
+            return value;
+        }
+        usesPlain = true;
+        return String.format("_plain(%s)", value);
+    }
+
+    private boolean containsTypedArray(Type type, Set<Type> seen) {
+        if (!seen.add(type)) {
+            return false;
+        } else if (type instanceof ArrayType) {
+            Type base = ArrayType.class.cast(type).getBaseType();
+            return typedArrays.containsKey(base) || containsTypedArray(base, seen);
+        } else if (type instanceof StructType) {
+            for (StructField field: StructType.class.cast(type).getFields()) {
+                if (containsTypedArray(field.getType(), seen)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private String translateExpressionList(List<Expression> list) {
         List<String> expressions = new ArrayList<String>();
         for (Expression e : list) {
@@ -415,7 +836,13 @@ public class MyCodeToJavaScriptTranslator {
     }
 
     private String variable(Entity e) {
-        return String.format("_v%d", e.getId());
+        if (!minified) {
+            return String.format("_v%d", e.getId());
+        } else if (counting) {
+            count(e);
+            return "_";
+        }
+        return names.get(e);
     }
 
     /**
@@ -425,7 +852,7 @@ public class MyCodeToJavaScriptTranslator {
      * render string literals and property names inside double quotes.
      */
     private boolean isDisplayable(int c) {
-        return 20 <= c && c <= 126 && c != '"';
+        return 20 <= c && c <= 126 && c != '"' && c != '\\';
     }
 
     private void emit(String line, Object... args) {
@@ -435,11 +862,86 @@ public class MyCodeToJavaScriptTranslator {
             line = String.format(line, args);
         }
 
+        if (minified) {
+            line = strip(line);
+            if (isWordCharacter(last) && isWordCharacter(line.charAt(0))) {
+                writer.print('\n');
+                generatedLine++;
+                generatedColumn = 0;
+            }
+            mapLine(generatedColumn);
+            writer.print(line);
+            generatedColumn += line.length();
+            last = line.charAt(line.length() - 1);
+            return;
+        }
+
+        mapLine(pad);
+
         // printf does not allow "%0s" as a format specifier, darn it.
         if (pad == 0) {
             writer.println(line);
         } else {
             writer.printf("%" + pad + "s%s\n", "", line);
         }
+        generatedLine++;
+    }
+
+    /**
+     * Maps the line about to be written, starting at the given column, to the statement being
+     * translated, and the name in it, if it declares a function or struct type, to the name in
+     * the source.  Source positions are counted from 1 and mapped positions from 0.
+     */
+    private void mapLine(int column) {
+        Declarable declared = named;
+        named = null;
+        if (map == null || counting) {
+            return;
+        }
+        if (current != null) {
+            map.map(generatedLine, column, current.getLine() - 1, current.getColumn() - 1);
+        }
+        if (declared != null && declared.hasPosition()) {
+            map.map(generatedLine, column + "function ".length(), declared.getLine() - 1,
+                declared.getColumn() - 1, declared.getName());
+        }
+    }
+
+    /**
+     * Removes the spaces of a line of JavaScript, except within string literals, between words,
+     * and between operators that would otherwise run together, like the two in "a - -b".
+     */
+    private static String strip(String line) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"' || c == '\'') {
+                int end = i + 1;
+                while (line.charAt(end) != c) {
+                    end += line.charAt(end) == '\\' ? 2 : 1;
+                }
+                result.append(line, i, end + 1);
+                i = end;
+            } else if (c == ' ') {
+                int next = i;
+                while (next < line.length() && line.charAt(next) == ' ') {
+                    next++;
+                }
+                char before = result.length() == 0 ? ' ' : result.charAt(result.length() - 1);
+                char after = next < line.length() ? line.charAt(next) : ' ';
+                if (isWordCharacter(before) && isWordCharacter(after)
+                        || before == after && (before == '+' || before == '-')) {
+                    result.append(' ');
+                }
+                i = next - 1;
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static boolean isWordCharacter(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
     }
 }
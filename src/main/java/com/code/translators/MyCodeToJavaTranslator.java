@@ -0,0 +1,901 @@
+package com.code.translators;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+
+import com.code.mycode.entities.ArrayAggregate;
+import com.code.mycode.entities.ArrayType;
+import com.code.mycode.entities.AssignmentStatement;
+import com.code.mycode.entities.Block;
+import com.code.mycode.entities.BooleanLiteral;
+import com.code.mycode.entities.BreakStatement;
+import com.code.mycode.entities.CallExpression;
+import com.code.mycode.entities.CallStatement;
+import com.code.mycode.entities.Case;
+import com.code.mycode.entities.CharLiteral;
+import com.code.mycode.entities.ClassicForStatement;
+import com.code.mycode.entities.Declarable;
+import com.code.mycode.entities.Declaration;
+import com.code.mycode.entities.DottedVariable;
+import com.code.mycode.entities.EmptyArray;
+import com.code.mycode.entities.Expression;
+import com.code.mycode.entities.Function;
+import com.code.mycode.entities.IfStatement;
+import com.code.mycode.entities.IncrementStatement;
+import com.code.mycode.entities.InfixExpression;
+import com.code.mycode.entities.IntegerLiteral;
+import com.code.mycode.entities.NullLiteral;
+import com.code.mycode.entities.PostfixExpression;
+import com.code.mycode.entities.PrefixExpression;
+import com.code.mycode.entities.PrintStatement;
+import com.code.mycode.entities.Program;
+import com.code.mycode.entities.RealLiteral;
+import com.code.mycode.entities.ReturnStatement;
+import com.code.mycode.entities.SimpleVariableReference;
+import com.code.mycode.entities.Statement;
+import com.code.mycode.entities.StringLiteral;
+import com.code.mycode.entities.StructAggregate;
+import com.code.mycode.entities.StructField;
+import com.code.mycode.entities.StructType;
+import com.code.mycode.entities.SubscriptedVariable;
+import com.code.mycode.entities.TailCallStatement;
+import com.code.mycode.entities.Type;
+import com.code.mycode.entities.Variable;
+import com.code.mycode.entities.VariableExpression;
+import com.code.mycode.entities.WhileStatement;
+import com.code.util.IdGenerator;
+
+/**
+ * A translator from MyCode semantic graphs to the source of a Java class, which javac can
+ * compile against JavaSupport.
+ *
+ * Structs become final nested classes with typed fields, arrays become Java arrays of the
+ * corresponding types, and functions become static methods, those overloading each other in
+ * MyCode overloading each other in Java too.  Nested functions are lifted to the top: the
+ * variables of enclosing functions they use are kept in one-element arrays, cells, passed
+ * along as extra arguments, and the top level variables they use become static fields.
+ *
+ * javac insists on code being reachable and on methods returning, where MyCode does not, so
+ * statements after a break, return or endless loop are left out, and functions that can fall
+ * off their end return the default value of their type.
+ */
+public class MyCodeToJavaTranslator {
+
+    public static final String CLASS_NAME = "MyCodeProgram";
+
+    private static final String SUPPORT = "JavaSupport";
+
+    // Label of the loop wrapping the body of a tail recursive function
+    private static final String TAIL_LABEL = "tail";
+
+    private PrintWriter writer;
+    private int indentPadding = 4;
+    private int indentLevel = 0;
+    private IdGenerator temporaries = new IdGenerator();
+
+    // Declarations of temporaries used by the statement being translated, emitted before it
+    private List<String> pendingTemporaries = new ArrayList<String>();
+
+    // Whether the loop being translated has a reachable break
+    private boolean broken;
+
+    private LiftedFunctions lifted;
+    private Map<Function, String> methodNames = new HashMap<Function, String>();
+
+    private ImmutableMap<Function, String> builtIns = ImmutableMap.<Function, String>builder()
+        .put(Function.ATAN, "StrictMath.atan2")
+        .put(Function.COS, "StrictMath.cos")
+        .put(Function.LN, "StrictMath.log")
+        .put(Function.SIN, "StrictMath.sin")
+        .put(Function.SQRT, "StrictMath.sqrt")
+        .build();
+
+    private ImmutableMap<Type, String> initialValues = ImmutableMap.<Type, String>builder()
+        .put(Type.BOOLEAN, "false")
+        .put(Type.CHAR, "((char)0)")
+        .put(Type.INT, "0")
+        .put(Type.REAL, "0.0")
+        .put(Type.STRING, "\"\"")
+        .build();
+
+    private ImmutableMap<Type, String> javaTypes = ImmutableMap.<Type, String>builder()
+        .put(Type.BOOLEAN, "boolean")
+        .put(Type.CHAR, "char")
+        .put(Type.INT, "int")
+        .put(Type.REAL, "double")
+        .put(Type.STRING, "String")
+        .build();
+
+    /**
+     * Writes the program, which must have been analyzed without errors, as a class named
+     * CLASS_NAME in the unnamed package.
+     */
+    public void translateProgram(Program program, PrintWriter writer) {
+        this.writer = writer;
+        lifted = new LiftedFunctions(program);
+        nameMethods();
+
+        emit("import com.code.mycode.jvm.%s;", SUPPORT);
+        emit("");
+        emit("public final class %s {", CLASS_NAME);
+        indentLevel++;
+        emit("");
+        emit("public static %s support;", SUPPORT);
+        for (Variable v: lifted.getGlobals()) {
+            emit("static %s %s;", javaType(v.getType()), name(v));
+        }
+        for (StructType s: lifted.getStructs()) {
+            emit("");
+            translateStruct(s);
+        }
+        for (Function f: lifted.getFunctions()) {
+            emit("");
+            translateFunction(f);
+        }
+        emit("");
+        emit("public static void main() {");
+        translateBlock(program);
+        emit("}");
+        emit("");
+        emit("public static void main(String[] args) {");
+        indentLevel++;
+        emit("support = new %s(new java.io.InputStreamReader(System.in), new java.io.PrintWriter(System.out));", SUPPORT);
+        emit("try {");
+        emit("    main();");
+        emit("} finally {");
+        emit("    support.flush();");
+        emit("}");
+        indentLevel--;
+        emit("}");
+        indentLevel--;
+        emit("}");
+        writer.flush();
+    }
+
+    // Naming
+
+    /**
+     * Names the methods for functions.  Functions linked as overloads share a name, and other
+     * functions of the same name, declared in other scopes, are told apart by a number.
+     */
+    private void nameMethods() {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (Function f: lifted.getFunctions()) {
+            String name = null;
+            for (Function g = f.getOverload(); g != null && name == null; g = g.getOverload()) {
+                name = methodNames.get(g);
+            }
+            if (name == null) {
+                Integer count = counts.get(f.getName());
+                counts.put(f.getName(), count == null ? 2 : count + 1);
+                name = f.getName() + "_" + (count == null ? "" : count.toString());
+            }
+            methodNames.put(f, name);
+        }
+    }
+
+    // Declarations
+
+    private void translateStruct(StructType s) {
+        List<String> names = new ArrayList<String>();
+        List<String> parameters = new ArrayList<String>();
+        List<String> values = new ArrayList<String>();
+        for (StructField field: s.getFields()) {
+            names.add(stringLiteral(field.getName()));
+            parameters.add(javaType(field.getType()) + " " + fieldName(field.getName()));
+            values.add(fieldName(field.getName()));
+        }
+        emit("static final class %s implements %s.Record {", className(s), SUPPORT);
+        indentLevel++;
+        emit("private static final String[] NAMES = {%s};", Joiner.on(", ").join(names));
+        emit("");
+        for (String parameter: parameters) {
+            emit("%s;", parameter);
+        }
+        emit("");
+        emit("%s(%s) {", className(s), Joiner.on(", ").join(parameters));
+        for (String value: values) {
+            emit("    this.%s = %s;", value, value);
+        }
+        emit("}");
+        emit("");
+        emit("public String[] names() {");
+        emit("    return NAMES;");
+        emit("}");
+        emit("");
+        emit("public Object[] values() {");
+        emit("    return new Object[] {%s};", Joiner.on(", ").join(values));
+        emit("}");
+        indentLevel--;
+        emit("}");
+    }
+
+    private void translateFunction(Function f) {
+        List<String> parameters = new ArrayList<String>();
+        for (Variable p: f.getParameters()) {
+            parameters.add(javaType(p.getType()) + " " + (lifted.isCaptured(p) ? "$" : "") + name(p));
+        }
+        for (Variable v: lifted.getFreeVariables(f)) {
+            parameters.add(javaType(v.getType()) + "[] " + name(v));
+        }
+        String returnType = f.isVoid() ? "void" : javaType(f.getReturnType());
+        emit("static %s %s(%s) {", returnType, methodNames.get(f), Joiner.on(", ").join(parameters));
+        indentLevel++;
+        for (Variable v: lifted.getDeclared(f)) {
+            if (!lifted.isCaptured(v)) {
+                continue;
+            } else if (f.getParameters().contains(v)) {
+                emit("%s[] %s = {$%s};", javaType(v.getType()), name(v), name(v));
+            } else {
+                emit("%s[] %s = %s;", javaType(v.getType()), name(v), newArray(v.getType(), "1"));
+            }
+        }
+        if (f.isTailRecursive()) {
+            emit("%s: while (true) {", TAIL_LABEL);
+            if (translateBlock(f.getBody())) {
+                emit("    %s;", returnDefault(f));
+            }
+            emit("}");
+        } else {
+            indentLevel--;
+            if (translateBlock(f.getBody()) && !f.isVoid()) {
+                emit("    %s;", returnDefault(f));
+            }
+            indentLevel++;
+        }
+        indentLevel--;
+        emit("}");
+    }
+
+    /**
+     * Returns the statement for falling off the end of a function, which MyCode allows even
+     * for functions returning values.
+     */
+    private String returnDefault(Function f) {
+        return f.isVoid() ? "return" : "return " + initialValue(f.getReturnType());
+    }
+
+    // Statements
+
+    /**
+     * Translates the statements of a block, one level further in, and returns whether the block
+     * can complete normally.
+     */
+    private boolean translateBlock(Block block) {
+        indentLevel++;
+        boolean completes = translateStatements(block.getStatements());
+        indentLevel--;
+        return completes;
+    }
+
+    private boolean translateStatements(List<Statement> statements) {
+        for (Statement s: statements) {
+            if (!translateStatement(s)) {
+                // Anything further is unreachable, and javac would reject it.
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Translates a statement, returning whether it can complete normally by the rules javac
+     * applies.
+     */
+    private boolean translateStatement(Statement s) {
+
+        if (s instanceof Declaration) {
+            Declarable d = Declaration.class.cast(s).getDeclarable();
+            if (d instanceof Variable) {
+                translateVariableDeclaration(Variable.class.cast(d));
+            }
+            // Functions and types are declared at the top of the class
+            return true;
+
+        } else if (s instanceof AssignmentStatement) {
+            emitStatement("%s;", translateAssignment(AssignmentStatement.class.cast(s)));
+            return true;
+
+        } else if (s instanceof IncrementStatement) {
+            emitStatement("%s;", translateIncrement(IncrementStatement.class.cast(s)));
+            return true;
+
+        } else if (s instanceof CallStatement) {
+            CallStatement c = CallStatement.class.cast(s);
+            if (c.getFunction() != Function.PI) {
+                emitStatement("%s;", translateCall(c.getFunction(), c.getArgs()));
+            }
+            return true;
+
+        } else if (s instanceof BreakStatement) {
+            emit("break;");
+            broken = true;
+            return false;
+
+        } else if (s instanceof ReturnStatement) {
+            Expression e = ReturnStatement.class.cast(s).getReturnExpression();
+            if (e == null) {
+                emit("return;");
+            } else {
+                emitStatement("return %s;", translateExpression(e));
+            }
+            return false;
+
+        } else if (s instanceof TailCallStatement) {
+            translateTailCallStatement(TailCallStatement.class.cast(s));
+            return false;
+
+        } else if (s instanceof PrintStatement) {
+            for (Expression e: PrintStatement.class.cast(s).getArgs()) {
+                emitStatement("support.print(%s);", translateExpression(e));
+            }
+            return true;
+
+        } else if (s instanceof IfStatement) {
+            return translateIfStatement(IfStatement.class.cast(s));
+
+        } else if (s instanceof WhileStatement) {
+            return translateWhileStatement(WhileStatement.class.cast(s));
+
+        } else if (s instanceof ClassicForStatement) {
+            return translateClassicForStatement(ClassicForStatement.class.cast(s));
+        }
+        throw new RuntimeException("Unknown statement class: " + s.getClass().getName());
+    }
+
+    private void translateVariableDeclaration(Variable v) {
+        String initializer = v.getInitializer() == null
+            ? initialValue(v.getType())
+            : translateExpression(v.getInitializer());
+        emitStatement("%s;", initialization(v, initializer));
+    }
+
+    /**
+     * Returns the Java declaration of a local variable with the given initial value, or, for
+     * variables in cells or static fields, the assignment of the value.
+     */
+    private String initialization(Variable v, String initializer) {
+        if (lifted.isCaptured(v) || lifted.isGlobal(v)) {
+            return variable(v) + " = " + initializer;
+        }
+        return javaType(v.getType()) + " " + name(v) + " = " + initializer;
+    }
+
+    private String translateAssignment(AssignmentStatement s) {
+        String left = translateVariableExpression(s.getLeft());
+        String right = translateExpression(s.getRight());
+        return String.format("%s = %s", left, right);
+    }
+
+    private String translateIncrement(IncrementStatement s) {
+        return translateVariableExpression(s.getTarget()) + s.getOp();
+    }
+
+    private void translateTailCallStatement(TailCallStatement s) {
+        // Every argument is evaluated before any parameter is reassigned, since the arguments
+        // may refer to the parameters.  Parameters passed along unchanged need no assignment.
+        List<String> targets = new ArrayList<String>();
+        List<String> values = new ArrayList<String>();
+        List<String> types = new ArrayList<String>();
+        Iterator<Variable> parameters = s.getFunction().getParameters().iterator();
+        for (Expression arg: s.getArgs()) {
+            Variable parameter = parameters.next();
+            if (arg instanceof SimpleVariableReference
+                    && SimpleVariableReference.class.cast(arg).getReferent() == parameter) {
+                continue;
+            }
+            targets.add(variable(parameter));
+            values.add(translateExpression(arg));
+            types.add(javaType(parameter.getType()));
+        }
+        flushTemporaries();
+        if (targets.size() > 1) {
+            for (int i = 0; i < values.size(); i++) {
+                String temporary = temporaries.id("$t");
+                emit("%s %s = %s;", types.get(i), temporary, values.get(i));
+                values.set(i, temporary);
+            }
+        }
+        for (int i = 0; i < targets.size(); i++) {
+            emit("%s = %s;", targets.get(i), values.get(i));
+        }
+        emit("continue %s;", TAIL_LABEL);
+    }
+
+    private boolean translateIfStatement(IfStatement s) {
+        if (s.getCases().isEmpty()) {
+            // If and else-ifs were all optimized away!  Just do the else and get out.
+            return s.getElsePart() == null || translateStatements(s.getElsePart().getStatements());
+        }
+        List<String> conditions = new ArrayList<String>();
+        for (Case c: s.getCases()) {
+            conditions.add(translateExpression(c.getCondition()));
+        }
+        flushTemporaries();
+
+        boolean completes = false;
+        String lead = "if";
+        for (int i = 0; i < conditions.size(); i++) {
+            emit("%s (%s) {", lead, conditions.get(i));
+            completes |= translateBlock(s.getCases().get(i).getBody());
+            lead = "} else if";
+        }
+        if (s.getElsePart() != null) {
+            emit("} else {");
+            completes |= translateBlock(s.getElsePart());
+        } else {
+            completes = true;
+        }
+        emit("}");
+        return completes;
+    }
+
+    private boolean translateWhileStatement(WhileStatement s) {
+        if (s.getCondition() == BooleanLiteral.FALSE) {
+            // javac rejects the body of such a loop as unreachable
+            return true;
+        }
+        String condition = translateCondition(s.getCondition());
+        flushTemporaries();
+        emit("while (%s) {", condition);
+        boolean completes = translateLoopBody(s.getBody()) || s.getCondition() != BooleanLiteral.TRUE;
+        emit("}");
+        return completes;
+    }
+
+    private boolean translateClassicForStatement(ClassicForStatement s) {
+        List<Variable> variables = new ArrayList<Variable>();
+        if (s.getIndexVariable() != null) {
+            variables.add(s.getIndexVariable());
+            variables.addAll(s.getDerivedVariables());
+        }
+        List<String> values = new ArrayList<String>();
+        List<String> initializations = new ArrayList<String>();
+        boolean declarations = true;
+        for (Variable v: variables) {
+            values.add(translateExpression(v.getInitializer()));
+            initializations.add(initialization(v, values.get(values.size() - 1)));
+            declarations &= !lifted.isCaptured(v) && !lifted.isGlobal(v)
+                && javaType(v.getType()).equals(javaType(variables.get(0).getType()));
+        }
+
+        if (s.getTest() == BooleanLiteral.FALSE) {
+            // javac rejects the body of such a loop as unreachable, so just initialize
+            flushTemporaries();
+            for (String initialization: initializations) {
+                emit("%s;", initialization);
+            }
+            return true;
+        }
+        String test = s.getTest() == null ? "" : translateCondition(s.getTest());
+        List<String> updates = new ArrayList<String>();
+        if (s.getEach() instanceof AssignmentStatement) {
+            updates.add(translateAssignment(AssignmentStatement.class.cast(s.getEach())));
+        } else if (s.getEach() instanceof IncrementStatement) {
+            updates.add(translateIncrement(IncrementStatement.class.cast(s.getEach())));
+        } else if (s.getEach() instanceof CallStatement) {
+            CallStatement c = CallStatement.class.cast(s.getEach());
+            updates.add(translateCall(c.getFunction(), c.getArgs()));
+        }
+        for (AssignmentStatement update: s.getDerivedUpdates()) {
+            updates.add(translateAssignment(update));
+        }
+        flushTemporaries();
+
+        // A single declaration can start the loop; anything else is done before it.
+        String init = "";
+        boolean wrapped = !variables.isEmpty() && !declarations;
+        if (wrapped) {
+            emit("{");
+            indentLevel++;
+            for (String initialization: initializations) {
+                emit("%s;", initialization);
+            }
+        } else if (!variables.isEmpty()) {
+            init = initializations.get(0);
+            for (int i = 1; i < variables.size(); i++) {
+                init += ", " + name(variables.get(i)) + " = " + values.get(i);
+            }
+        }
+        emit("for (%s; %s; %s) {", init, test, Joiner.on(", ").join(updates));
+        boolean endless = s.getTest() == null || s.getTest() == BooleanLiteral.TRUE;
+        boolean completes = translateLoopBody(s.getBody()) || !endless;
+        emit("}");
+        if (wrapped) {
+            indentLevel--;
+            emit("}");
+        }
+        return completes;
+    }
+
+    /**
+     * Translates the body of a loop, returning whether it has a reachable break.
+     */
+    private boolean translateLoopBody(Block body) {
+        boolean outer = broken;
+        broken = false;
+        translateBlock(body);
+        boolean result = broken;
+        broken = outer;
+        return result;
+    }
+
+    /**
+     * Translates the condition of a loop.  The literal true is left for javac to see, but any
+     * other condition javac would take for a constant is hidden from it, so that it judges the
+     * reachability of code around the loop as MyCode does.
+     */
+    private String translateCondition(Expression e) {
+        String condition = translateExpression(e);
+        if (e != BooleanLiteral.TRUE && isConstant(e)) {
+            return String.format("%s.condition(%s)", SUPPORT, condition);
+        }
+        return condition;
+    }
+
+    /**
+     * Returns whether the translation of an expression is a constant expression to javac.
+     */
+    private boolean isConstant(Expression e) {
+        if (e instanceof IntegerLiteral || e instanceof CharLiteral || e instanceof RealLiteral
+                || e instanceof BooleanLiteral || e instanceof StringLiteral) {
+            return true;
+        } else if (e instanceof PrefixExpression) {
+            PrefixExpression p = PrefixExpression.class.cast(e);
+            return p.getOp().matches("-|!|~|int|char") && isConstant(p.getOperand());
+        } else if (e instanceof InfixExpression) {
+            InfixExpression i = InfixExpression.class.cast(e);
+            return i.getLeft().getType() != Type.STRING && i.getRight().getType() != Type.STRING
+                && isConstant(i.getLeft()) && isConstant(i.getRight());
+        }
+        return false;
+    }
+
+    // Expressions
+
+    private String translateExpression(Expression e) {
+        if (e instanceof IntegerLiteral) {
+            return translateNumber(IntegerLiteral.class.cast(e).getValue().toString());
+        } else if (e instanceof CharLiteral) {
+            return charLiteral(CharLiteral.class.cast(e).getValue());
+        } else if (e instanceof RealLiteral) {
+            return translateReal(RealLiteral.class.cast(e).getValue());
+        } else if (e instanceof NullLiteral) {
+            return "null";
+        } else if (e == BooleanLiteral.TRUE) {
+            return "true";
+        } else if (e == BooleanLiteral.FALSE) {
+            return "false";
+        } else if (e instanceof StringLiteral) {
+            return translateStringLiteral(StringLiteral.class.cast(e));
+        } else if (e instanceof ArrayAggregate) {
+            return translateArrayAggregate(ArrayAggregate.class.cast(e));
+        } else if (e instanceof StructAggregate) {
+            return translateStructAggregate(StructAggregate.class.cast(e));
+        } else if (e instanceof EmptyArray) {
+            return translateEmptyArray(EmptyArray.class.cast(e));
+        } else if (e instanceof PrefixExpression) {
+            return translatePrefixExpression(PrefixExpression.class.cast(e));
+        } else if (e instanceof PostfixExpression) {
+            PostfixExpression p = PostfixExpression.class.cast(e);
+            return String.format("(%s%s)", translateVariableExpression(p.getOperand()), p.getOp());
+        } else if (e instanceof InfixExpression) {
+            return translateInfixExpression(InfixExpression.class.cast(e));
+        } else if (e instanceof VariableExpression) {
+            return translateVariableExpression(VariableExpression.class.cast(e));
+        }
+        throw new RuntimeException("Unknown entity class: " + e.getClass().getName());
+    }
+
+    /**
+     * Parenthesizes negative numbers, which the optimizer can produce, so that they can appear
+     * after any operator.
+     */
+    private String translateNumber(String number) {
+        return number.startsWith("-") ? "(" + number + ")" : number;
+    }
+
+    private String translateReal(double value) {
+        if (Double.isNaN(value)) {
+            return "Double.NaN";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+        }
+        return translateNumber(Double.toString(value));
+    }
+
+    private String translateStringLiteral(StringLiteral s) {
+        StringBuilder builder = new StringBuilder();
+        for (int codepoint: s.getValues()) {
+            builder.appendCodePoint(codepoint);
+        }
+        return stringLiteral(builder.toString());
+    }
+
+    private String translatePrefixExpression(PrefixExpression e) {
+        String op = e.getOp();
+        if ("++".equals(op) || "--".equals(op)) {
+            return String.format("(%s%s)", op, translateVariableExpression((VariableExpression)e.getOperand()));
+        }
+        String operand = translateExpression(e.getOperand());
+        if ("!~-".indexOf(op) >= 0) {
+            return String.format("(%s%s)", op, operand);
+        } else if ("string".equals(op)) {
+            return String.format("%s.json(%s)", SUPPORT, operand);
+        } else if ("length".equals(op)) {
+            return e.getOperand().getType() == Type.STRING ? operand + ".length()" : operand + ".length";
+        } else if ("int".equals(op) || "char".equals(op)) {
+            return String.format("((%s)%s)", op, operand);
+        }
+        throw new RuntimeException("Unknown prefix operator: " + e.getOp());
+    }
+
+    private String translateInfixExpression(InfixExpression e) {
+        String op = e.getOp();
+        String left = translateExpression(e.getLeft());
+        String right = translateExpression(e.getRight());
+        boolean strings = e.getLeft().getType() == Type.STRING || e.getRight().getType() == Type.STRING;
+        if (strings && "==".equals(op)) {
+            return String.format("%s.same(%s, %s)", SUPPORT, left, right);
+        } else if (strings && "!=".equals(op)) {
+            return String.format("(!%s.same(%s, %s))", SUPPORT, left, right);
+        } else if (strings) {
+            return String.format("(%s.compareTo(%s) %s 0)", left, right, op);
+        }
+        // Otherwise the MyCode operators are Java's, even for int arithmetic, which wraps.
+        return String.format("(%s %s %s)", left, op, right);
+    }
+
+    private String translateEmptyArray(EmptyArray e) {
+        Type base = ArrayType.class.cast(e.getType()).getBaseType();
+        String bound = translateExpression(e.getBound());
+        if (base == Type.STRING) {
+            return String.format("%s.newStrings(%s)", SUPPORT, bound);
+        }
+        return "(" + newArray(base, String.format("%s.checkSize(%s)", SUPPORT, bound)) + ")";
+    }
+
+    private String translateArrayAggregate(ArrayAggregate e) {
+        List<String> expressions = new ArrayList<String>();
+        for (Expression arg: e.getArgs()) {
+            expressions.add(translateExpression(arg));
+        }
+        return String.format("(new %s {%s})", javaType(e.getType()), Joiner.on(", ").join(expressions));
+    }
+
+    private String translateStructAggregate(StructAggregate e) {
+        Iterator<StructField> fields = StructType.class.cast(e.getType()).getFields().iterator();
+        List<String> args = new ArrayList<String>();
+        for (Expression arg: e.getArgs()) {
+            args.add(argument(arg, fields.next().getType()));
+        }
+        return String.format("new %s(%s)", className(e.getType()), Joiner.on(", ").join(args));
+    }
+
+    private String translateVariableExpression(VariableExpression v) {
+        if (v instanceof SimpleVariableReference) {
+            return variable(SimpleVariableReference.class.cast(v).getReferent());
+        } else if (v instanceof SubscriptedVariable) {
+            return translateSubscriptedVariable(SubscriptedVariable.class.cast(v));
+        } else if (v instanceof DottedVariable) {
+            DottedVariable d = DottedVariable.class.cast(v);
+            return translateExpression(d.getStruct()) + "." + fieldName(d.getFieldName());
+        } else if (v instanceof CallExpression) {
+            CallExpression c = CallExpression.class.cast(v);
+            return translateCall(c.getFunction(), c.getArgs());
+        }
+        throw new RuntimeException("Unknown variable expression class: " + v.getClass().getName());
+    }
+
+    /**
+     * Translates a subscripted variable, checking the index as the interpreter does, before
+     * any value assigned to it is evaluated.  The sequence is needed twice, so unless it can
+     * be evaluated again without effect, it is kept in a temporary.
+     */
+    private String translateSubscriptedVariable(SubscriptedVariable v) {
+        Expression sequence = v.getSequence();
+        String first = translateExpression(sequence);
+        String again = first;
+        if (!isRepeatable(sequence)) {
+            again = temporaries.id("$t");
+            pendingTemporaries.add(javaType(sequence.getType()) + " " + again);
+            first = "(" + again + " = " + first + ")";
+        }
+        String index = String.format("%s.index(%s, %s)", SUPPORT, again, translateExpression(v.getIndex()));
+        if (sequence.getType() == Type.STRING) {
+            return String.format("%s.charAt(%s)", first, index);
+        }
+        return String.format("%s[%s]", first, index);
+    }
+
+    /**
+     * Returns whether an expression can be evaluated twice in a row with the same result and no
+     * effect.
+     */
+    private boolean isRepeatable(Expression e) {
+        if (e instanceof SimpleVariableReference) {
+            return true;
+        } else if (e instanceof DottedVariable) {
+            return isRepeatable(DottedVariable.class.cast(e).getStruct());
+        }
+        return false;
+    }
+
+    private String translateCall(Function f, List<Expression> args) {
+        if (f == Function.PI) {
+            return "Math.PI";
+        } else if (f == Function.SUBSTRING) {
+            return String.format("%s.substring(%s)", SUPPORT, translateExpressionList(args));
+        } else if (f == Function.GET_STRING) {
+            return "support.readInput()";
+        } else if (builtIns.containsKey(f)) {
+            return String.format("%s(%s)", builtIns.get(f), translateExpressionList(args));
+        }
+
+        // Arguments are cast to the parameter types, so javac picks the overload MyCode did.
+        List<String> list = new ArrayList<String>();
+        Iterator<Variable> parameters = f.getParameters().iterator();
+        for (Expression arg: args) {
+            list.add(argument(arg, parameters.next().getType()));
+        }
+        for (Variable v: lifted.getFreeVariables(f)) {
+            list.add(name(v));
+        }
+        return String.format("%s(%s)", methodNames.get(f), Joiner.on(", ").join(list));
+    }
+
+    /**
+     * Translates an expression passed for a parameter or field of the given type.
+     */
+    private String argument(Expression e, Type type) {
+        String value = translateExpression(e);
+        String javaType = javaType(type);
+        return javaType.equals(javaType(e.getType())) ? value : String.format("((%s)%s)", javaType, value);
+    }
+
+    private String translateExpressionList(List<Expression> list) {
+        List<String> expressions = new ArrayList<String>();
+        for (Expression e: list) {
+            expressions.add(translateExpression(e));
+        }
+        return Joiner.on(", ").join(expressions);
+    }
+
+    // Names, types and literals
+
+    /**
+     * Returns the Java expression for a variable: its local or static field, or the element of
+     * its cell.
+     */
+    private String variable(Variable v) {
+        return lifted.isCaptured(v) ? name(v) + "[0]" : name(v);
+    }
+
+    /**
+     * Returns the Java name of a variable.  The id makes it unique, so the MyCode name needs
+     * only to be made an identifier: variables the optimizer introduces have names like "i*2".
+     */
+    private String name(Variable v) {
+        StringBuilder builder = new StringBuilder();
+        for (char c: v.getName().toCharArray()) {
+            builder.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        return builder.append('_').append(v.getId()).toString();
+    }
+
+    private String fieldName(String name) {
+        return name + "_";
+    }
+
+    private String className(Type type) {
+        return type.getName() + "_" + type.getId();
+    }
+
+    private String javaType(Type type) {
+        if (javaTypes.containsKey(type)) {
+            return javaTypes.get(type);
+        } else if (type instanceof ArrayType) {
+            return javaType(ArrayType.class.cast(type).getBaseType()) + "[]";
+        } else if (type instanceof StructType) {
+            return className(type);
+        }
+        return "Object";
+    }
+
+    private String initialValue(Type type) {
+        String value = initialValues.get(type);
+        return value == null ? "null" : value;
+    }
+
+    /**
+     * Returns the creation of an array with the given base type and size, like "new int[n]",
+     * or for a base type that is itself an array, "new int[n][]".
+     */
+    private String newArray(Type base, String size) {
+        String type = javaType(base);
+        int bracket = type.indexOf('[');
+        if (bracket < 0) {
+            return String.format("new %s[%s]", type, size);
+        }
+        return String.format("new %s[%s]%s", type.substring(0, bracket), size, type.substring(bracket));
+    }
+
+    private String charLiteral(int c) {
+        if (c == '\'' || c == '\\') {
+            return "'\\" + (char)c + "'";
+        } else if (isDisplayable(c)) {
+            return "'" + (char)c + "'";
+        }
+        return String.format("((char)%d)", c);
+    }
+
+    /**
+     * Returns the string in double quotes.  Characters other than printable ASCII are escaped,
+     * but never as \\u000a and the like, which javac turns into a line break before it even
+     * reads the literal.
+     */
+    private String stringLiteral(String s) {
+        StringBuilder result = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (isDisplayable(c)) {
+                result.append(c);
+            } else if (c < 0x80) {
+                result.append(String.format("\\%03o", (int)c));
+            } else {
+                result.append(String.format("\\u%04x", (int)c));
+            }
+        }
+        return result.append("\"").toString();
+    }
+
+    /**
+     * Returns whether or not a character can be written as is in the Java output: the
+     * non-control ASCII characters.
+     */
+    private boolean isDisplayable(int c) {
+        return 32 <= c && c <= 126;
+    }
+
+    // Output
+
+    private void flushTemporaries() {
+        for (String declaration: pendingTemporaries) {
+            emit("%s;", declaration);
+        }
+        pendingTemporaries.clear();
+    }
+
+    /**
+     * Emits a line whose expressions have been translated, after the declarations of any
+     * temporaries they use.
+     */
+    private void emitStatement(String line, Object... args) {
+        flushTemporaries();
+        emit(line, args);
+    }
+
+    private void emit(String line, Object... args) {
+        int pad = indentPadding * indentLevel;
+
+        if (args.length != 0) {
+            line = String.format(line, args);
+        }
+
+        // printf does not allow "%0s" as a format specifier, darn it.
+        if (pad == 0 || line.isEmpty()) {
+            writer.println(line);
+        } else {
+            writer.printf("%" + pad + "s%s\n", "", line);
+        }
+    }
+}
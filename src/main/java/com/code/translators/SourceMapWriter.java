@@ -0,0 +1,129 @@
+package com.code.translators;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A writer of source maps, in version 3 of the format, for a file generated from a single
+ * source.  Mappings are encoded and written as they are added, which must be in the order of
+ * the generated positions, so a map never needs to be held in memory, however large the
+ * generated file.  The names mentioned in the mappings are written at the end.
+ *
+ * Positions are counted from 0, as in the format: lines, and columns in UTF-16 code units.
+ */
+public class SourceMapWriter {
+
+    private static final String BASE64 =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private PrintWriter out;
+    private List<String> names = new ArrayList<String>();
+    private Map<String, Integer> nameIndexes = new HashMap<String, Integer>();
+
+    // The previous mapping, the fields of each mapping being written relative to it
+    private int generatedLine = 0;
+    private int generatedColumn = 0;
+    private int sourceLine = 0;
+    private int sourceColumn = 0;
+    private int nameIndex = 0;
+    private boolean lineStarted = false;
+
+    /**
+     * Starts a map for the given generated file, whose source is the given file.  File names
+     * are written as is, so they should be relative to where the map will be.
+     */
+    public SourceMapWriter(PrintWriter out, String file, String source) {
+        this.out = out;
+        out.print("{\"version\":3,\"file\":" + quote(file) + ",\"sources\":[" + quote(source)
+            + "],\"mappings\":\"");
+    }
+
+    /**
+     * Maps a position in the generated file to a position in the source.
+     */
+    public void map(int line, int column, int toLine, int toColumn) {
+        map(line, column, toLine, toColumn, null);
+    }
+
+    /**
+     * Maps a position in the generated file to a position in the source, where the generated
+     * code holds something called by the given name in the source.
+     */
+    public void map(int line, int column, int toLine, int toColumn, String name) {
+        if (line < generatedLine || line == generatedLine && column < generatedColumn) {
+            throw new IllegalArgumentException("Mappings must be added in order");
+        }
+        for (; generatedLine < line; generatedLine++) {
+            out.print(';');
+            generatedColumn = 0;
+            lineStarted = false;
+        }
+        if (lineStarted) {
+            out.print(',');
+        }
+        writeVlq(column - generatedColumn);
+        writeVlq(0); // There is only one source, whose index is 0
+        writeVlq(toLine - sourceLine);
+        writeVlq(toColumn - sourceColumn);
+        if (name != null) {
+            Integer index = nameIndexes.get(name);
+            if (index == null) {
+                index = names.size();
+                names.add(name);
+                nameIndexes.put(name, index);
+            }
+            writeVlq(index - nameIndex);
+            nameIndex = index;
+        }
+        generatedColumn = column;
+        sourceLine = toLine;
+        sourceColumn = toColumn;
+        lineStarted = true;
+    }
+
+    /**
+     * Finishes the map with the names used in it, and closes the underlying writer.
+     */
+    public void close() {
+        out.print("\",\"names\":[");
+        for (int i = 0; i < names.size(); i++) {
+            out.print((i == 0 ? "" : ",") + quote(names.get(i)));
+        }
+        out.print("]}\n");
+        out.close();
+    }
+
+    /**
+     * Writes a number as a base 64 VLQ: groups of five bits, least significant first, each
+     * flagged when more follow, the lowest bit of the first group being the sign.
+     */
+    private void writeVlq(int value) {
+        long rest = value < 0 ? ((-(long)value) << 1) | 1 : (long)value << 1;
+        do {
+            int digit = (int)(rest & 31);
+            rest >>>= 5;
+            if (rest != 0) {
+                digit |= 32;
+            }
+            out.print(BASE64.charAt(digit));
+        } while (rest != 0);
+    }
+
+    private static String quote(String s) {
+        StringBuilder result = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < 32 || c > 126) {
+                result.append(String.format("\\u%04x", (int)c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+}
@@ -1,6 +1,7 @@
 package com.code.util;
 
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.text.MessageFormat;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
@@ -11,6 +12,11 @@ import java.util.ResourceBundle;
  * as they are written.  Clients can call <code>clearErrors</code> to set
  * this count to zero and <code>getErrorCount()</code> to get the number of
  * errors logged since the last call to <code>clearErrors()</code>.
+ * A log can also be viewed as located somewhere, with <code>at</code>,
+ * in which case the location is prefixed to its error messages.
+ * A buffered log, from <code>buffered</code>, holds its messages until
+ * they are passed on to another log, so that work done in parallel can
+ * have its messages written in order.
  */
 public class Log {
 
@@ -18,6 +24,9 @@ public class Log {
     private PrintWriter writer;
     private int errorCount = 0;
     private boolean quiet = false;
+    private Log root = this;
+    private Object location = null;
+    private StringWriter buffer = null;
 
     /**
      * Constructs a <code>Log</code> object.
@@ -32,12 +41,65 @@ public class Log {
         this.writer = writer;
     }
 
+    private Log(ResourceBundle bundle, StringWriter buffer) {
+        this.bundle = bundle;
+        this.writer = new PrintWriter(buffer);
+        this.buffer = buffer;
+    }
+
+    private Log(Log root, Object location) {
+        this.bundle = root.bundle;
+        this.writer = root.writer;
+        this.root = root;
+        this.location = location;
+    }
+
+    /**
+     * Returns a view of this log for errors at the given location.  The
+     * view writes to the same writer, and shares the error count and
+     * quietness of this log.
+     *
+     * @param location the location, whose string form is computed only
+     * when an error is logged through the view.
+     */
+    public Log at(Object location) {
+        return new Log(root, location);
+    }
+
+    /**
+     * Returns a new log, quiet if this one is, holding its messages and
+     * error count until they are passed on with <code>flushTo</code>.
+     */
+    public Log buffered() {
+        Log log = new Log(bundle, new StringWriter());
+        log.quiet = root.quiet;
+        return log;
+    }
+
+    /**
+     * Passes the messages and errors held by this buffered log on to the
+     * given log.  From then on, this log writes straight to the given log,
+     * as for anything logged late, like errors in function bodies parsed
+     * lazily.
+     */
+    public void flushTo(Log log) {
+        log.root.errorCount += errorCount;
+        if (!log.root.quiet) {
+            log.writer.print(buffer);
+            log.writer.flush();
+        }
+        errorCount = 0;
+        buffer = null;
+        root = log.root;
+        writer = log.writer;
+    }
+
     /**
      * Resets the error count to zero.  This method is provided so that
      * a log object can be reused.
      */
     public void clearErrors() {
-        errorCount = 0;
+        root.errorCount = 0;
     }
 
     /**
@@ -45,7 +107,7 @@ public class Log {
      * to <code>clearErrors()</code>.
      */
     public int getErrorCount() {
-        return errorCount;
+        return root.errorCount;
     }
 
     /**
@@ -56,7 +118,7 @@ public class Log {
      * you do.
      */
     public void setQuiet(boolean quiet) {
-        this.quiet = quiet;
+        root.quiet = quiet;
     }
 
     /**
@@ -68,13 +130,8 @@ public class Log {
      * @param arguments the variable part of the message.
      */
     public void message(String key, Object... arguments) {
-        if (!quiet) {
-            try {
-                String message = bundle.getString(key);
-                writer.println(MessageFormat.format(message, arguments));
-            } catch (MissingResourceException e){
-                writer.println(key);
-            }
+        if (!root.quiet) {
+            writer.println(format(key, arguments));
         }
     }
 
@@ -87,8 +144,19 @@ public class Log {
      * @param arguments the variable parts of the error message.
      */
     public void error(String errorKey, Object... arguments) {
-        errorCount++;
-        message(errorKey, arguments);
+        root.errorCount++;
+        if (!root.quiet) {
+            String message = format(errorKey, arguments);
+            writer.println(location == null ? message : location + ": " + message);
+        }
+    }
+
+    private String format(String key, Object... arguments) {
+        try {
+            return MessageFormat.format(bundle.getString(key), arguments);
+        } catch (MissingResourceException e){
+            return key;
+        }
     }
 
     /**
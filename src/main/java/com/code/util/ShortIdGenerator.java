@@ -0,0 +1,49 @@
+package com.code.util;
+
+import java.util.Set;
+
+/**
+ * A generator of the shortest possible ids, in the order a, b, ..., z, A, ..., Z, aa, ab, ....
+ * The first character of an id is a letter and the others are letters or digits.  Ids found
+ * in a set of reserved words are skipped.
+ */
+public class ShortIdGenerator {
+
+    private static final String FIRST = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    private static final String REST = FIRST + "0123456789";
+
+    private Set<String> reserved;
+    private int next = 0;
+
+    public ShortIdGenerator(Set<String> reserved) {
+        this.reserved = reserved;
+    }
+
+    public String id() {
+        while (true) {
+            String id = nth(next++);
+            if (!reserved.contains(id)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Returns the id at the given position in the sequence, ignoring reserved words.
+     */
+    private static String nth(int n) {
+        int length = 1;
+        long count = FIRST.length();
+        while (n >= count) {
+            n -= count;
+            count *= REST.length();
+            length++;
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 1; i < length; i++) {
+            result.append(REST.charAt(n % REST.length()));
+            n /= REST.length();
+        }
+        return result.append(FIRST.charAt(n)).reverse().toString();
+    }
+}
@@ -0,0 +1,221 @@
+package com.code.util;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A source file, known by a small id, and an index of where its lines start, which together
+ * let a position in the file be packed into a single long:
+ *
+ * <pre>
+ *   bits 63-48: the id of the file
+ *   bits 47-16: the offset of the first character, counted from 0
+ *   bits 15-0:  the number of characters, up to 65535
+ * </pre>
+ *
+ * A position of 0 means no position at all, since file ids start at 1.  Lines and columns are
+ * computed from the index only when asked for.  The index is built as the file is read through
+ * the reader returned by <code>track</code>; lines end with "\n", "\r\n" or "\r", as for the
+ * JavaCC token manager.  Offsets and columns count UTF-16 code units.  The text itself is not
+ * kept, unless asked for with <code>keepText</code> before reading.
+ */
+public class SourceFile {
+
+    public static final long NO_POSITION = 0;
+
+    private static final int MAX_FILES = 0xFFFF;
+    private static final int MAX_LENGTH = 0xFFFF;
+
+    // All files registered so far, the file with id n at index n - 1
+    private static final List<SourceFile> files = new ArrayList<SourceFile>();
+
+    private final int id;
+    private final String name;
+    private int[] lineStarts = new int[64];
+    private int lineCount = 1;
+    private StringBuilder text = null;
+
+    private SourceFile(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * Registers a new file with the given name.  There is room for 65535 files; the files
+     * registered after those have an id of 0, and their positions are not recorded.
+     */
+    public static SourceFile register(String name) {
+        synchronized (files) {
+            if (files.size() >= MAX_FILES) {
+                return new SourceFile(0, name);
+            }
+            SourceFile file = new SourceFile(files.size() + 1, name);
+            files.add(file);
+            return file;
+        }
+    }
+
+    /**
+     * Returns the file a position is in, or null for no position.
+     */
+    public static SourceFile of(long position) {
+        int id = (int)(position >>> 48);
+        if (id == 0) {
+            return null;
+        }
+        synchronized (files) {
+            return files.get(id - 1);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Has the file keep its text as it is read, so that parts of it can be read again with
+     * <code>getText</code>.
+     */
+    public void keepText() {
+        if (text == null) {
+            text = new StringBuilder();
+        }
+    }
+
+    /**
+     * Returns the text from a start offset to an end offset, exclusive.  The text must have
+     * been kept.
+     */
+    public String getText(int start, int end) {
+        if (text == null) {
+            throw new IllegalStateException("The text of " + name + " was not kept");
+        }
+        return text.substring(start, end);
+    }
+
+    /**
+     * Returns a reader reading the text of this file from the given reader, and recording the
+     * lines of the file as it goes.
+     */
+    public Reader track(Reader reader) {
+        return new FilterReader(reader) {
+            private int offset = 0;
+            private boolean afterReturn = false;
+
+            @Override
+            public int read() throws IOException {
+                int c = super.read();
+                if (c >= 0) {
+                    see((char)c);
+                }
+                return c;
+            }
+
+            @Override
+            public int read(char[] buffer, int start, int length) throws IOException {
+                int count = super.read(buffer, start, length);
+                for (int i = 0; i < count; i++) {
+                    see(buffer[start + i]);
+                }
+                return count;
+            }
+
+            private void see(char c) {
+                offset++;
+                if (text != null) {
+                    text.append(c);
+                }
+                if (c == '\n' && afterReturn) {
+                    lineStarts[lineCount - 1] = offset;
+                } else if (c == '\n' || c == '\r') {
+                    addLine(offset);
+                }
+                afterReturn = c == '\r';
+            }
+        };
+    }
+
+    private void addLine(int start) {
+        if (lineCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+        }
+        lineStarts[lineCount++] = start;
+    }
+
+    /**
+     * Packs the position of the text from a start line and column to an end line and column,
+     * inclusive, all counted from 1, as the JavaCC token manager counts them with a tab size of
+     * 1.  The lines must already have been read.
+     */
+    public long position(int line, int column, int endLine, int endColumn) {
+        if (id == 0) {
+            return NO_POSITION;
+        }
+        long offset = offset(line, column);
+        long length = Math.min(offset(endLine, endColumn) + 1 - offset, MAX_LENGTH);
+        return (long)id << 48 | offset << 16 | Math.max(length, 0);
+    }
+
+    /**
+     * Returns the offset of the character at a line and column, counted as for position.  The
+     * line must already have been read.
+     */
+    public int offset(int line, int column) {
+        return lineStarts[line - 1] + column - 1;
+    }
+
+    public static int offset(long position) {
+        return (int)(position >>> 16);
+    }
+
+    public static int length(long position) {
+        return (int)(position & MAX_LENGTH);
+    }
+
+    /**
+     * Returns the line of a position, counted from 1.
+     */
+    public static int line(long position) {
+        SourceFile file = of(position);
+        return file == null ? 0 : file.lineAt(offset(position));
+    }
+
+    /**
+     * Returns the column of a position, counted from 1.
+     */
+    public static int column(long position) {
+        SourceFile file = of(position);
+        return file == null ? 0 : file.columnAt(offset(position));
+    }
+
+    /**
+     * Returns the line of the character at an offset, counted from 1.  The line must already
+     * have been read.
+     */
+    public int lineAt(int offset) {
+        int index = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * Returns the column of the character at an offset, counted from 1.
+     */
+    public int columnAt(int offset) {
+        return offset - lineStarts[lineAt(offset) - 1] + 1;
+    }
+
+    /**
+     * Returns the position in the form "name:line:column", or null for no position.
+     */
+    public static String describe(long position) {
+        SourceFile file = of(position);
+        if (file == null) {
+            return null;
+        }
+        return file.name + ":" + line(position) + ":" + column(position);
+    }
+}
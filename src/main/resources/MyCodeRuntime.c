@@ -0,0 +1,751 @@
+/*
+ * Run time support for MyCode programs translated to C, copied at the top of every translated
+ * program so that it compiles on its own: cc -std=c99 -O2 program.c -lm
+ *
+ * Ints and booleans are int32_t, chars are uint16_t, and reals are doubles.  Strings and arrays
+ * are pointers to blocks on the heap starting with their length, which their elements follow;
+ * strings are arrays of UTF-16 code units, like the strings of JavaScript, so that indexing
+ * and comparison agree with the other back ends.  Structs are pointers to C structs.  Nothing
+ * is ever freed: programs run once, and their memory goes back when they end.
+ *
+ * The translator defines the messages for errors, from the compiler's resource bundle, and the
+ * digit grouping separator used in them, before this file.
+ */
+
+#include <errno.h>
+#include <math.h>
+#include <stdarg.h>
+#include <stddef.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#ifdef __GNUC__
+#define MC_NORETURN __attribute__((noreturn))
+#else
+#define MC_NORETURN
+#endif
+
+/* The header of a string or array.  It takes 8 bytes, so that elements following it are aligned
+   for doubles and pointers. */
+typedef struct mc_array {
+    int32_t length;
+    int32_t unused;
+} mc_array;
+
+#define MC_ELEMENTS(a) ((void*)((a) + 1))
+
+static mc_array mc_empty = {0, 0};
+
+/* Descriptions of types, for printing and stringifying values. */
+enum {MC_INT, MC_CHAR, MC_BOOLEAN, MC_REAL, MC_STRING, MC_ARRAY, MC_STRUCT, MC_NULL};
+
+typedef struct mc_type {
+    int kind;
+    const struct mc_type* base;
+    int field_count;
+    const char* const* field_names;
+    const struct mc_type* const* field_types;
+    const size_t* field_offsets;
+} mc_type;
+
+static const mc_type mc_type_int = {MC_INT, NULL, 0, NULL, NULL, NULL};
+static const mc_type mc_type_char = {MC_CHAR, NULL, 0, NULL, NULL, NULL};
+static const mc_type mc_type_boolean = {MC_BOOLEAN, NULL, 0, NULL, NULL, NULL};
+static const mc_type mc_type_real = {MC_REAL, NULL, 0, NULL, NULL, NULL};
+static const mc_type mc_type_string = {MC_STRING, NULL, 0, NULL, NULL, NULL};
+static const mc_type mc_type_null = {MC_NULL, NULL, 0, NULL, NULL, NULL};
+
+/* Errors */
+
+/* Formats an int with the digits grouped by threes, as java.text.MessageFormat does. */
+static const char* mc_group(int32_t n, char* buffer) {
+    char digits[16];
+    int count = sprintf(digits, "%ld", (long)n);
+    int start = digits[0] == '-' ? 1 : 0;
+    char* p = buffer;
+    int i;
+    for (i = 0; i < count; i++) {
+        *p++ = digits[i];
+        if (i >= start && i < count - 1 && (count - 1 - i) % 3 == 0) {
+            *p++ = MC_GROUPING;
+        }
+    }
+    *p = '\0';
+    return buffer;
+}
+
+/* Writes the output so far, then the message, and ends the program. */
+static MC_NORETURN void mc_fail(const char* format, ...) {
+    va_list args;
+    fflush(stdout);
+    va_start(args, format);
+    vfprintf(stderr, format, args);
+    va_end(args);
+    fputc('\n', stderr);
+    exit(1);
+}
+
+static MC_NORETURN void mc_null(void) {
+    mc_fail(MC_NULL_DEREFERENCE);
+}
+
+static MC_NORETURN void mc_out_of_bounds(int32_t index, int32_t length) {
+    char i[24], n[24];
+    mc_fail(MC_INDEX_OUT_OF_BOUNDS, mc_group(index, i), mc_group(length, n));
+}
+
+static MC_NORETURN void mc_out_of_memory(void) {
+    mc_fail("Out of memory");
+}
+
+/* Memory */
+
+static void* mc_allocate(size_t size) {
+    void* p = calloc(1, size);
+    if (p == NULL) {
+        mc_out_of_memory();
+    }
+    return p;
+}
+
+static mc_array* mc_new_array(int32_t length, size_t size) {
+    mc_array* a;
+    if (length < 0) {
+        char n[24];
+        mc_fail(MC_NEGATIVE_ARRAY_SIZE, mc_group(length, n));
+    }
+    if ((size_t)length > (SIZE_MAX - sizeof(mc_array)) / size) {
+        mc_out_of_memory();
+    }
+    a = (mc_array*)mc_allocate(sizeof(mc_array) + (size_t)length * size);
+    a->length = length;
+    return a;
+}
+
+static mc_array* mc_new_strings(int32_t length) {
+    mc_array* a = mc_new_array(length, sizeof(void*));
+    void** elements = (void**)MC_ELEMENTS(a);
+    int32_t i;
+    for (i = 0; i < length; i++) {
+        elements[i] = &mc_empty;
+    }
+    return a;
+}
+
+static mc_array* mc_ints(int32_t length, ...) {
+    mc_array* a = mc_new_array(length, sizeof(int32_t));
+    int32_t* elements = (int32_t*)MC_ELEMENTS(a);
+    int32_t i;
+    va_list args;
+    va_start(args, length);
+    for (i = 0; i < length; i++) {
+        elements[i] = (int32_t)va_arg(args, int);
+    }
+    va_end(args);
+    return a;
+}
+
+static mc_array* mc_chars(int32_t length, ...) {
+    mc_array* a = mc_new_array(length, sizeof(uint16_t));
+    uint16_t* elements = (uint16_t*)MC_ELEMENTS(a);
+    int32_t i;
+    va_list args;
+    va_start(args, length);
+    for (i = 0; i < length; i++) {
+        elements[i] = (uint16_t)va_arg(args, int);
+    }
+    va_end(args);
+    return a;
+}
+
+static mc_array* mc_reals(int32_t length, ...) {
+    mc_array* a = mc_new_array(length, sizeof(double));
+    double* elements = (double*)MC_ELEMENTS(a);
+    int32_t i;
+    va_list args;
+    va_start(args, length);
+    for (i = 0; i < length; i++) {
+        elements[i] = va_arg(args, double);
+    }
+    va_end(args);
+    return a;
+}
+
+static mc_array* mc_refs(int32_t length, ...) {
+    mc_array* a = mc_new_array(length, sizeof(void*));
+    void** elements = (void**)MC_ELEMENTS(a);
+    int32_t i;
+    va_list args;
+    va_start(args, length);
+    for (i = 0; i < length; i++) {
+        elements[i] = va_arg(args, void*);
+    }
+    va_end(args);
+    return a;
+}
+
+/* Checks */
+
+static inline void* mc_check(void* p) {
+    if (p == NULL) {
+        mc_null();
+    }
+    return p;
+}
+
+static inline int32_t mc_length(const mc_array* a) {
+    if (a == NULL) {
+        mc_null();
+    }
+    return a->length;
+}
+
+static inline int32_t mc_index(const mc_array* a, int32_t i) {
+    if (a == NULL) {
+        mc_null();
+    }
+    if ((uint32_t)i >= (uint32_t)a->length) {
+        mc_out_of_bounds(i, a->length);
+    }
+    return i;
+}
+
+static inline int32_t* mc_at_int(mc_array* a, int32_t i) {
+    i = mc_index(a, i);
+    return (int32_t*)MC_ELEMENTS(a) + i;
+}
+
+static inline uint16_t* mc_at_char(mc_array* a, int32_t i) {
+    i = mc_index(a, i);
+    return (uint16_t*)MC_ELEMENTS(a) + i;
+}
+
+static inline double* mc_at_real(mc_array* a, int32_t i) {
+    i = mc_index(a, i);
+    return (double*)MC_ELEMENTS(a) + i;
+}
+
+static inline void** mc_at_ref(mc_array* a, int32_t i) {
+    i = mc_index(a, i);
+    return (void**)MC_ELEMENTS(a) + i;
+}
+
+/* Int arithmetic, which wraps around as in Java, where C leaves overflow undefined */
+
+static inline int32_t mc_add(int32_t x, int32_t y) {
+    return (int32_t)((uint32_t)x + (uint32_t)y);
+}
+
+static inline int32_t mc_sub(int32_t x, int32_t y) {
+    return (int32_t)((uint32_t)x - (uint32_t)y);
+}
+
+static inline int32_t mc_mul(int32_t x, int32_t y) {
+    return (int32_t)((uint32_t)x * (uint32_t)y);
+}
+
+static inline int32_t mc_neg(int32_t x) {
+    return (int32_t)(0u - (uint32_t)x);
+}
+
+static inline int32_t mc_div(int32_t x, int32_t y) {
+    if (y == 0) {
+        mc_fail(MC_DIVISION_BY_ZERO);
+    }
+    return y == -1 ? mc_neg(x) : x / y;
+}
+
+static inline int32_t mc_mod(int32_t x, int32_t y) {
+    if (y == 0) {
+        mc_fail(MC_DIVISION_BY_ZERO);
+    }
+    return y == -1 ? 0 : x % y;
+}
+
+static inline int32_t mc_shl(int32_t x, int32_t y) {
+    return (int32_t)((uint32_t)x << (y & 31));
+}
+
+static inline int32_t mc_shr(int32_t x, int32_t y) {
+    return x < 0 ? ~(int32_t)(~(uint32_t)x >> (y & 31)) : (int32_t)((uint32_t)x >> (y & 31));
+}
+
+/* Adds to an int variable, returning the new value. */
+static inline int32_t mc_increment(int32_t* p, int32_t d) {
+    return *p = mc_add(*p, d);
+}
+
+/* Adds to an int variable, returning the old value. */
+static inline int32_t mc_post_increment(int32_t* p, int32_t d) {
+    int32_t old = *p;
+    *p = mc_add(old, d);
+    return old;
+}
+
+/* Strings */
+
+static mc_array* mc_string(const uint16_t* chars, int32_t length) {
+    mc_array* s = mc_new_array(length, sizeof(uint16_t));
+    memcpy(MC_ELEMENTS(s), chars, (size_t)length * sizeof(uint16_t));
+    return s;
+}
+
+/* Compares by UTF-16 code units, as Java and JavaScript do. */
+static int32_t mc_compare(const mc_array* x, const mc_array* y) {
+    const uint16_t* a;
+    const uint16_t* b;
+    int32_t n, i;
+    if (x == NULL || y == NULL) {
+        mc_null();
+    }
+    a = (const uint16_t*)MC_ELEMENTS(x);
+    b = (const uint16_t*)MC_ELEMENTS(y);
+    n = x->length < y->length ? x->length : y->length;
+    for (i = 0; i < n; i++) {
+        if (a[i] != b[i]) {
+            return (int32_t)a[i] - (int32_t)b[i];
+        }
+    }
+    return x->length - y->length;
+}
+
+/* Compares strings by value, and anything else compared to a string by identity. */
+static int32_t mc_same(const mc_array* x, const mc_array* y) {
+    if (x == y) {
+        return 1;
+    } else if (x == NULL || y == NULL || x->length != y->length) {
+        return 0;
+    }
+    return memcmp(MC_ELEMENTS(x), MC_ELEMENTS(y), (size_t)x->length * sizeof(uint16_t)) == 0;
+}
+
+/* Mirrors JavaScript's substring, which clamps and orders its arguments. */
+static mc_array* mc_substring(mc_array* s, int32_t start, int32_t end) {
+    int32_t length = mc_length(s);
+    start = start < 0 ? 0 : start > length ? length : start;
+    end = end < 0 ? 0 : end > length ? length : end;
+    if (start > end) {
+        int32_t t = start;
+        start = end;
+        end = t;
+    }
+    return mc_string((const uint16_t*)MC_ELEMENTS(s) + start, end - start);
+}
+
+/* Growing buffers of UTF-16 code units, for building strings */
+
+typedef struct mc_builder {
+    uint16_t* chars;
+    int32_t length;
+    int32_t capacity;
+} mc_builder;
+
+static void mc_append(mc_builder* b, uint16_t c) {
+    if (b->length == b->capacity) {
+        b->capacity = b->capacity == 0 ? 64 : b->capacity * 2;
+        b->chars = (uint16_t*)realloc(b->chars, (size_t)b->capacity * sizeof(uint16_t));
+        if (b->chars == NULL) {
+            mc_out_of_memory();
+        }
+    }
+    b->chars[b->length++] = c;
+}
+
+/* Appends UTF-8 text, replacing malformed sequences with U+FFFD as Java's decoder does. */
+static void mc_append_utf8(mc_builder* b, const char* text, size_t n) {
+    const unsigned char* s = (const unsigned char*)text;
+    size_t i = 0;
+    while (i < n) {
+        unsigned long c = s[i];
+        int extra = c < 0x80 ? 0 : c >= 0xC2 && c < 0xE0 ? 1 : c >= 0xE0 && c < 0xF0 ? 2
+            : c >= 0xF0 && c < 0xF5 ? 3 : -1;
+        int k;
+        if (extra < 0) {
+            mc_append(b, 0xFFFD);
+            i++;
+            continue;
+        }
+        c &= extra == 0 ? 0x7F : 0x3F >> extra;
+        for (k = 1; k <= extra; k++) {
+            if (i + k >= n || (s[i + k] & 0xC0) != 0x80) {
+                break;
+            }
+            c = c << 6 | (s[i + k] & 0x3F);
+        }
+        if (k <= extra || (extra == 2 && (c < 0x800 || (c >= 0xD800 && c < 0xE000)))
+                || (extra == 3 && (c < 0x10000 || c > 0x10FFFF))) {
+            mc_append(b, 0xFFFD);
+            i += k > 1 ? k : 1;
+            continue;
+        }
+        if (c >= 0x10000) {
+            mc_append(b, (uint16_t)(0xD800 + ((c - 0x10000) >> 10)));
+            mc_append(b, (uint16_t)(0xDC00 + ((c - 0x10000) & 0x3FF)));
+        } else {
+            mc_append(b, (uint16_t)c);
+        }
+        i += (size_t)extra + 1;
+    }
+}
+
+static void mc_append_text(mc_builder* b, const char* text) {
+    mc_append_utf8(b, text, strlen(text));
+}
+
+static void mc_append_string(mc_builder* b, const mc_array* s) {
+    const uint16_t* chars = (const uint16_t*)MC_ELEMENTS(s);
+    int32_t i;
+    for (i = 0; i < s->length; i++) {
+        mc_append(b, chars[i]);
+    }
+}
+
+static mc_array* mc_build(mc_builder* b) {
+    mc_array* s = mc_string(b->chars, b->length);
+    free(b->chars);
+    return s;
+}
+
+/* Writes UTF-16 code units as UTF-8, with '?' for unpaired surrogates as Java's encoder. */
+static void mc_write(const uint16_t* chars, int32_t n) {
+    int32_t i;
+    for (i = 0; i < n; i++) {
+        unsigned long c = chars[i];
+        if (c >= 0xD800 && c < 0xDC00 && i + 1 < n && chars[i + 1] >= 0xDC00 && chars[i + 1] < 0xE000) {
+            c = 0x10000 + ((c - 0xD800) << 10) + (chars[++i] - 0xDC00);
+        } else if (c >= 0xD800 && c < 0xE000) {
+            c = '?';
+        }
+        if (c < 0x80) {
+            putchar((int)c);
+        } else if (c < 0x800) {
+            putchar((int)(0xC0 | c >> 6));
+            putchar((int)(0x80 | (c & 0x3F)));
+        } else if (c < 0x10000) {
+            putchar((int)(0xE0 | c >> 12));
+            putchar((int)(0x80 | (c >> 6 & 0x3F)));
+            putchar((int)(0x80 | (c & 0x3F)));
+        } else {
+            putchar((int)(0xF0 | c >> 18));
+            putchar((int)(0x80 | (c >> 12 & 0x3F)));
+            putchar((int)(0x80 | (c >> 6 & 0x3F)));
+            putchar((int)(0x80 | (c & 0x3F)));
+        }
+    }
+}
+
+/* Conversions to text, matching what the JavaScript back end produces */
+
+/* Formats a real as JavaScript's Number.prototype.toString does: the shortest digits that read
+   back as the same double, without exponent unless the magnitude is very large or small. */
+static const char* mc_format_real(double d, char* buffer) {
+    char e[32], digits[24];
+    int precision, k = 0, n, i;
+    char* p = buffer;
+    if (d != d) {
+        return "NaN";
+    } else if (d == 0) {
+        return "0";
+    } else if (isinf(d)) {
+        return d > 0 ? "Infinity" : "-Infinity";
+    } else if (d < 0) {
+        *p++ = '-';
+        d = -d;
+    }
+    for (precision = 1; precision < 17; precision++) {
+        sprintf(e, "%.*e", precision - 1, d);
+        if (strtod(e, NULL) == d) {
+            break;
+        }
+    }
+    sprintf(e, "%.*e", precision - 1, d);
+
+    /* The value is digits * 10^(n - k), where k is the number of digits. */
+    for (i = 0; e[i] != 'e'; i++) {
+        if (e[i] != '.') {
+            digits[k++] = e[i];
+        }
+    }
+    n = atoi(e + i + 1) + 1;
+    while (k > 1 && digits[k - 1] == '0') {
+        k--;
+    }
+    digits[k] = '\0';
+
+    if (k <= n && n <= 21) {
+        p += sprintf(p, "%s", digits);
+        for (i = k; i < n; i++) {
+            *p++ = '0';
+        }
+    } else if (0 < n && n <= 21) {
+        p += sprintf(p, "%.*s.%s", n, digits, digits + n);
+    } else if (-6 < n && n <= 0) {
+        p += sprintf(p, "0.");
+        for (i = n; i < 0; i++) {
+            *p++ = '0';
+        }
+        p += sprintf(p, "%s", digits);
+    } else {
+        p += sprintf(p, "%c%s%.*s", digits[0], k == 1 ? "" : ".", k - 1, digits + 1);
+        p += sprintf(p, "e%c%d", n - 1 >= 0 ? '+' : '-', n - 1 >= 0 ? n - 1 : 1 - n);
+    }
+    *p = '\0';
+    return buffer;
+}
+
+static void mc_append_number(mc_builder* b, long n) {
+    char buffer[24];
+    sprintf(buffer, "%ld", n);
+    mc_append_text(b, buffer);
+}
+
+static void mc_append_real(mc_builder* b, double d) {
+    char buffer[40];
+    mc_append_text(b, mc_format_real(d, buffer));
+}
+
+static void mc_append_json_real(mc_builder* b, double d) {
+    if (d != d || isinf(d)) {
+        mc_append_text(b, "null");
+    } else {
+        mc_append_real(b, d);
+    }
+}
+
+/* Returns the address of the i-th element of an array, or field of a struct. */
+static const void* mc_element(const void* value, const mc_type* type, int i) {
+    int kind = type->kind == MC_ARRAY ? type->base->kind : type->field_types[i]->kind;
+    const char* p = (const char*)value;
+    if (type->kind == MC_STRUCT) {
+        return p + type->field_offsets[i];
+    }
+    p = (const char*)MC_ELEMENTS((const mc_array*)value);
+    switch (kind) {
+    case MC_INT:
+    case MC_BOOLEAN:
+        return p + i * sizeof(int32_t);
+    case MC_CHAR:
+        return p + i * sizeof(uint16_t);
+    case MC_REAL:
+        return p + i * sizeof(double);
+    default:
+        return p + i * sizeof(void*);
+    }
+}
+
+/* Appends a value stored at the given address, roughly as Node's util.inspect shows it. */
+static void mc_inspect(mc_builder* b, const void* p, const mc_type* type) {
+    const void* value;
+    int32_t count, i;
+    switch (type->kind) {
+    case MC_INT:
+        mc_append_number(b, *(const int32_t*)p);
+        return;
+    case MC_BOOLEAN:
+        mc_append_text(b, *(const int32_t*)p ? "true" : "false");
+        return;
+    case MC_CHAR:
+        mc_append(b, '\'');
+        mc_append(b, *(const uint16_t*)p);
+        mc_append(b, '\'');
+        return;
+    case MC_REAL:
+        mc_append_real(b, *(const double*)p);
+        return;
+    }
+    value = *(const void* const*)p;
+    if (value == NULL) {
+        mc_append_text(b, "null");
+    } else if (type->kind == MC_STRING) {
+        const mc_array* s = (const mc_array*)value;
+        const uint16_t* chars = (const uint16_t*)MC_ELEMENTS(s);
+        mc_append(b, '\'');
+        for (i = 0; i < s->length; i++) {
+            if (chars[i] == '\\' || chars[i] == '\'') {
+                mc_append(b, '\\');
+            }
+            mc_append(b, chars[i]);
+        }
+        mc_append(b, '\'');
+    } else {
+        int array = type->kind == MC_ARRAY;
+        count = array ? ((const mc_array*)value)->length : type->field_count;
+        if (count == 0) {
+            mc_append_text(b, array ? "[]" : "{}");
+            return;
+        }
+        mc_append_text(b, array ? "[ " : "{ ");
+        for (i = 0; i < count; i++) {
+            if (i > 0) {
+                mc_append_text(b, ", ");
+            }
+            if (!array) {
+                mc_append_text(b, type->field_names[i]);
+                mc_append_text(b, ": ");
+            }
+            mc_inspect(b, mc_element(value, type, i), array ? type->base : type->field_types[i]);
+        }
+        mc_append_text(b, array ? " ]" : " }");
+    }
+}
+
+/* Appends a string in double quotes, with the escapes JSON.stringify uses. */
+static void mc_quote(mc_builder* b, const uint16_t* chars, int32_t n) {
+    int32_t i;
+    mc_append(b, '"');
+    for (i = 0; i < n; i++) {
+        uint16_t c = chars[i];
+        if (c == '"' || c == '\\') {
+            mc_append(b, '\\');
+            mc_append(b, c);
+        } else if (c == '\n') {
+            mc_append_text(b, "\\n");
+        } else if (c == '\t') {
+            mc_append_text(b, "\\t");
+        } else if (c == '\r') {
+            mc_append_text(b, "\\r");
+        } else if (c < 0x20) {
+            char escape[8];
+            sprintf(escape, "\\u%04x", c);
+            mc_append_text(b, escape);
+        } else {
+            mc_append(b, c);
+        }
+    }
+    mc_append(b, '"');
+}
+
+/* Appends a value stored at the given address as JSON.stringify writes it. */
+static void mc_json(mc_builder* b, const void* p, const mc_type* type) {
+    const void* value;
+    int32_t count, i;
+    switch (type->kind) {
+    case MC_INT:
+        mc_append_number(b, *(const int32_t*)p);
+        return;
+    case MC_BOOLEAN:
+        mc_append_text(b, *(const int32_t*)p ? "true" : "false");
+        return;
+    case MC_CHAR:
+        mc_append_number(b, *(const uint16_t*)p);
+        return;
+    case MC_REAL:
+        mc_append_json_real(b, *(const double*)p);
+        return;
+    }
+    value = *(const void* const*)p;
+    if (value == NULL) {
+        mc_append_text(b, "null");
+    } else if (type->kind == MC_STRING) {
+        const mc_array* s = (const mc_array*)value;
+        mc_quote(b, (const uint16_t*)MC_ELEMENTS(s), s->length);
+    } else {
+        int array = type->kind == MC_ARRAY;
+        count = array ? ((const mc_array*)value)->length : type->field_count;
+        mc_append(b, array ? '[' : '{');
+        for (i = 0; i < count; i++) {
+            if (i > 0) {
+                mc_append(b, ',');
+            }
+            if (!array) {
+                mc_builder name = {NULL, 0, 0};
+                mc_append_text(&name, type->field_names[i]);
+                mc_quote(b, name.chars, name.length);
+                free(name.chars);
+                mc_append(b, ':');
+            }
+            mc_json(b, mc_element(value, type, i), array ? type->base : type->field_types[i]);
+        }
+        mc_append(b, array ? ']' : '}');
+    }
+}
+
+static mc_array* mc_json_int(int32_t value) {
+    mc_builder b = {NULL, 0, 0};
+    mc_json(&b, &value, &mc_type_int);
+    return mc_build(&b);
+}
+
+static mc_array* mc_json_char(uint16_t value) {
+    mc_builder b = {NULL, 0, 0};
+    mc_json(&b, &value, &mc_type_char);
+    return mc_build(&b);
+}
+
+static mc_array* mc_json_boolean(int32_t value) {
+    mc_builder b = {NULL, 0, 0};
+    mc_json(&b, &value, &mc_type_boolean);
+    return mc_build(&b);
+}
+
+static mc_array* mc_json_real(double value) {
+    mc_builder b = {NULL, 0, 0};
+    mc_json(&b, &value, &mc_type_real);
+    return mc_build(&b);
+}
+
+static mc_array* mc_json_ref(const void* value, const mc_type* type) {
+    mc_builder b = {NULL, 0, 0};
+    mc_json(&b, &value, type);
+    return mc_build(&b);
+}
+
+/* Output and input */
+
+static void mc_print_int(int32_t value) {
+    printf("%ld\n", (long)value);
+}
+
+static void mc_print_char(uint16_t value) {
+    mc_write(&value, 1);
+    putchar('\n');
+}
+
+static void mc_print_boolean(int32_t value) {
+    puts(value ? "true" : "false");
+}
+
+static void mc_print_real(double value) {
+    char buffer[40];
+    puts(mc_format_real(value, buffer));
+}
+
+/* Prints a string as is, and an array, struct or null as the interpreter inspects it. */
+static void mc_print_ref(const void* value, const mc_type* type) {
+    if (value != NULL && type->kind == MC_STRING) {
+        const mc_array* s = (const mc_array*)value;
+        mc_write((const uint16_t*)MC_ELEMENTS(s), s->length);
+    } else {
+        mc_builder b = {NULL, 0, 0};
+        mc_inspect(&b, &value, type);
+        mc_write(b.chars, b.length);
+        free(b.chars);
+    }
+    putchar('\n');
+}
+
+/* Reads all of the standard input, decoding it as UTF-8. */
+static mc_array* mc_get_string(void) {
+    mc_builder b = {NULL, 0, 0};
+    char* bytes = NULL;
+    size_t length = 0, capacity = 0, n;
+    do {
+        if (length == capacity) {
+            capacity = capacity == 0 ? 4096 : capacity * 2;
+            bytes = (char*)realloc(bytes, capacity);
+            if (bytes == NULL) {
+                mc_out_of_memory();
+            }
+        }
+        n = fread(bytes + length, 1, capacity - length, stdin);
+        length += n;
+    } while (n > 0);
+    if (ferror(stdin)) {
+        mc_fail(MC_INPUT_ERROR, strerror(errno));
+    }
+    mc_append_utf8(&b, bytes, length);
+    free(bytes);
+    return mc_build(&b);
+}